@@ -0,0 +1,91 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Time a calling thread spends recording an event while 8 threads record events
+ * and a timer thread keeps taking the SDK lock, like 'onTimer' does while it writes the queues.
+ *
+ * 'recordLocked' takes the SDK lock for every call, 'recordIntake' adds the call to the API intake queue.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(8)
+public class ApiContentionBenchmark {
+    // how long and how often the timer thread holds the lock
+    static final long TIMER_HOLD_NS = 2_000_000L;
+    static final long TIMER_PERIOD_MS = 10;
+
+    final Object sdkLock = new Object();
+    ApiIntakeQueue intakeQueue;
+    Event event;
+    long recordedEvents = 0;//protected by 'sdkLock'
+
+    Thread timerThread;
+    volatile boolean timerRunning;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        event = BenchmarkData.event();
+        intakeQueue = new ApiIntakeQueue(sdkLock, new ModuleLog());
+
+        timerRunning = true;
+        timerThread = new Thread(new Runnable() {
+            @Override public void run() {
+                while (timerRunning) {
+                    synchronized (sdkLock) {
+                        long holdUntil = System.nanoTime() + TIMER_HOLD_NS;
+                        while (System.nanoTime() < holdUntil) {
+                            // busy wait, like a thread that is doing work
+                        }
+                    }
+                    try {
+                        Thread.sleep(TIMER_PERIOD_MS);
+                    } catch (InterruptedException ignored) {
+                        return;
+                    }
+                }
+            }
+        }, "benchmark-timer");
+        timerThread.setDaemon(true);
+        timerThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        timerRunning = false;
+        timerThread.join();
+        intakeQueue.drain();
+        intakeQueue.halt();
+    }
+
+    void recordEvent() {
+        // the work that is done for an event while holding the lock
+        event.toJSON().toString();
+        recordedEvents++;
+    }
+
+    @Benchmark
+    public void recordLocked() {
+        synchronized (sdkLock) {
+            recordEvent();
+        }
+    }
+
+    @Benchmark
+    public void recordIntake() {
+        intakeQueue.add(new Runnable() {
+            @Override public void run() {
+                recordEvent();
+            }
+        });
+    }
+}
@@ -0,0 +1,168 @@
+package ly.count.android.sdk;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Context for the JVM benchmarks.
+ * Shared preferences are kept in memory and files are written into a temporary directory.
+ */
+class BenchmarkContext extends ContextWrapper {
+    private final Map<String, InMemoryPreferences> preferences = new HashMap<>();
+    private final File filesDir;
+
+    BenchmarkContext() {
+        super(null);
+        filesDir = new File(System.getProperty("java.io.tmpdir"), "countly_benchmark_" + System.nanoTime());
+        filesDir.mkdirs();
+    }
+
+    @Override public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        InMemoryPreferences prefs = preferences.get(name);
+        if (prefs == null) {
+            prefs = new InMemoryPreferences();
+            preferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    @Override public File getFilesDir() {
+        return filesDir;
+    }
+
+    @Override public File getCacheDir() {
+        return filesDir;
+    }
+
+    @Override public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override public String getPackageName() {
+        return "ly.count.android.benchmark";
+    }
+
+    static class InMemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override public synchronized String getString(String key, String defValue) {
+            Object value = values.get(key);
+            return value == null ? defValue : (String) value;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+            Object value = values.get(key);
+            return value == null ? defValues : (Set<String>) value;
+        }
+
+        @Override public synchronized int getInt(String key, int defValue) {
+            Object value = values.get(key);
+            return value == null ? defValue : (Integer) value;
+        }
+
+        @Override public synchronized long getLong(String key, long defValue) {
+            Object value = values.get(key);
+            return value == null ? defValue : (Long) value;
+        }
+
+        @Override public synchronized float getFloat(String key, float defValue) {
+            Object value = values.get(key);
+            return value == null ? defValue : (Float) value;
+        }
+
+        @Override public synchronized boolean getBoolean(String key, boolean defValue) {
+            Object value = values.get(key);
+            return value == null ? defValue : (Boolean) value;
+        }
+
+        @Override public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override public Editor edit() {
+            return new InMemoryEditor();
+        }
+
+        @Override public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        class InMemoryEditor implements Editor {
+            private final Map<String, Object> changes = new HashMap<>();
+            private boolean clear = false;
+
+            @Override public Editor putString(String key, String value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override public Editor putStringSet(String key, Set<String> values) {
+                changes.put(key, values);
+                return this;
+            }
+
+            @Override public Editor putInt(String key, int value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override public Editor putLong(String key, long value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override public Editor putFloat(String key, float value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override public Editor putBoolean(String key, boolean value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override public Editor remove(String key) {
+                // the editor itself marks a removed key
+                changes.put(key, this);
+                return this;
+            }
+
+            @Override public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override public boolean commit() {
+                synchronized (InMemoryPreferences.this) {
+                    if (clear) {
+                        values.clear();
+                    }
+                    for (Map.Entry<String, Object> change : changes.entrySet()) {
+                        if (change.getValue() == this || change.getValue() == null) {
+                            values.remove(change.getKey());
+                        } else {
+                            values.put(change.getKey(), change.getValue());
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override public void apply() {
+                commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ly.count.android.sdk;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test data shared by the benchmarks, shaped like what the SDK stores and sends
+ */
+class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    static String request(int index) {
+        return "app_key=5e20a5ab2a0e20b4b0e0d07f36c5d4f1ba6bd3cf&device_id=benchmark_device_" + index
+            + "&timestamp=" + (1_700_000_000_000L + index) + "&hour=10&dow=3&tz=120&sdk_version=24.7.8&sdk_name=java-native-android"
+            + "&events=%5B%7B%22key%22%3A%22purchase%22%2C%22count%22%3A1%2C%22sum%22%3A9.99%2C%22segmentation%22%3A%7B%22item%22%3A%22sword%22%7D%7D%5D";
+    }
+
+    static Map<String, Object> segmentation() {
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("string", "some value");
+        segmentation.put("long_key_that_is_over_the_key_length_limit_and_needs_to_be_truncated_before_being_recorded", "value");
+        segmentation.put("long_value", "value that is longer than the value size limit and needs to be truncated before being recorded");
+        segmentation.put("int", 42);
+        segmentation.put("double", 42.5d);
+        segmentation.put("bool", true);
+        segmentation.put("unsupported", new Object());
+        for (int a = 0; a < 20; a++) {
+            segmentation.put("key_" + a, "value_" + a);
+        }
+        return segmentation;
+    }
+
+    static Event event() {
+        Event event = new Event();
+        event.key = "purchase";
+        event.count = 3;
+        event.sum = 9.99;
+        event.dur = 1.5;
+        event.timestamp = 1_700_000_000_000L;
+        event.hour = 10;
+        event.dow = 3;
+        event.id = "a1b2c3d4e5f6a1b2c3d4e5f6a1b2c3d4e5f6a1b2c3d4e5f6a1b2c3d4e5f6a1b2";
+        event.pvid = "previous_view_id";
+        event.cvid = "current_view_id";
+        event.peid = "previous_event_id";
+        event.segmentation = new HashMap<>();
+        event.segmentation.put("item", "sword");
+        event.segmentation.put("level", 12);
+        event.segmentation.put("premium", true);
+        event.segmentation.put("price", 9.99);
+        return event;
+    }
+}
@@ -0,0 +1,119 @@
+package ly.count.android.sdk;
+
+import android.content.Context;
+import android.util.DisplayMetrics;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Returns fixed metrics so that no Android system services are needed
+ */
+class BenchmarkMetricProvider implements MetricProvider {
+    @Override public String getOS() {
+        return "Android";
+    }
+
+    @Override public String getOSVersion() {
+        return "14";
+    }
+
+    @Override public String getDevice() {
+        return "Benchmark";
+    }
+
+    @Override public String getManufacturer() {
+        return "Countly";
+    }
+
+    @Override public String getResolution(Context context) {
+        return "1080x2400";
+    }
+
+    @Override public String getDensity(Context context) {
+        return "XXHDPI";
+    }
+
+    @Override public String getCarrier(Context context) {
+        return "carrier";
+    }
+
+    @Override public int getTimezoneOffset() {
+        return 120;
+    }
+
+    @Override public String getLocale() {
+        return "en_US";
+    }
+
+    @Override public @NonNull String getAppVersion(Context context) {
+        return "1.0";
+    }
+
+    @Override public String getStore(Context context) {
+        return "com.android.vending";
+    }
+
+    @Override public String getDeviceType(Context context) {
+        return "mobile";
+    }
+
+    @Override public long getTotalRAM() {
+        return 8192;
+    }
+
+    @Override public String getRamCurrent(Context context) {
+        return "4096";
+    }
+
+    @Override public String getRamTotal() {
+        return "8192";
+    }
+
+    @Override public String getCpu() {
+        return "arm64-v8a";
+    }
+
+    @Override public String getOpenGL(Context context) {
+        return "3";
+    }
+
+    @Override public String getDiskCurrent() {
+        return "1000";
+    }
+
+    @Override public String getDiskTotal() {
+        return "64000";
+    }
+
+    @Override public @Nullable String getBatteryLevel(Context context) {
+        return "80";
+    }
+
+    @Override public @Nullable String getOrientation(Context context) {
+        return "portrait";
+    }
+
+    @Override public String isRooted() {
+        return "false";
+    }
+
+    @Override public @Nullable String isOnline(Context context) {
+        return "true";
+    }
+
+    @Override public String isMuted(Context context) {
+        return "false";
+    }
+
+    @Override public String hasHinge(Context context) {
+        return "false";
+    }
+
+    @Override public String getRunningTime() {
+        return "100";
+    }
+
+    @Override public DisplayMetrics getDisplayMetrics(Context context) {
+        return new DisplayMetrics();
+    }
+}
@@ -0,0 +1,44 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for creating the parameters that are added to every request
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConnectionQueueBenchmark {
+    ConnectionQueue connectionQueue;
+
+    @Setup
+    public void setUp() {
+        connectionQueue = new ConnectionQueue();
+        connectionQueue.L = new ModuleLog();
+        connectionQueue.setContext(new BenchmarkContext());
+        connectionQueue.deviceInfo = new DeviceInfo(new BenchmarkMetricProvider());
+        connectionQueue.setBaseInfoProvider(new BaseInfoProvider() {
+            @Override public String getAppKey() {
+                return "5e20a5ab2a0e20b4b0e0d07f36c5d4f1ba6bd3cf";
+            }
+
+            @Override public String getServerURL() {
+                return "https://try.count.ly";
+            }
+        });
+    }
+
+    @Benchmark
+    public String prepareCommonRequestData() {
+        return connectionQueue.prepareCommonRequestData("benchmark_device_id");
+    }
+
+    @Benchmark
+    public String prepareCommonRequestDataShort() {
+        return connectionQueue.prepareCommonRequestDataShort(UtilsTime.getCurrentInstant(), "benchmark_device_id");
+    }
+}
@@ -0,0 +1,68 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks for adding and removing requests with different request queue sizes.
+ * Every benchmark adds and removes one request so that the queue size stays the same between calls.
+ * Storage is kept in memory, so the results show the work done by the store itself.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CountlyStoreBenchmark {
+    @Param({ "10", "100", "1000", "10000" })
+    int queueSize;
+
+    @Param({ "false", "true" })
+    boolean journal;
+
+    CountlyStore store;
+    int nextRequest;
+
+    @Setup
+    public void setUp() {
+        ModuleLog L = new ModuleLog();
+        BenchmarkContext context = new BenchmarkContext();
+        store = journal ? new JournaledCountlyStore(context, L) : new CountlyStore(context, L);
+        store.clear();
+        store.setLimits(queueSize + 1);
+
+        for (int a = 0; a < queueSize; a++) {
+            store.addRequest(BenchmarkData.request(a), false);
+        }
+        nextRequest = queueSize;
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.clear();
+    }
+
+    /**
+     * Adds a new request to the end of the queue and removes it again
+     */
+    @Benchmark
+    public void addRequest_removeLast() {
+        String request = BenchmarkData.request(nextRequest++);
+        store.addRequest(request, false);
+        store.removeRequest(request);
+    }
+
+    /**
+     * Removes the oldest request and adds it back to the end, the same thing the upload loop does to the head of the queue.
+     * The request is read with peekFirstRequest like the upload loop does, so the queue isn't copied
+     */
+    @Benchmark
+    public void removeFirst_addRequest() {
+        String request = store.peekFirstRequest();
+        store.removeRequest(request);
+        store.addRequest(request, false);
+    }
+}
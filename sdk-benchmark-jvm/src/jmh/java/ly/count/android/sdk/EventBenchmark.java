@@ -0,0 +1,78 @@
+package ly.count.android.sdk;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for serializing events into the event queue and reading them back.
+ * The JSON methods are the preference queue format, the record methods the binary event queue journal format.
+ * The batch methods create the URL encoded event data of a request with 100 events.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventBenchmark {
+    Event event;
+    String eventJSONString;
+    byte[] eventRecord;
+    List<Event> batch;
+
+    @Setup
+    public void setUp() {
+        event = BenchmarkData.event();
+        eventJSONString = event.toJSON().toString();
+        eventRecord = EventRecordCodec.encode(event);
+
+        batch = new ArrayList<>();
+        for (int a = 0; a < 100; a++) {
+            batch.add(BenchmarkData.event());
+        }
+    }
+
+    @Benchmark
+    public JSONObject toJSON() {
+        return event.toJSON();
+    }
+
+    @Benchmark
+    public String toJSONString() {
+        return event.toJSON().toString();
+    }
+
+    @Benchmark
+    public Event fromJSON() throws Exception {
+        return Event.fromJSON(new JSONObject(eventJSONString));
+    }
+
+    @Benchmark
+    public byte[] encodeRecord() {
+        return EventRecordCodec.encode(event);
+    }
+
+    @Benchmark
+    public Event decodeRecord() {
+        return EventRecordCodec.decode(eventRecord);
+    }
+
+    @Benchmark
+    public String batchJSONArray() throws Exception {
+        JSONArray eventArray = new JSONArray();
+        for (Event e : batch) {
+            eventArray.put(e.toJSON());
+        }
+        return URLEncoder.encode(eventArray.toString(), "UTF-8");
+    }
+
+    @Benchmark
+    public String batchWriter() {
+        return EventBatchWriter.writeEvents(batch);
+    }
+}
@@ -0,0 +1,45 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for the frame metrics collector.
+ * "recordFrame" runs for every rendered frame of a resumed activity, "metricString" once when the activity is stopped.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameMetricsBenchmark {
+    FrameMetricsCollector.FrameStats stats;
+    // mostly smooth frames with some slow and frozen ones
+    long[] frameDurationsNs;
+    int frame;
+
+    @Setup
+    public void setUp() {
+        stats = new FrameMetricsCollector.FrameStats();
+        frameDurationsNs = new long[1024];
+        for (int a = 0; a < frameDurationsNs.length; a++) {
+            long ms = a % 100 == 0 ? 800 : a % 10 == 0 ? 40 : 6 + a % 10;
+            frameDurationsNs[a] = ms * 1_000_000L;
+        }
+
+        for (long duration : frameDurationsNs) {
+            stats.recordFrame(duration);
+        }
+    }
+
+    @Benchmark
+    public void recordFrame() {
+        stats.recordFrame(frameDurationsNs[frame++ & 1023]);
+    }
+
+    @Benchmark
+    public String metricString() {
+        return stats.toMetricString();
+    }
+}
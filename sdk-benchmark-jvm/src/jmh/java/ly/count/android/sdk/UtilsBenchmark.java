@@ -0,0 +1,48 @@
+package ly.count.android.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for joining the stored queues
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UtilsBenchmark {
+    @Param({ "10", "100", "1000", "10000" })
+    int entryCount;
+
+    List<String> entryList;
+    String[] entryArray;
+
+    @Setup
+    public void setUp() {
+        entryList = new ArrayList<>(entryCount);
+        for (int a = 0; a < entryCount; a++) {
+            entryList.add(BenchmarkData.request(a));
+        }
+        entryArray = entryList.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public String joinCountlyStore() {
+        return Utils.joinCountlyStore(entryList, CountlyStore.DELIMITER);
+    }
+
+    @Benchmark
+    public String joinCountlyStore_reworked() {
+        return Utils.joinCountlyStore_reworked(entryList, CountlyStore.DELIMITER);
+    }
+
+    @Benchmark
+    public String joinCountlyStoreArray_reworked() {
+        return Utils.joinCountlyStoreArray_reworked(entryArray, CountlyStore.DELIMITER);
+    }
+}
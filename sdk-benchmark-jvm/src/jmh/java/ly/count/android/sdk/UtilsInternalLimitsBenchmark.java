@@ -0,0 +1,42 @@
+package ly.count.android.sdk;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for applying the internal limits to event segmentation.
+ * Applying the limits changes the map, so every call works on a fresh copy.
+ * "copySegmentation" measures only the copy and can be subtracted from the other result.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UtilsInternalLimitsBenchmark {
+    Map<String, Object> segmentation;
+    ConfigSdkInternalLimits limits;
+    ModuleLog L;
+
+    @Setup
+    public void setUp() {
+        segmentation = BenchmarkData.segmentation();
+        limits = new ConfigSdkInternalLimits().setMaxKeyLength(64).setMaxValueSize(64).setMaxSegmentationValues(20);
+        L = new ModuleLog();
+    }
+
+    @Benchmark
+    public Map<String, Object> copySegmentation() {
+        return new HashMap<>(segmentation);
+    }
+
+    @Benchmark
+    public Map<String, Object> applySdkInternalLimitsToSegmentation() {
+        Map<String, Object> copy = new HashMap<>(segmentation);
+        UtilsInternalLimits.applySdkInternalLimitsToSegmentation(copy, limits, L, "[Benchmark]");
+        return copy;
+    }
+}
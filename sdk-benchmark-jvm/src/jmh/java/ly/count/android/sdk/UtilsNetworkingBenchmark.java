@@ -0,0 +1,32 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for hashing and encoding request data
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UtilsNetworkingBenchmark {
+    String requestData;
+
+    @Setup
+    public void setUp() {
+        requestData = BenchmarkData.request(0);
+    }
+
+    @Benchmark
+    public String sha256Hash() {
+        return UtilsNetworking.sha256Hash(requestData + "salt");
+    }
+
+    @Benchmark
+    public String urlEncodeString() {
+        return UtilsNetworking.urlEncodeString(requestData);
+    }
+}
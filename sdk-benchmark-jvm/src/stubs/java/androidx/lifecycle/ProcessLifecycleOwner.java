@@ -0,0 +1,14 @@
+package androidx.lifecycle;
+
+/**
+ * Stand-in for the class from the "lifecycle-process" AAR which can't be used on a plain JVM
+ */
+public class ProcessLifecycleOwner {
+    public static ProcessLifecycleOwner get() {
+        throw new UnsupportedOperationException("Not available in JVM benchmarks");
+    }
+
+    public Lifecycle getLifecycle() {
+        throw new UnsupportedOperationException("Not available in JVM benchmarks");
+    }
+}
@@ -0,0 +1,14 @@
+package ly.count.android.sdk;
+
+/**
+ * Stand-in for the generated resource class, the benchmarks don't use any resources
+ */
+public final class R {
+    public static final class layout {
+        public static final int star_rating_layout = 0;
+    }
+
+    public static final class id {
+        public static final int ratingBar = 0;
+    }
+}
@@ -0,0 +1,121 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(AndroidJUnit4.class)
+public class AdaptiveFlushSchedulerTests {
+
+    /**
+     * Events are kept until the count, age or size threshold is reached
+     */
+    @Test
+    public void shouldFlushEvents() {
+        AdaptiveFlushScheduler scheduler = new AdaptiveFlushScheduler(30_000, 100);
+
+        Assert.assertFalse(scheduler.shouldFlushEvents(0, 0, 10, 0));
+        Assert.assertFalse(scheduler.needsEventBytes(0));
+        Assert.assertTrue(scheduler.needsEventBytes(1));
+
+        // the age is counted from the tick the events were first seen
+        Assert.assertFalse(scheduler.shouldFlushEvents(1, 20, 10, 1000));
+        Assert.assertFalse(scheduler.shouldFlushEvents(2, 40, 10, 30_999));
+        Assert.assertTrue(scheduler.shouldFlushEvents(2, 40, 10, 31_000));
+        scheduler.onEventsFlushed();
+        Assert.assertFalse(scheduler.shouldFlushEvents(1, 20, 10, 31_000));
+
+        // count and size
+        Assert.assertTrue(scheduler.shouldFlushEvents(10, 20, 10, 31_000));
+        Assert.assertTrue(scheduler.shouldFlushEvents(2, 100, 10, 31_000));
+
+        // without a size limit only the count and the age matter
+        AdaptiveFlushScheduler noSizeLimit = new AdaptiveFlushScheduler(30_000, 0);
+        Assert.assertFalse(noSizeLimit.needsEventBytes(1));
+        Assert.assertFalse(noSizeLimit.shouldFlushEvents(2, Integer.MAX_VALUE, 10, 0));
+    }
+
+    /**
+     * Each consecutive failure doubles the amount of ticks that are skipped, up to the limit.
+     * A tick without failures or an empty request queue resets it
+     */
+    @Test
+    public void backoff() {
+        AdaptiveFlushScheduler scheduler = new AdaptiveFlushScheduler(0, 0);
+        Assert.assertFalse(scheduler.isBackingOff());
+
+        int[] expectedSkippedTicks = { 1, 3, 7, 15, 31, 31 };
+        for (int a = 0; a < expectedSkippedTicks.length; a++) {
+            scheduler.onRequestFailed();
+            Assert.assertEquals(a + 1, scheduler.getConsecutiveFailures());
+
+            int skipped = 0;
+            while (scheduler.isBackingOff()) {
+                scheduler.onTimerTick(false);
+                skipped++;
+            }
+            Assert.assertEquals(expectedSkippedTicks[a], skipped);
+        }
+
+        // the queue was processed without failures since the last tick
+        scheduler.onTimerTick(false);
+        Assert.assertEquals(0, scheduler.getConsecutiveFailures());
+
+        scheduler.onRequestFailed();
+        scheduler.onRequestFailed();
+        Assert.assertTrue(scheduler.isBackingOff());
+        scheduler.onTimerTick(true);
+        Assert.assertFalse(scheduler.isBackingOff());
+        Assert.assertEquals(0, scheduler.getConsecutiveFailures());
+    }
+
+    /**
+     * The observing health tracker forwards calls and counts failed requests
+     */
+    @Test
+    public void observe() {
+        AdaptiveFlushScheduler scheduler = new AdaptiveFlushScheduler(0, 0);
+        HealthTracker healthTracker = mock(HealthTracker.class);
+        HealthTracker observing = scheduler.observe(healthTracker);
+
+        observing.logFailedNetworkRequest(500, "error");
+        observing.saveState();
+
+        verify(healthTracker).logFailedNetworkRequest(500, "error");
+        verify(healthTracker).saveState();
+        Assert.assertEquals(1, scheduler.getConsecutiveFailures());
+        Assert.assertTrue(scheduler.isBackingOff());
+    }
+
+    /**
+     * With a retry policy set, the policy decides when the request queue is processed again
+     * and the tick based backoff is not used
+     */
+    @Test
+    public void backoff_retryPolicy() {
+        StorageProvider sp = mock(StorageProvider.class);
+        when(sp.getHealthCheckCounterState()).thenReturn("");
+        RetryPolicy policy = new RetryPolicy(1000, 1000, 0, 0, new HealthCheckCounter(sp, new ModuleLog()), new ModuleLog());
+        AdaptiveFlushScheduler scheduler = new AdaptiveFlushScheduler(0, 0);
+        scheduler.retryPolicy = policy;
+
+        scheduler.observe(mock(HealthTracker.class)).logFailedNetworkRequest(500, "error");
+        Assert.assertEquals(0, scheduler.getConsecutiveFailures());
+        Assert.assertFalse(scheduler.isBackingOff());
+
+        policy.onFailure(60_000, UtilsTime.currentTimestampMs());
+        Assert.assertEquals(1, scheduler.getConsecutiveFailures());
+        Assert.assertTrue(scheduler.isBackingOff());
+        scheduler.onTimerTick(false);
+        Assert.assertTrue(scheduler.isBackingOff());
+
+        policy.onSuccess();
+        Assert.assertFalse(scheduler.isBackingOff());
+        Assert.assertEquals(0, scheduler.getConsecutiveFailures());
+    }
+}
@@ -0,0 +1,134 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ApiIntakeQueueTests {
+
+    /**
+     * Calls from multiple threads should all be run by the background thread,
+     * calls from the same thread should keep their order
+     */
+    @Test
+    public void backgroundDrain() throws InterruptedException {
+        final Object lock = new Object();
+        final ApiIntakeQueue intakeQueue = new ApiIntakeQueue(lock, new ModuleLog());
+        final List<String> applied = Collections.synchronizedList(new ArrayList<String>());
+        final int threadCount = 4;
+        final int callCount = 500;
+
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int threadIndex = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override public void run() {
+                    for (int a = 0; a < callCount; a++) {
+                        final String value = threadIndex + ":" + a;
+                        intakeQueue.add(new Runnable() {
+                            @Override public void run() {
+                                Assert.assertTrue(Thread.holdsLock(lock));
+                                applied.add(value);
+                            }
+                        });
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long waitUntil = System.currentTimeMillis() + 5000;
+        while (applied.size() < threadCount * callCount && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(threadCount * callCount, applied.size());
+        Assert.assertEquals(0, intakeQueue.size());
+
+        int[] lastIndex = new int[threadCount];
+        Arrays.fill(lastIndex, -1);
+        for (String value : applied) {
+            String[] parts = value.split(":");
+            int threadIndex = Integer.parseInt(parts[0]);
+            int index = Integer.parseInt(parts[1]);
+            Assert.assertEquals(lastIndex[threadIndex] + 1, index);
+            lastIndex[threadIndex] = index;
+        }
+
+        intakeQueue.halt();
+    }
+
+    /**
+     * 'drain' should run the queued calls on the calling thread, also when a queued call drains again.
+     * After 'halt' queued calls are discarded and new calls are run right away.
+     */
+    @Test
+    public void drainAndHalt() throws InterruptedException {
+        final Object lock = new Object();
+        final ApiIntakeQueue intakeQueue = new ApiIntakeQueue(lock, new ModuleLog());
+        final List<Integer> applied = new ArrayList<>();
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        // holding the lock keeps the background thread from running the calls
+        synchronized (lock) {
+            intakeQueue.add(new Runnable() {
+                @Override public void run() {
+                    applied.add(1);
+                    intakeQueue.drain();
+                }
+            });
+            intakeQueue.add(new Runnable() {
+                @Override public void run() {
+                    throw new IllegalStateException("failing call");
+                }
+            });
+            intakeQueue.add(new Runnable() {
+                @Override public void run() {
+                    applied.add(2);
+                }
+            });
+            Assert.assertEquals(3, intakeQueue.size());
+
+            intakeQueue.drain();
+            Assert.assertEquals(0, intakeQueue.size());
+            Assert.assertEquals(2, applied.size());
+            Assert.assertEquals(1, (int) applied.get(0));
+            Assert.assertEquals(2, (int) applied.get(1));
+
+            Thread blocker = new Thread(new Runnable() {
+                @Override public void run() {
+                    intakeQueue.add(new Runnable() {
+                        @Override public void run() {
+                            applied.add(3);
+                        }
+                    });
+                    blocked.countDown();
+                }
+            });
+            blocker.start();
+            Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+            // the call is still queued and is discarded
+            intakeQueue.halt();
+            Assert.assertEquals(0, intakeQueue.size());
+        }
+
+        intakeQueue.add(new Runnable() {
+            @Override public void run() {
+                applied.add(4);
+            }
+        });
+        Assert.assertEquals(3, applied.size());
+        Assert.assertEquals(4, (int) applied.get(2));
+    }
+}
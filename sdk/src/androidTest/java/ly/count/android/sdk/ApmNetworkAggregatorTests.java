@@ -0,0 +1,125 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Arrays;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ApmNetworkAggregatorTests {
+
+    /**
+     * Every value falls into a bucket whose range contains it, neighbouring buckets don't overlap
+     */
+    @Test
+    public void histogramBuckets() {
+        for (long value = 0; value < 100_000; value++) {
+            int index = ApmHistogram.bucketIndex(value);
+            Assert.assertTrue(value <= ApmHistogram.bucketHighestValue(index));
+            if (index > 0) {
+                Assert.assertTrue(value > ApmHistogram.bucketHighestValue(index - 1));
+            }
+        }
+
+        Assert.assertEquals(Integer.MAX_VALUE, ApmHistogram.bucketHighestValue(ApmHistogram.bucketIndex(Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Percentiles are within the precision of the histogram
+     */
+    @Test
+    public void histogramPercentiles() {
+        ApmHistogram histogram = new ApmHistogram();
+        Assert.assertEquals(0, histogram.valueAtPercentile(50));
+
+        long[] values = new long[10_000];
+        Random random = new Random(7);
+        for (int a = 0; a < values.length; a++) {
+            values[a] = (long) (Math.abs(random.nextGaussian()) * 800);
+            histogram.record(values[a]);
+        }
+        Arrays.sort(values);
+
+        double maxError = 1.0 / ApmHistogram.SUB_BUCKET_HALF;
+        for (double percentile : new double[] { 50, 90, 95, 99 }) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = histogram.valueAtPercentile(percentile);
+            Assert.assertTrue(percentile + ": " + expected + " " + actual, actual >= expected);
+            Assert.assertTrue(percentile + ": " + expected + " " + actual, actual <= expected + Math.max(1, expected * maxError));
+        }
+
+        Assert.assertEquals(values.length, histogram.getTotalCount());
+        Assert.assertEquals(values[0], histogram.getMin());
+        Assert.assertEquals(values[values.length - 1], histogram.getMax());
+        Assert.assertEquals(values[values.length - 1], histogram.valueAtPercentile(100));
+    }
+
+    /**
+     * Traces are grouped by key and response code class, one flush returns all groups and resets the window
+     */
+    @Test
+    public void groupsAndFlush() throws Exception {
+        ApmNetworkAggregator aggregator = new ApmNetworkAggregator(60_000, 100);
+        Assert.assertFalse(aggregator.shouldFlush(1_000));
+        Assert.assertNull(aggregator.flush());
+
+        for (int a = 0; a < 100; a++) {
+            aggregator.record("/api", a % 2 == 0 ? 200 : 204, 10, 100 + a, 5_000 + a, 5_000 + a + 10 + a, 10_000);
+        }
+        aggregator.record("/api", 404, 10, 5, 6_000, 6_050, 10_000);
+        aggregator.record("/other", 200, 0, 0, 7_000, 7_001, 10_000);
+
+        Assert.assertEquals(3, aggregator.getGroupCount());
+        Assert.assertEquals(102, aggregator.getTraceCount());
+        Assert.assertFalse(aggregator.shouldFlush(69_999));
+        Assert.assertTrue(aggregator.shouldFlush(70_000));
+
+        JSONArray summaries = aggregator.flush();
+        Assert.assertNotNull(summaries);
+        Assert.assertEquals(3, summaries.length());
+        Assert.assertEquals(0, aggregator.getTraceCount());
+        Assert.assertFalse(aggregator.shouldFlush(1_000_000));
+
+        JSONObject api2xx = null;
+        for (int a = 0; a < summaries.length(); a++) {
+            JSONObject summary = summaries.getJSONObject(a);
+            Assert.assertEquals("network", summary.getString("type"));
+            JSONObject metrics = summary.getJSONObject("apm_metrics");
+            if ("/api".equals(summary.getString("name")) && metrics.getInt("response_code") / 100 == 2) {
+                api2xx = summary;
+            }
+        }
+
+        Assert.assertNotNull(api2xx);
+        JSONObject metrics = api2xx.getJSONObject("apm_metrics");
+        Assert.assertEquals(100, metrics.getLong("request_count"));
+        Assert.assertEquals(60, metrics.getLong("response_time"));
+        Assert.assertEquals(10, metrics.getLong("response_time_min"));
+        Assert.assertEquals(109, metrics.getLong("response_time_max"));
+        Assert.assertTrue(metrics.getLong("response_time_p50") >= 59 && metrics.getLong("response_time_p50") <= 61);
+        Assert.assertTrue(metrics.getLong("response_time_p99") >= 108);
+        Assert.assertEquals(5_000, api2xx.getLong("stz"));
+        Assert.assertEquals(5_000 + 99 + 10 + 99, api2xx.getLong("etz"));
+    }
+
+    /**
+     * Too many different groups end the window early
+     */
+    @Test
+    public void maxGroups() {
+        ApmNetworkAggregator aggregator = new ApmNetworkAggregator(60_000, 3);
+        aggregator.record("a", 200, 0, 0, 0, 1, 0);
+        aggregator.record("b", 200, 0, 0, 0, 1, 0);
+        Assert.assertFalse(aggregator.shouldFlush(0));
+        aggregator.record("c", 200, 0, 0, 0, 1, 0);
+        Assert.assertTrue(aggregator.shouldFlush(0));
+
+        aggregator.clear();
+        Assert.assertFalse(aggregator.shouldFlush(0));
+        Assert.assertNull(aggregator.flush());
+    }
+}
@@ -0,0 +1,49 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CommonRequestPrefixTests {
+
+    /**
+     * The prefix should produce the same params, in the same order, as concatenating them one by one
+     */
+    @Test
+    public void appendParams() {
+        CommonRequestPrefix prefix = new CommonRequestPrefix("app key", "dev&id", "1.2", "sdk-name", null, null, "3.4 beta");
+        UtilsTime.Instant instant = new UtilsTime.Instant(1_700_000_000_000L, 13, 2);
+
+        String expectedShort = "app_key=app+key&device_id=dev%26id&timestamp=1700000000000&sdk_version=1.2&sdk_name=sdk-name&av=3.4+beta";
+        Assert.assertEquals(expectedShort, prefix.appendShort(prefix.newBuilder(0), instant).toString());
+        Assert.assertEquals(expectedShort + "&hour=13&dow=2&tz=-120", prefix.appendFull(prefix.newBuilder(0), instant, -120).toString());
+
+        // appending into a builder that already has data
+        StringBuilder sb = new StringBuilder("x");
+        prefix.appendShort(sb, instant).append("&y=1");
+        Assert.assertEquals("x" + expectedShort + "&y=1", sb.toString());
+    }
+
+    /**
+     * A change in any of the inputs should make the prefix not match anymore
+     */
+    @Test
+    public void matches() {
+        Map<String, String> override = new HashMap<>();
+        CommonRequestPrefix prefix = new CommonRequestPrefix("a", "d", "1", "n", override, null, "v");
+
+        Assert.assertTrue(prefix.matches("a", "d", "1", "n", override, null));
+        Assert.assertTrue(prefix.matches(new String("a"), new String("d"), "1", "n", override, null));
+        Assert.assertFalse(prefix.matches("b", "d", "1", "n", override, null));
+        Assert.assertFalse(prefix.matches("a", "e", "1", "n", override, null));
+        Assert.assertFalse(prefix.matches("a", "d", "2", "n", override, null));
+        Assert.assertFalse(prefix.matches("a", "d", "1", "m", override, null));
+        Assert.assertFalse(prefix.matches("a", "d", "1", "n", new HashMap<String, String>(), null));
+        Assert.assertFalse(prefix.matches("a", "d", "1", "n", null, null));
+        Assert.assertFalse(prefix.matches(null, "d", "1", "n", override, null));
+    }
+}
@@ -21,19 +21,34 @@ THE SOFTWARE.
 */
 package ly.count.android.sdk;
 
+import android.util.Base64;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static ly.count.android.sdk.UtilsNetworking.sha256Hash;
 import static org.junit.Assert.assertEquals;
@@ -41,10 +56,16 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -67,6 +88,12 @@ public class ConnectionProcessorTests {
 
     String testSaltValueDefult = "123qwerty";
 
+    int testDrainWindowSize;
+
+    int testBulkMaxCount;
+
+    int testBulkMaxBytes;
+
     @Before
     public void setUp() {
         configurationProviderFake = new ConfigurationProvider() {
@@ -81,10 +108,14 @@ public class ConnectionProcessorTests {
 
         Countly.sharedInstance().setLoggingEnabled(true);
         mockStore = mock(CountlyStore.class);
+        when(mockStore.removeRequestById(anyLong())).thenReturn(true);
         mockDeviceId = mock(DeviceIdProvider.class);
         moduleLog = mock(ModuleLog.class);
         healthTrackerMock = mock(HealthTracker.class);
         testSaltValue = testSaltValueDefult;//in case a test wants to override the value
+        testDrainWindowSize = 1;
+        testBulkMaxCount = 0;
+        testBulkMaxBytes = 64 * 1024;
 
         rip = new RequestInfoProvider() {
             @Override public boolean isHttpPostForced() {
@@ -106,6 +137,22 @@ public class ConnectionProcessorTests {
             @Override public String getRequestSalt() {
                 return testSaltValue;
             }
+
+            @Override public int getRequestDrainWindowSize() {
+                return testDrainWindowSize;
+            }
+
+            @Override public int getBulkRequestMaxCount() {
+                return testBulkMaxCount;
+            }
+
+            @Override public int getBulkRequestMaxBytes() {
+                return testBulkMaxBytes;
+            }
+
+            @Override public int getRequestCompressionThreshold() {
+                return -1;
+            }
         };
 
         connectionProcessor = new ConnectionProcessor("http://server", mockStore, mockDeviceId, configurationProviderFake, rip, null, null, moduleLog, healthTrackerMock);
@@ -198,18 +245,18 @@ public class ConnectionProcessorTests {
     @Test
     public void testRun_storeReturnsNullConnections() throws IOException {
         connectionProcessor = spy(connectionProcessor);
-        when(mockStore.getRequests()).thenReturn(null);
+        when(mockStore.getRequestQueueCursor()).thenReturn(null);
         connectionProcessor.run();
-        verify(mockStore).getRequests();
+        verify(mockStore).getRequestQueueCursor();
         verify(connectionProcessor, times(0)).urlConnectionForServerRequest(anyString(), isNull(String.class));
     }
 
     @Test
     public void testRun_storeReturnsEmptyConnections() throws IOException {
         connectionProcessor = spy(connectionProcessor);
-        when(mockStore.getRequests()).thenReturn(new String[0]);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(new String[0]));
         connectionProcessor.run();
-        verify(mockStore).getRequests();
+        verify(mockStore).getRequestQueueCursor();
         verify(connectionProcessor, times(0)).urlConnectionForServerRequest(anyString(), isNull(String.class));
     }
 
@@ -256,7 +303,7 @@ public class ConnectionProcessorTests {
     public void testRun_storeHasSingleConnection() throws IOException {
         final String eventData = "blahblahblah";
         connectionProcessor = spy(connectionProcessor);
-        when(mockStore.getRequests()).thenReturn(new String[] { eventData }, new String[0]);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(new String[] { eventData }), cursor(new String[0]));
         when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
         final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
         final CountlyResponseStream testInputStream = new CountlyResponseStream("Success");
@@ -265,13 +312,14 @@ public class ConnectionProcessorTests {
         doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
         connectionProcessor.run();
 
-        verify(mockStore, times(2)).getRequests();
+        verify(mockStore, times(2)).getRequestQueueCursor();
         verify(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
         verify(mockURLConnection).connect();
         verify(mockURLConnection).getInputStream();
         verify(mockURLConnection).getResponseCode();
         assertTrue(testInputStream.fullyRead());
-        verify(mockStore).removeRequest(eventData);
+        verify(mockStore).removeRequestById(1);
+        verify(mockStore, times(0)).removeRequest(anyString());
         assertTrue(testInputStream.closed);
         verify(mockURLConnection).disconnect();
     }
@@ -280,7 +328,7 @@ public class ConnectionProcessorTests {
     public void testRun_storeHasSingleConnection_butHTTPResponseCodeWasNot2xx() throws IOException {
         final String eventData = "blahblahblah";
         connectionProcessor = spy(connectionProcessor);
-        when(mockStore.getRequests()).thenReturn(new String[] { eventData }, new String[0]);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(new String[] { eventData }), cursor(new String[0]));
         when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
         final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
         final CountlyResponseStream testInputStream = new CountlyResponseStream("Success");
@@ -289,22 +337,47 @@ public class ConnectionProcessorTests {
         doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
         connectionProcessor.run();
 
-        verify(mockStore, times(1)).getRequests();
+        verify(mockStore, times(1)).getRequestQueueCursor();
         verify(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
         verify(mockURLConnection).connect();
         verify(mockURLConnection).getInputStream();
         verify(mockURLConnection).getResponseCode();
         assertTrue(testInputStream.fullyRead());
+        verify(mockStore, times(0)).removeRequestById(anyLong());
         verify(mockStore, times(0)).removeRequest(eventData);
         assertTrue(testInputStream.closed);
         verify(mockURLConnection).disconnect();
     }
 
+    /**
+     * A request that fails with an exception should stay in the queue,
+     * only the adaptive flush backoff should be told about it, not the health tracker
+     */
+    @Test
+    public void testRun_storeHasSingleConnection_butConnectionFailed() throws IOException {
+        final String eventData = "blahblahblah";
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(new String[] { eventData }), cursor(new String[0]));
+        when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        doThrow(new IOException("offline")).when(mockURLConnection).connect();
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
+        AdaptiveFlushScheduler flushScheduler = new AdaptiveFlushScheduler(0, 0);
+        connectionProcessor.flushScheduler = flushScheduler;
+        connectionProcessor.run();
+
+        assertEquals(1, flushScheduler.getConsecutiveFailures());
+        verify(healthTrackerMock, never()).logFailedNetworkRequest(anyInt(), anyString());
+        verify(healthTrackerMock, never()).saveState();
+        verify(mockStore, times(0)).removeRequestById(anyLong());
+        verify(mockStore, times(0)).removeRequest(eventData);
+    }
+
     @Test
     public void testRun_storeHasSingleConnection_butResponseWasNotJSON() throws IOException {
         final String eventData = "blahblahblah";
         connectionProcessor = spy(connectionProcessor);
-        when(mockStore.getRequests()).thenReturn(new String[] { eventData }, new String[0]);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(new String[] { eventData }), cursor(new String[0]));
         when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
         final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
         final TestInputStream testInputStream = new TestInputStream();
@@ -313,12 +386,13 @@ public class ConnectionProcessorTests {
         doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
         connectionProcessor.run();
 
-        verify(mockStore, times(1)).getRequests();
+        verify(mockStore, times(1)).getRequestQueueCursor();
         verify(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
         verify(mockURLConnection).connect();
         verify(mockURLConnection).getInputStream();
         verify(mockURLConnection).getResponseCode();
         assertTrue(testInputStream.fullyRead());
+        verify(mockStore, times(0)).removeRequestById(anyLong());
         verify(mockStore, times(0)).removeRequest(eventData);
         assertTrue(testInputStream.closed);
         verify(mockURLConnection).disconnect();
@@ -328,7 +402,7 @@ public class ConnectionProcessorTests {
     public void testRun_storeHasSingleConnection_butResponseJSONWasNotSuccess() throws IOException {
         final String eventData = "blahblahblah";
         connectionProcessor = spy(connectionProcessor);
-        when(mockStore.getRequests()).thenReturn(new String[] { eventData }, new String[0]);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(new String[] { eventData }), cursor(new String[0]));
         when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
         final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
         final CountlyResponseStream testInputStream = new CountlyResponseStream("Failed");
@@ -336,13 +410,14 @@ public class ConnectionProcessorTests {
         when(mockURLConnection.getResponseCode()).thenReturn(200);
         doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
         connectionProcessor.run();
-        verify(mockStore, times(2)).getRequests();
+        verify(mockStore, times(2)).getRequestQueueCursor();
         verify(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
         verify(mockURLConnection).connect();
         verify(mockURLConnection).getInputStream();
         assertTrue(testInputStream.fullyRead());
         verify(mockURLConnection).getResponseCode();
-        verify(mockStore, times(1)).removeRequest(eventData);
+        verify(mockStore, times(1)).removeRequestById(1);
+        verify(mockStore, times(0)).removeRequest(anyString());
         assertTrue(testInputStream.closed);
         verify(mockURLConnection).disconnect();
     }
@@ -352,7 +427,7 @@ public class ConnectionProcessorTests {
         final String eventData1 = "blahblahblah";
         final String eventData2 = "123523523432";
         connectionProcessor = spy(connectionProcessor);
-        when(mockStore.getRequests()).thenReturn(new String[] { eventData1, eventData2 }, new String[] { eventData2 }, new String[0]);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(new String[] { eventData1, eventData2 }), cursor(2, new String[] { eventData2 }), cursor(new String[0]));
         when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
         final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
         final CountlyResponseStream testInputStream1 = new CountlyResponseStream("Success");
@@ -362,7 +437,7 @@ public class ConnectionProcessorTests {
         doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData2 + "&rr=0", null);
         when(mockURLConnection.getResponseCode()).thenReturn(200, 200);
         connectionProcessor.run();
-        verify(mockStore, times(3)).getRequests();
+        verify(mockStore, times(3)).getRequestQueueCursor();
         verify(connectionProcessor).urlConnectionForServerRequest(eventData1 + "&rr=1", null);
         verify(connectionProcessor).urlConnectionForServerRequest(eventData2 + "&rr=0", null);
         verify(mockURLConnection, times(2)).connect();
@@ -370,13 +445,377 @@ public class ConnectionProcessorTests {
         verify(mockURLConnection, times(2)).getResponseCode();
         assertTrue(testInputStream1.fullyRead());
         assertTrue(testInputStream2.fullyRead());
-        verify(mockStore).removeRequest(eventData1);
-        verify(mockStore).removeRequest(eventData2);
+        verify(mockStore).removeRequestById(1);
+        verify(mockStore).removeRequestById(2);
+        verify(mockStore, times(0)).removeRequest(anyString());
         assertTrue(testInputStream1.closed);
         assertTrue(testInputStream2.closed);
         verify(mockURLConnection, times(2)).disconnect();
     }
 
+    /**
+     * If the queue was rewritten after the cursor was created, the request id is not valid anymore
+     * and the sent request should be removed by its content
+     */
+    @Test
+    public void testRun_requestIdNotFound_removedByContent() throws IOException {
+        final String eventData = "blahblahblah";
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(7, new String[] { eventData }), cursor(new String[0]));
+        when(mockStore.removeRequestById(anyLong())).thenReturn(false);
+        when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        when(mockURLConnection.getInputStream()).thenReturn(new CountlyResponseStream("Success"));
+        when(mockURLConnection.getResponseCode()).thenReturn(200);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
+        connectionProcessor.run();
+
+        verify(mockStore).removeRequestById(7);
+        verify(mockStore).removeRequest(eventData);
+    }
+
+    /**
+     * In drain mode, if none of the handled ids are valid anymore, the requests should be removed by their content
+     */
+    @Test
+    public void testRun_drainMode_requestIdsNotFound_removedByContent() throws IOException {
+        testDrainWindowSize = 5;
+        final String[] eventData = { "blahblahblah", "123523523432" };
+        final List<String> removed = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override public Void answer(InvocationOnMock invocation) {
+                removed.addAll((List<String>) invocation.getArgument(0));
+                return null;
+            }
+        }).when(mockStore).removeRequests(ArgumentMatchers.<String>anyList());
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(eventData), cursor(new String[0]));
+        when(mockStore.removeRequestsById(any(long[].class))).thenReturn(0);
+        when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        when(mockURLConnection.getInputStream()).thenReturn(new CountlyResponseStream("Success"), new CountlyResponseStream("Success"));
+        when(mockURLConnection.getResponseCode()).thenReturn(200);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData[0] + "&rr=1", null);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData[1] + "&rr=0", null);
+        connectionProcessor.run();
+
+        verify(mockStore, times(1)).removeRequestsById(any(long[].class));
+        verify(mockStore, times(1)).removeRequests(ArgumentMatchers.<String>anyList());
+        assertEquals(Arrays.asList(eventData), removed);
+    }
+
+    /**
+     * Creates a queue cursor where the requests have consecutive ids starting from 'firstId'
+     */
+    static RequestQueueCursor cursor(long firstId, String[] requests) {
+        long[] ids = new long[requests.length];
+        for (int a = 0; a < ids.length; a++) {
+            ids[a] = firstId + a;
+        }
+        return new RequestQueueCursor(requests, ids);
+    }
+
+    static RequestQueueCursor cursor(String[] requests) {
+        return cursor(1, requests);
+    }
+
+    /**
+     * Collects the request ids that are passed to 'removeRequestsById'
+     */
+    private List<Long> captureRemovedRequestIds() {
+        final List<Long> removed = new ArrayList<>();
+        doAnswer(new Answer<Integer>() {
+            @Override public Integer answer(InvocationOnMock invocation) {
+                long[] ids = invocation.getArgument(0);
+                for (long id : ids) {
+                    removed.add(id);
+                }
+                return ids.length;
+            }
+        }).when(mockStore).removeRequestsById(any(long[].class));
+        return removed;
+    }
+
+    /**
+     * In drain mode all requests of the window should be sent from a single queue cursor
+     * with the correct remaining request count, removed with a single call and the connection kept alive
+     */
+    @Test
+    public void testRun_drainMode_wholeWindowSent() throws IOException {
+        testDrainWindowSize = 5;
+        final String[] eventData = { "blahblahblah", "123523523432", "qwerty" };
+        final List<Long> removed = captureRemovedRequestIds();
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(eventData), cursor(new String[0]));
+        when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        final CountlyResponseStream[] streams = { new CountlyResponseStream("Success"), new CountlyResponseStream("Success"), new CountlyResponseStream("Success") };
+        when(mockURLConnection.getInputStream()).thenReturn(streams[0], streams[1], streams[2]);
+        when(mockURLConnection.getResponseCode()).thenReturn(200);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData[0] + "&rr=2", null);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData[1] + "&rr=1", null);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData[2] + "&rr=0", null);
+        connectionProcessor.run();
+
+        verify(mockStore, times(2)).getRequestQueueCursor();
+        verify(connectionProcessor).urlConnectionForServerRequest(eventData[0] + "&rr=2", null);
+        verify(connectionProcessor).urlConnectionForServerRequest(eventData[1] + "&rr=1", null);
+        verify(connectionProcessor).urlConnectionForServerRequest(eventData[2] + "&rr=0", null);
+        verify(mockURLConnection, times(3)).connect();
+        for (CountlyResponseStream stream : streams) {
+            assertTrue(stream.fullyRead());
+            assertTrue(stream.closed);
+        }
+        verify(mockStore, times(0)).removeRequestById(anyLong());
+        verify(mockStore, times(0)).removeRequest(anyString());
+        verify(mockStore, times(1)).removeRequestsById(any(long[].class));
+        verify(mockStore, times(0)).removeRequests(ArgumentMatchers.<String>anyList());
+        assertEquals(Arrays.asList(1L, 2L, 3L), removed);
+        verify(mockURLConnection, times(0)).disconnect();
+    }
+
+    /**
+     * In drain mode the native crash dump of a sent request should only be deleted after the request was removed from the queue
+     */
+    @Test
+    public void testRun_drainMode_nativeCrashDumpDeletedAfterRemoval() throws IOException {
+        testDrainWindowSize = 5;
+        File folder = createTempFolder();
+        final File dumpFile = new File(folder, "abc-1.dmp");
+        assertTrue(dumpFile.createNewFile());
+        connectionProcessor.nativeCrashDumpFolder = folder;
+
+        final String[] eventData = { "app_key=a&crash=" + UtilsNetworking.urlEncodeString("{\"_error\":\"" + ModuleCrash.NATIVE_DUMP_PLACEHOLDER + dumpFile.getName() + "\"}") };
+        final List<Boolean> dumpExistedOnRemoval = new ArrayList<>();
+        doAnswer(new Answer<Integer>() {
+            @Override public Integer answer(InvocationOnMock invocation) {
+                dumpExistedOnRemoval.add(dumpFile.exists());
+                return 1;
+            }
+        }).when(mockStore).removeRequestsById(any(long[].class));
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(eventData), cursor(new String[0]));
+        when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        when(mockURLConnection.getInputStream()).thenReturn(new CountlyResponseStream("Success"));
+        when(mockURLConnection.getResponseCode()).thenReturn(200);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData[0] + "&rr=0", null);
+        connectionProcessor.run();
+
+        assertEquals(Arrays.asList(true), dumpExistedOnRemoval);
+        assertFalse(dumpFile.exists());
+        assertTrue(folder.delete());
+    }
+
+    /**
+     * In drain mode a failed request should stop the window,
+     * the requests sent before it should still be removed
+     */
+    @Test
+    public void testRun_drainMode_failureStopsWindow() throws IOException {
+        testDrainWindowSize = 3;
+        final String[] eventData = { "blahblahblah", "123523523432", "qwerty", "asdf" };
+        final List<Long> removed = captureRemovedRequestIds();
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(eventData));
+        when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        final CountlyResponseStream testInputStream1 = new CountlyResponseStream("Success");
+        final CountlyResponseStream testInputStream2 = new CountlyResponseStream("Success");
+        when(mockURLConnection.getInputStream()).thenReturn(testInputStream1, testInputStream2);
+        when(mockURLConnection.getResponseCode()).thenReturn(200, 500);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData[0] + "&rr=3", null);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData[1] + "&rr=2", null);
+        connectionProcessor.run();
+
+        verify(mockStore, times(1)).getRequestQueueCursor();
+        verify(connectionProcessor).urlConnectionForServerRequest(eventData[0] + "&rr=3", null);
+        verify(connectionProcessor).urlConnectionForServerRequest(eventData[1] + "&rr=2", null);
+        verify(connectionProcessor, times(0)).urlConnectionForServerRequest(eventData[2] + "&rr=1", null);
+        verify(mockURLConnection, times(2)).connect();
+        verify(mockStore, times(1)).removeRequestsById(any(long[].class));
+        assertEquals(Arrays.asList(1L), removed);
+        verify(mockURLConnection, times(1)).disconnect();
+    }
+
+    /**
+     * Only consecutive requests with the same app key and device ID should be combined,
+     * requests with a custom endpoint, picture or temporary ID should stop the batch
+     */
+    @Test
+    public void collectBulkBatch_grouping() {
+        final String r1 = "app_key=a&device_id=d&timestamp=1";
+        final String r2 = "app_key=a&device_id=d&timestamp=2";
+        final String otherDevice = "app_key=a&device_id=x&timestamp=3";
+        final String customEndpoint = "app_key=a&device_id=d" + ConnectionProcessor.endPointOverrideTag + "/o/sdk&timestamp=4";
+        final String picture = "app_key=a&device_id=d&" + ModuleUserProfile.PICTURE_PATH_KEY + "=path";
+        final String tempId = "app_key=a&device_id=" + DeviceId.temporaryCountlyDeviceId + "&timestamp=5";
+
+        assertEquals(Arrays.asList(r1, r2), collectBulkBatch(new String[] { r1, r2, otherDevice, r1 }, 0, 10, 1000));
+        assertEquals(Arrays.asList(r1, r2), collectBulkBatch(new String[] { r1, r2, customEndpoint, r1 }, 0, 10, 1000));
+        assertEquals(Arrays.asList(r1, r2), collectBulkBatch(new String[] { r1, r2, picture, r1 }, 0, 10, 1000));
+        assertEquals(Arrays.asList(r1, r2), collectBulkBatch(new String[] { r1, r2, tempId, r1 }, 0, 10, 1000));
+        assertEquals(Arrays.asList(otherDevice), collectBulkBatch(new String[] { r1, otherDevice, r1 }, 1, 10, 1000));
+        assertEquals(0, collectBulkBatch(new String[] { customEndpoint, r1 }, 0, 10, 1000).size());
+    }
+
+    /**
+     * Collects a batch starting from the given index and validates that the cursor was moved past the collected requests
+     */
+    List<String> collectBulkBatch(String[] requests, int startIndex, int maxCount, int maxBytes) {
+        RequestQueueCursor requestCursor = cursor(requests);
+        for (int a = 0; a < startIndex; a++) {
+            requestCursor.next();
+        }
+        String first = requestCursor.next();
+
+        List<Long> batchIds = new ArrayList<>();
+        List<String> batch = connectionProcessor.collectBulkBatch(first, requestCursor.currentId(), requestCursor, maxCount, maxBytes, batchIds);
+
+        assertEquals(batch.size(), batchIds.size());
+        for (int a = 0; a < batchIds.size(); a++) {
+            assertEquals(startIndex + 1 + a, (long) batchIds.get(a));
+        }
+        assertEquals(requests.length - startIndex - Math.max(1, batch.size()), requestCursor.remaining());
+        return batch;
+    }
+
+    /**
+     * The batch should not go over the count and byte limits,
+     * but the first request should always be included
+     */
+    @Test
+    public void collectBulkBatch_limits() {
+        final String r1 = "app_key=a&device_id=d&timestamp=1";
+        final String r2 = "app_key=a&device_id=d&timestamp=2";
+        final String r3 = "app_key=a&device_id=d&timestamp=3";
+        final String[] requests = { r1, r2, r3 };
+
+        assertEquals(Arrays.asList(r1, r2), collectBulkBatch(requests, 0, 2, 1000));
+        assertEquals(Arrays.asList(r1, r2), collectBulkBatch(requests, 0, 10, r1.length() + r2.length()));
+        assertEquals(Arrays.asList(r1), collectBulkBatch(requests, 0, 10, 1));
+    }
+
+    /**
+     * Bulk request data should contain every request as a JSON object with decoded values
+     */
+    @Test
+    public void bulkRequestData() throws JSONException {
+        final String r1 = "app_key=a&device_id=d&events=" + UtilsNetworking.urlEncodeString("[{\"key\":\"k\"}]");
+        final String r2 = "app_key=a&device_id=d&begin_session=1";
+
+        String data = connectionProcessor.bulkRequestData(Arrays.asList(r1, r2));
+        assertTrue(data.startsWith("requests="));
+
+        JSONArray requests = new JSONArray(UtilsNetworking.urlDecodeString(data.substring("requests=".length())));
+        assertEquals(2, requests.length());
+        assertEquals("a", requests.getJSONObject(0).getString("app_key"));
+        assertEquals("[{\"key\":\"k\"}]", requests.getJSONObject(0).getString("events"));
+        assertEquals("d", requests.getJSONObject(1).getString("device_id"));
+        assertEquals("1", requests.getJSONObject(1).getString("begin_session"));
+    }
+
+    /**
+     * In bulk mode the requests should be sent in one request to the bulk endpoint
+     * and all of them removed together after a successful response
+     */
+    @Test
+    public void testRun_bulkMode() throws IOException {
+        testBulkMaxCount = 10;
+        final String[] eventData = { "app_key=a&device_id=d&timestamp=1", "app_key=a&device_id=d&timestamp=2", "app_key=a&device_id=d&timestamp=3" };
+        final List<Long> removed = captureRemovedRequestIds();
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.getRequestQueueCursor()).thenReturn(cursor(eventData), cursor(new String[0]));
+        when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        final CountlyResponseStream testInputStream = new CountlyResponseStream("Success");
+        when(mockURLConnection.getInputStream()).thenReturn(testInputStream);
+        when(mockURLConnection.getResponseCode()).thenReturn(200);
+        final String bulkData = connectionProcessor.bulkRequestData(Arrays.asList(eventData)) + "&rr=0";
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(bulkData, ConnectionProcessor.bulkEndpoint);
+        connectionProcessor.run();
+
+        verify(mockStore, times(2)).getRequestQueueCursor();
+        verify(connectionProcessor, times(1)).urlConnectionForServerRequest(anyString(), ArgumentMatchers.<String>any());
+        verify(connectionProcessor).urlConnectionForServerRequest(bulkData, ConnectionProcessor.bulkEndpoint);
+        verify(mockURLConnection, times(1)).connect();
+        verify(mockStore, times(0)).removeRequest(anyString());
+        verify(mockStore, times(0)).removeRequests(ArgumentMatchers.<String>anyList());
+        assertEquals(Arrays.asList(1L, 2L, 3L), removed);
+    }
+
+    /**
+     * Compressed body should decompress into the original data
+     * and the returned size should match the written bytes
+     */
+    @Test
+    public void writeCompressedBody() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int a = 0; a < 500; a++) {
+            sb.append("&crash=").append(UtilsNetworking.urlEncodeString("{\"_error\":\"ÄÖ stack line " + a + "\"}"));
+        }
+        final String requestData = sb.toString();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        connectionProcessor.pcc = new PerformanceCounterCollector();
+        long compressedSize = connectionProcessor.writeCompressedBody(output, requestData);
+
+        assertEquals(output.size(), compressedSize);
+        assertTrue(compressedSize < requestData.length());
+        assertEquals(compressedSize, connectionProcessor.pcc.GetCounterSum("ConnectionProcessor_RequestBodyCompressedBytes"), 0.0);
+        assertEquals(requestData.getBytes("UTF-8").length, connectionProcessor.pcc.GetCounterSum("ConnectionProcessor_RequestBodyRawBytes"), 0.0);
+
+        GZIPInputStream gzipInput = new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(requestData, new String(Utils.readStream(gzipInput), "UTF-8"));
+    }
+
+    /**
+     * The native crash dump should be streamed into the body in place of the placeholder,
+     * giving the same body and checksum as if the Base64 dump was stored in the request
+     */
+    @Test
+    public void writeNativeCrashDumpBody() throws IOException {
+        File folder = createTempFolder();
+        File dumpFile = new File(folder, "abc-1.dmp");
+        byte[] dump = new byte[10_000];
+        new Random(1).nextBytes(dump);
+        FileOutputStream fos = new FileOutputStream(dumpFile);
+        fos.write(dump);
+        fos.close();
+
+        String requestData = "app_key=a&device_id=d&crash=" + UtilsNetworking.urlEncodeString("{\"_error\":\"" + ModuleCrash.NATIVE_DUMP_PLACEHOLDER + dumpFile.getName() + "\",\"_os\":\"Android\"}");
+        String storedRequestData = "app_key=a&device_id=d&crash=" + UtilsNetworking.urlEncodeString("{\"_error\":" + JSONObject.quote(Base64.encodeToString(dump, Base64.NO_WRAP)) + ",\"_os\":\"Android\"}");
+        assertEquals(dumpFile, ModuleCrash.pendingNativeCrashDumpFile(folder, requestData));
+        assertNull(ModuleCrash.pendingNativeCrashDumpFile(null, requestData));
+        assertNull(ModuleCrash.pendingNativeCrashDumpFile(folder, storedRequestData));
+        assertFalse(connectionProcessor.canBeBulked(requestData));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        HttpURLConnection mockConnection = mock(HttpURLConnection.class);
+        when(mockConnection.getOutputStream()).thenReturn(output);
+
+        long written = connectionProcessor.writeNativeCrashDumpBody(mockConnection, requestData, dumpFile);
+        String expectedBody = storedRequestData + "&checksum256=" + UtilsNetworking.sha256Hash(storedRequestData + testSaltValue);
+        assertEquals(expectedBody, output.toString("UTF-8"));
+        assertEquals(output.size(), written);
+        verify(mockConnection).setFixedLengthStreamingMode((long) expectedBody.length());
+
+        // a missing dump is sent as an empty string
+        assertTrue(dumpFile.delete());
+        output.reset();
+        connectionProcessor.writeNativeCrashDumpBody(mockConnection, requestData, dumpFile);
+        String emptyRequestData = "app_key=a&device_id=d&crash=" + UtilsNetworking.urlEncodeString("{\"_error\":\"\",\"_os\":\"Android\"}");
+        assertEquals(emptyRequestData + "&checksum256=" + UtilsNetworking.sha256Hash(emptyRequestData + testSaltValue), output.toString("UTF-8"));
+        assertTrue(folder.delete());
+    }
+
+    static File createTempFolder() throws IOException {
+        File folder = File.createTempFile("countly", "dumps");
+        assertTrue(folder.delete());
+        assertTrue(folder.mkdirs());
+        return folder;
+    }
+
     private static class TestInputStream2 extends InputStream {
         boolean closed = false;
 
@@ -23,6 +23,7 @@ package ly.count.android.sdk;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import androidx.annotation.NonNull;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -30,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.After;
@@ -41,6 +43,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -469,6 +472,312 @@ public class CountlyStoreTests {
         assertTrue(Arrays.equals(new String[] { requestEntries[0], requestEntries[1] }, store.getRequests()));
     }
 
+    /**
+     * In write-behind mode changes should only reach storage after a flush,
+     * multiple changes should be visible after a single flush
+     */
+    @Test
+    public void writeBehind_flush() {
+        store.enableWriteBehind(60_000);
+        CountlyStore reader = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class));
+
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        store.addEvent(CreateEvent(eKeys[0]));
+        store.setHealthCheckCounterState("hc");
+
+        assertArrayEquals(new String[] { requestEntries[0], requestEntries[1] }, store.getRequests());
+        assertEquals(0, reader.getRequests().length);
+        assertEquals(0, reader.getEventQueueSize());
+
+        store.flushWriteBehindCache();
+        assertArrayEquals(new String[] { requestEntries[0], requestEntries[1] }, reader.getRequests());
+        assertEquals(1, reader.getEventQueueSize());
+        assertEquals("hc", reader.getHealthCheckCounterState());
+    }
+
+    /**
+     * In write-behind mode a write that is requested in sync should be written before returning,
+     * together with the other pending changes
+     */
+    @Test
+    public void writeBehind_syncWrite() {
+        store.enableWriteBehind(60_000);
+        CountlyStore reader = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class));
+
+        store.addEvent(CreateEvent(eKeys[0]));
+        store.addRequest(requestEntries[0], true);
+
+        assertArrayEquals(new String[] { requestEntries[0] }, reader.getRequests());
+        assertEquals(1, reader.getEventQueueSize());
+    }
+
+    /**
+     * In write-behind mode changes should be written by the background thread after the staleness window
+     */
+    @Test
+    public void writeBehind_backgroundWrite() throws InterruptedException {
+        store.enableWriteBehind(50);
+        CountlyStore reader = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class));
+
+        store.addRequest(requestEntries[0], false);
+        for (int a = 0; a < 50 && reader.getRequests().length == 0; a++) {
+            Thread.sleep(20);
+        }
+        assertArrayEquals(new String[] { requestEntries[0] }, reader.getRequests());
+
+        store.addRequest(requestEntries[1], false);
+        store.flushWriteBehindCacheAsync();
+        for (int a = 0; a < 50 && reader.getRequests().length == 1; a++) {
+            Thread.sleep(20);
+        }
+        assertArrayEquals(new String[] { requestEntries[0], requestEntries[1] }, reader.getRequests());
+    }
+
+    /**
+     * Halting write-behind mode should write the pending changes and stop the background thread
+     */
+    @Test
+    public void writeBehind_halt() {
+        store.enableWriteBehind(60_000);
+        CountlyStore reader = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class));
+        ScheduledExecutorService executor = store.writeBehindExecutor;
+        assertNotNull(executor);
+
+        store.addRequest(requestEntries[0], false);
+        store.haltWriteBehind();
+
+        assertArrayEquals(new String[] { requestEntries[0] }, reader.getRequests());
+        assertFalse(store.writeBehindEnabled);
+        assertNull(store.writeBehindExecutor);
+        assertTrue(executor.isShutdown());
+    }
+
+    /**
+     * Write-behind mode can't be enabled together with explicit storage mode
+     */
+    @Test
+    public void writeBehind_notWithExplicitStorage() {
+        CountlyStore esStore = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class), true);
+        esStore.enableWriteBehind(10);
+        assertFalse(esStore.writeBehindEnabled);
+    }
+
+    /**
+     * Removing multiple requests at once should remove the first matching occurrence of each
+     * and ignore the ones that are not in the queue
+     */
+    @Test
+    public void removeRequests() {
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[2], false);
+        store.removeRequests(Arrays.asList(requestEntries[0], requestEntries[2], requestEntries[3]));
+        assertTrue(Arrays.equals(new String[] { requestEntries[1], requestEntries[0] }, store.getRequests()));
+
+        store.removeRequests(new ArrayList<String>());
+        assertTrue(Arrays.equals(new String[] { requestEntries[1], requestEntries[0] }, store.getRequests()));
+    }
+
+    /**
+     * Requests should keep their ids while requests are added and the oldest ones removed,
+     * removing by id should work at any position
+     */
+    @Test
+    public void removeRequestById() {
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        store.addRequest(requestEntries[2], false);
+
+        RequestQueueSnapshot snapshot = store.getRequestQueueSnapshot();
+        assertArrayEquals(new String[] { requestEntries[0], requestEntries[1], requestEntries[2] }, snapshot.requests);
+        assertEquals(snapshot.ids[0] + 1, snapshot.ids[1]);
+        assertEquals(snapshot.ids[1] + 1, snapshot.ids[2]);
+
+        assertTrue(store.removeRequestById(snapshot.ids[0]));
+        store.addRequest(requestEntries[3], false);
+        assertFalse(store.removeRequestById(snapshot.ids[0]));
+
+        RequestQueueSnapshot snapshot2 = store.getRequestQueueSnapshot();
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[2], requestEntries[3] }, snapshot2.requests);
+        assertEquals(snapshot.ids[1], snapshot2.ids[0]);
+        assertEquals(snapshot.ids[2], snapshot2.ids[1]);
+        assertTrue(snapshot2.ids[2] > snapshot.ids[2]);
+
+        assertTrue(store.removeRequestById(snapshot2.ids[1]));
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[3] }, store.getRequests());
+        assertTrue(store.removeRequestById(snapshot2.ids[2]));
+        assertTrue(store.removeRequestById(snapshot2.ids[0]));
+        assertEquals(0, store.getRequests().length);
+        assertEquals("", store.getRequestQueueRaw());
+    }
+
+    /**
+     * Removing multiple ids should do a single write, leading ids and ids in the middle should both work
+     */
+    @Test
+    public void removeRequestsById() {
+        for (int a = 0; a < 5; a++) {
+            store.addRequest(requestEntries[a], false);
+        }
+        long[] ids = store.getRequestQueueSnapshot().ids;
+
+        assertEquals(2, store.removeRequestsById(new long[] { ids[1], ids[0] }));
+        assertArrayEquals(new String[] { requestEntries[2], requestEntries[3], requestEntries[4] }, store.getRequests());
+
+        assertEquals(2, store.removeRequestsById(new long[] { ids[2], ids[4], ids[0], 12345L }));
+        assertArrayEquals(new String[] { requestEntries[3] }, store.getRequests());
+        assertEquals(ids[3], store.getRequestQueueSnapshot().ids[0]);
+    }
+
+    /**
+     * If the queue is rewritten as a whole, the old ids should not match anything
+     */
+    @Test
+    public void requestIds_invalidatedByRewrite() {
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        long[] ids = store.getRequestQueueSnapshot().ids;
+
+        store.replaceRequests(new String[] { requestEntries[1], requestEntries[0] });
+        assertFalse(store.removeRequestById(ids[0]));
+        assertEquals(0, store.removeRequestsById(ids));
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[0] }, store.getRequests());
+
+        // another store writing the same preferences
+        long[] newIds = store.getRequestQueueSnapshot().ids;
+        new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class)).addRequest(requestEntries[2], false);
+        assertFalse(store.removeRequestById(newIds[0]));
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[0], requestEntries[2] }, store.getRequests());
+    }
+
+    /**
+     * When the full queue drops its oldest request, the remaining requests keep their ids
+     */
+    @Test
+    public void requestIds_keptWhenTrimming() {
+        store.setLimits(3);
+        for (int a = 0; a < 3; a++) {
+            store.addRequest(requestEntries[a], false);
+        }
+        long[] ids = store.getRequestQueueSnapshot().ids;
+
+        store.addRequest(requestEntries[3], false);
+        long[] newIds = store.getRequestQueueSnapshot().ids;
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[2], requestEntries[3] }, store.getRequests());
+        assertEquals(ids[1], newIds[0]);
+        assertEquals(ids[2], newIds[1]);
+        assertTrue(newIds[2] > ids[2]);
+
+        assertTrue(store.removeRequestById(ids[2]));
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[3] }, store.getRequests());
+    }
+
+    /**
+     * Validating 'removeFirstRequest' and the entry counting
+     */
+    @Test
+    public void removeFirstRequest() {
+        assertFalse(store.removeFirstRequest());
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        assertTrue(store.removeFirstRequest());
+        assertArrayEquals(new String[] { requestEntries[1] }, store.getRequests());
+
+        assertEquals(0, CountlyStore.countRequestQueueEntries(""));
+        assertEquals(1, CountlyStore.countRequestQueueEntries("a"));
+        assertEquals(2, CountlyStore.countRequestQueueEntries(":::a"));
+        assertEquals(2, CountlyStore.countRequestQueueEntries("a:::b:::"));
+        assertEquals(0, CountlyStore.countRequestQueueEntries(":::"));
+    }
+
+    /**
+     * The cursor should return the same requests and ids as the snapshot
+     * and should not see requests that were added after it was created
+     */
+    @Test
+    public void getRequestQueueCursor() {
+        assertFalse(store.getRequestQueueCursor().hasNext());
+        assertNull(store.peekFirstRequest());
+
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        store.addRequest(requestEntries[2], false);
+        RequestQueueSnapshot snapshot = store.getRequestQueueSnapshot();
+
+        RequestQueueCursor cursor = store.getRequestQueueCursor();
+        store.addRequest(requestEntries[3], false);
+        assertEquals(requestEntries[0], store.peekFirstRequest());
+
+        assertEquals(3, cursor.size());
+        assertEquals(requestEntries[0], cursor.peekNext());
+        assertEquals(snapshot.ids[0], cursor.peekNextId());
+        assertEquals(requestEntries[0], cursor.next());
+        assertEquals(snapshot.ids[0], cursor.currentId());
+        assertEquals(2, cursor.remaining());
+
+        cursor.mark();
+        assertEquals(requestEntries[1], cursor.next());
+        assertEquals(requestEntries[2], cursor.next());
+        assertFalse(cursor.hasNext());
+        assertEquals(snapshot.ids[2], cursor.currentId());
+
+        cursor.reset();
+        assertEquals(2, cursor.remaining());
+        assertEquals(requestEntries[1], cursor.next());
+        assertEquals(snapshot.ids[1], cursor.currentId());
+    }
+
+    /**
+     * The transform pass should change and remove requests with a single write,
+     * changed requests should keep their ids and nothing should be written if nothing changed
+     */
+    @Test
+    public void transformRequests() {
+        for (int a = 0; a < 4; a++) {
+            store.addRequest(requestEntries[a], false);
+        }
+        long[] ids = store.getRequestQueueSnapshot().ids;
+        String rawBefore = store.getRequestQueueRaw();
+
+        assertEquals(0, store.transformRequests(new RequestTransformer() {
+            @Override public String transform(@NonNull String request) {
+                return request;
+            }
+        }));
+        assertEquals(rawBefore, store.getRequestQueueRaw());
+
+        assertEquals(2, store.transformRequests(new RequestTransformer() {
+            @Override public String transform(@NonNull String request) {
+                if (request.equals(requestEntries[1])) {
+                    return null;
+                } else if (request.equals(requestEntries[2])) {
+                    return "changed";
+                }
+                return request;
+            }
+        }));
+
+        RequestQueueSnapshot snapshot = store.getRequestQueueSnapshot();
+        assertArrayEquals(new String[] { requestEntries[0], "changed", requestEntries[3] }, snapshot.requests);
+        assertArrayEquals(new long[] { ids[0], ids[2], ids[3] }, snapshot.ids);
+        assertTrue(store.removeRequestById(ids[2]));
+        assertArrayEquals(new String[] { requestEntries[0], requestEntries[3] }, store.getRequests());
+    }
+
+    /**
+     * Splitting the queue should give the same result as 'String.split'
+     */
+    @Test
+    public void splitRequestQueue() {
+        String[] queues = { "", "a", ":::a", "a:::b", "a:::b:::", "a::::::b", ":::" };
+        for (String queue : queues) {
+            String[] expected = queue.isEmpty() ? new String[0] : queue.split(CountlyStore.DELIMITER);
+            assertArrayEquals(queue, expected, CountlyStore.splitRequestQueue(queue));
+        }
+    }
+
     /**
      * Validating that 'replaceRequests' and 'replaceRequestList' work as intended
      */
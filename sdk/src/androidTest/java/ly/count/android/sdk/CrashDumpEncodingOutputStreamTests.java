@@ -0,0 +1,72 @@
+package ly.count.android.sdk;
+
+import android.util.Base64;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CrashDumpEncodingOutputStreamTests {
+
+    /**
+     * The streamed output should be the same as encoding the whole dump to Base64, putting it in JSON and URL encoding it,
+     * no matter how the input is split between writes
+     */
+    @Test
+    public void sameAsInMemoryEncoding() throws IOException {
+        Random random = new Random(42);
+        int[] sizes = { 0, 1, 2, 3, 4, 5, 100, 4095, 4096, 10_000 };
+        int[] chunkSizes = { 1, 2, 3, 7, 1024, Integer.MAX_VALUE };
+
+        for (int size : sizes) {
+            byte[] dump = new byte[size];
+            random.nextBytes(dump);
+            String expected = expectedEncoding(dump);
+
+            for (int chunkSize : chunkSizes) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                CrashDumpEncodingOutputStream encodingStream = new CrashDumpEncodingOutputStream(output);
+                for (int a = 0; a < size; a += chunkSize) {
+                    encodingStream.write(dump, a, Math.min(chunkSize, size - a));
+                }
+                encodingStream.finish();
+
+                Assert.assertEquals("size " + size + " chunk " + chunkSize, expected, output.toString("UTF-8"));
+            }
+        }
+    }
+
+    /**
+     * Single byte writes should give the same result and writing after finishing should fail
+     */
+    @Test
+    public void singleByteWrites() throws IOException {
+        byte[] dump = { (byte) 0xfb, (byte) 0xff, (byte) 0xbf, 0, 1 };
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CrashDumpEncodingOutputStream encodingStream = new CrashDumpEncodingOutputStream(output);
+        for (byte b : dump) {
+            encodingStream.write(b);
+        }
+        encodingStream.finish();
+        Assert.assertEquals(expectedEncoding(dump), output.toString("UTF-8"));
+
+        try {
+            encodingStream.write(1);
+            Assert.fail("Writing after finish should fail");
+        } catch (IOException ignored) {
+        }
+    }
+
+    static String expectedEncoding(byte[] dump) {
+        String quoted = JSONObject.quote(Base64.encodeToString(dump, Base64.NO_WRAP));
+        String encoded = UtilsNetworking.urlEncodeString(quoted);
+        // without the encoded quotes
+        return encoded.substring(3, encoded.length() - 3);
+    }
+}
@@ -43,6 +43,9 @@ import org.junit.runner.RunWith;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(AndroidJUnit4.class)
@@ -310,4 +313,43 @@ public class DeviceInfoTests {
         metricOverride.put("_app_version", "");
         assertEquals("", regularDeviceInfo.getAppVersionWithOverride(TestUtils.getContext(), metricOverride));
     }
+
+    /**
+     * Static metrics should be collected once, configuration metrics again after a configuration change
+     * and the combined encoded metrics should be the same as encoding the whole JSON
+     */
+    @Test
+    public void metricsCache() throws UnsupportedEncodingException, JSONException {
+        MetricProvider mmp = spy(new MockedMetricProvider());
+        DeviceInfo deviceInfo = new DeviceInfo(mmp);
+        Context context = TestUtils.getContext();
+
+        String metrics = deviceInfo.getMetrics(context, null, new ModuleLog());
+        Assert.assertEquals(metrics, deviceInfo.getMetrics(context, null, new ModuleLog()));
+        deviceInfo.getCrashMetrics(context, false, null, new ModuleLog());
+
+        JSONObject expected = new JSONObject();
+        expected.put("_device", "C");
+        expected.put("_os", "A");
+        expected.put("_os_version", "B");
+        expected.put("_resolution", "E");
+        expected.put("_app_version", Countly.DEFAULT_APP_VERSION);
+        expected.put("_manufacturer", "D");
+        expected.put("_has_hinge", mmp.hasHinge(context));
+        expected.put("_carrier", "G");
+        expected.put("_density", "F");
+        expected.put("_locale", "H");
+        expected.put("_store", "J");
+        expected.put("_device_type", "K");
+        TestUtils.bothJSONObjEqual(expected, new JSONObject(URLDecoder.decode(metrics, "UTF-8")));
+
+        verify(mmp, times(1)).getStore(context);
+        verify(mmp, times(1)).getOpenGL(context);
+        verify(mmp, times(1)).getLocale();
+
+        deviceInfo.onConfigurationChanged();
+        deviceInfo.getMetrics(context, null, new ModuleLog());
+        verify(mmp, times(1)).getStore(context);
+        verify(mmp, times(2)).getLocale();
+    }
 }
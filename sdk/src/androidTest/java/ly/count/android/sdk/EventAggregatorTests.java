@@ -0,0 +1,107 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.internal.util.collections.Sets;
+
+@RunWith(AndroidJUnit4.class)
+public class EventAggregatorTests {
+
+    Event event(String key, Map<String, Object> segmentation, String cvid, String id) {
+        Event event = new Event(key, 1000L, 10, 2);
+        event.segmentation = segmentation;
+        event.cvid = cvid;
+        event.id = id;
+        event.count = 1;
+        event.sum = 1;
+        event.dur = 1;
+        return event;
+    }
+
+    Map<String, Object> segmentation(Object value) {
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("a", value);
+        return segmentation;
+    }
+
+    /**
+     * Only events with the same key, segmentation and current view are merged,
+     * the first event keeps its ID and timestamp
+     */
+    @Test
+    public void merge() {
+        EventAggregator aggregator = new EventAggregator(1000, null, null);
+
+        Assert.assertFalse(aggregator.merge("k", segmentation(1), "v", 1, 2, 3));
+        aggregator.start(event("k", segmentation(1), "v", "id1"), 0);
+
+        Assert.assertTrue(aggregator.merge("k", segmentation(1), "v", 2, 2.5, 3));
+        Assert.assertTrue(aggregator.merge("k", segmentation(1), "v", 3, 0, 0.5));
+        Assert.assertFalse(aggregator.merge("k", segmentation(2), "v", 1, 0, 0));
+        Assert.assertFalse(aggregator.merge("k", segmentation(1), "v2", 1, 0, 0));
+        Assert.assertFalse(aggregator.merge("k2", segmentation(1), "v", 1, 0, 0));
+        Assert.assertFalse(aggregator.merge("k", null, "v", 1, 0, 0));
+        Assert.assertEquals(1, aggregator.size());
+
+        List<Event> events = aggregator.takeAll();
+        Assert.assertEquals(1, events.size());
+        Event merged = events.get(0);
+        Assert.assertEquals("id1", merged.id);
+        Assert.assertEquals(1000L, merged.timestamp);
+        Assert.assertEquals(6, merged.count);
+        Assert.assertEquals(3.5, merged.sum, 0.0001);
+        Assert.assertEquals(4.5, merged.dur, 0.0001);
+        Assert.assertEquals(0, aggregator.size());
+    }
+
+    /**
+     * Events are taken out in the order their windows started, once their window has ended
+     */
+    @Test
+    public void takeExpired() {
+        EventAggregator aggregator = new EventAggregator(10, null, null);
+        long ms = 1_000_000L;
+
+        aggregator.start(event("a", null, null, "id1"), 0);
+        aggregator.start(event("b", null, null, "id2"), 5 * ms);
+        aggregator.start(event("c", null, null, "id3"), 7 * ms);
+
+        Assert.assertEquals(0, aggregator.takeExpired(9 * ms).size());
+
+        List<Event> expired = aggregator.takeExpired(15 * ms);
+        Assert.assertEquals(2, expired.size());
+        Assert.assertEquals("id1", expired.get(0).id);
+        Assert.assertEquals("id2", expired.get(1).id);
+
+        // a new window for the same event can be started
+        Assert.assertFalse(aggregator.merge("a", null, null, 1, 0, 0));
+        Assert.assertTrue(aggregator.merge("c", null, null, 1, 0, 0));
+
+        expired = aggregator.takeExpired(17 * ms);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertEquals(2, expired.get(0).count);
+    }
+
+    /**
+     * The deny list is checked before the allow list
+     */
+    @Test
+    public void shouldAggregate() {
+        EventAggregator all = new EventAggregator(10, null, null);
+        Assert.assertTrue(all.shouldAggregate("a"));
+
+        EventAggregator allowed = new EventAggregator(10, Sets.newSet("a", "b"), Sets.newSet("b"));
+        Assert.assertTrue(allowed.shouldAggregate("a"));
+        Assert.assertFalse(allowed.shouldAggregate("b"));
+        Assert.assertFalse(allowed.shouldAggregate("c"));
+
+        EventAggregator denied = new EventAggregator(10, null, Sets.newSet("b"));
+        Assert.assertTrue(denied.shouldAggregate("a"));
+        Assert.assertFalse(denied.shouldAggregate("b"));
+    }
+}
@@ -0,0 +1,110 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class EventBatchWriterTests {
+
+    /**
+     * The previous way of creating the event request data
+     */
+    String expected(List<Event> events) throws Exception {
+        JSONArray eventArray = new JSONArray();
+        for (Event e : events) {
+            eventArray.put(e.toJSON());
+        }
+        return URLEncoder.encode(eventArray.toString(), "UTF-8");
+    }
+
+    Event event(String key, Map<String, Object> segmentation) {
+        Event event = new Event(key, 1_700_000_000_123L, 23, 6);
+        event.segmentation = segmentation;
+        event.count = 3;
+        return event;
+    }
+
+    /**
+     * Every supported segmentation value type, numbers and strings with special characters
+     * should be written exactly like org.json and URLEncoder do it
+     */
+    @Test
+    public void sameAsJSONArray() throws Exception {
+        Map<String, Object> segmentation = new LinkedHashMap<>();
+        segmentation.put("string", "a/b\"c\\d\u0001\u001f \t\n\b\f\r é€ 😀 +&=%?");
+        segmentation.put("lone surrogate", "x\ud83d y");
+        segmentation.put("int", -1234);
+        segmentation.put("long", 9_007_199_254_740_993L);
+        segmentation.put("double", 1234.55d);
+        segmentation.put("whole double", 2.0d);
+        segmentation.put("big double", 1e20d);
+        segmentation.put("small double", 1e-7d);
+        segmentation.put("negative zero", -0.0d);
+        segmentation.put("negative zero float", -0.0f);
+        segmentation.put("float", 45.4f);
+        segmentation.put("bool", false);
+        segmentation.put("list", Arrays.asList("a/", 1, 2.5d, 45.4f, true, 7L, 'c'));
+        segmentation.put("int array", new int[] { 1, -2 });
+        segmentation.put("long array", new long[] { 9_000_000_000L });
+        segmentation.put("double array", new double[] { 1.5, 2.0, -0.0 });
+        segmentation.put("float array", new float[] { 45.4f });
+        segmentation.put("boolean array", new boolean[] { true, false });
+        segmentation.put("string array", new String[] { "x y", "ä" });
+        segmentation.put("boxed array", new Integer[] { 1, 2 });
+        segmentation.put("json array", new JSONArray(Arrays.asList(1, "b")));
+        segmentation.put("other", new StringBuilder("sb/"));
+        segmentation.put("null", JSONObject.NULL);
+        segmentation.put(ModuleEvents.VISIBILITY_KEY, 1);
+
+        Event full = event("key with spaces/ä", segmentation);
+        full.sum = -3.25;
+        full.dur = 12.5;
+        full.id = "id/1";
+        full.pvid = "pvid";
+        full.cvid = "cvid";
+        full.peid = "peid";
+
+        Event minimal = event("[CLY]_view", null);
+        Event emptySegmentation = event("e", new LinkedHashMap<String, Object>());
+        emptySegmentation.sum = 2.0;
+        emptySegmentation.dur = -1;
+        Event negativeZeroSum = event("z", null);
+        negativeZeroSum.sum = -0.0;
+
+        List<Event> events = Arrays.asList(full, minimal, emptySegmentation, negativeZeroSum);
+        Assert.assertEquals(expected(events), EventBatchWriter.writeEvents(events));
+        Assert.assertEquals(expected(new ArrayList<Event>()), EventBatchWriter.writeEvents(new ArrayList<Event>()));
+    }
+
+    /**
+     * Events with values that org.json handles in a special way should still give the same result
+     */
+    @Test
+    public void fallbackToJSON() throws Exception {
+        Map<String, Object> nestedList = new LinkedHashMap<>();
+        nestedList.put("nested", Arrays.asList(Collections.singletonList(1)));
+        Map<String, Object> jsonObject = new LinkedHashMap<>();
+        jsonObject.put("object", new JSONObject().put("a", 1));
+        Map<String, Object> notFinite = new LinkedHashMap<>();
+        notFinite.put("a", 1);
+        notFinite.put("nan", Double.NaN);
+
+        Event infiniteSum = event("sum", null);
+        infiniteSum.sum = Double.POSITIVE_INFINITY;
+        infiniteSum.dur = 3;
+
+        List<Event> events = Arrays.asList(event("a", nestedList), event("b", jsonObject), event("c", notFinite), infiniteSum, event("d", null));
+        Assert.assertEquals(expected(events), EventBatchWriter.writeEvents(events));
+    }
+}
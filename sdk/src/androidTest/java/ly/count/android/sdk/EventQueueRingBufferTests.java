@@ -0,0 +1,191 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class EventQueueRingBufferTests {
+    CountlyStore store;
+    EventQueueRingBuffer ringBuffer;
+    ModuleLog mockLog;
+
+    @Before
+    public void setUp() {
+        mockLog = mock(ModuleLog.class);
+        store = new CountlyStore(TestUtils.getContext(), mockLog);
+        store.clear();
+        ringBuffer = store.enableEventQueueRingBuffer(TestUtils.getContext());
+        ringBuffer.clear();
+    }
+
+    @After
+    public void tearDown() {
+        store.clear();
+    }
+
+    Event createEvent(String key, long timestamp) {
+        Event e = new Event();
+        e.key = key;
+        e.timestamp = timestamp;
+        e.hour = 3;
+        e.dow = 5;
+        e.id = "id_" + key;
+        return e;
+    }
+
+    EventQueueRingBuffer reopenRingBuffer() {
+        ringBuffer.journal.close();
+        return new EventQueueRingBuffer(TestUtils.getContext().getFilesDir(), CountlyStore.MAX_EVENTS, mockLog);
+    }
+
+    /**
+     * Recorded events should be returned sorted by timestamp and the size should match
+     */
+    @Test
+    public void recordAndGet() {
+        Event e1 = createEvent("a", 300);
+        Event e2 = createEvent("b", 100);
+        Event e3 = createEvent("c", 200);
+        store.addEvent(e1);
+        store.addEvent(e2);
+        ringBuffer.recordEventToEventQueue(e3.key, null, 1, 0, 0, e3.timestamp, e3.hour, e3.dow, e3.id, null, null, null);
+
+        Assert.assertEquals(3, store.getEventQueueSize());
+        Assert.assertEquals(Arrays.asList(e2, e3, e1), store.getEventList());
+        Assert.assertEquals(3, store.getEvents().length);
+    }
+
+    /**
+     * Draining should produce the same request data as the preference based queue and empty the queue
+     */
+    @Test
+    public void drainMatchesPreferenceQueue() throws Exception {
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("s", "ÄÖ v");
+        Event e1 = createEvent("a", 200);
+        e1.segmentation = segmentation;
+        Event e2 = createEvent("b", 100);
+        store.addEvent(e1);
+        store.addEvent(e2);
+
+        JSONArray expected = new JSONArray();
+        expected.put(e2.toJSON());
+        expected.put(e1.toJSON());
+
+        Assert.assertEquals(URLEncoder.encode(expected.toString(), "UTF-8"), store.getEventsForRequestAndEmptyEventQueue());
+        Assert.assertEquals(0, store.getEventQueueSize());
+        Assert.assertEquals(0, reopenRingBuffer().size());
+    }
+
+    /**
+     * Events should survive the buffer being recreated,
+     * also after the ring wrapped around
+     */
+    @Test
+    public void persistence_reopen() {
+        store.addEvent(createEvent("a", 100));
+        store.getEventsForRequestAndEmptyEventQueue();
+        store.addEvent(createEvent("b", 200));
+        store.addEvent(createEvent("c", 300));
+
+        EventQueueRingBuffer reopened = reopenRingBuffer();
+        Assert.assertEquals(Arrays.asList(createEvent("b", 200), createEvent("c", 300)), reopened.getEventList());
+    }
+
+    /**
+     * Once the buffer is full, new events should be dropped
+     */
+    @Test
+    public void add_capacityLimit() {
+        EventQueueRingBuffer small = new EventQueueRingBuffer(TestUtils.getContext().getFilesDir(), 2, mockLog);
+        small.clear();
+        Assert.assertTrue(small.add(createEvent("a", 1)));
+        Assert.assertTrue(small.add(createEvent("b", 2)));
+        Assert.assertFalse(small.add(createEvent("c", 3)));
+        Assert.assertEquals(2, small.size());
+
+        small.drainEvents();
+        Assert.assertTrue(small.add(createEvent("d", 4)));
+        Assert.assertEquals(Collections.singletonList(createEvent("d", 4)), small.getEventList());
+        small.clear();
+    }
+
+    /**
+     * Removing events should keep the rest, also after reopening
+     */
+    @Test
+    public void removeEvents() {
+        store.addEvent(createEvent("a", 100));
+        store.addEvent(createEvent("b", 200));
+        store.addEvent(createEvent("c", 300));
+        store.removeEvents(Collections.singletonList(createEvent("b", 200)));
+
+        List<Event> expected = Arrays.asList(createEvent("a", 100), createEvent("c", 300));
+        Assert.assertEquals(expected, store.getEventList());
+        Assert.assertEquals(expected, reopenRingBuffer().getEventList());
+    }
+
+    /**
+     * If the compacted journal can't be written, the journal should still hold exactly the events of the buffer
+     */
+    @Test
+    public void removeEvents_failedCompaction() {
+        store.addEvent(createEvent("a", 100));
+        store.addEvent(createEvent("b", 200));
+        store.addEvent(createEvent("c", 300));
+
+        // a directory in place of the temp segment makes writing it fail
+        File blocker = new File(ringBuffer.journal.directory, RecordJournal.SEGMENT_PREFIX + 1 + RecordJournal.TEMP_SUFFIX);
+        Assert.assertTrue(blocker.mkdirs());
+        store.removeEvents(Collections.singletonList(createEvent("b", 200)));
+
+        List<Event> expected = Arrays.asList(createEvent("a", 100), createEvent("c", 300));
+        Assert.assertEquals(expected, store.getEventList());
+        Assert.assertEquals(expected, reopenRingBuffer().getEventList());
+
+        ringBuffer = reopenRingBuffer();
+        Assert.assertEquals(expected, ringBuffer.drainEvents());
+        Assert.assertEquals(0, reopenRingBuffer().size());
+    }
+
+    /**
+     * Events in the preference should be moved into the buffer during migration
+     * and moved back if the buffer is not used anymore
+     */
+    @Test
+    public void migration_roundTrip() {
+        CountlyStore legacyStore = new CountlyStore(TestUtils.getContext(), mockLog);
+        legacyStore.addEvent(createEvent("a", 100));
+        legacyStore.addEvent(createEvent("b", 200));
+
+        Map<String, Object> migrationParams = new HashMap<>();
+        migrationParams.put(MigrationHelper.key_from_0_to_1_custom_id_set, false);
+
+        new MigrationHelper(store, mockLog, TestUtils.getContext()).doWork(migrationParams);
+
+        Assert.assertEquals(2, store.getEventQueueSize());
+        Assert.assertEquals(0, legacyStore.getEventQueueSize());
+
+        store.addEvent(createEvent("c", 300));
+        ringBuffer.journal.close();
+
+        new MigrationHelper(legacyStore, mockLog, TestUtils.getContext()).doWork(migrationParams);
+
+        Assert.assertEquals(Arrays.asList(createEvent("a", 100), createEvent("b", 200), createEvent("c", 300)), legacyStore.getEventList());
+        Assert.assertFalse(EventQueueRingBuffer.journalExists(TestUtils.getContext().getFilesDir()));
+    }
+}
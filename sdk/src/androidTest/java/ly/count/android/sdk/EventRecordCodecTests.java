@@ -0,0 +1,145 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class EventRecordCodecTests {
+
+    Event fullEvent() {
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("string", "ÄÖ v&=\"");
+        segmentation.put("int", -1234);
+        segmentation.put("long", 9_000_000_000L);
+        segmentation.put("double", 1234.55d);
+        segmentation.put("float", 45.4f);
+        segmentation.put("bool", true);
+        segmentation.put("list", Arrays.asList("a", 1, 2.5d, false));
+        segmentation.put("array", new int[] { 1, 2, 3 });
+        segmentation.put(ModuleEvents.VISIBILITY_KEY, 1);
+
+        Event event = new Event("custom key", 1_700_000_000_123L, 23, 6);
+        event.segmentation = segmentation;
+        event.count = 5;
+        event.sum = -3.25;
+        event.dur = 12.5;
+        event.id = "id";
+        event.pvid = "pvid";
+        event.cvid = "cvid";
+        event.peid = "peid";
+        return event;
+    }
+
+    void assertSameJSON(Event expected, Event actual) throws Exception {
+        // key order inside JSON objects can differ, compare the values one by one
+        JSONObject expectedJSON = expected.toJSON();
+        JSONObject actualJSON = actual.toJSON();
+        Assert.assertEquals(expectedJSON.length(), actualJSON.length());
+        Assert.assertEquals(expectedJSON.toString().length(), actualJSON.toString().length());
+        for (String key : new String[] { Event.KEY_KEY, Event.TIMESTAMP_KEY, Event.HOUR_KEY, Event.DAY_OF_WEEK_KEY, Event.ID_KEY, Event.PV_ID_KEY, Event.CV_ID_KEY, Event.PE_ID_KEY }) {
+            Assert.assertEquals(expectedJSON.get(key).toString(), actualJSON.get(key).toString());
+        }
+        Assert.assertEquals(expectedJSON.getJSONObject(Event.SEGMENTATION_KEY).toString().length(), actualJSON.getJSONObject(Event.SEGMENTATION_KEY).toString().length());
+        for (String key : new String[] { "string", "int", "long", "double", "float", "bool", "list", "array" }) {
+            Assert.assertEquals(expectedJSON.getJSONObject(Event.SEGMENTATION_KEY).get(key).toString(), actualJSON.getJSONObject(Event.SEGMENTATION_KEY).get(key).toString());
+        }
+        Assert.assertEquals(expectedJSON.getDouble(Event.SUM_KEY), actualJSON.getDouble(Event.SUM_KEY), 0);
+        Assert.assertEquals(expectedJSON.getDouble(Event.DUR_KEY), actualJSON.getDouble(Event.DUR_KEY), 0);
+        Assert.assertEquals(expectedJSON.getInt(Event.COUNT_KEY), actualJSON.getInt(Event.COUNT_KEY));
+    }
+
+    /**
+     * A decoded event should be equal to the original and produce the same JSON
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        Event event = fullEvent();
+        byte[] record = EventRecordCodec.encode(event);
+        Assert.assertNotNull(record);
+        Assert.assertTrue(EventRecordCodec.isBinaryRecord(record));
+        Assert.assertTrue(record.length < event.toJSON().toString().getBytes(Charset.forName("UTF-8")).length);
+
+        Event decoded = EventRecordCodec.decode(record);
+        Assert.assertNotNull(decoded);
+        assertSameJSON(event, decoded);
+        Assert.assertTrue(decoded.segmentation.get("list") instanceof JSONArray);
+        Assert.assertTrue(decoded.segmentation.get("float") instanceof Float);
+        Assert.assertTrue(decoded.segmentation.get("long") instanceof Long);
+
+        // a decoded event can be encoded again
+        Assert.assertEquals(record.length, EventRecordCodec.encode(decoded).length);
+    }
+
+    /**
+     * Events with only the required fields and with interned keys should be encoded in a few bytes
+     */
+    @Test
+    public void minimalEvent() {
+        Event event = new Event(ModuleViews.VIEW_EVENT_KEY, 1000, 1, 2);
+        event.count = 1;
+        event.segmentation = new HashMap<>();
+
+        byte[] record = EventRecordCodec.encode(event);
+        // version, flags, interned key, count, 2 byte timestamp, hour, dow
+        Assert.assertEquals(8, record.length);
+
+        Event decoded = EventRecordCodec.decode(record);
+        Assert.assertEquals(event.key, decoded.key);
+        Assert.assertEquals(event.timestamp, decoded.timestamp);
+        Assert.assertEquals(event.hour, decoded.hour);
+        Assert.assertEquals(event.dow, decoded.dow);
+        Assert.assertEquals(1, decoded.count);
+        Assert.assertNull(decoded.segmentation);
+        Assert.assertNull(decoded.id);
+        Assert.assertEquals(0, decoded.sum, 0);
+        Assert.assertEquals(0, decoded.dur, 0);
+    }
+
+    /**
+     * Values the format can't hold should make the encoder give up, broken records should not be decoded
+     */
+    @Test
+    public void unsupportedAndBroken() {
+        Event event = fullEvent();
+        event.segmentation.put("nested", Arrays.asList(new ArrayList<>()));
+        Assert.assertNull(EventRecordCodec.encode(event));
+
+        event = fullEvent();
+        event.segmentation.put("object", new Object());
+        Assert.assertNull(EventRecordCodec.encode(event));
+
+        byte[] record = EventRecordCodec.encode(fullEvent());
+        Assert.assertNull(EventRecordCodec.decode(Arrays.copyOf(record, record.length - 1)));
+        Assert.assertNull(EventRecordCodec.decode(Arrays.copyOf(record, record.length + 1)));
+        Assert.assertNull(EventRecordCodec.decode(new byte[] { '{' }));
+        Assert.assertNull(EventRecordCodec.decode(new byte[0]));
+    }
+
+    /**
+     * The ring buffer records should fall back to JSON and read JSON records of older versions
+     */
+    @Test
+    public void ringBufferRecords() throws Exception {
+        Event event = fullEvent();
+        Event decoded = EventQueueRingBuffer.decodeRecord(EventQueueRingBuffer.encodeRecord(event));
+        assertSameJSON(event, decoded);
+
+        event.segmentation.put("object", new StringBuilder("x"));
+        byte[] jsonRecord = EventQueueRingBuffer.encodeRecord(event);
+        Assert.assertEquals('{', jsonRecord[0]);
+
+        // older versions stored the UTF-8 bytes of the JSON
+        event = fullEvent();
+        byte[] legacy = event.toJSON().toString().getBytes(Charset.forName("UTF-8"));
+        assertSameJSON(event, EventQueueRingBuffer.decodeRecord(legacy));
+    }
+}
@@ -0,0 +1,126 @@
+package ly.count.android.sdk;
+
+import android.view.View;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class FrameMetricsCollectorTests {
+
+    static long ms(double ms) {
+        return (long) (ms * 1_000_000L);
+    }
+
+    /**
+     * Frames are counted as slow and frozen based on their duration and put into the right histogram bucket
+     */
+    @Test
+    public void frameStats() {
+        FrameMetricsCollector.FrameStats stats = new FrameMetricsCollector.FrameStats();
+        stats.recordFrame(ms(5));
+        stats.recordFrame(ms(8));
+        stats.recordFrame(ms(16));
+        stats.recordFrame(ms(16.5));
+        stats.recordFrame(ms(40));
+        stats.recordFrame(ms(700));
+        stats.recordFrame(ms(1200));
+        stats.recordFrame(-1);
+
+        Assert.assertEquals(7, stats.getFrameCount());
+        Assert.assertEquals(4, stats.getSlowFrameCount());
+        Assert.assertEquals(1, stats.getFrozenFrameCount());
+
+        Assert.assertEquals(2, stats.getBucketCount(0));//0-8
+        Assert.assertEquals(1, stats.getBucketCount(1));//8-16
+        Assert.assertEquals(1, stats.getBucketCount(2));//16-24
+        Assert.assertEquals(1, stats.getBucketCount(4));//32-50
+        Assert.assertEquals(1, stats.getBucketCount(7));//250-700
+        Assert.assertEquals(1, stats.getBucketCount(8));//700+
+
+        long bucketSum = 0;
+        for (int a = 0; a < FrameMetricsCollector.BUCKET_COUNT; a++) {
+            bucketSum += stats.getBucketCount(a);
+        }
+        Assert.assertEquals(stats.getFrameCount(), bucketSum);
+    }
+
+    /**
+     * Without frame metrics, a frame is slow once a vsync of the display was missed
+     */
+    @Test
+    public void choreographerSlowFrameThreshold() {
+        Assert.assertEquals(ms(25), FrameMetricsCollector.choreographerSlowFrameNs(60), ms(0.01));
+        Assert.assertEquals(ms(50), FrameMetricsCollector.choreographerSlowFrameNs(30), ms(0.01));
+        Assert.assertEquals(FrameMetricsCollector.SLOW_FRAME_NS, FrameMetricsCollector.choreographerSlowFrameNs(120));
+        Assert.assertEquals(FrameMetricsCollector.choreographerSlowFrameNs(60), FrameMetricsCollector.choreographerSlowFrameNs(0));
+    }
+
+    /**
+     * Only frames in which the view was drawn are recorded, frames on time at 60 Hz are not slow
+     */
+    @Test
+    public void choreographerSource_drawnFramesOnly() {
+        FrameMetricsCollector.FrameStats stats = new FrameMetricsCollector.FrameStats();
+        stats.slowFrameNs = FrameMetricsCollector.choreographerSlowFrameNs(60);
+        FrameMetricsCollector.ChoreographerSource source = new FrameMetricsCollector.ChoreographerSource(stats, mock(View.class));
+
+        long vsync = 16_666_667L;
+        long frameTime = 0;
+        source.onFrame(frameTime);
+        for (int a = 0; a < 10; a++) {
+            // idle vsyncs
+            frameTime += vsync;
+            source.onFrame(frameTime);
+        }
+        Assert.assertEquals(0, stats.getFrameCount());
+
+        source.onDraw();
+        frameTime += vsync;
+        source.onFrame(frameTime);
+        source.onDraw();
+        frameTime += 3 * vsync;
+        source.onFrame(frameTime);
+
+        Assert.assertEquals(2, stats.getFrameCount());
+        Assert.assertEquals(1, stats.getSlowFrameCount());
+
+        // without a view every frame is recorded
+        FrameMetricsCollector.FrameStats allFrames = new FrameMetricsCollector.FrameStats();
+        FrameMetricsCollector.ChoreographerSource withoutView = new FrameMetricsCollector.ChoreographerSource(allFrames, null);
+        withoutView.onFrame(0);
+        withoutView.onFrame(vsync);
+        withoutView.onFrame(2 * vsync);
+        Assert.assertEquals(2, allFrames.getFrameCount());
+    }
+
+    /**
+     * The metric string can be added to a trace
+     */
+    @Test
+    public void metricString() throws Exception {
+        FrameMetricsCollector.FrameStats stats = new FrameMetricsCollector.FrameStats();
+        JSONObject empty = new JSONObject("{\"duration\":1" + stats.toMetricString() + "}");
+        Assert.assertEquals(0, empty.getInt("total_frames"));
+        Assert.assertEquals(0, empty.getInt("frame_time_avg"));
+
+        stats.recordFrame(ms(10));
+        stats.recordFrame(ms(30));
+        stats.recordFrame(ms(800));
+
+        JSONObject metrics = new JSONObject("{\"duration\":1" + stats.toMetricString() + "}");
+        Assert.assertEquals(3, metrics.getInt("total_frames"));
+        Assert.assertEquals(2, metrics.getInt("slow_rendering_frames"));
+        Assert.assertEquals(1, metrics.getInt("frozen_frames"));
+        Assert.assertEquals(280, metrics.getInt("frame_time_avg"));
+        Assert.assertEquals(800, metrics.getInt("frame_time_max"));
+        Assert.assertEquals(1, metrics.getInt("frames_8_16ms"));
+        Assert.assertEquals(1, metrics.getInt("frames_24_32ms"));
+        Assert.assertEquals(1, metrics.getInt("frames_700_plusms"));
+        Assert.assertEquals(0, metrics.getInt("frames_0_8ms"));
+    }
+}
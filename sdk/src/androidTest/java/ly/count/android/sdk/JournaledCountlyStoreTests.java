@@ -0,0 +1,297 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class JournaledCountlyStoreTests {
+    JournaledCountlyStore store;
+    ModuleLog mockLog;
+    final String[] requestEntries = TestUtils.requestEntries;
+
+    @Before
+    public void setUp() {
+        mockLog = mock(ModuleLog.class);
+        store = new JournaledCountlyStore(TestUtils.getContext(), mockLog);
+        store.clear();
+    }
+
+    @After
+    public void tearDown() {
+        store.clear();
+    }
+
+    JournaledCountlyStore reopenStore() {
+        store.journal.close();
+        return new JournaledCountlyStore(TestUtils.getContext(), mockLog);
+    }
+
+    /**
+     * A cleared store should return an empty request queue
+     */
+    @Test
+    public void getRequests_InitialState() {
+        Assert.assertArrayEquals(new String[0], store.getRequests());
+        Assert.assertEquals("", store.getRequestQueueRaw());
+    }
+
+    /**
+     * Added requests should be returned in the order they were added
+     * and be joined with the usual delimiter in the raw queue
+     */
+    @Test
+    public void addRequest_order() {
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        store.addRequest(requestEntries[2], true);
+
+        Assert.assertArrayEquals(new String[] { requestEntries[0], requestEntries[1], requestEntries[2] }, store.getRequests());
+        Assert.assertEquals(requestEntries[0] + CountlyStore.DELIMITER + requestEntries[1] + CountlyStore.DELIMITER + requestEntries[2], store.getRequestQueueRaw());
+    }
+
+    /**
+     * Requests should survive the store being recreated
+     * Removed requests should stay removed
+     */
+    @Test
+    public void persistence_reopen() {
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        store.addRequest(requestEntries[2], false);
+        store.removeRequest(requestEntries[0]);
+
+        JournaledCountlyStore reopened = reopenStore();
+        Assert.assertArrayEquals(new String[] { requestEntries[1], requestEntries[2] }, reopened.getRequests());
+
+        reopened.removeRequest(requestEntries[2]);
+        reopened.addRequest(requestEntries[3], false);
+
+        reopened = reopenStore();
+        Assert.assertArrayEquals(new String[] { requestEntries[1], requestEntries[3] }, reopened.getRequests());
+    }
+
+    /**
+     * Requests that contain the delimiter or non ASCII characters should be stored as is
+     */
+    @Test
+    public void addRequest_specialCharacters() {
+        String req = "a=1" + CountlyStore.DELIMITER + "b=ÄÖ日本";
+        store.addRequest(req, false);
+        store.addRequest(requestEntries[0], false);
+
+        Assert.assertArrayEquals(new String[] { req, requestEntries[0] }, reopenStore().getRequests());
+    }
+
+    /**
+     * Once the queue is full, the oldest requests should be removed
+     */
+    @Test
+    public void addRequest_queueLimit() {
+        store.setLimits(3);
+        for (int a = 0; a < 5; a++) {
+            store.addRequest("r" + a, false);
+        }
+
+        Assert.assertArrayEquals(new String[] { "r2", "r3", "r4" }, store.getRequests());
+        Assert.assertArrayEquals(new String[] { "r2", "r3", "r4" }, reopenStore().getRequests());
+    }
+
+    /**
+     * Filling more than one segment and removing from the head should delete consumed segments
+     */
+    @Test
+    public void removeRequest_segmentRollover() {
+        char[] filler = new char[RequestQueueJournal.SEGMENT_MAX_BYTES / 4];
+        Arrays.fill(filler, 'x');
+        String base = new String(filler);
+
+        for (int a = 0; a < 10; a++) {
+            store.addRequest(base + a, false);
+        }
+
+        for (int a = 0; a < 9; a++) {
+            store.removeRequest(base + a);
+        }
+
+        Assert.assertArrayEquals(new String[] { base + 9 }, store.getRequests());
+
+        File[] files = store.journal.directory.listFiles();
+        Assert.assertNotNull(files);
+        int segmentCount = 0;
+        for (File f : files) {
+            if (RequestQueueJournal.segmentIndex(f.getName()) >= 0) {
+                segmentCount++;
+            }
+        }
+        Assert.assertEquals(1, segmentCount);
+        Assert.assertArrayEquals(new String[] { base + 9 }, reopenStore().getRequests());
+    }
+
+    /**
+     * Removing the oldest requests together should only move the head,
+     * removing requests from the middle should compact the journal
+     */
+    @Test
+    public void removeRequests() {
+        for (int a = 0; a < 5; a++) {
+            store.addRequest(requestEntries[a], false);
+        }
+
+        store.removeRequests(Arrays.asList(requestEntries[0], requestEntries[1]));
+        Assert.assertArrayEquals(new String[] { requestEntries[2], requestEntries[3], requestEntries[4] }, store.getRequests());
+
+        store.removeRequests(Arrays.asList(requestEntries[3], requestEntries[6]));
+        Assert.assertArrayEquals(new String[] { requestEntries[2], requestEntries[4] }, store.getRequests());
+        Assert.assertArrayEquals(new String[] { requestEntries[2], requestEntries[4] }, reopenStore().getRequests());
+    }
+
+    /**
+     * Replacing requests should overwrite the whole queue
+     */
+    @Test
+    public void replaceRequests() {
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        store.replaceRequests(new String[] { requestEntries[4], requestEntries[5] });
+
+        Assert.assertArrayEquals(new String[] { requestEntries[4], requestEntries[5] }, store.getRequests());
+        Assert.assertArrayEquals(new String[] { requestEntries[4], requestEntries[5] }, reopenStore().getRequests());
+    }
+
+    /**
+     * If the compacted segment can't be written, the current segments and head are kept
+     */
+    @Test
+    public void replaceRequests_failedWriteKeepsQueue() {
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+
+        // a directory in place of the temp segment makes writing it fail
+        File blocker = new File(store.journal.directory, RequestQueueJournal.SEGMENT_PREFIX + 1 + RequestQueueJournal.TEMP_SUFFIX);
+        Assert.assertTrue(blocker.mkdirs());
+
+        store.replaceRequests(new String[] { requestEntries[4] });
+        Assert.assertArrayEquals(new String[] { requestEntries[0], requestEntries[1] }, store.getRequests());
+        Assert.assertTrue(store.journal.segmentFile(0).exists());
+
+        store.addRequest(requestEntries[2], false);
+        //noinspection ResultOfMethodCallIgnored
+        blocker.delete();
+        Assert.assertArrayEquals(new String[] { requestEntries[0], requestEntries[1], requestEntries[2] }, reopenStore().getRequests());
+    }
+
+    /**
+     * A record that was only partially written should be ignored and overwritten by the next request
+     */
+    @Test
+    public void tornRecordIsDropped() throws Exception {
+        store.addRequest(requestEntries[0], true);
+        store.journal.close();
+
+        File segment = store.journal.segmentFile(0);
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(raf.length());
+        raf.writeInt(1000);
+        raf.write(new byte[] { 1, 2, 3 });
+        raf.close();
+
+        JournaledCountlyStore reopened = new JournaledCountlyStore(TestUtils.getContext(), mockLog);
+        Assert.assertArrayEquals(new String[] { requestEntries[0] }, reopened.getRequests());
+
+        reopened.addRequest(requestEntries[1], false);
+        Assert.assertArrayEquals(new String[] { requestEntries[0], requestEntries[1] }, reopenStore().getRequests());
+    }
+
+    /**
+     * Requests stored in the preference based queue should be moved into the journal during migration
+     * and moved back if the journal is not used anymore
+     */
+    @Test
+    public void migration_roundTrip() {
+        CountlyStore legacyStore = new CountlyStore(TestUtils.getContext(), mockLog);
+        legacyStore.addRequest(requestEntries[0], false);
+        legacyStore.addRequest(requestEntries[1], false);
+
+        Map<String, Object> migrationParams = new HashMap<>();
+        migrationParams.put(MigrationHelper.key_from_0_to_1_custom_id_set, false);
+
+        MigrationHelper mh = new MigrationHelper(store, mockLog, TestUtils.getContext());
+        mh.doWork(migrationParams);
+
+        Assert.assertArrayEquals(new String[] { requestEntries[0], requestEntries[1] }, store.getRequests());
+        Assert.assertArrayEquals(new String[0], legacyStore.getRequests());
+
+        store.addRequest(requestEntries[2], false);
+        store.journal.close();
+
+        mh = new MigrationHelper(legacyStore, mockLog, TestUtils.getContext());
+        mh.doWork(migrationParams);
+
+        Assert.assertArrayEquals(new String[] { requestEntries[0], requestEntries[1], requestEntries[2] }, legacyStore.getRequests());
+        Assert.assertFalse(RequestQueueJournal.journalExists(TestUtils.getContext().getFilesDir()));
+    }
+
+    /**
+     * Ids should survive compaction of the journal and removing the oldest requests by id should only move the head
+     */
+    @Test
+    public void removeRequestsById() {
+        for (int a = 0; a < 4; a++) {
+            store.addRequest("r" + a, false);
+        }
+        long[] ids = store.getRequestQueueSnapshot().ids;
+
+        Assert.assertTrue(store.removeRequestById(ids[2]));
+        Assert.assertArrayEquals(new long[] { ids[0], ids[1], ids[3] }, store.getRequestQueueSnapshot().ids);
+
+        Assert.assertEquals(2, store.removeRequestsById(new long[] { ids[1], ids[0], ids[2] }));
+        Assert.assertArrayEquals(new String[] { "r3" }, store.getRequests());
+        Assert.assertArrayEquals(new String[] { "r3" }, reopenStore().getRequests());
+
+        Assert.assertTrue(store.removeFirstRequest());
+        Assert.assertFalse(store.removeFirstRequest());
+        Assert.assertEquals(0, store.getRequests().length);
+    }
+
+    /**
+     * Transformed requests should keep their ids, the cursor should see the result and it should survive reopening
+     */
+    @Test
+    public void transformRequests() {
+        for (int a = 0; a < 3; a++) {
+            store.addRequest("r" + a, false);
+        }
+        long[] ids = store.getRequestQueueSnapshot().ids;
+
+        Assert.assertEquals(2, store.transformRequests(new RequestTransformer() {
+            @Override public String transform(@NonNull String request) {
+                if (request.equals("r0")) {
+                    return null;
+                }
+                return request.equals("r1") ? "changed" : request;
+            }
+        }));
+        Assert.assertEquals("changed", store.peekFirstRequest());
+
+        RequestQueueCursor cursor = store.getRequestQueueCursor();
+        Assert.assertEquals("changed", cursor.next());
+        Assert.assertEquals(ids[1], cursor.currentId());
+        Assert.assertEquals("r2", cursor.next());
+        Assert.assertEquals(ids[2], cursor.currentId());
+        Assert.assertFalse(cursor.hasNext());
+
+        Assert.assertArrayEquals(new String[] { "changed", "r2" }, reopenStore().getRequests());
+    }
+}
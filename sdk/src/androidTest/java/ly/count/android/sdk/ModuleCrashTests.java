@@ -835,6 +835,32 @@ public class ModuleCrashTests {
         validateCrash(extractNativeCrash("dump2"), "", true, true, 2, 1, new ConcurrentHashMap<>(), 0, new ConcurrentHashMap<>(), new ArrayList<>());
     }
 
+    /**
+     * Without crash filters, native crash dumps should stay on disk in the pending folder
+     * and the queued requests should only refer to them
+     */
+    @Test
+    public void recordException_nativeCrash_dumpKeptOnDisk() throws JSONException {
+        createNativeDumFiles();
+        CountlyConfig cConfig = TestUtils.createBaseConfig();
+        cConfig.metricProviderOverride = mmp;
+
+        new Countly().init(cConfig);
+
+        Map<String, String>[] RQ = TestUtils.getCurrentRQ();
+        Assert.assertEquals(3, RQ.length);
+
+        File pendingFolder = ModuleCrash.pendingNativeCrashDumpFolder(TestUtils.getContext());
+        for (Map<String, String> request : RQ) {
+            String error = new JSONObject(request.get("crash")).getString("_error");
+            Assert.assertTrue(error.startsWith(ModuleCrash.NATIVE_DUMP_PLACEHOLDER));
+
+            File pendingFile = new File(pendingFolder, error.substring(ModuleCrash.NATIVE_DUMP_PLACEHOLDER.length()));
+            Assert.assertTrue(pendingFile.isFile());
+            Assert.assertTrue(pendingFile.delete());
+        }
+    }
+
     private void createNativeDumFiles() {
         TestUtils.getCountyStore().clear();
 
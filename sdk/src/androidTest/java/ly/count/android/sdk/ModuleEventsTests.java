@@ -2,6 +2,7 @@ package ly.count.android.sdk;
 
 import android.app.Activity;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -20,6 +21,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mockito.internal.util.collections.Sets;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -583,6 +586,40 @@ public class ModuleEventsTests {
         validateEventInRQ("rn", TestUtils.map("a", 1, "bb", "dd"), 1, 1.1d, 1.1d, 0);
     }
 
+    /**
+     * With the async API intake, an event that is still queued should be recorded before an event that is recorded directly,
+     * and doesn't get the ID of the view that was started after it as its current view ID
+     */
+    @Test
+    public void recordEvent_asyncIntake_queuedEventsRecordedFirst() {
+        final List<String> keys = new ArrayList<>();
+        final List<String> eventIds = new ArrayList<>();
+        final List<String> currentViewIds = new ArrayList<>();
+        EventQueueProvider eqp = mock(EventQueueProvider.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override public Void answer(InvocationOnMock invocation) {
+                keys.add((String) invocation.getArgument(0));
+                eventIds.add((String) invocation.getArgument(8));
+                currentViewIds.add((String) invocation.getArgument(10));
+                return null;
+            }
+        }).when(eqp).recordEventToEventQueue(any(String.class), any(Map.class), any(Integer.class), any(Double.class), any(Double.class), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), any(), any(), any());
+
+        CountlyConfig countlyConfig = TestUtils.createBaseConfig().enableAsyncApiIntake();
+        countlyConfig.eventQueueProvider = eqp;
+        Countly countly = new Countly().init(countlyConfig);
+
+        // holding the SDK lock keeps the intake thread from recording the queued event
+        synchronized (countly) {
+            countly.events().recordEvent("a");
+            countly.views().startView("B");
+        }
+
+        Assert.assertEquals(Arrays.asList("a", ModuleViews.VIEW_EVENT_KEY), keys);
+        Assert.assertNotEquals(eventIds.get(1), currentViewIds.get(0));
+        countly.halt();
+    }
+
     /**
      * "recordEvent" with Array segmentations
      * Validate that all primitive types arrays are successfully recorded
@@ -999,6 +1036,41 @@ public class ModuleEventsTests {
         validateId(peid, event.optString("peid", ""), "Previous Event ID");
     }
 
+    /**
+     * With event aggregation enabled, matching events should be merged into one event
+     * that is added to the event queue when events are sent, but not by a timer tick before its window ended.
+     * Keys on the deny list are not merged.
+     */
+    @Test
+    public void recordEvent_aggregated() {
+        Countly countly = new Countly();
+        CountlyConfig cc = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        cc.experimental.enableEventAggregation(60_000).setEventAggregationDenyList("cold");
+        EventQueueProvider eqp = mock(EventQueueProvider.class);
+        cc.eventQueueProvider = eqp;
+        countly.init(cc);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("screen", "main");
+
+        countly.events().recordEvent("hot", segmentation, 1, 2.0, 1.0);
+        countly.events().recordEvent("hot", segmentation, 2, 3.0, 1.5);
+        countly.events().recordEvent("hot", segmentation, 1, 0.0, 0.5);
+        countly.events().recordEvent("cold");
+        countly.events().recordEvent("cold");
+
+        verify(eqp, times(2)).recordEventToEventQueue(eq("cold"), any(Map.class), eq(1), eq(0.0), eq(0.0), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), isNull(), any(), any());
+        verify(eqp, times(0)).recordEventToEventQueue(eq("hot"), any(Map.class), any(Integer.class), any(Double.class), any(Double.class), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), any(), any(), any());
+
+        // a timer tick keeps the events whose window has not ended
+        countly.moduleRequestQueue.sendEventsIfNeeded(true, false);
+        verify(eqp, times(0)).recordEventToEventQueue(eq("hot"), any(Map.class), any(Integer.class), any(Double.class), any(Double.class), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), any(), any(), any());
+
+        countly.moduleRequestQueue.sendEventsIfNeeded(true);
+
+        verify(eqp, times(1)).recordEventToEventQueue(eq("hot"), eq(segmentation), eq(4), eq(5.0), eq(3.0), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), isNull(), any(), any());
+    }
+
     private static void validateId(String id, String gonnaValidate, String name) {
         if (id != null && id.equals("_CLY_")) {
             if (gonnaValidate != null && !gonnaValidate.isEmpty()) {
@@ -0,0 +1,64 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class NetworkExecutorTests {
+
+    /**
+     * Immediate requests should run while the request queue lane is busy
+     */
+    @Test
+    public void priorityLaneNotBlockedByQueue() throws Exception {
+        NetworkExecutor networkExecutor = new NetworkExecutor(2);
+        final CountDownLatch queueDrainRunning = new CountDownLatch(1);
+        final CountDownLatch releaseQueueDrain = new CountDownLatch(1);
+
+        try {
+            networkExecutor.queueLane().submit(new Runnable() {
+                @Override public void run() {
+                    queueDrainRunning.countDown();
+                    try {
+                        releaseQueueDrain.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            });
+            Assert.assertTrue(queueDrainRunning.await(5, TimeUnit.SECONDS));
+
+            final String[] threadNames = new String[2];
+            Future<?> first = networkExecutor.priorityLane().submit(new Runnable() {
+                @Override public void run() {
+                    threadNames[0] = Thread.currentThread().getName();
+                }
+            });
+            first.get(5, TimeUnit.SECONDS);
+
+            // the queue lane is still busy, the second queue task waits for it
+            Future<?> second = networkExecutor.queueLane().submit(new Runnable() {
+                @Override public void run() {
+                    threadNames[1] = Thread.currentThread().getName();
+                }
+            });
+            Assert.assertFalse(second.isDone());
+
+            releaseQueueDrain.countDown();
+            second.get(5, TimeUnit.SECONDS);
+
+            Assert.assertTrue(threadNames[0].startsWith("Countly-immediate"));
+            Assert.assertTrue(threadNames[1].startsWith("Countly-request-queue"));
+        } finally {
+            releaseQueueDrain.countDown();
+            networkExecutor.shutdown();
+        }
+
+        Assert.assertTrue(networkExecutor.queueLane().isShutdown());
+        Assert.assertTrue(networkExecutor.priorityLane().isShutdown());
+    }
+}
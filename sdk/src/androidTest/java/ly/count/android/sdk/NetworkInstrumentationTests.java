@@ -0,0 +1,248 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.net.ssl.HttpsURLConnection;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(AndroidJUnit4.class)
+public class NetworkInstrumentationTests {
+
+    static class CollectingSink implements NetworkTraceBuffer.TraceSink {
+        final List<String> urls = new ArrayList<>();
+        final List<long[]> values = new ArrayList<>();
+
+        @Override public void onTrace(@NonNull URL url, int responseCode, long requestBytes, long responseBytes, long startTimestampMs, long durationNs) {
+            urls.add(url.toString());
+            values.add(new long[] { responseCode, requestBytes, responseBytes, startTimestampMs, durationNs });
+        }
+    }
+
+    /**
+     * Traces recorded on different threads are all drained, full rings drop new traces.
+     * The rings of finished threads are removed once they were drained
+     */
+    @Test
+    public void bufferThreads() throws Exception {
+        final NetworkTraceBuffer buffer = new NetworkTraceBuffer(100);
+        Assert.assertEquals(64, buffer.threadCapacity);
+        final URL url = new URL("https://test.count.ly/a");
+
+        Thread[] threads = new Thread[4];
+        for (int a = 0; a < threads.length; a++) {
+            final int threadId = a;
+            threads[a] = new Thread(new Runnable() {
+                @Override public void run() {
+                    for (int b = 0; b < 50; b++) {
+                        buffer.record(url, 200, threadId, b, 1000, 5);
+                    }
+                }
+            });
+            threads[a].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(200, buffer.size());
+        Assert.assertEquals(4, buffer.ringCount());
+        CollectingSink sink = new CollectingSink();
+        Assert.assertEquals(200, buffer.drain(sink));
+        Assert.assertEquals(0, buffer.size());
+        Assert.assertEquals(0, buffer.ringCount());
+        Assert.assertEquals(0, buffer.drain(new CollectingSink()));
+
+        // the traces of one thread keep their order
+        long[] lastPerThread = { -1, -1, -1, -1 };
+        for (long[] v : sink.values) {
+            Assert.assertEquals(lastPerThread[(int) v[1]] + 1, v[2]);
+            lastPerThread[(int) v[1]] = v[2];
+        }
+
+        for (int a = 0; a < 64; a++) {
+            buffer.record(url, 200, 0, a, 0, 0);
+        }
+        Assert.assertTrue(buffer.record(url, 200, 0, 64, 0, 0));
+        Assert.assertEquals(1, buffer.droppedTraces.get());
+        Assert.assertEquals(64, buffer.drain(new CollectingSink()));
+
+        // positions keep working after the ring wrapped around
+        Assert.assertFalse(buffer.record(url, 201, 0, 0, 0, 0));
+        CollectingSink after = new CollectingSink();
+        Assert.assertEquals(1, buffer.drain(after));
+        Assert.assertEquals(201, after.values.get(0)[0]);
+        Assert.assertEquals(1, buffer.ringCount());
+    }
+
+    /**
+     * Templates are matched first, identifiers are replaced and the key count is bounded
+     */
+    @Test
+    public void urlNormalization() throws Exception {
+        UrlTemplateNormalizer normalizer = new UrlTemplateNormalizer(new String[] { "/users/{id}/posts", "static/*" }, 5);
+
+        Assert.assertEquals("api.test.ly/users/{id}/posts", normalizer.normalize(new URL("https://api.test.ly/users/john/posts?page=2")));
+        Assert.assertEquals("api.test.ly/static/*", normalizer.normalize(new URL("https://api.test.ly/static/img/a.png")));
+        Assert.assertEquals("api.test.ly/users/:id", normalizer.normalize(new URL("https://api.test.ly/users/123#top")));
+        Assert.assertEquals("api.test.ly/orders/:uuid/items", normalizer.normalize(new URL("https://api.test.ly/orders/123e4567-e89b-12d3-a456-426614174000/items")));
+        Assert.assertEquals("api.test.ly/files/:hash", normalizer.normalize(new URL("https://api.test.ly/files/a94a8fe5ccb19ba61c4c0873d391e987")));
+
+        // the maximum key count was reached
+        Assert.assertEquals("api.test.ly/:other", normalizer.normalize(new URL("https://api.test.ly/about")));
+        Assert.assertEquals("api.test.ly/users/:id", normalizer.normalize(new URL("https://api.test.ly/users/456")));
+
+        Assert.assertEquals("/", new UrlTemplateNormalizer(null, 5).normalizePath(""));
+        Assert.assertEquals("/about/team", new UrlTemplateNormalizer(null, 5).normalizePath("/about/team"));
+        Assert.assertFalse(UrlTemplateNormalizer.matches(new String[] { "users", "{id}" }, new String[] { "users" }));
+    }
+
+    /**
+     * An instrumented connection records the response code, payload sizes and duration of a real request
+     */
+    @Test
+    public void instrumentedConnection() throws Exception {
+        final byte[] responseBody = "{\"result\":\"Success\"}".getBytes(StandardCharsets.UTF_8);
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Thread serverThread = new Thread(new Runnable() {
+            @Override public void run() {
+                try (Socket socket = server.accept()) {
+                    InputStream in = socket.getInputStream();
+                    ByteArrayOutputStream request = new ByteArrayOutputStream();
+                    int contentLength = -1;
+                    int bodyStart = -1;
+                    while (bodyStart < 0 || request.size() < bodyStart + contentLength) {
+                        int b = in.read();
+                        if (b < 0) {
+                            break;
+                        }
+                        request.write(b);
+                        String soFar = request.toString("UTF-8");
+                        if (bodyStart < 0 && soFar.endsWith("\r\n\r\n")) {
+                            bodyStart = request.size();
+                            for (String line : soFar.split("\r\n")) {
+                                if (line.toLowerCase().startsWith("content-length:")) {
+                                    contentLength = Integer.parseInt(line.substring(15).trim());
+                                }
+                            }
+                            contentLength = Math.max(contentLength, 0);
+                        }
+                    }
+
+                    Thread.sleep(20);
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 201 Created\r\nContent-Length: " + responseBody.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                    out.write(responseBody);
+                    out.flush();
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        serverThread.start();
+
+        NetworkTraceBuffer buffer = new NetworkTraceBuffer(16);
+        URL url = new URL("http://127.0.0.1:" + server.getLocalPort() + "/items/42");
+        HttpURLConnection plain = (HttpURLConnection) url.openConnection();
+        HttpURLConnection connection = new InstrumentedHttpURLConnection(plain, new ConnectionTrace(url, buffer, null));
+
+        byte[] requestBody = "name=abc".getBytes(StandardCharsets.UTF_8);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(requestBody.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(requestBody);
+        }
+
+        Assert.assertEquals(201, connection.getResponseCode());
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] chunk = new byte[4];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                received.write(chunk, 0, read);
+            }
+        }
+        connection.disconnect();
+        serverThread.join(5000);
+        server.close();
+
+        Assert.assertArrayEquals(responseBody, received.toByteArray());
+
+        CollectingSink sink = new CollectingSink();
+        Assert.assertEquals(1, buffer.drain(sink));
+        long[] trace = sink.values.get(0);
+        Assert.assertEquals(201, trace[0]);
+        Assert.assertEquals(requestBody.length, trace[1]);
+        Assert.assertEquals(responseBody.length, trace[2]);
+        Assert.assertTrue(trace[4] >= 20_000_000L);
+        Assert.assertEquals("127.0.0.1/items/:id", new UrlTemplateNormalizer(null, 10).normalize(new URL(sink.urls.get(0))));
+    }
+
+    /**
+     * The trace ends once the response code is known if there is no body to read,
+     * or if an error response has no error stream
+     */
+    @Test
+    public void instrumentedConnection_noBody() throws Exception {
+        NetworkTraceBuffer buffer = new NetworkTraceBuffer(16);
+        URL url = new URL("https://test.count.ly/a");
+
+        HttpURLConnection noContent = mock(HttpURLConnection.class);
+        when(noContent.getRequestMethod()).thenReturn("GET");
+        when(noContent.getContentLength()).thenReturn(-1);
+        when(noContent.getResponseCode()).thenReturn(204);
+        Assert.assertEquals(204, new InstrumentedHttpURLConnection(noContent, new ConnectionTrace(url, buffer, null)).getResponseCode());
+        Assert.assertEquals(1, buffer.size());
+
+        HttpsURLConnection head = mock(HttpsURLConnection.class);
+        when(head.getRequestMethod()).thenReturn("HEAD");
+        when(head.getContentLength()).thenReturn(100);
+        when(head.getResponseCode()).thenReturn(200);
+        new InstrumentedHttpsURLConnection(head, new ConnectionTrace(url, buffer, null)).getResponseCode();
+        Assert.assertEquals(2, buffer.size());
+
+        // the body can still be read
+        HttpURLConnection withBody = mock(HttpURLConnection.class);
+        when(withBody.getRequestMethod()).thenReturn("GET");
+        when(withBody.getContentLength()).thenReturn(10);
+        when(withBody.getResponseCode()).thenReturn(200);
+        new InstrumentedHttpURLConnection(withBody, new ConnectionTrace(url, buffer, null)).getResponseCode();
+        Assert.assertEquals(2, buffer.size());
+
+        HttpURLConnection notFound = mock(HttpURLConnection.class);
+        when(notFound.getInputStream()).thenThrow(new FileNotFoundException());
+        when(notFound.getResponseCode()).thenReturn(404);
+        when(notFound.getErrorStream()).thenReturn(null);
+        HttpURLConnection connection = new InstrumentedHttpURLConnection(notFound, new ConnectionTrace(url, buffer, null));
+        try {
+            connection.getInputStream();
+            Assert.fail();
+        } catch (FileNotFoundException ignored) {
+        }
+        Assert.assertEquals(2, buffer.size());
+        Assert.assertNull(connection.getErrorStream());
+        Assert.assertEquals(3, buffer.size());
+
+        CollectingSink sink = new CollectingSink();
+        buffer.drain(sink);
+        Assert.assertEquals(204, sink.values.get(0)[0]);
+        Assert.assertEquals(200, sink.values.get(1)[0]);
+        Assert.assertEquals(404, sink.values.get(2)[0]);
+    }
+}
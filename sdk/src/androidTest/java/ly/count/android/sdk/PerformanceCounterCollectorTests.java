@@ -0,0 +1,181 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class PerformanceCounterCollectorTests {
+    PerformanceCounterCollector pcc;
+
+    @Before
+    public void setUp() {
+        pcc = new PerformanceCounterCollector();
+    }
+
+    /**
+     * The same key should always return the same handle
+     * and the string and handle based calls should track into the same counter
+     */
+    @Test
+    public void register_sameHandle() {
+        int handle = pcc.RegisterValueCounter("a");
+        Assert.assertEquals(handle, pcc.RegisterValueCounter("a"));
+        Assert.assertNotEquals(handle, pcc.RegisterValueCounter("b"));
+
+        pcc.TrackCounter(handle, 1.5);
+        pcc.TrackCounter("a", 2);
+        Assert.assertEquals(3.5, pcc.GetCounterSum("a"), 0.0);
+        Assert.assertEquals(2, pcc.GetCounterCount("a"));
+        Assert.assertEquals(0.0, pcc.GetCounterSum("b"), 0.0);
+        Assert.assertEquals(0.0, pcc.GetCounterSum("c"), 0.0);
+    }
+
+    /**
+     * Time counters are tracked in nanoseconds and returned in seconds
+     */
+    @Test
+    public void trackTime() {
+        pcc.TrackCounterTimeNs("t", 1_500_000_000L);
+        pcc.TrackCounterTimeNs(pcc.RegisterTimeCounter("t"), 250_000_000L);
+        Assert.assertEquals(1.75, pcc.GetCounterSum("t"), 0.0);
+
+        // a value counter should also accept time
+        pcc.TrackCounter("v", 1);
+        pcc.TrackCounterTimeNs("v", 500_000_000L);
+        Assert.assertEquals(1.5, pcc.GetCounterSum("v"), 0.0);
+    }
+
+    /**
+     * Once the limit is reached no handle is returned and tracking into it is ignored
+     */
+    @Test
+    public void register_limit() {
+        for (int a = 0; a < PerformanceCounterCollector.MAX_COUNTERS; a++) {
+            Assert.assertEquals(a, pcc.RegisterValueCounter("c" + a));
+        }
+        Assert.assertEquals(-1, pcc.RegisterValueCounter("over"));
+        pcc.TrackCounter("over", 5);
+        pcc.TrackCounter(-1, 5);
+        Assert.assertEquals(0, pcc.GetCounterCount("over"));
+        Assert.assertEquals(0, pcc.ExportJSON().length());
+    }
+
+    /**
+     * Clear resets the values but keeps the handles
+     */
+    @Test
+    public void clear() {
+        int handle = pcc.RegisterValueCounter("a");
+        pcc.TrackCounter(handle, 4);
+        pcc.Clear();
+        Assert.assertEquals(0, pcc.GetCounterCount("a"));
+        Assert.assertEquals(0, pcc.ExportJSON().length());
+
+        Assert.assertEquals(handle, pcc.RegisterValueCounter("a"));
+        pcc.TrackCounter(handle, 3);
+        Assert.assertEquals(3.0, pcc.GetCounterSum("a"), 0.0);
+    }
+
+    /**
+     * Validate the exported count, sum, min, max and histogram
+     */
+    @Test
+    public void exportJSON() throws Exception {
+        pcc.TrackCounter("a", 1);
+        pcc.TrackCounter("a", 3);
+        pcc.TrackCounter("a", 2);
+        pcc.RegisterValueCounter("untracked");
+
+        JSONObject export = pcc.ExportJSON();
+        Assert.assertEquals(1, export.length());
+
+        JSONObject counter = export.getJSONObject("a");
+        Assert.assertEquals(3, counter.getLong("count"));
+        Assert.assertEquals(6.0, counter.getDouble("sum"), 0.0);
+        Assert.assertEquals(1.0, counter.getDouble("min"), 0.0);
+        Assert.assertEquals(3.0, counter.getDouble("max"), 0.0);
+
+        JSONObject histogram = counter.getJSONObject("histogram");
+        long histogramTotal = 0;
+        for (int b = 0; b < PerformanceCounterCollector.HISTOGRAM_BUCKETS; b++) {
+            String bound = String.valueOf((1L << b) / 1_000_000.0);
+            histogramTotal += histogram.optLong(bound, 0);
+        }
+        Assert.assertEquals(3, histogramTotal);
+    }
+
+    /**
+     * SDK counters have the same handle in every collector, don't take runtime handles
+     * and can also be tracked and read by their key
+     */
+    @Test
+    public void sdkCounters() throws Exception {
+        int handle = PerformanceCounterCollector.sdkTimeCounter("PerformanceCounterCollectorTests_sdk");
+        Assert.assertEquals(handle, PerformanceCounterCollector.sdkTimeCounter("PerformanceCounterCollectorTests_sdk"));
+        Assert.assertTrue(handle >= PerformanceCounterCollector.MAX_COUNTERS);
+        Assert.assertEquals(handle, pcc.RegisterValueCounter("PerformanceCounterCollectorTests_sdk"));
+        Assert.assertEquals(0, pcc.RegisterValueCounter("a"));
+
+        pcc.TrackCounterTimeNs(handle, 500_000_000L);
+        pcc.TrackCounterTimeNs("PerformanceCounterCollectorTests_sdk", 250_000_000L);
+        new PerformanceCounterCollector().TrackCounterTimeNs(handle, 1_000_000_000L);
+
+        Assert.assertEquals(0.75, pcc.GetCounterSum("PerformanceCounterCollectorTests_sdk"), 0.0);
+        Assert.assertEquals(2, pcc.ExportJSON().getJSONObject("PerformanceCounterCollectorTests_sdk").getLong("count"));
+    }
+
+    /**
+     * Validate the log2 bucket boundaries
+     */
+    @Test
+    public void bucketIndex() {
+        Assert.assertEquals(0, PerformanceCounterCollector.bucketIndex(-5));
+        Assert.assertEquals(0, PerformanceCounterCollector.bucketIndex(0));
+        Assert.assertEquals(1, PerformanceCounterCollector.bucketIndex(1));
+        Assert.assertEquals(2, PerformanceCounterCollector.bucketIndex(2));
+        Assert.assertEquals(2, PerformanceCounterCollector.bucketIndex(3));
+        Assert.assertEquals(3, PerformanceCounterCollector.bucketIndex(4));
+        Assert.assertEquals(PerformanceCounterCollector.HISTOGRAM_BUCKETS - 1, PerformanceCounterCollector.bucketIndex(Long.MAX_VALUE));
+    }
+
+    /**
+     * Tracking from multiple threads should not lose any values
+     */
+    @Test
+    public void concurrentTracking() throws Exception {
+        final int handle = pcc.RegisterValueCounter("a");
+        final int threadCount = 8;
+        final int perThread = 10_000;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int a = 0; a < threadCount; a++) {
+            final int threadValue = a + 1;
+            threads.add(new Thread(new Runnable() {
+                @Override public void run() {
+                    for (int b = 0; b < perThread; b++) {
+                        pcc.TrackCounter(handle, threadValue);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Assert.assertEquals(threadCount * perThread, pcc.GetCounterCount("a"));
+        Assert.assertEquals(perThread * (threadCount * (threadCount + 1) / 2.0), pcc.GetCounterSum("a"), 0.0);
+
+        JSONObject counter = pcc.ExportJSON().getJSONObject("a");
+        Assert.assertEquals(1.0, counter.getDouble("min"), 0.0);
+        Assert.assertEquals(threadCount, counter.getDouble("max"), 0.0);
+    }
+}
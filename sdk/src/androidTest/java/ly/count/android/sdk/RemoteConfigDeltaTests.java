@@ -0,0 +1,230 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import ly.count.android.sdk.internal.RemoteConfigValueStore;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class RemoteConfigDeltaTests {
+
+    /**
+     * The stored ETag is only sent when there is one, delta responses are always accepted
+     */
+    @Test
+    public void requestHeaders() {
+        Map<String, String> headers = RemoteConfigDelta.requestHeaders(null);
+        Assert.assertEquals(1, headers.size());
+        Assert.assertEquals("1", headers.get(RemoteConfigDelta.HEADER_ACCEPT_DELTA));
+
+        Assert.assertEquals(1, RemoteConfigDelta.requestHeaders("").size());
+
+        headers = RemoteConfigDelta.requestHeaders("\"v12\"");
+        Assert.assertEquals(2, headers.size());
+        Assert.assertEquals("\"v12\"", headers.get(RemoteConfigDelta.HEADER_IF_NONE_MATCH));
+    }
+
+    /**
+     * "304" responses don't change anything, responses without the delta header are full updates
+     */
+    @Test
+    public void fromResponse_notModifiedAndFull() throws Exception {
+        RemoteConfigDelta notModified = RemoteConfigDelta.fromResponse(304, null, "\"v1\"", new JSONObject());
+        Assert.assertTrue(notModified.notModified);
+        Assert.assertFalse(notModified.isDelta);
+        Assert.assertTrue(notModified.values.isEmpty());
+        Assert.assertTrue(notModified.removedKeys.isEmpty());
+
+        JSONObject body = new JSONObject().put("a", 1).put("b", "x");
+        RemoteConfigDelta full = RemoteConfigDelta.fromResponse(200, null, "\"v2\"", body);
+        Assert.assertFalse(full.notModified);
+        Assert.assertFalse(full.isDelta);
+        Assert.assertEquals("\"v2\"", full.eTag);
+        Assert.assertEquals(2, full.values.size());
+        Assert.assertEquals(1, full.values.get("a").value);
+
+        // a "set" key in a full response is a normal value
+        RemoteConfigDelta fullWithSetKey = RemoteConfigDelta.fromResponse(200, "0", null, new JSONObject().put(RemoteConfigDelta.KEY_SET, 5));
+        Assert.assertFalse(fullWithSetKey.isDelta);
+        Assert.assertNull(fullWithSetKey.eTag);
+        Assert.assertEquals(5, fullWithSetKey.values.get(RemoteConfigDelta.KEY_SET).value);
+    }
+
+    /**
+     * Applying a delta to the stored values gives the same result as downloading the full values,
+     * while the delta response is a fraction of the full response
+     */
+    @Test
+    public void fromResponse_deltaMatchesFull() throws Exception {
+        JSONObject oldFull = new JSONObject();
+        for (int a = 0; a < 50; a++) {
+            oldFull.put("key_" + a, "value_" + a);
+        }
+        JSONObject newFull = new JSONObject(oldFull.toString());
+        newFull.put("key_3", "changed");
+        newFull.put("key_new", 7);
+        newFull.remove("key_10");
+
+        JSONObject deltaBody = new JSONObject()
+            .put(RemoteConfigDelta.KEY_SET, new JSONObject().put("key_3", "changed").put("key_new", 7))
+            .put(RemoteConfigDelta.KEY_REMOVED, new JSONArray().put("key_10").put("missing"));
+
+        RemoteConfigDelta delta = RemoteConfigDelta.fromResponse(200, "1", "\"v2\"", deltaBody);
+        Assert.assertTrue(delta.isDelta);
+        Assert.assertEquals(2, delta.values.size());
+        Assert.assertEquals(2, delta.removedKeys.size());
+
+        RemoteConfigValueStore deltaStore = RemoteConfigValueStore.dataFromString(null, false);
+        deltaStore.mergeValues(RemoteConfigDelta.fromResponse(200, null, "\"v1\"", oldFull).values, true);
+        deltaStore.mergeValues(delta.values, false);
+        deltaStore.removeValues(delta.removedKeys);
+
+        RemoteConfigValueStore fullStore = RemoteConfigValueStore.dataFromString(null, false);
+        fullStore.mergeValues(RemoteConfigDelta.fromResponse(200, null, "\"v2\"", newFull).values, true);
+
+        Assert.assertEquals(fullStore.values.toString().length(), deltaStore.values.toString().length());
+        Map<String, RCData> expected = fullStore.getAllValues();
+        Map<String, RCData> actual = deltaStore.getAllValues();
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (String key : expected.keySet()) {
+            Assert.assertEquals(expected.get(key).value, actual.get(key).value);
+        }
+
+        Assert.assertTrue(deltaBody.toString().length() * 5 < newFull.toString().length());
+    }
+
+    /**
+     * A local stand-in server answers the conditional downloads made through the immediate request maker.
+     * The stored ETag is sent with "If-None-Match", "304" responses have no body
+     * and delta responses are a fraction of the full response
+     */
+    @Test
+    public void conditionalDownload_localServer() throws Exception {
+        JSONObject full = new JSONObject();
+        for (int a = 0; a < 50; a++) {
+            full.put("key_" + a, "value_" + a);
+        }
+        JSONObject deltaBody = new JSONObject()
+            .put(RemoteConfigDelta.KEY_SET, new JSONObject().put("key_3", "changed"))
+            .put(RemoteConfigDelta.KEY_REMOVED, new JSONArray().put("key_10"));
+
+        final String[] responses = {
+            "HTTP/1.1 200 OK\r\nETag: \"v1\"\r\nContent-Length: " + full.toString().length() + "\r\nConnection: close\r\n\r\n" + full,
+            "HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\nConnection: close\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nETag: \"v2\"\r\n" + RemoteConfigDelta.HEADER_DELTA + ": 1\r\nContent-Length: " + deltaBody.toString().length() + "\r\nConnection: close\r\n\r\n" + deltaBody
+        };
+        final List<String> receivedRequests = new ArrayList<>();
+
+        final ServerSocket server = new ServerSocket(0, 4, InetAddress.getByName("127.0.0.1"));
+        Thread serverThread = new Thread(new Runnable() {
+            @Override public void run() {
+                while (true) {
+                    final Socket socket;
+                    try {
+                        socket = server.accept();
+                    } catch (Exception ignored) {
+                        return;
+                    }
+
+                    // connections are answered in the order their requests arrive, the client can open a connection it doesn't use
+                    new Thread(new Runnable() {
+                        @Override public void run() {
+                            try (Socket s = socket) {
+                                s.setSoTimeout(5000);
+                                InputStream in = s.getInputStream();
+                                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                                while (!request.toString("UTF-8").endsWith("\r\n\r\n")) {
+                                    int b = in.read();
+                                    if (b < 0) {
+                                        return;
+                                    }
+                                    request.write(b);
+                                }
+
+                                String response;
+                                synchronized (receivedRequests) {
+                                    response = responses[receivedRequests.size()];
+                                    receivedRequests.add(request.toString("UTF-8").toLowerCase(Locale.US));
+                                }
+
+                                OutputStream out = s.getOutputStream();
+                                out.write(response.getBytes(StandardCharsets.UTF_8));
+                                out.flush();
+                            } catch (Exception ignored) {
+                            }
+                        }
+                    }).start();
+                }
+            }
+        });
+        serverThread.start();
+
+        ConnectionProcessor cp = new ConnectionProcessor("http://127.0.0.1:" + server.getLocalPort(), mock(CountlyStore.class), mock(DeviceIdProvider.class), mock(ConfigurationProvider.class),
+            mock(RequestInfoProvider.class), null, null, new ModuleLog(), mock(HealthTracker.class));
+
+        // first download, there is no stored ETag
+        ImmediateRequestMaker maker = conditionalRequest(null);
+        JSONObject fullResponse = maker.doInBackground("method=rc", "/o/sdk", cp, false, true, null, new ModuleLog());
+        RemoteConfigDelta first = RemoteConfigDelta.fromResponse(maker.responseCode, maker.getResponseHeader(RemoteConfigDelta.HEADER_DELTA),
+            maker.getResponseHeader(RemoteConfigDelta.HEADER_ETAG), fullResponse);
+        Assert.assertEquals(200, maker.responseCode);
+        Assert.assertFalse(first.isDelta);
+        Assert.assertEquals(50, first.values.size());
+        int fullLength = maker.responseLength;
+
+        // nothing changed
+        maker = conditionalRequest("\"v1\"");
+        JSONObject notModifiedBody = maker.doInBackground("method=rc", "/o/sdk", cp, false, true, null, new ModuleLog());
+        RemoteConfigDelta notModified = RemoteConfigDelta.fromResponse(maker.responseCode, maker.getResponseHeader(RemoteConfigDelta.HEADER_DELTA),
+            maker.getResponseHeader(RemoteConfigDelta.HEADER_ETAG), notModifiedBody);
+        Assert.assertEquals(304, maker.responseCode);
+        Assert.assertTrue(notModified.notModified);
+        Assert.assertEquals(0, maker.responseLength);
+
+        // only changed keys
+        maker = conditionalRequest("\"v1\"");
+        JSONObject deltaResponse = maker.doInBackground("method=rc", "/o/sdk", cp, false, true, null, new ModuleLog());
+        RemoteConfigDelta delta = RemoteConfigDelta.fromResponse(maker.responseCode, maker.getResponseHeader(RemoteConfigDelta.HEADER_DELTA),
+            maker.getResponseHeader(RemoteConfigDelta.HEADER_ETAG), deltaResponse);
+        Assert.assertTrue(delta.isDelta);
+        Assert.assertEquals("\"v2\"", delta.eTag);
+        Assert.assertEquals("changed", delta.values.get("key_3").value);
+        Assert.assertEquals(Collections.singletonList("key_10"), delta.removedKeys);
+        Assert.assertTrue(maker.responseLength * 5 < fullLength);
+
+        server.close();
+        serverThread.join(5000);
+
+        Assert.assertEquals(3, receivedRequests.size());
+        String acceptDelta = RemoteConfigDelta.HEADER_ACCEPT_DELTA.toLowerCase(Locale.US) + ": 1";
+        String ifNoneMatch = RemoteConfigDelta.HEADER_IF_NONE_MATCH.toLowerCase(Locale.US) + ": \"v1\"";
+        Assert.assertTrue(receivedRequests.get(0).contains(acceptDelta));
+        Assert.assertFalse(receivedRequests.get(0).contains(RemoteConfigDelta.HEADER_IF_NONE_MATCH.toLowerCase(Locale.US)));
+        Assert.assertTrue(receivedRequests.get(1).contains(ifNoneMatch));
+        Assert.assertTrue(receivedRequests.get(2).contains(ifNoneMatch));
+        Assert.assertTrue(receivedRequests.get(2).contains(acceptDelta));
+    }
+
+    ImmediateRequestMaker conditionalRequest(String storedETag) {
+        ImmediateRequestMaker maker = new ImmediateRequestMaker();
+        maker.requestHeaders = RemoteConfigDelta.requestHeaders(storedETag);
+        return maker;
+    }
+}
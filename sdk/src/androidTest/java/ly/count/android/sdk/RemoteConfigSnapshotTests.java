@@ -0,0 +1,123 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Map;
+import ly.count.android.sdk.internal.RemoteConfigValueStore;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static ly.count.android.sdk.RemoteConfigValueStoreTests.rcArrIntoJSON;
+import static ly.count.android.sdk.RemoteConfigValueStoreTests.rcEStr;
+
+@RunWith(AndroidJUnit4.class)
+public class RemoteConfigSnapshotTests {
+
+    RemoteConfigSnapshot snapshot(String stored) {
+        return RemoteConfigSnapshot.fromStore(RemoteConfigValueStore.dataFromString(stored, false), stored);
+    }
+
+    /**
+     * The snapshot should return the same values as the value store it was created from
+     */
+    @Test
+    public void sameAsValueStore() {
+        String stored = rcArrIntoJSON(new String[] {
+            rcEStr("a", 123, false), rcEStr("b", "fg"), rcEStr("c", 222_222_222_222L), rcEStr("d", new JSONArray().put(1)),
+            "\"no_value\":{\"c\":1}", "\"no_flag\":{\"v\":5}", "\"not_object\":7"
+        });
+        RemoteConfigValueStore rcvs = RemoteConfigValueStore.dataFromString(stored, false);
+        RemoteConfigSnapshot snapshot = snapshot(stored);
+
+        for (String key : new String[] { "a", "b", "c", "d", "no_value", "no_flag", "not_object", "missing" }) {
+            RCData expected = rcvs.getValue(key);
+            RCData actual = snapshot.getValue(key);
+            Assert.assertEquals(key, String.valueOf(expected.value), String.valueOf(actual.value));
+            Assert.assertEquals(key, expected.isCurrentUsersData, actual.isCurrentUsersData);
+            Assert.assertEquals(key, String.valueOf(rcvs.getValueLegacy(key)), String.valueOf(snapshot.getValueLegacy(key)));
+        }
+
+        Map<String, RCData> expectedAll = rcvs.getAllValues();
+        Map<String, RCData> actualAll = snapshot.getAllValues();
+        Assert.assertEquals(expectedAll.keySet(), actualAll.keySet());
+        for (String key : expectedAll.keySet()) {
+            Assert.assertEquals(String.valueOf(expectedAll.get(key).value), String.valueOf(actualAll.get(key).value));
+            Assert.assertEquals(expectedAll.get(key).isCurrentUsersData, actualAll.get(key).isCurrentUsersData);
+        }
+
+        Assert.assertEquals(rcvs.getAllValuesLegacy().keySet(), snapshot.getAllValuesLegacy().keySet());
+    }
+
+    /**
+     * Typed getters convert compatible values and return the default value otherwise
+     */
+    @Test
+    public void typedGetters() {
+        RemoteConfigSnapshot snapshot = snapshot(rcArrIntoJSON(new String[] {
+            rcEStr("bool", true), rcEStr("bool_str", "FALSE"), rcEStr("int", 12), rcEStr("long", 222_222_222_222L), rcEStr("double", 7.9d),
+            rcEStr("num_str", "42"), rcEStr("double_str", "4.5"), rcEStr("str", "abc"), rcEStr("arr", new JSONArray().put(1))
+        }));
+
+        Assert.assertTrue(snapshot.getBoolean("bool", false));
+        Assert.assertFalse(snapshot.getBoolean("bool_str", true));
+        Assert.assertTrue(snapshot.getBoolean("int", true));
+        Assert.assertFalse(snapshot.getBoolean("missing", false));
+
+        Assert.assertEquals(12, snapshot.getLong("int", -1));
+        Assert.assertEquals(222_222_222_222L, snapshot.getLong("long", -1));
+        Assert.assertEquals(7, snapshot.getLong("double", -1));
+        Assert.assertEquals(42, snapshot.getLong("num_str", -1));
+        Assert.assertEquals(4, snapshot.getLong("double_str", -1));
+        Assert.assertEquals(-1, snapshot.getLong("str", -1));
+        Assert.assertEquals(-1, snapshot.getLong("bool", -1));
+
+        Assert.assertEquals("abc", snapshot.getString("str", "d"));
+        Assert.assertEquals("12", snapshot.getString("int", "d"));
+        Assert.assertEquals("[1]", snapshot.getString("arr", "d"));
+        Assert.assertEquals("d", snapshot.getString("missing", "d"));
+    }
+
+    /**
+     * Changing returned JSON objects and arrays should not change the values of the snapshot
+     */
+    @Test
+    public void containerValuesAreCopied() throws Exception {
+        RemoteConfigSnapshot snapshot = snapshot(rcArrIntoJSON(new String[] {
+            rcEStr("arr", new JSONArray().put(1)), rcEStr("obj", new JSONObject().put("k", "v"))
+        }));
+
+        ((JSONArray) snapshot.getValue("arr").value).put(2);
+        ((JSONArray) snapshot.getValueLegacy("arr")).put(3);
+        ((JSONArray) snapshot.getAllValues().get("arr").value).put(4);
+        ((JSONArray) snapshot.getAllValuesLegacy().get("arr")).put(5);
+        ((JSONObject) snapshot.getValue("obj").value).put("k", "changed");
+        ((JSONObject) snapshot.getValueLegacy("obj")).remove("k");
+        ((JSONObject) snapshot.getAllValues().get("obj").value).put("k2", 1);
+        ((JSONObject) snapshot.getAllValuesLegacy().get("obj")).put("k3", 1);
+
+        Assert.assertEquals("[1]", snapshot.getValue("arr").value.toString());
+        Assert.assertEquals("[1]", snapshot.getString("arr", "d"));
+        Assert.assertEquals("{\"k\":\"v\"}", snapshot.getValue("obj").value.toString());
+        Assert.assertEquals("{\"k\":\"v\"}", snapshot.getAllValuesLegacy().get("obj").toString());
+    }
+
+    /**
+     * A snapshot knows which stored string it was created from
+     */
+    @Test
+    public void isParsedFrom() {
+        String stored = rcArrIntoJSON(new String[] { rcEStr("a", 1) });
+        RemoteConfigSnapshot snapshot = snapshot(stored);
+
+        Assert.assertTrue(snapshot.isParsedFrom(stored));
+        Assert.assertTrue(snapshot.isParsedFrom(new String(stored)));
+        Assert.assertFalse(snapshot.isParsedFrom(rcArrIntoJSON(new String[] { rcEStr("a", 2) })));
+        Assert.assertFalse(snapshot.isParsedFrom(""));
+
+        Assert.assertTrue(RemoteConfigSnapshot.EMPTY.isParsedFrom(null));
+        Assert.assertTrue(RemoteConfigSnapshot.EMPTY.isParsedFrom(""));
+        Assert.assertEquals(0, RemoteConfigSnapshot.EMPTY.size());
+    }
+}
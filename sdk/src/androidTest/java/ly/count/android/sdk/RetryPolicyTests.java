@@ -0,0 +1,167 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.net.URLDecoder;
+import java.util.Random;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(AndroidJUnit4.class)
+public class RetryPolicyTests {
+
+    HealthCheckCounter counter(String initialState) {
+        StorageProvider sp = mock(StorageProvider.class);
+        when(sp.getHealthCheckCounterState()).thenReturn(initialState);
+        return new HealthCheckCounter(sp, new ModuleLog());
+    }
+
+    /**
+     * The delay limit doubles with each failure up to the max delay,
+     * the picked delays stay within the limit
+     */
+    @Test
+    public void exponentialBackoffWithJitter() {
+        RetryPolicy policy = new RetryPolicy(1000, 10_000, 0, 0, counter(""), new ModuleLog());
+        policy.random = new Random(1);
+
+        Assert.assertEquals(1000, policy.delayLimit(1));
+        Assert.assertEquals(2000, policy.delayLimit(2));
+        Assert.assertEquals(8000, policy.delayLimit(4));
+        Assert.assertEquals(10_000, policy.delayLimit(5));
+        Assert.assertEquals(10_000, policy.delayLimit(1000));
+
+        long now = 1_000_000;
+        for (int a = 1; a <= 20; a++) {
+            long delay = policy.onFailure(0, now);
+            Assert.assertTrue(delay >= 0 && delay <= policy.delayLimit(a));
+            Assert.assertEquals(now + delay, policy.state.retryNotBeforeMs);
+            Assert.assertEquals(delay == 0, policy.canAttempt(now));
+            Assert.assertTrue(policy.canAttempt(now + delay));
+        }
+        Assert.assertFalse(policy.isCircuitOpen());
+
+        policy.onSuccess();
+        Assert.assertEquals(0, policy.state.retryConsecutiveFailures);
+        Assert.assertTrue(policy.canAttempt(now));
+        Assert.assertEquals(20, policy.state.retryFailureCount);
+    }
+
+    /**
+     * After the threshold the circuit opens and stays open until a request goes through
+     */
+    @Test
+    public void circuitBreaker() {
+        RetryPolicy policy = new RetryPolicy(1000, 2000, 3, 60_000, counter(""), new ModuleLog());
+
+        policy.onFailure(0, 0);
+        policy.onFailure(0, 0);
+        Assert.assertFalse(policy.isCircuitOpen());
+
+        for (int a = 0; a < 3; a++) {
+            long delay = policy.onFailure(0, 0);
+            Assert.assertTrue(policy.isCircuitOpen());
+            Assert.assertTrue(delay >= 30_000 && delay <= 60_000);
+        }
+        Assert.assertEquals(1, policy.state.retryCircuitOpenCount);
+
+        Assert.assertFalse(policy.canAttempt(29_999));
+        Assert.assertTrue(policy.state.retryDeferredCount > 0);
+
+        policy.onSuccess();
+        Assert.assertFalse(policy.isCircuitOpen());
+    }
+
+    /**
+     * "Retry-After" can be given in seconds or as a date, it extends the delay
+     */
+    @Test
+    public void retryAfter() {
+        Assert.assertEquals(0, RetryPolicy.parseRetryAfterMs(null, 0));
+        Assert.assertEquals(0, RetryPolicy.parseRetryAfterMs(" ", 0));
+        Assert.assertEquals(0, RetryPolicy.parseRetryAfterMs("soon", 0));
+        Assert.assertEquals(0, RetryPolicy.parseRetryAfterMs("-5", 0));
+        Assert.assertEquals(120_000, RetryPolicy.parseRetryAfterMs(" 120 ", 0));
+        Assert.assertEquals(RetryPolicy.MAX_RETRY_AFTER_MS, RetryPolicy.parseRetryAfterMs("99999999999", 0));
+
+        // Wed, 21 Oct 2015 07:28:00 GMT
+        long date = 1_445_412_480_000L;
+        Assert.assertEquals(30_000, RetryPolicy.parseRetryAfterMs("Wed, 21 Oct 2015 07:28:00 GMT", date - 30_000));
+        Assert.assertEquals(0, RetryPolicy.parseRetryAfterMs("Wed, 21 Oct 2015 07:28:00 GMT", date + 30_000));
+
+        RetryPolicy policy = new RetryPolicy(1000, 2000, 0, 0, counter(""), new ModuleLog());
+        Assert.assertEquals(120_000, policy.onFailure(120_000, 0));
+    }
+
+    /**
+     * The retry state is saved with the health check counters and loaded on the next start.
+     * Clearing the health check counters keeps the backoff state but clears the retry counters
+     */
+    @Test
+    public void persistedState() {
+        StorageProvider sp = mock(StorageProvider.class);
+        when(sp.getHealthCheckCounterState()).thenReturn("");
+        HealthCheckCounter hc = new HealthCheckCounter(sp, new ModuleLog());
+        RetryPolicy policy = new RetryPolicy(1000, 2000, 2, 60_000, hc, new ModuleLog());
+        policy.onFailure(0, 1000);
+        policy.onFailure(0, 1000);
+        hc.logWarning();
+        hc.clearAndSave();
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(sp, atLeastOnce()).setHealthCheckCounterState(captor.capture());
+        String saved = captor.getValue();
+
+        HealthCheckCounter restored = counter(saved);
+        Assert.assertEquals(0, restored.countLogWarning);
+        Assert.assertEquals(2, restored.retryConsecutiveFailures);
+        Assert.assertEquals(hc.retryNotBeforeMs, restored.retryNotBeforeMs);
+        Assert.assertEquals(0, restored.retryCircuitOpenCount);
+
+        RetryPolicy restoredPolicy = new RetryPolicy(1000, 2000, 2, 60_000, restored, new ModuleLog());
+        Assert.assertTrue(restoredPolicy.isCircuitOpen());
+        Assert.assertFalse(restoredPolicy.canAttempt(1000));
+
+        // a stored time too far in the future is not trusted
+        Assert.assertTrue(restoredPolicy.canAttempt(1000 - RetryPolicy.MAX_RETRY_AFTER_MS - 60_000));
+    }
+
+    /**
+     * Deferred attempts should be counted once per backoff window without being saved,
+     * the retry counters should be sent with the health check
+     * and once the backoff is over, clearing the health check counters should clear the stored state
+     */
+    @Test
+    public void counters_reportedAndCleared() throws Exception {
+        StorageProvider sp = mock(StorageProvider.class);
+        when(sp.getHealthCheckCounterState()).thenReturn("");
+        HealthCheckCounter hc = new HealthCheckCounter(sp, new ModuleLog());
+        RetryPolicy policy = new RetryPolicy(1000, 2000, 0, 0, hc, new ModuleLog());
+        policy.onFailure(60_000, 1000);
+        verify(sp, times(1)).setHealthCheckCounterState(anyString());
+        Assert.assertFalse(policy.canAttempt(1000));
+        Assert.assertFalse(policy.canAttempt(2000));
+        verify(sp, times(1)).setHealthCheckCounterState(anyString());
+        Assert.assertEquals(1, hc.retryDeferredCount);
+
+        JSONObject param = new JSONObject(URLDecoder.decode(hc.createRequestParam().substring("&hc=".length()), "UTF-8"));
+        Assert.assertEquals(1, param.getLong("rf"));
+        Assert.assertEquals(1, param.getLong("rd"));
+        Assert.assertEquals(0, param.getLong("rco"));
+
+        policy.onSuccess();
+        hc.clearAndSave();
+        Assert.assertFalse(hc.hasRetryState());
+        verify(sp).setHealthCheckCounterState("");
+        Assert.assertFalse(new JSONObject(URLDecoder.decode(hc.createRequestParam().substring("&hc=".length()), "UTF-8")).has("rf"));
+    }
+}
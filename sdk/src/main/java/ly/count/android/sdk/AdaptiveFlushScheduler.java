@@ -0,0 +1,161 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Decides on every timer tick if the queued events should be turned into a request
+ * and if the request queue should be processed.
+ *
+ * Events are batched until their count, age or size reaches a threshold, or until a session update request
+ * is created that they can be sent with. After failed requests the request queue is processed
+ * exponentially less often until a request goes through again. If a retry policy is set, it decides
+ * when the request queue is processed again instead of the tick based backoff.
+ */
+class AdaptiveFlushScheduler {
+    // after this many consecutive failures the backoff does not grow anymore, at most every 32nd tick is used
+    static final int MAX_BACKOFF_EXPONENT = 5;
+
+    final long maxEventAgeMs;
+    final int maxEventBytes;
+
+    // if set, the backoff after failed requests is left to it
+    @Nullable RetryPolicy retryPolicy = null;
+
+    // when the currently queued events were first seen, -1 if the event queue was empty
+    private long eventsPendingSinceMs = -1;
+
+    private int consecutiveFailures = 0;
+    private int ticksToSkip = 0;
+    private boolean failedSinceLastTick = false;
+
+    /**
+     * @param maxEventAgeMs queued events are sent once the oldest of them has been waiting this long
+     * @param maxEventBytes queued events are sent once their stored size reaches this, 0 means no size limit
+     */
+    AdaptiveFlushScheduler(long maxEventAgeMs, int maxEventBytes) {
+        this.maxEventAgeMs = Math.max(0, maxEventAgeMs);
+        this.maxEventBytes = Math.max(0, maxEventBytes);
+    }
+
+    /**
+     * Should be called at the start of every timer tick, advances the backoff
+     *
+     * @param requestQueueEmpty if the request queue has no requests left
+     */
+    synchronized void onTimerTick(boolean requestQueueEmpty) {
+        if (requestQueueEmpty || (!failedSinceLastTick && ticksToSkip == 0)) {
+            // nothing is left to retry or the queue was processed without failures since the last tick
+            consecutiveFailures = 0;
+            ticksToSkip = 0;
+        } else if (ticksToSkip > 0) {
+            ticksToSkip--;
+        }
+
+        failedSinceLastTick = false;
+    }
+
+    synchronized void onRequestFailed() {
+        if (retryPolicy != null) {
+            // the retry policy was already told about the failure by the connection processor
+            return;
+        }
+
+        consecutiveFailures++;
+        failedSinceLastTick = true;
+        ticksToSkip = (1 << Math.min(consecutiveFailures, MAX_BACKOFF_EXPONENT)) - 1;
+    }
+
+    /**
+     * @return true if the request queue should not be processed at the moment
+     */
+    synchronized boolean isBackingOff() {
+        if (retryPolicy != null) {
+            return !retryPolicy.canAttempt(UtilsTime.currentTimestampMs());
+        }
+        return ticksToSkip > 0;
+    }
+
+    synchronized int getConsecutiveFailures() {
+        if (retryPolicy != null) {
+            return retryPolicy.getConsecutiveFailures();
+        }
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return true if the event size has to be provided to decide if events should be sent
+     */
+    boolean needsEventBytes(int eventCount) {
+        return eventCount > 0 && maxEventBytes > 0;
+    }
+
+    /**
+     * @param eventCount amount of queued events
+     * @param eventBytes stored size of the queued events, only needed if "needsEventBytes" returns true
+     * @param maxEventCount event count threshold
+     * @param nowMs current timestamp
+     * @return true if the queued events should be turned into a request now
+     */
+    synchronized boolean shouldFlushEvents(int eventCount, int eventBytes, int maxEventCount, long nowMs) {
+        if (eventCount <= 0) {
+            eventsPendingSinceMs = -1;
+            return false;
+        }
+
+        if (eventsPendingSinceMs < 0) {
+            eventsPendingSinceMs = nowMs;
+        }
+
+        return eventCount >= maxEventCount
+            || nowMs - eventsPendingSinceMs >= maxEventAgeMs
+            || (maxEventBytes > 0 && eventBytes >= maxEventBytes);
+    }
+
+    /**
+     * Should be called after the queued events were turned into a request
+     */
+    synchronized void onEventsFlushed() {
+        eventsPendingSinceMs = -1;
+    }
+
+    /**
+     * Returns a health tracker that also lets this scheduler know about failed requests
+     */
+    @NonNull HealthTracker observe(@NonNull final HealthTracker healthTracker) {
+        return new HealthTracker() {
+            @Override public void logWarning() {
+                healthTracker.logWarning();
+            }
+
+            @Override public void logError() {
+                healthTracker.logError();
+            }
+
+            @Override public void logFailedNetworkRequest(int statusCode, String errorResponse) {
+                onRequestFailed();
+                healthTracker.logFailedNetworkRequest(statusCode, errorResponse);
+            }
+
+            @Override public void logSessionStartedWhileRunning() {
+                healthTracker.logSessionStartedWhileRunning();
+            }
+
+            @Override public void logSessionEndedWhileNotRunning() {
+                healthTracker.logSessionEndedWhileNotRunning();
+            }
+
+            @Override public void logSessionUpdatedWhileNotRunning() {
+                healthTracker.logSessionUpdatedWhileNotRunning();
+            }
+
+            @Override public void clearAndSave() {
+                healthTracker.clearAndSave();
+            }
+
+            @Override public void saveState() {
+                healthTracker.saveState();
+            }
+        };
+    }
+}
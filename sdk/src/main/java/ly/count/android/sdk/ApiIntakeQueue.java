@@ -0,0 +1,118 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Intake for public API calls that don't return a result, like recording an event or adding a breadcrumb.
+ *
+ * Calling threads only add the call to a lock-free queue and return, they don't wait for the SDK lock.
+ * A single background thread takes the SDK lock and runs the queued calls in the order they were added,
+ * a whole batch of calls is run while holding the lock once.
+ * Code that needs the queued calls to be applied first (sending the event queue, recording a crash)
+ * calls 'drain' which runs them on the calling thread.
+ */
+class ApiIntakeQueue {
+    private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Object lock;
+    private final ExecutorService executor;
+    private final ModuleLog L;
+
+    // set while a drain is running, the queued calls can call 'drain' again. Protected by 'lock'
+    private boolean draining = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param lock the lock that the queued calls have to run under
+     */
+    ApiIntakeQueue(@NonNull Object lock, @NonNull ModuleLog L) {
+        this.lock = lock;
+        this.L = L;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "Countly-api-intake");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds the call to the queue, it will be run on the background thread.
+     * Calls added after 'halt' are run on the calling thread.
+     */
+    void add(@NonNull Runnable call) {
+        if (stopped) {
+            synchronized (lock) {
+                runCall(call);
+            }
+            return;
+        }
+
+        queue.offer(call);
+
+        // only the first call after a drain started needs to wake the background thread
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override public void run() {
+                        drainScheduled.set(false);
+                        drain();
+                    }
+                });
+            } catch (Exception ex) {
+                // the queue was halted in between
+                drainScheduled.set(false);
+                L.w("[ApiIntakeQueue] add, failed to schedule drain, " + ex);
+            }
+        }
+    }
+
+    /**
+     * Runs all queued calls on the calling thread
+     */
+    void drain() {
+        synchronized (lock) {
+            if (draining) {
+                // called from a queued call, the outer drain will run the rest
+                return;
+            }
+
+            draining = true;
+            try {
+                Runnable call;
+                while ((call = queue.poll()) != null) {
+                    runCall(call);
+                }
+            } finally {
+                draining = false;
+            }
+        }
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the background thread, calls that are still queued are discarded
+     */
+    void halt() {
+        stopped = true;
+        executor.shutdown();
+        queue.clear();
+    }
+
+    private void runCall(@NonNull Runnable call) {
+        try {
+            call.run();
+        } catch (Exception ex) {
+            L.e("[ApiIntakeQueue] runCall, queued call failed, " + ex);
+        }
+    }
+}
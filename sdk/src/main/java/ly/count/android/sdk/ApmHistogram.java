@@ -0,0 +1,106 @@
+package ly.count.android.sdk;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of non-negative values, laid out like a HDR histogram.
+ *
+ * Values below {@link #SUB_BUCKET_COUNT} get their own bucket, above that every power of two range
+ * is split into {@link #SUB_BUCKET_HALF} equally wide buckets. The relative error of a returned percentile
+ * is therefore at most 1 / {@link #SUB_BUCKET_HALF}. The bucket array only grows to the highest recorded value
+ * and recording doesn't allocate otherwise.
+ */
+class ApmHistogram {
+    static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+    private long[] counts = new long[SUB_BUCKET_COUNT];
+    private long totalCount = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // how many times the value range doubled after the linear part
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (value >> shift);
+    }
+
+    /**
+     * @return the highest value that falls into the given bucket
+     */
+    static long bucketHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index - (long) shift * SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * @param value negative values are recorded as '0'
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        int index = bucketIndex(value);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + SUB_BUCKET_HALF));
+        }
+
+        counts[index]++;
+        totalCount++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * @param percentile value between 0 and 100
+     * @return the value below or at which the given percentage of the recorded values are, '0' if nothing was recorded
+     */
+    long valueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        double clamped = Math.min(100.0, Math.max(0.0, percentile));
+        long countAtPercentile = Math.max(1, (long) Math.ceil(clamped / 100.0 * totalCount));
+
+        long seen = 0;
+        for (int a = 0; a < counts.length; a++) {
+            seen += counts[a];
+            if (seen >= countAtPercentile) {
+                return Math.max(min, Math.min(max, bucketHighestValue(a)));
+            }
+        }
+        return max;
+    }
+
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    long getMean() {
+        return totalCount == 0 ? 0 : Math.round((double) sum / totalCount);
+    }
+}
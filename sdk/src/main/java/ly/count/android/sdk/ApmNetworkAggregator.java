@@ -0,0 +1,154 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Collects network traces into per window summaries instead of creating a request for every trace.
+ *
+ * Traces are grouped by their trace key and response code class (2xx, 4xx, ...). Each group keeps histograms
+ * of the response time and payload sizes, when the window is over all groups are turned into one request.
+ */
+class ApmNetworkAggregator {
+    static final double[] PERCENTILES = { 50, 90, 95, 99 };
+
+    static class Group {
+        @NonNull final String name;
+        int lastResponseCode;
+        long startMs = Long.MAX_VALUE;
+        long endMs = 0;
+
+        final ApmHistogram responseTime = new ApmHistogram();
+        final ApmHistogram requestPayloadSize = new ApmHistogram();
+        final ApmHistogram responsePayloadSize = new ApmHistogram();
+
+        Group(@NonNull String name) {
+            this.name = name;
+        }
+    }
+
+    final long windowMs;
+    final int maxGroups;
+
+    private Map<String, Group> groups = new HashMap<>();
+    private long windowStartMs = -1;
+    private int traceCount = 0;
+
+    /**
+     * @param windowMs how long traces are collected before they should be sent
+     * @param maxGroups after this many different groups the window is ended early
+     */
+    ApmNetworkAggregator(long windowMs, int maxGroups) {
+        this.windowMs = windowMs;
+        this.maxGroups = maxGroups;
+    }
+
+    static int responseCodeClass(int responseCode) {
+        return responseCode / 100;
+    }
+
+    synchronized void record(@NonNull String networkTraceKey, int responseCode, int requestPayloadSize, int responsePayloadSize, long startTimestamp, long endTimestamp, long nowMs) {
+        String groupKey = networkTraceKey + "|" + responseCodeClass(responseCode);
+        Group group = groups.get(groupKey);
+        if (group == null) {
+            group = new Group(networkTraceKey);
+            groups.put(groupKey, group);
+        }
+
+        if (windowStartMs < 0) {
+            windowStartMs = nowMs;
+        }
+
+        group.lastResponseCode = responseCode;
+        group.startMs = Math.min(group.startMs, startTimestamp);
+        group.endMs = Math.max(group.endMs, endTimestamp);
+        group.responseTime.record(endTimestamp - startTimestamp);
+        group.requestPayloadSize.record(requestPayloadSize);
+        group.responsePayloadSize.record(responsePayloadSize);
+        traceCount++;
+    }
+
+    /**
+     * @return true if the collected traces should be sent
+     */
+    synchronized boolean shouldFlush(long nowMs) {
+        if (windowStartMs < 0) {
+            return false;
+        }
+        return nowMs - windowStartMs >= windowMs || groups.size() >= maxGroups;
+    }
+
+    synchronized int getTraceCount() {
+        return traceCount;
+    }
+
+    synchronized int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * Ends the current window
+     *
+     * @return the summaries of the collected groups, 'null' if nothing was collected
+     */
+    synchronized @Nullable JSONArray flush() {
+        if (groups.isEmpty()) {
+            return null;
+        }
+
+        Map<String, Group> flushed = groups;
+        groups = new HashMap<>();
+        windowStartMs = -1;
+        traceCount = 0;
+
+        JSONArray summaries = new JSONArray();
+        for (Group group : flushed.values()) {
+            try {
+                summaries.put(summaryOf(group));
+            } catch (JSONException ex) {
+                Countly.sharedInstance().L.e("[ApmNetworkAggregator] flush, failed to create summary for [" + group.name + "], " + ex);
+            }
+        }
+        return summaries;
+    }
+
+    synchronized void clear() {
+        groups.clear();
+        windowStartMs = -1;
+        traceCount = 0;
+    }
+
+    // https://abc.count.ly/i?app_key=xyz&device_id=pts911&count=2
+    // &apm=[{"type":"network","name":"/count.ly/about","apm_metrics":{"response_time":130,"response_payload_size":120,"response_code":200,"request_payload_size":70,
+    //   "request_count":12,"response_time_p50":120,...,"response_time_max":400}, "stz": 1584698900, "etz": 1584699900},...]
+    static @NonNull JSONObject summaryOf(@NonNull Group group) throws JSONException {
+        JSONObject metrics = new JSONObject();
+        // the reserved metrics keep their meaning for a single request, they contain the averages of the window
+        metrics.put("response_time", group.responseTime.getMean());
+        metrics.put("response_payload_size", group.responsePayloadSize.getMean());
+        metrics.put("response_code", group.lastResponseCode);
+        metrics.put("request_payload_size", group.requestPayloadSize.getMean());
+
+        metrics.put("request_count", group.responseTime.getTotalCount());
+        for (double percentile : PERCENTILES) {
+            metrics.put("response_time_p" + (int) percentile, group.responseTime.valueAtPercentile(percentile));
+        }
+        metrics.put("response_time_min", group.responseTime.getMin());
+        metrics.put("response_time_max", group.responseTime.getMax());
+        metrics.put("request_payload_size_p95", group.requestPayloadSize.valueAtPercentile(95));
+        metrics.put("response_payload_size_p95", group.responsePayloadSize.valueAtPercentile(95));
+
+        JSONObject summary = new JSONObject();
+        summary.put("type", "network");
+        summary.put("name", group.name);
+        summary.put("apm_metrics", metrics);
+        summary.put("stz", group.startMs);
+        summary.put("etz", group.endMs);
+        return summary;
+    }
+}
@@ -0,0 +1,22 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.io.File;
+
+/**
+ * Journal of binary records, the bytes are written as they are.
+ * See {@link RecordJournal} for the file layout.
+ */
+class ByteRecordJournal extends RecordJournal<byte[]> {
+    ByteRecordJournal(@NonNull File parentDirectory, @NonNull String directoryName, @NonNull ModuleLog logModule) {
+        super(parentDirectory, directoryName, logModule);
+    }
+
+    @Override @NonNull byte[] encode(@NonNull byte[] record) {
+        return record;
+    }
+
+    @Override @NonNull byte[] decode(@NonNull byte[] data) {
+        return data;
+    }
+}
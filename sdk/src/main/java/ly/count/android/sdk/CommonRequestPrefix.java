@@ -0,0 +1,90 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * The part of the common request params that stays the same between requests.
+ *
+ * Encoding the app key and device ID and getting the app version (which goes to the package manager)
+ * is done once when the prefix is created. Only the time related params are added for every request.
+ * A prefix is immutable, a new one has to be created when any of its inputs change.
+ */
+final class CommonRequestPrefix {
+    // inputs, used to check if the prefix can still be used
+    @Nullable final String appKey;
+    @Nullable final String deviceId;
+    @Nullable final String sdkVersion;
+    @Nullable final String sdkName;
+    @Nullable final Map<String, String> metricOverride;
+    @Nullable final DeviceInfo deviceInfo;
+
+    // "app_key=...&device_id=..."
+    @NonNull private final String head;
+    // "&sdk_version=...&sdk_name=...&av=..."
+    @NonNull private final String tail;
+
+    /**
+     * @param deviceInfo where the app version came from, only kept to notice when it is replaced
+     */
+    CommonRequestPrefix(@Nullable String appKey, @Nullable String deviceId, @Nullable String sdkVersion, @Nullable String sdkName, @Nullable Map<String, String> metricOverride, @Nullable DeviceInfo deviceInfo,
+        @Nullable String appVersion) {
+        this.appKey = appKey;
+        this.deviceId = deviceId;
+        this.sdkVersion = sdkVersion;
+        this.sdkName = sdkName;
+        this.metricOverride = metricOverride;
+        this.deviceInfo = deviceInfo;
+
+        head = "app_key=" + UtilsNetworking.urlEncodeString(appKey)
+            + "&device_id=" + UtilsNetworking.urlEncodeString(deviceId);
+        tail = "&sdk_version=" + sdkVersion
+            + "&sdk_name=" + sdkName
+            + "&av=" + UtilsNetworking.urlEncodeString(appVersion);
+    }
+
+    /**
+     * Returns true if the prefix was created from the same values.
+     * The metric override and device info are compared by reference, they are replaced as a whole when they change.
+     */
+    boolean matches(@Nullable String appKey, @Nullable String deviceId, @Nullable String sdkVersion, @Nullable String sdkName, @Nullable Map<String, String> metricOverride, @Nullable DeviceInfo deviceInfo) {
+        return this.metricOverride == metricOverride
+            && this.deviceInfo == deviceInfo
+            && equals(this.appKey, appKey)
+            && equals(this.deviceId, deviceId)
+            && equals(this.sdkVersion, sdkVersion)
+            && equals(this.sdkName, sdkName);
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Creates a builder big enough for the common params and 'extraCapacity' more characters
+     */
+    @NonNull StringBuilder newBuilder(int extraCapacity) {
+        // timestamp, hour, dow and tz take less than 64 characters together
+        return new StringBuilder(head.length() + tail.length() + 64 + extraCapacity);
+    }
+
+    /**
+     * Appends the short common params: app key, device ID, timestamp, SDK version, SDK name and app version
+     */
+    @NonNull StringBuilder appendShort(@NonNull StringBuilder builder, @NonNull UtilsTime.Instant instant) {
+        return builder.append(head)
+            .append("&timestamp=").append(instant.timestampMs)
+            .append(tail);
+    }
+
+    /**
+     * Appends the short common params followed by the hour, day of week and timezone
+     */
+    @NonNull StringBuilder appendFull(@NonNull StringBuilder builder, @NonNull UtilsTime.Instant instant, int timezoneOffset) {
+        return appendShort(builder, instant)
+            .append("&hour=").append(instant.hour)
+            .append("&dow=").append(instant.dow)
+            .append("&tz=").append(timezoneOffset);
+    }
+}
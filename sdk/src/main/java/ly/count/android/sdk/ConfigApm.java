@@ -21,6 +21,22 @@ public class ConfigApm {
      * Whether to track the app start time manually
      */
     protected Long appStartTimestampOverride = null;
+    /**
+     * For how many seconds network traces are collected before they are sent as one summary, '0' if every trace is sent on its own
+     */
+    protected int networkTraceAggregationWindowSeconds = 0;
+    /**
+     * Whether to collect slow and frozen frames of activities
+     */
+    protected boolean trackFrameMetrics = false;
+    /**
+     * Whether connections can be instrumented with 'Apm.instrumentConnection'
+     */
+    protected boolean networkInstrumentation = false;
+    /**
+     * Path templates used to create the network trace keys of instrumented connections
+     */
+    protected String[] networkInstrumentationUrlTemplates = null;
 
     //we enable features
 
@@ -44,6 +60,53 @@ public class ConfigApm {
         return this;
     }
 
+    /**
+     * Enable the instrumentation of connections with 'Apm.instrumentConnection'.
+     * Instrumented connections record their response code, payload sizes and timing as network traces without
+     * calling 'startNetworkRequest' and 'endNetworkRequest'. The traces are buffered per thread and recorded in the background.
+     *
+     * The network trace key is the host and path of the request URL. If the path matches one of the given templates, the template is used instead,
+     * "{name}" segments match any single path segment and a trailing "*" segment matches the rest of the path (for example "/users/{id}/posts" or "/static/*").
+     * Otherwise path segments that look like identifiers are replaced with ":id", ":uuid" or ":hash".
+     *
+     * @param urlTemplates path templates for the network trace keys
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized ConfigApm enableNetworkInstrumentation(String... urlTemplates) {
+        this.networkInstrumentation = true;
+        this.networkInstrumentationUrlTemplates = urlTemplates;
+        return this;
+    }
+
+    /**
+     * Enable the collection of frame rendering metrics.
+     * While an activity is resumed the durations of its frames are collected. When it is stopped, a trace with the activity name is recorded
+     * with the number of slow (over 16ms) and frozen (over 700ms) frames, the average and longest frame time and a frame time histogram.
+     *
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized ConfigApm enableFrameMetricsTracking() {
+        this.trackFrameMetrics = true;
+        return this;
+    }
+
+    /**
+     * Enable the aggregation of network traces.
+     * Instead of a request for every network trace, traces are grouped by their key and response code class (2xx, 4xx, ...)
+     * and every window the groups are sent in one request. Each group contains the average response time and payload sizes,
+     * the number of requests and response time percentiles.
+     *
+     * @param windowSeconds for how many seconds traces are collected, has to be larger than '0'
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized ConfigApm enableNetworkTraceAggregation(int windowSeconds) {
+        this.networkTraceAggregationWindowSeconds = windowSeconds;
+        return this;
+    }
+
     //we configure features / set manual overrides
 
     /**
@@ -3,6 +3,9 @@ package ly.count.android.sdk;
 public class ConfigExperimental {
     protected boolean viewNameRecordingEnabled = false;
     protected boolean visibilityTrackingEnabled = false;
+    protected long eventAggregationWindowMs = 0;
+    protected String[] eventAggregationAllowList = null;
+    protected String[] eventAggregationDenyList = null;
 
     /**
      * This will enabled view name recording for previous view name for views
@@ -27,4 +30,48 @@ public class ConfigExperimental {
         visibilityTrackingEnabled = true;
         return this;
     }
+
+    /**
+     * This will merge custom events with the same key, segmentation and current view
+     * that are recorded within the given time window into a single event.
+     * The count, sum and duration of the merged events are added together and
+     * the merged event keeps the timestamp and ID of the first event.
+     *
+     * Merged events are kept in memory until their window ends or until events are sent.
+     * The timer tick only sends merged events whose window has ended. Events are still sent right away
+     * when they are forced out, for example by a session update or end, a device ID change or a crash,
+     * so with sessions the window is effectively capped by the session update interval.
+     *
+     * @param windowMs how long events are merged after the first one, in milliseconds
+     * @return ConfigExperimental instance for chaining
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public ConfigExperimental enableEventAggregation(long windowMs) {
+        eventAggregationWindowMs = windowMs;
+        return this;
+    }
+
+    /**
+     * If set, only custom events with these keys are merged when event aggregation is enabled
+     *
+     * @param eventKeys keys of the events that can be merged
+     * @return ConfigExperimental instance for chaining
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public ConfigExperimental setEventAggregationAllowList(String... eventKeys) {
+        eventAggregationAllowList = eventKeys;
+        return this;
+    }
+
+    /**
+     * Custom events with these keys are never merged when event aggregation is enabled
+     *
+     * @param eventKeys keys of the events that should not be merged
+     * @return ConfigExperimental instance for chaining
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public ConfigExperimental setEventAggregationDenyList(String... eventKeys) {
+        eventAggregationDenyList = eventKeys;
+        return this;
+    }
 }
@@ -26,17 +26,27 @@ import androidx.annotation.Nullable;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -53,6 +63,7 @@ public class ConnectionProcessor implements Runnable {
 
     private static final String CRLF = "\r\n";
     private static final String charset = "UTF-8";
+    private static final String CHECKSUM_PARAM = "&checksum256=";
 
     private final StorageProvider storageProvider_;
     private final DeviceIdProvider deviceIdProvider_;
@@ -68,9 +79,45 @@ public class ConnectionProcessor implements Runnable {
 
     static String endPointOverrideTag = "&new_end_point=";
 
+    static final String bulkEndpoint = "/i/bulk";
+
     ModuleLog L;
 
     public PerformanceCounterCollector pcc;
+    private static final int PCC_URL_CONNECTION_01_OPEN_URL_CONNECTION = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorUrlConnectionForServerRequest_01_OpenURLConnection");
+    private static final int PCC_URL_CONNECTION_02_CONFIGURE_CONNECTION = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorUrlConnectionForServerRequest_02_ConfigureConnection");
+    private static final int PCC_URL_CONNECTION_03_HEADER_FIELD_SIZE = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorUrlConnectionForServerRequest_03_HeaderFieldSize");
+    private static final int PCC_REQUEST_BODY_RAW_BYTES = PerformanceCounterCollector.sdkValueCounter("ConnectionProcessor_RequestBodyRawBytes");
+    private static final int PCC_REQUEST_BODY_COMPRESSED_BYTES = PerformanceCounterCollector.sdkValueCounter("ConnectionProcessor_RequestBodyCompressedBytes");
+    private static final int PCC_NATIVE_CRASH_DUMP_BODY_BYTES = PerformanceCounterCollector.sdkValueCounter("ConnectionProcessor_NativeCrashDumpBodyBytes");
+    private static final int PCC_RUN_01_GET_REQUEST = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_01_GetRequest");
+    private static final int PCC_RUN_02_NETWORK_OLD_REQ = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_02_NetworkOldReq");
+    private static final int PCC_RUN_03_NETWORK_TEMP_ID = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_03_NetworkTempID");
+    private static final int PCC_RUN_04_NETWORK_CUSTOM_ENDPOINT = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_04_NetworkCustomEndpoint");
+    private static final int PCC_RUN_06_REMAINING_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_06_remainingRequests");
+    private static final int PCC_RUN_07_SETUP_SERVER_REQUEST = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_07_SetupServerRequest");
+    private static final int PCC_RUN_08_NETWORK_ONLY_INTERNET = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_08_NetworkOnlyInternet");
+    private static final int PCC_RUN_09_HANDLING_RESPONSE = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_09_HandlingResponse");
+    private static final int PCC_RUN_10_NETWORK_WHOLE_QUEUE = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_10_NetworkWholeQueue");
+    private static final int PCC_RUN_11_NETWORK_WHOLE_QUEUE_EXCEPTION = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_11_NetworkWholeQueueException");
+    private static final int PCC_RUN_12_FAILED_REQUEST = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_12_FailedRequest");
+    private static final int PCC_RUN_13_READING_STREAM = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_13_ReadingStream");
+    private static final int PCC_RUN_14_REMOVE_HANDLED_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("ConnectionProcessorRun_14_RemoveHandledRequests");
+
+    // decides when failed requests are retried, 'null' if the next tick should retry right away
+    @Nullable RetryPolicy retryPolicy = null;
+
+    // backs off after failed requests when adaptive flushing is enabled, 'null' otherwise
+    @Nullable AdaptiveFlushScheduler flushScheduler = null;
+
+    // shared factory of the pinned SSL context, 'null' if a factory should be taken from the context
+    @Nullable SSLSocketFactory sslSocketFactory = null;
+
+    // if the connection should be kept open for reuse after every successful request, not only inside a drain window
+    boolean keepConnectionsAlive = false;
+
+    // folder of the native crash dumps that are referenced by queued crash requests, 'null' if not known
+    @Nullable File nativeCrashDumpFolder = null;
 
     private enum RequestResult {
         OK,         // success
@@ -92,6 +139,13 @@ public class ConnectionProcessor implements Runnable {
     }
 
     synchronized public @NonNull URLConnection urlConnectionForServerRequest(@NonNull String requestData, @Nullable final String customEndpoint) throws IOException {
+        return urlConnectionForServerRequest(requestData, customEndpoint, null);
+    }
+
+    /**
+     * @param extraHeaders header fields that are added only to this request, can be null
+     */
+    synchronized public @NonNull URLConnection urlConnectionForServerRequest(@NonNull String requestData, @Nullable final String customEndpoint, @Nullable Map<String, String> extraHeaders) throws IOException {
         String urlEndpoint = "/i";
         if (customEndpoint != null) {
             urlEndpoint = customEndpoint;
@@ -99,15 +153,19 @@ public class ConnectionProcessor implements Runnable {
 
         // determine whether or not request has a binary image file, if it has request will be sent as POST request
         boolean hasPicturePath = requestData.contains(ModuleUserProfile.PICTURE_PATH_KEY);
-        boolean usingHttpPost = requestData.contains("&crash=") || requestData.length() >= 2048 || requestInfoProvider_.isHttpPostForced() || hasPicturePath;
+        boolean usingHttpPost = requestData.contains("&crash=") || requestData.length() >= 2048 || requestInfoProvider_.isHttpPostForced() || hasPicturePath || bulkEndpoint.equals(urlEndpoint);
 
         long approximateDateSize = 0L;
         String urlStr = serverURL_ + urlEndpoint;
 
+        // a crash request can refer to a native crash dump file that is streamed into the body in place of the placeholder
+        File nativeCrashDump = usingHttpPost && !hasPicturePath ? ModuleCrash.pendingNativeCrashDumpFile(nativeCrashDumpFolder, requestData) : null;
+
         if (usingHttpPost) {
             // for binary images, checksum will be calculated without url encoded value of the requestData
             // because they sent as form-data and server calculates it that way
-            if (!hasPicturePath) {
+            // for native crash dumps, the checksum is calculated while the body is streamed
+            if (!hasPicturePath && nativeCrashDump == null) {
                 String checksum = UtilsNetworking.sha256Hash(requestData + requestInfoProvider_.getRequestSalt());
                 requestData += "&checksum256=" + checksum;
                 L.v("[ConnectionProcessor] The following checksum was added:[" + checksum + "]");
@@ -135,13 +193,13 @@ public class ConnectionProcessor implements Runnable {
             conn = (HttpURLConnection) url.openConnection();
         } else {
             HttpsURLConnection c = (HttpsURLConnection) url.openConnection();
-            c.setSSLSocketFactory(sslContext_.getSocketFactory());
+            c.setSSLSocketFactory(sslSocketFactory != null ? sslSocketFactory : sslContext_.getSocketFactory());
             conn = c;
         }
 
         if (pcc != null) {
             long openUrlConnectionTime = UtilsTime.getNanoTime() - pccTsOpenURLConnection;
-            pcc.TrackCounterTimeNs("ConnectionProcessorUrlConnectionForServerRequest_01_OpenURLConnection", openUrlConnectionTime);
+            pcc.TrackCounterTimeNs(PCC_URL_CONNECTION_01_OPEN_URL_CONNECTION, openUrlConnectionTime);
             pccTsConfigureConnection = UtilsTime.getNanoTime();
         }
 
@@ -163,6 +221,12 @@ public class ConnectionProcessor implements Runnable {
             }
         }
 
+        if (extraHeaders != null) {
+            for (Map.Entry<String, String> entry : extraHeaders.entrySet()) {
+                conn.setRequestProperty(entry.getKey(), entry.getValue());
+            }
+        }
+
         L.v("[ConnectionProcessor] Has picturePath [" + hasPicturePath + "]");
 
         if (hasPicturePath) {
@@ -194,18 +258,31 @@ public class ConnectionProcessor implements Runnable {
             // End of multipart/form-data.
             writer.append("--").append(boundary).append("--").append(CRLF).flush();
             approximateDateSize += 6 + boundary.length(); // 6 is the length of the static parts of the entry
+        } else if (nativeCrashDump != null) {
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            approximateDateSize += writeNativeCrashDumpBody(conn, requestData, nativeCrashDump);
         } else {
             if (usingHttpPost) {
                 conn.setDoOutput(true);
                 conn.setRequestMethod("POST");
                 conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
 
-                OutputStream os = conn.getOutputStream();
-                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, charset));
-                writer.write(requestData);
-                writer.flush();
-                writer.close();
-                os.close();
+                int compressionThreshold = requestInfoProvider_.getRequestCompressionThreshold();
+                if (compressionThreshold >= 0 && requestData.length() >= compressionThreshold) {
+                    // checksum is calculated from the uncompressed data, the server validates it after decompressing
+                    conn.setRequestProperty("Content-Encoding", "gzip");
+                    long compressedSize = writeCompressedBody(conn.getOutputStream(), requestData);
+                    L.v("[ConnectionProcessor] Request body was compressed from:[" + requestData.length() + "] to:[" + compressedSize + "] bytes");
+                } else {
+                    OutputStream os = conn.getOutputStream();
+                    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, charset));
+                    writer.write(requestData);
+                    writer.flush();
+                    writer.close();
+                    os.close();
+                }
             } else {
                 L.v("[ConnectionProcessor] Using HTTP GET");
                 conn.setDoOutput(false);
@@ -213,7 +290,7 @@ public class ConnectionProcessor implements Runnable {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("ConnectionProcessorUrlConnectionForServerRequest_02_ConfigureConnection", UtilsTime.getNanoTime() - pccTsConfigureConnection);
+            pcc.TrackCounterTimeNs(PCC_URL_CONNECTION_02_CONFIGURE_CONNECTION, UtilsTime.getNanoTime() - pccTsConfigureConnection);
             pccTsStartHeaderFieldSize = UtilsTime.getNanoTime();
         }
 
@@ -236,7 +313,7 @@ public class ConnectionProcessor implements Runnable {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("ConnectionProcessorUrlConnectionForServerRequest_03_HeaderFieldSize", UtilsTime.getNanoTime() - pccTsStartHeaderFieldSize);
+            pcc.TrackCounterTimeNs(PCC_URL_CONNECTION_03_HEADER_FIELD_SIZE, UtilsTime.getNanoTime() - pccTsStartHeaderFieldSize);
         }
 
         L.v("[ConnectionProcessor] Using HTTP POST: [" + usingHttpPost + "] forced:[" + requestInfoProvider_.isHttpPostForced()
@@ -301,9 +378,177 @@ public class ConnectionProcessor implements Runnable {
         return 82 + boundary.length() + approximateDataSize + file.getName().length() + contentType.length(); // 78 is the length of the static parts of the entry
     }
 
+    /**
+     * Writes the given request data gzip compressed into the stream and closes it.
+     * The data is encoded and compressed in chunks so no byte copy of the whole body is created.
+     *
+     * @param os stream to write to
+     * @param requestData uncompressed request body
+     * @return size of the compressed body in bytes
+     * @throws IOException if writing to the stream fails
+     */
+    long writeCompressedBody(@NonNull OutputStream os, @NonNull String requestData) throws IOException {
+        CountingOutputStream compressedStream = new CountingOutputStream(os);
+        CountingOutputStream rawStream = new CountingOutputStream(new GZIPOutputStream(compressedStream, 8192));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(rawStream, charset));
+        writer.write(requestData);
+        // closing finishes the gzip stream and closes the underlying one
+        writer.close();
+
+        if (pcc != null) {
+            pcc.TrackCounter(PCC_REQUEST_BODY_RAW_BYTES, rawStream.count);
+            pcc.TrackCounter(PCC_REQUEST_BODY_COMPRESSED_BYTES, compressedStream.count);
+        }
+
+        return compressedStream.count;
+    }
+
+    /**
+     * Writes a crash request body where the native crash dump placeholder is replaced with the Base64 encoded dump file.
+     * The dump is read and encoded in small chunks, so memory use does not depend on the dump size.
+     * The checksum is calculated over the same data while it is written and added at the end.
+     * If the dump file does not exist anymore, the crash is sent with an empty dump.
+     *
+     * @return amount of bytes written to the connection
+     */
+    long writeNativeCrashDumpBody(@NonNull HttpURLConnection conn, @NonNull String requestData, @NonNull File dumpFile) throws IOException {
+        String placeholder = ModuleCrash.NATIVE_DUMP_PLACEHOLDER_ENCODED + dumpFile.getName();
+        int placeholderStart = requestData.indexOf(placeholder);
+        byte[] head = requestData.substring(0, placeholderStart).getBytes(charset);
+        byte[] tail = requestData.substring(placeholderStart + placeholder.length()).getBytes(charset);
+        byte[] salt = String.valueOf(requestInfoProvider_.getRequestSalt()).getBytes(charset);
+        boolean dumpExists = dumpFile.isFile();
+
+        if (!dumpExists) {
+            L.w("[ConnectionProcessor] writeNativeCrashDumpBody, dump file [" + dumpFile.getName() + "] not found, sending the crash without it");
+        }
+
+        int compressionThreshold = requestInfoProvider_.getRequestCompressionThreshold();
+        boolean compress = compressionThreshold >= 0 && head.length + tail.length + dumpFile.length() >= compressionThreshold;
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        if (compress) {
+            // the compressed size is not known beforehand
+            conn.setRequestProperty("Content-Encoding", "gzip");
+            conn.setChunkedStreamingMode(0);
+        } else {
+            // measure the encoded dump first so that the body does not have to be buffered by the connection
+            CountingOutputStream counter = new CountingOutputStream(new NullOutputStream());
+            if (dumpExists) {
+                streamNativeCrashDump(dumpFile, counter);
+            }
+            conn.setFixedLengthStreamingMode(head.length + counter.count + tail.length + CHECKSUM_PARAM.length() + 64L);
+        }
+
+        CountingOutputStream bodyStream = new CountingOutputStream(conn.getOutputStream());
+        OutputStream os = compress ? new GZIPOutputStream(bodyStream, 8192) : bodyStream;
+        DigestOutputStream digestStream = new DigestOutputStream(os, digest);
+        try {
+            digestStream.write(head);
+            if (dumpExists) {
+                streamNativeCrashDump(dumpFile, digestStream);
+            }
+            digestStream.write(tail);
+
+            // the checksum is not part of the checksummed data
+            digest.update(salt);
+            digestStream.on(false);
+            String checksum = UtilsNetworking.bytesToHex(digest.digest());
+            digestStream.write((CHECKSUM_PARAM + checksum).getBytes(charset));
+            L.v("[ConnectionProcessor] The following checksum was added:[" + checksum + "]");
+        } finally {
+            // closing finishes the gzip stream and closes the connection stream
+            digestStream.close();
+        }
+
+        L.v("[ConnectionProcessor] writeNativeCrashDumpBody, dump of [" + dumpFile.length() + "] bytes was sent as a [" + bodyStream.count + "] byte body");
+        if (pcc != null) {
+            pcc.TrackCounter(PCC_NATIVE_CRASH_DUMP_BODY_BYTES, bodyStream.count);
+        }
+        return bodyStream.count;
+    }
+
+    /**
+     * Reads the dump file in chunks and writes it encoded into the given stream, the stream is not closed
+     */
+    static void streamNativeCrashDump(@NonNull File dumpFile, @NonNull OutputStream os) throws IOException {
+        CrashDumpEncodingOutputStream encodingStream = new CrashDumpEncodingOutputStream(os);
+        InputStream is = new FileInputStream(dumpFile);
+        try {
+            byte[] buffer = new byte[3 * 1024];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                encodingStream.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        encodingStream.finish();
+    }
+
+    /**
+     * Output stream that drops everything that is written to it
+     */
+    static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) {
+        }
+    }
+
+    /**
+     * Output stream that counts the bytes that are written through it
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
     @Override
     public void run() {
         long wholeQueueStart = UtilsTime.getNanoTime();
+
+        // with a window bigger than 1, multiple requests are sent from a single queue cursor
+        // and the handled ones are removed from the queue together once the window is done
+        final int drainWindowSize = requestInfoProvider_.getRequestDrainWindowSize();
+        final boolean drainMode = drainWindowSize > 1;
+        final List<String> handledRequests = new ArrayList<>();
+        final List<Long> handledRequestIds = new ArrayList<>();
+
+        // with bulk mode enabled, consecutive requests are combined and sent to the bulk endpoint
+        final int bulkMaxRequestCount = requestInfoProvider_.getBulkRequestMaxCount();
+        final int bulkMaxBytes = requestInfoProvider_.getBulkRequestMaxBytes();
+        final boolean bulkMode = bulkMaxRequestCount > 1;
+
+        RequestQueueCursor storedRequests = null;
+        int storedRequestCount = 0;
+        int windowPosition = 0;
+        int windowEnd = 0;
+
         while (true) {
             long pccTsStartWholeQueue = 0L;
             long pccTsStartOnlyInternet = 0L;
@@ -322,35 +567,47 @@ public class ConnectionProcessor implements Runnable {
 
             //------------------------
             // get stored requests
-            final String[] storedRequests = storageProvider_.getRequests();
-            int storedRequestCount = storedRequests == null ? 0 : storedRequests.length;
+            if (windowPosition >= windowEnd) {
+                // previous window is done, remove what was handled before getting a new cursor
+                removeHandledRequests(handledRequests, handledRequestIds);
 
-            String msg = "[Connection Processor] Starting to run, there are [" + storedRequestCount + "] requests stored";
-            if (storedRequestCount == 0) {
-                L.v(msg);
-            } else {
-                L.i(msg);
-            }
+                // the cursor only reads as much of the queue as is sent
+                storedRequests = storageProvider_.getRequestQueueCursor();
+                storedRequestCount = storedRequests == null ? 0 : storedRequests.size();
 
-            if (storedRequests == null || storedRequestCount == 0) {
-                L.i("[ConnectionProcessor] No requests in the queue, request queue skipped");
-                // currently no data to send, we are done for now
-                break;
+                String msg = "[Connection Processor] Starting to run, there are [" + storedRequestCount + "] requests stored";
+                if (storedRequestCount == 0) {
+                    L.v(msg);
+                } else {
+                    L.i(msg);
+                }
+
+                if (storedRequests == null || storedRequestCount == 0) {
+                    L.i("[ConnectionProcessor] No requests in the queue, request queue skipped");
+                    // currently no data to send, we are done for now
+                    break;
+                }
+
+                windowPosition = 0;
+                windowEnd = drainMode ? Math.min(drainWindowSize, storedRequestCount) : 1;
             }
 
             if (deviceIdProvider_.getDeviceId() == null) {
                 // When device ID is supplied by OpenUDID or by Google Advertising ID.
                 // In some cases it might take time for them to initialize. So, just wait for it.
-                L.i("[ConnectionProcessor] No Device ID available yet, skipping request " + storedRequests[0]);
+                L.i("[ConnectionProcessor] No Device ID available yet, skipping request " + storedRequests.peekNext());
                 break;
             }
 
-            // get first request in a separate variable to modify and keep the original intact
-            final String originalRequest = storedRequests[0];
+            // get the next request in a separate variable to modify and keep the original intact
+            final String originalRequest = storedRequests.next();
+            final long originalRequestId = storedRequests.currentId();
             String requestData = originalRequest;//todo rework to another param approach
+            int remainingRequestCount = storedRequests.remaining();
+            windowPosition++;
 
             if (pcc != null) {
-                pcc.TrackCounterTimeNs("ConnectionProcessorRun_01_GetRequest", UtilsTime.getNanoTime() - pccTsStartWholeQueue);
+                pcc.TrackCounterTimeNs(PCC_RUN_01_GET_REQUEST, UtilsTime.getNanoTime() - pccTsStartWholeQueue);
             }
 
             //------------------------
@@ -363,7 +620,7 @@ public class ConnectionProcessor implements Runnable {
             boolean isRequestOld = Utils.isRequestTooOld(requestData, requestInfoProvider_.getRequestDropAgeHours(), "[ConnectionProcessor]", L);
 
             if (pcc != null) {
-                pcc.TrackCounterTimeNs("ConnectionProcessorRun_02_NetworkOldReq", UtilsTime.getNanoTime() - pccTsStartOldRCheck);
+                pcc.TrackCounterTimeNs(PCC_RUN_02_NETWORK_OLD_REQ, UtilsTime.getNanoTime() - pccTsStartOldRCheck);
             }
 
             //------------------------
@@ -383,7 +640,7 @@ public class ConnectionProcessor implements Runnable {
                 break;
             }
             if (pcc != null) {
-                pcc.TrackCounterTimeNs("ConnectionProcessorRun_03_NetworkTempID", UtilsTime.getNanoTime() - pccTsStartTempIdCheck);
+                pcc.TrackCounterTimeNs(PCC_RUN_03_NETWORK_TEMP_ID, UtilsTime.getNanoTime() - pccTsStartTempIdCheck);
             }
 
             //------------------------
@@ -406,7 +663,36 @@ public class ConnectionProcessor implements Runnable {
             }
 
             if (pcc != null) {
-                pcc.TrackCounterTimeNs("ConnectionProcessorRun_04_NetworkCustomEndpoint", UtilsTime.getNanoTime() - pccTsStartEndpointCheck);
+                pcc.TrackCounterTimeNs(PCC_RUN_04_NETWORK_CUSTOM_ENDPOINT, UtilsTime.getNanoTime() - pccTsStartEndpointCheck);
+            }
+
+            //------------------------
+
+            boolean ignoreRequest = (requestInfoProvider_.isDeviceAppCrawler() && requestInfoProvider_.ifShouldIgnoreCrawlers()) || isRequestOld;
+
+            // requests that will be removed from the queue if the server accepts this request
+            List<String> bulkBatch = null;
+            long[] bulkBatchIds = null;
+            if (bulkMode && !ignoreRequest && customEndpoint == null) {
+                // the batch moves the cursor past the combined requests, it is moved back if they are not sent together
+                storedRequests.mark();
+                List<Long> batchIds = new ArrayList<>();
+                List<String> batch = collectBulkBatch(originalRequest, originalRequestId, storedRequests, bulkMaxRequestCount, bulkMaxBytes, batchIds);
+                String bulkRequestData = batch.size() > 1 ? bulkRequestData(batch) : null;
+                if (bulkRequestData != null) {
+                    bulkBatch = batch;
+                    bulkBatchIds = new long[batchIds.size()];
+                    for (int a = 0; a < bulkBatchIds.length; a++) {
+                        bulkBatchIds[a] = batchIds.get(a);
+                    }
+                    requestData = bulkRequestData;
+                    customEndpoint = bulkEndpoint;
+                    windowPosition += batch.size() - 1;
+                    remainingRequestCount = storedRequests.remaining();
+                    L.d("[ConnectionProcessor] run, combined [" + batch.size() + "] requests into a bulk request");
+                } else {
+                    storedRequests.reset();
+                }
             }
 
             //------------------------
@@ -416,18 +702,19 @@ public class ConnectionProcessor implements Runnable {
             }
 
             // add the remaining request count
-            requestData = requestData + "&rr=" + (storedRequestCount - 1);
+            requestData = requestData + "&rr=" + remainingRequestCount;
 
             if (pcc != null) {
-                pcc.TrackCounterTimeNs("ConnectionProcessorRun_06_remainingRequests", UtilsTime.getNanoTime() - pccTsStartRemainingRequests);
+                pcc.TrackCounterTimeNs(PCC_RUN_06_REMAINING_REQUESTS, UtilsTime.getNanoTime() - pccTsStartRemainingRequests);
             }
 
             //------------------------
 
-            if (!(requestInfoProvider_.isDeviceAppCrawler() && requestInfoProvider_.ifShouldIgnoreCrawlers()) && !isRequestOld) {
+            if (!ignoreRequest) {
                 //continue with sending the request to the server
                 URLConnection conn = null;
                 InputStream connInputStream = null;
+                boolean keepConnectionAlive = false;
                 try {
                     pccTsStartGetURLConnection = UtilsTime.getNanoTime();
 
@@ -436,13 +723,13 @@ public class ConnectionProcessor implements Runnable {
                     long setupServerRequestTime = UtilsTime.getNanoTime() - pccTsStartGetURLConnection;
                     L.d("[ConnectionProcessor] run, TIMING Setup server request took:[" + setupServerRequestTime / 1000000.0d + "] ms");
                     if (pcc != null) {
-                        pcc.TrackCounterTimeNs("ConnectionProcessorRun_07_SetupServerRequest", setupServerRequestTime);
+                        pcc.TrackCounterTimeNs(PCC_RUN_07_SETUP_SERVER_REQUEST, setupServerRequestTime);
                         pccTsStartOnlyInternet = UtilsTime.getNanoTime();
                     }
                     conn.connect();
 
                     if (pcc != null) {
-                        pcc.TrackCounterTimeNs("ConnectionProcessorRun_08_NetworkOnlyInternet", UtilsTime.getNanoTime() - pccTsStartOnlyInternet);
+                        pcc.TrackCounterTimeNs(PCC_RUN_08_NETWORK_ONLY_INTERNET, UtilsTime.getNanoTime() - pccTsStartOnlyInternet);
                     }
 
                     pccTsStartHandlingResponse = UtilsTime.getNanoTime();
@@ -469,7 +756,7 @@ public class ConnectionProcessor implements Runnable {
                     L.d("[Connection Processor] code:[" + responseCode + "], response:[" + responseString + "], response size:[" + responseString.length() + " B], request: " + requestData + ", url: " + serverURL_ + ", Reading stream took:[" + readingStreamTime / 1000000.0d + "] ms");
 
                     if (pcc != null) {
-                        pcc.TrackCounterTimeNs("ConnectionProcessorRun_13_ReadingStream", readingStreamTime);
+                        pcc.TrackCounterTimeNs(PCC_RUN_13_READING_STREAM, readingStreamTime);
                     }
 
                     final RequestResult rRes;
@@ -525,15 +812,33 @@ public class ConnectionProcessor implements Runnable {
                     if (rRes == RequestResult.OK) {
                         // successfully submitted event data to Count.ly server, so remove
                         // this one from the stored events collection
-                        storageProvider_.removeRequest(originalRequest);
+                        if (bulkBatch != null) {
+                            // all requests of the batch are removed together
+                            onRequestsHandled(bulkBatch, bulkBatchIds, drainMode, handledRequests, handledRequestIds);
+                        } else {
+                            onRequestHandled(originalRequest, originalRequestId, drainMode, handledRequests, handledRequestIds);
+                        }
+
+                        // the response was fully read, the socket can be reused for the next request of the window or the next tick
+                        keepConnectionAlive = drainMode || keepConnectionsAlive;
+
+                        if (retryPolicy != null) {
+                            retryPolicy.onSuccess();
+                        }
                     } else {
                         // will retry later
                         // warning was logged above, stop processing, let next tick take care of retrying
                         healthTracker.logFailedNetworkRequest(responseCode, responseString);//notify the health tracker of the issue
                         healthTracker.saveState();
 
+                        if (retryPolicy != null) {
+                            String retryAfter = conn instanceof HttpURLConnection ? ((HttpURLConnection) conn).getHeaderField("Retry-After") : null;
+                            long nowMs = UtilsTime.currentTimestampMs();
+                            retryPolicy.onFailure(RetryPolicy.parseRetryAfterMs(retryAfter, nowMs), nowMs);
+                        }
+
                         if (pcc != null) {
-                            pcc.TrackCounterTimeNs("ConnectionProcessorRun_12_FailedRequest", UtilsTime.getNanoTime() - pccTsStartWholeQueue);
+                            pcc.TrackCounterTimeNs(PCC_RUN_12_FAILED_REQUEST, UtilsTime.getNanoTime() - pccTsStartWholeQueue);
                         }
 
                         break;
@@ -541,8 +846,17 @@ public class ConnectionProcessor implements Runnable {
                 } catch (Exception e) {
                     L.d("[ConnectionProcessor] Got exception while trying to submit request data: [" + requestData + "] [" + e + "]");
                     // if exception occurred, stop processing, let next tick take care of retrying
+                    if (flushScheduler != null) {
+                        // there is no response to report to the health tracker, only the backoff is told about it
+                        flushScheduler.onRequestFailed();
+                    }
+
+                    if (retryPolicy != null) {
+                        retryPolicy.onFailure(0, UtilsTime.currentTimestampMs());
+                    }
+
                     if (pcc != null) {
-                        pcc.TrackCounterTimeNs("ConnectionProcessorRun_11_NetworkWholeQueueException", UtilsTime.getNanoTime() - pccTsStartWholeQueue);
+                        pcc.TrackCounterTimeNs(PCC_RUN_11_NETWORK_WHOLE_QUEUE_EXCEPTION, UtilsTime.getNanoTime() - pccTsStartWholeQueue);
                     }
                     break;
                 } finally {
@@ -555,13 +869,15 @@ public class ConnectionProcessor implements Runnable {
                         } catch (Throwable ignored) {
                         }
 
-                        ((HttpURLConnection) conn).disconnect();
+                        if (!keepConnectionAlive) {
+                            ((HttpURLConnection) conn).disconnect();
+                        }
                     }
                 }
                 long handlingResponseTime = UtilsTime.getNanoTime() - pccTsStartHandlingResponse;
                 L.d("[ConnectionProcessor] run, TIMING Handling response took:[" + handlingResponseTime / 1000000.0d + "] ms");
                 if (pcc != null) {
-                    pcc.TrackCounterTimeNs("ConnectionProcessorRun_09_HandlingResponse", handlingResponseTime);
+                    pcc.TrackCounterTimeNs(PCC_RUN_09_HANDLING_RESPONSE, handlingResponseTime);
                 }
             } else {
                 //device is identified as a app crawler and nothing is sent to the server
@@ -572,17 +888,186 @@ public class ConnectionProcessor implements Runnable {
                 }
 
                 //remove stored data
-                storageProvider_.removeRequest(originalRequest);
+                onRequestHandled(originalRequest, originalRequestId, drainMode, handledRequests, handledRequestIds);
             }
 
             if (pcc != null) {
-                pcc.TrackCounterTimeNs("ConnectionProcessorRun_10_NetworkWholeQueue", UtilsTime.getNanoTime() - pccTsStartWholeQueue);
+                pcc.TrackCounterTimeNs(PCC_RUN_10_NETWORK_WHOLE_QUEUE, UtilsTime.getNanoTime() - pccTsStartWholeQueue);
             }
         }
+
+        // requests that were handled before the loop was stopped still have to be removed
+        removeHandledRequests(handledRequests, handledRequestIds);
+
         long wholeQueueTime = UtilsTime.getNanoTime() - wholeQueueStart;
         L.v("[ConnectionProcessor] run, TIMING Whole queue took:[" + wholeQueueTime / 1000000.0d + "] ms");
     }
 
+    /**
+     * Removes a sent or dropped request from the queue by its sequence id.
+     * If the queue was rewritten since the snapshot was taken, the id is not valid anymore and the request is removed by its content.
+     * In drain mode the removal is postponed until the current window is finished.
+     * A native crash dump of the request is deleted only after the request was removed.
+     */
+    private void onRequestHandled(@NonNull String request, long requestId, boolean drainMode, @NonNull List<String> handledRequests, @NonNull List<Long> handledRequestIds) {
+        if (drainMode) {
+            handledRequests.add(request);
+            handledRequestIds.add(requestId);
+            return;
+        }
+
+        if (!storageProvider_.removeRequestById(requestId)) {
+            L.d("[ConnectionProcessor] onRequestHandled, request id not found, removing by content");
+            storageProvider_.removeRequest(request);
+        }
+        deleteNativeCrashDump(request);
+    }
+
+    /**
+     * A native crash dump is not needed anymore once its request is sent or dropped and removed from the queue.
+     * Deleting it earlier would lose the dump if the request stays in the queue.
+     */
+    private void deleteNativeCrashDump(@NonNull String request) {
+        File nativeCrashDump = ModuleCrash.pendingNativeCrashDumpFile(nativeCrashDumpFolder, request);
+        if (nativeCrashDump != null && nativeCrashDump.delete()) {
+            L.d("[ConnectionProcessor] deleteNativeCrashDump, deleted native crash dump [" + nativeCrashDump.getName() + "]");
+        }
+    }
+
+    /**
+     * Removes multiple sent requests from the queue with a single storage write.
+     * In drain mode the removal is postponed until the current window is finished.
+     */
+    private void onRequestsHandled(@NonNull List<String> requests, @NonNull long[] requestIds, boolean drainMode, @NonNull List<String> handledRequests, @NonNull List<Long> handledRequestIds) {
+        handledRequests.addAll(requests);
+        for (long id : requestIds) {
+            handledRequestIds.add(id);
+        }
+
+        if (!drainMode) {
+            removeHandledRequests(handledRequests, handledRequestIds);
+        }
+    }
+
+    /**
+     * Removes all handled requests from the queue with a single storage write
+     */
+    private void removeHandledRequests(@NonNull List<String> handledRequests, @NonNull List<Long> handledRequestIds) {
+        if (handledRequests.isEmpty()) {
+            return;
+        }
+
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        L.v("[ConnectionProcessor] removeHandledRequests, removing [" + handledRequests.size() + "] requests from the queue");
+        long[] ids = new long[handledRequestIds.size()];
+        for (int a = 0; a < ids.length; a++) {
+            ids[a] = handledRequestIds.get(a);
+        }
+
+        if (storageProvider_.removeRequestsById(ids) == 0) {
+            // none of the ids are valid anymore, the queue was rewritten since the snapshot
+            L.d("[ConnectionProcessor] removeHandledRequests, request ids not found, removing by content");
+            storageProvider_.removeRequests(handledRequests);
+        }
+        for (String request : handledRequests) {
+            deleteNativeCrashDump(request);
+        }
+        handledRequests.clear();
+        handledRequestIds.clear();
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_RUN_14_REMOVE_HANDLED_REQUESTS, UtilsTime.getNanoTime() - tsStart);
+        }
+    }
+
+    /**
+     * Returns true if the request can be sent as part of a bulk request.
+     * Requests with a custom endpoint, a picture upload, a native crash dump, the temporary device ID or that are too old have to be handled on their own.
+     */
+    boolean canBeBulked(@NonNull String request) {
+        return !request.contains(endPointOverrideTag)
+            && !request.contains(ModuleUserProfile.PICTURE_PATH_KEY)
+            && !request.contains(ModuleCrash.NATIVE_DUMP_PLACEHOLDER_ENCODED)
+            && !request.contains("&device_id=" + DeviceId.temporaryCountlyDeviceId)
+            && !Utils.isRequestTooOld(request, requestInfoProvider_.getRequestDropAgeHours(), "[ConnectionProcessor]", L);
+    }
+
+    /**
+     * Collects consecutive requests, starting with the given one, that can be sent together to the bulk endpoint.
+     * Only requests with the same app key and device ID are combined.
+     *
+     * @param first the first request of the batch, already taken from the cursor
+     * @param firstId sequence id of the first request
+     * @param cursor the following requests, it is moved past every request that is added to the batch
+     * @param maxCount maximum amount of requests in the batch
+     * @param maxBytes maximum combined length of the requests in the batch, the first request is always included
+     * @param batchIds receives the sequence ids of the collected requests
+     * @return the collected requests in queue order
+     */
+    @NonNull List<String> collectBulkBatch(@NonNull String first, long firstId, @NonNull RequestQueueCursor cursor, int maxCount, int maxBytes, @NonNull List<Long> batchIds) {
+        List<String> batch = new ArrayList<>();
+        if (!canBeBulked(first)) {
+            return batch;
+        }
+
+        Map<String, String> firstParams = Utils.splitIntoParams(first, L);
+        String appKey = firstParams.get("app_key");
+        String deviceId = firstParams.get("device_id");
+        if (appKey == null || deviceId == null) {
+            return batch;
+        }
+
+        batch.add(first);
+        batchIds.add(firstId);
+        int batchBytes = first.length();
+
+        while (cursor.hasNext() && batch.size() < maxCount) {
+            String request = cursor.peekNext();
+            if (batchBytes + request.length() > maxBytes || !canBeBulked(request)) {
+                break;
+            }
+
+            Map<String, String> params = Utils.splitIntoParams(request, L);
+            if (!appKey.equals(params.get("app_key")) || !deviceId.equals(params.get("device_id"))) {
+                break;
+            }
+
+            batch.add(cursor.next());
+            batchIds.add(cursor.currentId());
+            batchBytes += request.length();
+        }
+
+        return batch;
+    }
+
+    /**
+     * Creates the request data for the bulk endpoint.
+     * Every request is turned into a JSON object of its decoded params and they are sent in the 'requests' array.
+     *
+     * @return the request data or null if it could not be created
+     */
+    @Nullable String bulkRequestData(@NonNull List<String> requests) {
+        JSONArray bulk = new JSONArray();
+        try {
+            for (String request : requests) {
+                JSONObject requestObj = new JSONObject();
+                for (Map.Entry<String, String> param : Utils.splitIntoParams(request, L).entrySet()) {
+                    requestObj.put(param.getKey(), UtilsNetworking.urlDecodeString(param.getValue()));
+                }
+                bulk.put(requestObj);
+            }
+        } catch (JSONException e) {
+            L.e("[ConnectionProcessor] bulkRequestData, failed to create bulk request, " + e);
+            return null;
+        }
+
+        return "requests=" + UtilsNetworking.urlEncodeString(bulk.toString());
+    }
+
     String getServerURL() {
         return serverURL_;
     }
@@ -32,6 +32,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -52,12 +53,17 @@ class ConnectionQueue implements RequestQueueProvider {
     private Future<?> connectionProcessorFuture_;
     private DeviceIdProvider deviceIdProvider_;
     private SSLContext sslContext_;
+    private SSLSocketFactory sslSocketFactory_;
     BaseInfoProvider baseInfoProvider;
     HealthTracker healthTracker;
+    AdaptiveFlushScheduler flushScheduler = null;
+    RetryPolicy retryPolicy = null;
+    NetworkExecutor networkExecutor = null;
     public PerformanceCounterCollector pcc;
 
     private Map<String, String> requestHeaderCustomValues;
     Map<String, String> metricOverride = null;
+    private volatile CommonRequestPrefix commonRequestPrefix = null;
 
     protected ModuleLog L;
     protected ConsentProvider consentProvider;//link to the consent module
@@ -90,11 +96,14 @@ class ConnectionQueue implements RequestQueueProvider {
     void setupSSLContext() {
         if (Countly.publicKeyPinCertificates == null && Countly.certificatePinCertificates == null) {
             sslContext_ = null;
+            sslSocketFactory_ = null;
         } else {
             try {
                 TrustManager[] tm = { new CertificateTrustManager(Countly.publicKeyPinCertificates, Countly.certificatePinCertificates) };
                 sslContext_ = SSLContext.getInstance("TLS");
                 sslContext_.init(null, tm, null);
+                // a single factory is used for all connections, so pooled connections and TLS sessions can be reused
+                sslSocketFactory_ = sslContext_.getSocketFactory();
             } catch (Throwable e) {
                 throw new IllegalStateException(e);
             }
@@ -266,6 +275,16 @@ class ConnectionQueue implements RequestQueueProvider {
      * @throws IllegalStateException if context, app key, store, or server URL have not been set
      */
     public void updateSession(final int duration) {
+        updateSession(duration, null);
+    }
+
+    /**
+     * Records a session update request
+     *
+     * @param duration seconds since the last session duration update
+     * @param events URL encoded events that should be sent with the same request, can be null
+     */
+    public void updateSession(final int duration, @Nullable final String events) {
         if (!checkInternalState()) {
             return;
         }
@@ -280,6 +299,10 @@ class ConnectionQueue implements RequestQueueProvider {
             String data = prepareCommonRequestData();
             data += "&session_duration=" + duration;
 
+            if (events != null) {
+                data += "&events=" + events;
+            }
+
             addRequestToQueue(data, false);
             tick();
         }
@@ -515,7 +538,7 @@ class ConnectionQueue implements RequestQueueProvider {
             return;
         }
 
-        StringBuilder data = new StringBuilder(prepareCommonRequestData());
+        StringBuilder data = prepareCommonRequestDataBuilder(64);
 
         data.append("&dr=1");
 
@@ -549,8 +572,9 @@ class ConnectionQueue implements RequestQueueProvider {
         ///CONSENT FOR EVENTS IS CHECKED ON EVENT CREATION//
         ////////////////////////////////////////////////////
 
-        final String data = prepareCommonRequestData()
-            + "&events=" + events;
+        final String data = prepareCommonRequestDataBuilder(events == null ? 8 : events.length() + 8)
+            .append("&events=").append(events)
+            .toString();
 
         addRequestToQueue(data, false);
         tick();
@@ -625,6 +649,33 @@ class ConnectionQueue implements RequestQueueProvider {
         tick();
     }
 
+    /**
+     * Sends multiple summarized network traces in one request
+     *
+     * @param apmTraces JSON array of network traces
+     * @param traceCount how many traces are in the array
+     */
+    public void sendAPMNetworkTraceSummary(String apmTraces, int traceCount) {
+        if (!checkInternalState()) {
+            return;
+        }
+
+        L.d("[Connection Queue] sendAPMNetworkTraceSummary, traces:[" + traceCount + "]");
+
+        if (!consentProvider.getConsent(Countly.CountlyFeatureNames.apm)) {
+            L.d("[Connection Queue] request ignored, 'apm' consent not given");
+            return;
+        }
+
+        final String data = prepareCommonRequestData()
+            + "&count=" + traceCount
+            + "&apm=" + UtilsNetworking.urlEncodeString(apmTraces);
+
+        addRequestToQueue(data, false);
+
+        tick();
+    }
+
     public void sendAPMAppStart(long durationMs, Long startMs, Long endMs) {
         if (!checkInternalState()) {
             return;
@@ -683,11 +734,23 @@ class ConnectionQueue implements RequestQueueProvider {
     @NonNull
     String prepareCommonRequestData(@NonNull String deviceId) {
         UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+        CommonRequestPrefix prefix = getCommonRequestPrefix(deviceId);
+
+        return prefix.appendFull(prefix.newBuilder(0), instant, deviceInfo.mp.getTimezoneOffset()).toString();
+    }
+
+    /**
+     * Returns a builder that already contains the common request data,
+     * so that the rest of the request can be appended without creating intermediate strings
+     *
+     * @param extraCapacity expected length of the data that will be appended
+     */
+    @NonNull
+    StringBuilder prepareCommonRequestDataBuilder(int extraCapacity) {
+        UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+        CommonRequestPrefix prefix = getCommonRequestPrefix(deviceIdProvider_.getDeviceId());
 
-        return prepareCommonRequestDataShort(instant, deviceId)
-            + "&hour=" + instant.hour
-            + "&dow=" + instant.dow
-            + "&tz=" + deviceInfo.mp.getTimezoneOffset();
+        return prefix.appendFull(prefix.newBuilder(extraCapacity), instant, deviceInfo.mp.getTimezoneOffset());
     }
 
     @NonNull
@@ -703,12 +766,27 @@ class ConnectionQueue implements RequestQueueProvider {
 
     @NonNull
     String prepareCommonRequestDataShort(@NonNull UtilsTime.Instant instant, @NonNull String deviceId) {
-        return "app_key=" + UtilsNetworking.urlEncodeString(baseInfoProvider.getAppKey())
-            + "&device_id=" + UtilsNetworking.urlEncodeString(deviceId)
-            + "&timestamp=" + instant.timestampMs
-            + "&sdk_version=" + Countly.sharedInstance().COUNTLY_SDK_VERSION_STRING
-            + "&sdk_name=" + Countly.sharedInstance().COUNTLY_SDK_NAME
-            + "&av=" + UtilsNetworking.urlEncodeString(deviceInfo.getAppVersionWithOverride(context_, metricOverride));
+        CommonRequestPrefix prefix = getCommonRequestPrefix(deviceId);
+        return prefix.appendShort(prefix.newBuilder(0), instant).toString();
+    }
+
+    /**
+     * Returns the cached common request prefix, it is only recreated when one of its inputs has changed
+     */
+    @NonNull
+    CommonRequestPrefix getCommonRequestPrefix(@NonNull String deviceId) {
+        String appKey = baseInfoProvider.getAppKey();
+        Countly countly = Countly.sharedInstance();
+        String sdkVersion = countly.COUNTLY_SDK_VERSION_STRING;
+        String sdkName = countly.COUNTLY_SDK_NAME;
+
+        CommonRequestPrefix prefix = commonRequestPrefix;
+        if (prefix == null || !prefix.matches(appKey, deviceId, sdkVersion, sdkName, metricOverride, deviceInfo)) {
+            L.v("[Connection Queue] getCommonRequestPrefix, creating new common request prefix");
+            prefix = new CommonRequestPrefix(appKey, deviceId, sdkVersion, sdkName, metricOverride, deviceInfo, deviceInfo.getAppVersionWithOverride(context_, metricOverride));
+            commonRequestPrefix = prefix;
+        }
+        return prefix;
     }
 
     private String prepareLocationData(boolean locationDisabled, String locationCountryCode, String locationCity, String locationGpsCoordinates, String locationIpAddress) {
@@ -857,7 +935,7 @@ class ConnectionQueue implements RequestQueueProvider {
             if (L != null) {
                 L.v("[ConnectionQueue] ensureExecutor, Creating new executor");
             }
-            executor_ = Executors.newSingleThreadExecutor();
+            executor_ = networkExecutor != null ? networkExecutor.queueLane() : Executors.newSingleThreadExecutor();
         }
     }
 
@@ -884,6 +962,12 @@ class ConnectionQueue implements RequestQueueProvider {
         }
 
         if (!rqEmpty && (connectionProcessorFuture_ == null || cpDoneIfOngoing)) {
+            // the flush scheduler defers to the retry policy if both are set, so only one of them is asked
+            if (flushScheduler != null ? flushScheduler.isBackingOff() : retryPolicy != null && !retryPolicy.canAttempt(UtilsTime.currentTimestampMs())) {
+                L.d("[ConnectionQueue] tick, Backing off after failed requests, consecutive failures:[" + (flushScheduler != null ? flushScheduler.getConsecutiveFailures() : retryPolicy.getConsecutiveFailures()) + "]");
+                return;
+            }
+
             L.d("[ConnectionQueue] tick, Starting ConnectionProcessor");
             ensureExecutor();
             connectionProcessorFuture_ = executor_.submit(createConnectionProcessor());
@@ -891,8 +975,16 @@ class ConnectionQueue implements RequestQueueProvider {
     }
 
     public ConnectionProcessor createConnectionProcessor() {
-        ConnectionProcessor cp = new ConnectionProcessor(baseInfoProvider.getServerURL(), storageProvider, deviceIdProvider_, configProvider, requestInfoProvider, sslContext_, requestHeaderCustomValues, L, healthTracker);
+        ConnectionProcessor cp = new ConnectionProcessor(baseInfoProvider.getServerURL(), storageProvider, deviceIdProvider_, configProvider, requestInfoProvider, sslContext_, requestHeaderCustomValues, L,
+            flushScheduler != null && healthTracker != null ? flushScheduler.observe(healthTracker) : healthTracker);
         cp.pcc = pcc;
+        cp.retryPolicy = retryPolicy;
+        cp.flushScheduler = flushScheduler;
+        cp.sslSocketFactory = sslSocketFactory_;
+        cp.keepConnectionsAlive = networkExecutor != null;
+        if (context_ != null) {
+            cp.nativeCrashDumpFolder = ModuleCrash.pendingNativeCrashDumpFolder(context_);
+        }
         return cp;
     }
 
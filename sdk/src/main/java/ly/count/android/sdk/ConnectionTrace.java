@@ -0,0 +1,143 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Timing and payload sizes of one instrumented connection.
+ *
+ * The trace starts when the connection is first used and ends when the response body was read to the end or closed,
+ * when the response code is known and there is no body, when the connection is disconnected or when it failed. The finished trace is written into the {@link NetworkTraceBuffer}.
+ */
+class ConnectionTrace {
+    interface DrainRequest {
+        void onDrainNeeded();
+    }
+
+    @NonNull final URL url;
+    @NonNull private final NetworkTraceBuffer buffer;
+    @Nullable private final DrainRequest drainRequest;
+
+    private long startNs = -1;
+    private long startTimestampMs;
+    private int responseCode = 0;
+    private long requestBytes = 0;
+    private long responseBytes = 0;
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+
+    ConnectionTrace(@NonNull URL url, @NonNull NetworkTraceBuffer buffer, @Nullable DrainRequest drainRequest) {
+        this.url = url;
+        this.buffer = buffer;
+        this.drainRequest = drainRequest;
+    }
+
+    void start() {
+        if (startNs < 0) {
+            startNs = System.nanoTime();
+            startTimestampMs = UtilsTime.currentTimestampMs();
+        }
+    }
+
+    void onResponseCode(int code) {
+        responseCode = code;
+    }
+
+    boolean hasErrorResponseCode() {
+        return responseCode >= 400;
+    }
+
+    /**
+     * @param contentLength value of the "Content-Length" header, -1 if it is not known
+     * @return true if a response with the given code can't have a body
+     */
+    static boolean hasNoBody(@Nullable String requestMethod, int responseCode, int contentLength) {
+        return "HEAD".equals(requestMethod)
+            || (responseCode >= 100 && responseCode < 200)
+            || responseCode == HttpURLConnection.HTTP_NO_CONTENT
+            || responseCode == HttpURLConnection.HTTP_NOT_MODIFIED
+            || contentLength == 0;
+    }
+
+    void finish() {
+        if (startNs < 0 || !finished.compareAndSet(false, true)) {
+            return;
+        }
+
+        long durationNs = System.nanoTime() - startNs;
+        if (buffer.record(url, responseCode, requestBytes, responseBytes, startTimestampMs, durationNs) && drainRequest != null) {
+            drainRequest.onDrainNeeded();
+        }
+    }
+
+    boolean isFinished() {
+        return finished.get();
+    }
+
+    @Nullable OutputStream wrapOutput(@Nullable OutputStream out) {
+        if (out == null) {
+            return null;
+        }
+
+        return new FilterOutputStream(out) {
+            @Override public void write(int b) throws IOException {
+                out.write(b);
+                requestBytes++;
+            }
+
+            @Override public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                requestBytes += len;
+            }
+        };
+    }
+
+    @Nullable InputStream wrapInput(@Nullable InputStream in) {
+        if (in == null) {
+            return null;
+        }
+
+        return new FilterInputStream(in) {
+            @Override public int read() throws IOException {
+                int b = in.read();
+                if (b < 0) {
+                    finish();
+                } else {
+                    responseBytes++;
+                }
+                return b;
+            }
+
+            @Override public int read(@NonNull byte[] b, int off, int len) throws IOException {
+                int read = in.read(b, off, len);
+                if (read < 0) {
+                    finish();
+                } else {
+                    responseBytes += read;
+                }
+                return read;
+            }
+
+            @Override public long skip(long n) throws IOException {
+                long skipped = in.skip(n);
+                responseBytes += skipped;
+                return skipped;
+            }
+
+            @Override public void close() throws IOException {
+                try {
+                    in.close();
+                } finally {
+                    finish();
+                }
+            }
+        };
+    }
+}
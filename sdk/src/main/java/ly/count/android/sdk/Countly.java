@@ -164,6 +164,12 @@ public class Countly {
     List<ModuleBase> modules = new ArrayList<>();
     ModuleCrash moduleCrash = null;
     ModuleEvents moduleEvents = null;
+    //used for fire-and-forget API calls when async API intake is enabled
+    ApiIntakeQueue apiIntakeQueue = null;
+
+    AdaptiveFlushScheduler adaptiveFlushScheduler = null;
+
+    NetworkExecutor networkExecutor = null;
     ModuleViews moduleViews = null;
     ModuleRatings moduleRatings = null;
     ModuleSessions moduleSessions = null;
@@ -435,7 +441,14 @@ public class Countly {
             if (config.countlyStore != null) {
                 //we are running a test and using a mock object
                 countlyStore = config.countlyStore;
+            } else if (config.requestQueueJournalEnabled && !config.explicitStorageModeEnabled) {
+                L.i("[Init] Request queue journal is being enabled");
+                countlyStore = new JournaledCountlyStore(config.context, L);
+                config.setCountlyStore(countlyStore);
             } else {
+                if (config.requestQueueJournalEnabled) {
+                    L.w("[Init] Request queue journal can't be used together with explicit storage mode, it will be ignored");
+                }
                 countlyStore = new CountlyStore(config.context, L, config.explicitStorageModeEnabled);
                 config.setCountlyStore(countlyStore);
             }
@@ -445,6 +458,11 @@ public class Countly {
                 countlyStore.pcc = config.pcc;
             }
 
+            if (config.writeBehindStorageEnabled) {
+                L.i("[Init] Enabling write-behind storage mode, max staleness:[" + config.writeBehindMaxStalenessMs + "] ms");
+                countlyStore.enableWriteBehind(config.writeBehindMaxStalenessMs);
+            }
+
             if (config.maxRequestQueueSize < 1) {
                 L.e("[Init] provided request queue size is less than 1. Replacing it with 1.");
                 config.maxRequestQueueSize = 1;
@@ -460,7 +478,15 @@ public class Countly {
             }
 
             if (config.eventQueueProvider == null) {
-                config.eventQueueProvider = countlyStore;
+                if (config.eventQueueRingBufferEnabled && !config.explicitStorageModeEnabled) {
+                    L.i("[Init] Event queue ring buffer is being enabled");
+                    config.eventQueueProvider = countlyStore.enableEventQueueRingBuffer(config.context);
+                } else {
+                    if (config.eventQueueRingBufferEnabled) {
+                        L.w("[Init] Event queue ring buffer can't be used together with explicit storage mode, it will be ignored");
+                    }
+                    config.eventQueueProvider = countlyStore;
+                }
             } else {
                 L.d("[Init] Custom event queue provider was provided");
             }
@@ -492,7 +518,13 @@ public class Countly {
             if (config.immediateRequestGenerator == null) {
                 config.immediateRequestGenerator = new ImmediateRequestGenerator() {
                     @Override public ImmediateRequestI CreateImmediateRequestMaker() {
-                        return (new ImmediateRequestMaker());
+                        ImmediateRequestMaker requestMaker = new ImmediateRequestMaker();
+                        NetworkExecutor sharedExecutor = networkExecutor;
+                        if (sharedExecutor != null) {
+                            requestMaker.executor = sharedExecutor.priorityLane();
+                            requestMaker.keepConnectionAlive = true;
+                        }
+                        return requestMaker;
                     }
                 };
             }
@@ -509,6 +541,7 @@ public class Countly {
                 L.d("[Init] Custom metric provider was provided");
             }
             config.deviceInfo = new DeviceInfo(config.metricProviderOverride);
+            config.deviceInfo.pcc = config.pcc;
 
             if (config.tamperingProtectionSalt != null) {
                 L.d("[Init] Parameter tampering protection salt set");
@@ -691,8 +724,54 @@ public class Countly {
                 @Override public String getRequestSalt() {
                     return config.tamperingProtectionSalt;
                 }
+
+                @Override public int getRequestDrainWindowSize() {
+                    return config.requestDrainWindowSize;
+                }
+
+                @Override public int getBulkRequestMaxCount() {
+                    return config.bulkRequestsEnabled ? config.bulkRequestMaxCount : 0;
+                }
+
+                @Override public int getBulkRequestMaxBytes() {
+                    return config.bulkRequestMaxBytes;
+                }
+
+                @Override public int getRequestCompressionThreshold() {
+                    return config.requestCompressionThreshold;
+                }
             };
 
+            if (config.asyncApiIntakeEnabled) {
+                L.i("[Init] Enabling async API intake");
+                apiIntakeQueue = new ApiIntakeQueue(this, L);
+            }
+
+            if (config.adaptiveFlushMaxEventAgeSeconds >= 0) {
+                L.i("[Init] Enabling adaptive flushing, max event age:[" + config.adaptiveFlushMaxEventAgeSeconds + "], max event bytes:[" + config.adaptiveFlushMaxEventBytes + "]");
+                adaptiveFlushScheduler = new AdaptiveFlushScheduler(config.adaptiveFlushMaxEventAgeSeconds * 1000L, config.adaptiveFlushMaxEventBytes);
+                connectionQueue_.flushScheduler = adaptiveFlushScheduler;
+            }
+
+            if (config.sharedNetworkingEnabled) {
+                L.i("[Init] Enabling shared networking, immediate request threads:[" + config.immediateRequestThreads + "]");
+                networkExecutor = new NetworkExecutor(config.immediateRequestThreads);
+                connectionQueue_.networkExecutor = networkExecutor;
+            }
+
+            if (config.retryBackoffBaseDelaySeconds >= 0) {
+                L.i("[Init] Enabling request retry backoff, base delay:[" + config.retryBackoffBaseDelaySeconds + "], max delay:[" + config.retryBackoffMaxDelaySeconds + "], circuit breaker threshold:[" + config.circuitBreakerThreshold + "]");
+                RetryPolicy retryPolicy = new RetryPolicy(config.retryBackoffBaseDelaySeconds * 1000L, config.retryBackoffMaxDelaySeconds * 1000L, config.circuitBreakerThreshold, config.circuitBreakerOpenSeconds * 1000L,
+                    moduleHealthCheck.hCounter, L);
+                retryPolicy.pcc = config.pcc;
+                connectionQueue_.retryPolicy = retryPolicy;
+
+                if (adaptiveFlushScheduler != null) {
+                    //the retry policy takes over the backoff of the adaptive flushing
+                    adaptiveFlushScheduler.retryPolicy = retryPolicy;
+                }
+            }
+
             sdkIsInitialised = true;
             //AFTER THIS POINT THE SDK IS COUNTED AS INITIALISED
 
@@ -829,6 +908,19 @@ public class Countly {
         return ProcessLifecycleOwner.get().getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED);
     }
 
+    /**
+     * Runs the given task on the timer thread, does nothing if the timer was stopped
+     */
+    void runOnTimerThread(@NonNull Runnable task) {
+        try {
+            if (timerService_ != null && !timerService_.isShutdown()) {
+                timerService_.execute(task);
+            }
+        } catch (Exception ex) {
+            L.w("[Countly] runOnTimerThread, failed to schedule task, " + ex);
+        }
+    }
+
     private void stopTimer() {
         L.i("[Countly] stopTimer, Stopping global timer");
         if (timerService_ != null) {
@@ -858,6 +950,22 @@ public class Countly {
         L.SetListener(null);
         stopTimer();
 
+        if (apiIntakeQueue != null) {
+            apiIntakeQueue.halt();
+            apiIntakeQueue = null;
+        }
+
+        adaptiveFlushScheduler = null;
+
+        if (networkExecutor != null) {
+            networkExecutor.shutdown();
+            networkExecutor = null;
+        }
+
+        if (countlyStore != null) {
+            countlyStore.haltWriteBehind();
+        }
+
         if (connectionQueue_ != null) {
             if (countlyStore != null) {
                 countlyStore.clear();
@@ -952,11 +1060,21 @@ public class Countly {
         for (ModuleBase module : modules) {
             module.onActivityStopped(activityCount_);
         }
+
+        if (activityCount_ == 0 && countlyStore != null) {
+            // the app went to the background, don't wait for the write-behind window
+            countlyStore.flushWriteBehindCacheAsync();
+        }
     }
 
     public synchronized void onConfigurationChangedInternal(Configuration newConfig) {
         L.i("Calling [onConfigurationChangedInternal]");
 
+        if (config_ != null && config_.deviceInfo != null) {
+            // locale, density, orientation and similar metrics have to be collected again
+            config_.deviceInfo.onConfigurationChanged();
+        }
+
         for (ModuleBase module : modules) {
             module.onConfigurationChanged(newConfig);
         }
@@ -1026,17 +1144,27 @@ public class Countly {
 
         if (isInitialized()) {
             final boolean appIsInForeground = activityCount_ > 0;
-            if (appIsInForeground && !moduleSessions.manualSessionControlEnabled) {
-                //if we have automatic session control and we are in the foreground, record an update
-                moduleSessions.updateSessionInternal();
-            } else if (moduleSessions.manualSessionControlEnabled && moduleSessions.manualSessionControlHybridModeEnabled && moduleSessions.sessionIsRunning()) {
-                // if we are in manual session control mode with hybrid sessions enabled (SDK takes care of update requests) and there is a session running,
-                // let's create the update request
+            //if we have automatic session control and we are in the foreground, record an update
+            //if we are in manual session control mode with hybrid sessions enabled (SDK takes care of update requests) and there is a session running,
+            //let's create the update request
+            final boolean sessionUpdateDue = (appIsInForeground && !moduleSessions.manualSessionControlEnabled)
+                || (moduleSessions.manualSessionControlEnabled && moduleSessions.manualSessionControlHybridModeEnabled && moduleSessions.sessionIsRunning());
+
+            moduleAPM.drainInstrumentedNetworkTracesInternal();
+            moduleAPM.flushNetworkTraceAggregatesIfNeeded();
+
+            if (adaptiveFlushScheduler != null) {
+                onTimerAdaptive(sessionUpdateDue);
+                return;
+            }
+
+            if (sessionUpdateDue) {
                 moduleSessions.updateSessionInternal();
             }
 
             //on every timer tick we collect all events and attempt to send requests
-            moduleRequestQueue.sendEventsIfNeeded(true);
+            //aggregated events are only collected once their window has ended
+            moduleRequestQueue.sendEventsIfNeeded(true, false);
 
             //on every timer tick we save the user profile if it was changed
             moduleUserProfile.saveInternal();
@@ -1045,6 +1173,45 @@ public class Countly {
         }
     }
 
+    /**
+     * Timer tick when adaptive flushing is enabled. Events are only turned into a request when a threshold is reached
+     * or when they can be sent with the session update, the request queue is not touched while backing off.
+     */
+    private void onTimerAdaptive(boolean sessionUpdateDue) {
+        //events that are still in the intake queue or whose aggregation window has ended should be counted
+        if (apiIntakeQueue != null) {
+            apiIntakeQueue.drain();
+        }
+        moduleEvents.flushExpiredAggregatedEventsInternal();
+
+        adaptiveFlushScheduler.onTimerTick(connectionQueue_.isRequestQueueEmpty());
+
+        int eventCount = config_.storageProvider.getEventQueueSize();
+        boolean eventsSent = false;
+
+        if (sessionUpdateDue) {
+            eventsSent = moduleSessions.updateSessionInternal(eventCount > 0);
+        }
+
+        if (!eventsSent) {
+            int eventBytes = adaptiveFlushScheduler.needsEventBytes(eventCount) ? config_.storageProvider.getEventQueueByteSize() : 0;
+            if (adaptiveFlushScheduler.shouldFlushEvents(eventCount, eventBytes, EVENT_QUEUE_SIZE_THRESHOLD, UtilsTime.currentTimestampMs())) {
+                requestQueueProvider.recordEvents(config_.storageProvider.getEventsForRequestAndEmptyEventQueue());
+                eventsSent = true;
+            }
+        }
+
+        if (eventsSent) {
+            adaptiveFlushScheduler.onEventsFlushed();
+        }
+
+        L.v("[onTimer] Adaptive tick, events:[" + eventCount + "], sent:[" + eventsSent + "], consecutive failures:[" + adaptiveFlushScheduler.getConsecutiveFailures() + "]");
+
+        moduleUserProfile.saveInternal();
+
+        requestQueueProvider.tick();
+    }
+
     /**
      * DON'T USE THIS!!!!
      */
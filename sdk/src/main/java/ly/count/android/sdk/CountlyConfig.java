@@ -197,6 +197,39 @@ public class CountlyConfig {
 
     boolean explicitStorageModeEnabled = false;
 
+    boolean requestQueueJournalEnabled = false;
+
+    int requestDrainWindowSize = 1;
+
+    boolean eventQueueRingBufferEnabled = false;
+
+    boolean writeBehindStorageEnabled = false;
+    int writeBehindMaxStalenessMs = 0;
+
+    boolean asyncApiIntakeEnabled = false;
+
+    // queued events are sent on a timer tick once the oldest is this old (negative value means adaptive flushing is disabled)
+    int adaptiveFlushMaxEventAgeSeconds = -1;
+    int adaptiveFlushMaxEventBytes = 0;
+
+    // delays of the retry backoff after failed requests in seconds (negative base delay means the backoff is disabled)
+    int retryBackoffBaseDelaySeconds = -1;
+    int retryBackoffMaxDelaySeconds = 600;
+    int circuitBreakerThreshold = 10;
+    int circuitBreakerOpenSeconds = 1800;
+
+    boolean remoteConfigDeltaDownloadsEnabled = false;
+
+    boolean sharedNetworkingEnabled = false;
+    int immediateRequestThreads = 2;
+
+    boolean bulkRequestsEnabled = false;
+    int bulkRequestMaxCount = 50;
+    int bulkRequestMaxBytes = 64 * 1024;
+
+    // POST request bodies of at least this size are gzip compressed (negative value means this feature is disabled)
+    int requestCompressionThreshold = -1;
+
     boolean serverConfigurationEnabled = false;
 
     boolean healthCheckEnabled = true;
@@ -994,6 +1027,213 @@ public class CountlyConfig {
         return this;
     }
 
+    /**
+     * If this mode is enabled then the SDK keeps the request queue in an append-only file journal
+     * instead of a single shared preferences entry.
+     * Adding a request and removing a sent request will then take the same amount of time no matter how many requests are queued.
+     *
+     * Requests that are queued in the previous storage are moved over during init.
+     * This mode can't be combined with explicit storage mode, in that case it will be ignored.
+     *
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableRequestQueueJournal() {
+        requestQueueJournalEnabled = true;
+        return this;
+    }
+
+    /**
+     * If this mode is enabled then request queue, event queue and health check changes are first kept in memory
+     * and a background thread writes them to shared preferences at most 'maxStalenessMs' later.
+     * Multiple changes in that time frame are combined into one write and the calling thread doesn't wait for the storage.
+     *
+     * Pending changes are also written when the app goes to the background and before a crash is passed on.
+     * This mode can't be combined with explicit storage mode, in that case it will be ignored.
+     *
+     * @param maxStalenessMs how long changes can stay in memory before being written
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableWriteBehindStorage(int maxStalenessMs) {
+        writeBehindStorageEnabled = true;
+        writeBehindMaxStalenessMs = maxStalenessMs;
+        return this;
+    }
+
+    /**
+     * If this mode is enabled then recording events and adding crash breadcrumbs doesn't wait for other SDK calls to finish.
+     * The calls are added to a queue and a background thread applies them in the order they were made.
+     * The timestamp of an event is taken when the call is made.
+     *
+     * Queued calls are applied before events are sent, before a crash is recorded, before any other event (like a view) is recorded
+     * and on every timer tick.
+     * All other calls, including view calls, still wait for the SDK lock.
+     *
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableAsyncApiIntake() {
+        asyncApiIntakeEnabled = true;
+        return this;
+    }
+
+    /**
+     * If this mode is enabled then the SDK timer tick does not send every queued event right away.
+     * Events are kept in the queue until the event queue size threshold, the given age or the given size is reached.
+     * If a session update request is created in the meantime, the queued events are sent with it in the same request.
+     * After failed requests the request queue is retried exponentially less often, up to every 32nd timer tick,
+     * and nothing is done on a timer tick when there is nothing to send.
+     *
+     * @param maxEventAgeSeconds queued events are sent once the oldest of them has waited this long
+     * @param maxEventBytes queued events are sent once their stored size reaches this, "0" means no size limit
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableAdaptiveFlushing(int maxEventAgeSeconds, int maxEventBytes) {
+        adaptiveFlushMaxEventAgeSeconds = Math.max(0, maxEventAgeSeconds);
+        adaptiveFlushMaxEventBytes = Math.max(0, maxEventBytes);
+        return this;
+    }
+
+    /**
+     * If this mode is enabled then the request queue is not retried on the next tick after a failed request.
+     * The SDK waits a random time between 0 and a limit that doubles with each consecutive failure, starting at the base delay
+     * and growing up to the max delay. A "Retry-After" header in the failed response is honored.
+     * The retry state is persisted, it is kept after the app is restarted.
+     * If adaptive flushing is also enabled, this replaces its tick based backoff.
+     *
+     * @param baseDelaySeconds limit of the wait time after the first failure
+     * @param maxDelaySeconds the limit does not grow above this. Default is "600"
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableRequestRetryBackoff(int baseDelaySeconds, int maxDelaySeconds) {
+        retryBackoffBaseDelaySeconds = Math.max(0, baseDelaySeconds);
+        retryBackoffMaxDelaySeconds = maxDelaySeconds;
+        return this;
+    }
+
+    /**
+     * Sets after how many consecutive failed requests the request queue is only retried once per cool down period.
+     * It stays like that until a request goes through. Has an effect only if the request retry backoff is enabled.
+     *
+     * @param failureThreshold consecutive failures that open the circuit, "0" means it never opens. Default is "10"
+     * @param openSeconds the cool down period. Default is "1800"
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig setRequestCircuitBreaker(int failureThreshold, int openSeconds) {
+        circuitBreakerThreshold = failureThreshold;
+        circuitBreakerOpenSeconds = openSeconds;
+        return this;
+    }
+
+    /**
+     * If this mode is enabled then full remote config downloads are conditional.
+     * The SDK sends the ETag of the last downloaded values in the "If-None-Match" header and tells the server that it accepts delta responses.
+     * A "304 Not Modified" response leaves the stored values as they are, a delta response only changes the returned keys.
+     * Servers that don't support this return the full values as before.
+     *
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableRemoteConfigDeltaDownloads() {
+        remoteConfigDeltaDownloadsEnabled = true;
+        return this;
+    }
+
+    /**
+     * If this mode is enabled then the SDK runs all its network requests on its own threads.
+     * Immediate requests (remote config, feedback widgets, content) get a separate lane so they are not stuck behind
+     * a long request queue drain, and they don't run on the shared AsyncTask executor of the app anymore.
+     * Connections of successful requests are not closed, so they can be reused by the next request of either lane.
+     *
+     * @param maxImmediateRequests how many immediate requests can run at the same time. Default is "2"
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableSharedNetworking(int maxImmediateRequests) {
+        sharedNetworkingEnabled = true;
+        immediateRequestThreads = maxImmediateRequests;
+        return this;
+    }
+
+    /**
+     * If this mode is enabled then the SDK keeps the event queue in memory and persists
+     * every recorded event by appending it to a file journal, instead of rewriting the whole queue in shared preferences.
+     * Recording an event and creating the event request will then not depend on the amount of queued events.
+     *
+     * Events that are queued in the previous storage are moved over during init.
+     * This mode can't be combined with explicit storage mode, in that case it will be ignored.
+     *
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableEventQueueRingBuffer() {
+        eventQueueRingBufferEnabled = true;
+        return this;
+    }
+
+    /**
+     * Sets how many queued requests are sent back to back from a single read of the request queue.
+     * Sent requests of a window are removed from the queue with a single storage write
+     * and the connection to the server is kept alive between them.
+     * The order of the requests stays the same.
+     *
+     * @param windowSize Values lower than "2" keep the default behaviour of sending and removing one request at a time
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig setRequestDrainWindowSize(int windowSize) {
+        requestDrainWindowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * If this mode is enabled then consecutive queued requests that have the same app key and device ID
+     * are combined and sent in a single request to the "/i/bulk" endpoint.
+     * If the server accepts it, all combined requests are removed from the queue together.
+     *
+     * Requests with a custom endpoint, picture uploads and requests with a temporary device ID are still sent on their own.
+     *
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableBulkRequests() {
+        bulkRequestsEnabled = true;
+        return this;
+    }
+
+    /**
+     * Sets how many requests and how much request data can be combined into a single bulk request.
+     * Has an effect only if bulk requests are enabled.
+     *
+     * @param maxRequestCount maximum amount of requests in a bulk request. Default is "50"
+     * @param maxBytes maximum combined length of the requests in a bulk request. Default is "65536"
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig setBulkRequestLimits(int maxRequestCount, int maxBytes) {
+        bulkRequestMaxCount = maxRequestCount;
+        bulkRequestMaxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * If this mode is enabled then request bodies that are sent with HTTP POST
+     * and are at least of the given size will be gzip compressed.
+     * The server has to accept "Content-Encoding: gzip" request bodies.
+     *
+     * @param minimumBodySize request bodies smaller than this (in bytes) are sent uncompressed
+     * @return Returns the same config object for convenient linking
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public synchronized CountlyConfig enableRequestBodyCompression(int minimumBodySize) {
+        requestCompressionThreshold = Math.max(0, minimumBodySize);
+        return this;
+    }
+
     /**
      * This is an experimental feature and it can have breaking changes
      *
@@ -26,7 +26,6 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,7 +33,10 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import org.json.JSONArray;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -60,6 +62,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     private static final String STAR_RATING_PREFERENCE = "STAR_RATING";
     private static final String CACHED_ADVERTISING_ID = "ADVERTISING_ID";
     private static final String REMOTE_CONFIG_VALUES = "REMOTE_CONFIG";
+    private static final String REMOTE_CONFIG_ETAG = "REMOTE_CONFIG_ETAG";
     private static final String STORAGE_SCHEMA_VERSION = "SCHEMA_VERSION";
     private static final String PREFERENCE_KEY_ID_ID = "ly.count.android.api.DeviceId.id";
     private static final String PREFERENCE_KEY_ID_TYPE = "ly.count.android.api.DeviceId.type";
@@ -71,7 +74,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     private static final String CACHED_PUSH_ACTION_INDEX = "PUSH_ACTION_INDEX";
 
     private static final String CACHED_PUSH_MESSAGING_PROVIDER = "PUSH_MESSAGING_PROVIDER";
-    private static final int MAX_EVENTS = 1000;//the maximum amount of events that can be held in the event queue
+    static final int MAX_EVENTS = 1000;//the maximum amount of events that can be held in the event queue
 
     private final SharedPreferences preferences_;
     private final SharedPreferences preferencesPush_;
@@ -84,7 +87,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
 
     int maxRequestQueueSize = 1000;
     int dropAgeHours = 0;
-    private final static int requestRemovalLoopLimit = 100;
+    final static int requestRemovalLoopLimit = 100;
 
     //explicit storage fields
     boolean explicitStorageModeEnabled;
@@ -93,7 +96,51 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     String esEventQueueCache = null;//'null' is a special value that indicates that it hasn't read what is in persistent storage
     String esHealthCheckCache = null;//'null' is a special value that indicates that it hasn't read what is in persistent storage
 
+    //write-behind fields, this mode uses the same caches as explicit storage
+    boolean writeBehindEnabled = false;
+    long writeBehindMaxStalenessMs = 0;
+    boolean writeBehindFlushScheduled = false;
+    ScheduledExecutorService writeBehindExecutor = null;
+    long writeBehindSnapshotCounter = 0;//incremented for every snapshot that is taken of the caches
+    long writeBehindLastWrittenSnapshot = 0;//protected by 'writeBehindWriteLock'
+    private final Object writeBehindWriteLock = new Object();
+
+    //request sequence ids, they are kept only in memory and belong to the exact queue string in 'requestIdsQueue'
+    //cursors keep using the array they were created with, so existing ids are never changed in place
+    private long[] requestIds = new long[16];
+    private int requestIdsStart = 0;
+    private int requestIdsCount = 0;
+    private String requestIdsQueue = null;
+    private long nextRequestId = 1;
+
     public PerformanceCounterCollector pcc;
+    private static final int PCC_FLUSH_WRITE_BEHIND_CACHE = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_flushWriteBehindCache");
+    private static final int PCC_STORAGE_READ_REQUEST_QUEUE = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_storageReadRequestQueue");
+    private static final int PCC_STORAGE_WRITE_REQUEST_QUEUE = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_storageWriteRequestQueue");
+    private static final int PCC_STORAGE_READ_EVENT_QUEUE = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_storageReadEventQueue");
+    private static final int PCC_STORAGE_WRITE_EVENT_QUEUE = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_storageWriteEventQueue");
+    private static final int PCC_GET_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_getRequests");
+    private static final int PCC_GET_EVENTS = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_getEvents");
+    private static final int PCC_GET_EVENT_LIST = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_getEventList");
+    private static final int PCC_GET_EVENT_QUEUE_SIZE = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_getEventQueueSize");
+    private static final int PCC_GET_EVENTS_FOR_REQUEST_AND_EMPTY_EVENT_QUEUE = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_getEventsForRequestAndEmptyEventQueue");
+    private static final int PCC_ADD_REQUEST = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_addRequest");
+    private static final int PCC_DELETE_OLDEST_REQUEST = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_deleteOldestRequest");
+    private static final int PCC_CHECK_AND_REMOVE_TOO_OLD_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_checkAndRemoveTooOldRequests");
+    private static final int PCC_REMOVE_REQUEST = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_removeRequest");
+    private static final int PCC_REMOVE_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_removeRequests");
+    private static final int PCC_GET_REQUEST_QUEUE_SNAPSHOT = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_getRequestQueueSnapshot");
+    private static final int PCC_TRANSFORM_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_transformRequests");
+    private static final int PCC_REMOVE_REQUESTS_BY_ID = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_removeRequestsById");
+    private static final int PCC_REPLACE_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_replaceRequests");
+    private static final int PCC_REPLACE_REQUEST_LIST = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_replaceRequestList");
+    private static final int PCC_ADD_EVENT = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_addEvent");
+    private static final int PCC_RECORD_EVENT_TO_EVENT_QUEUE = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_recordEventToEventQueue");
+    private static final int PCC_REMOVE_EVENTS = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_removeEvents");
+    private static final int PCC_JOIN_EVENTS = PerformanceCounterCollector.sdkTimeCounter("CountlyStore_joinEvents");
+
+    // if set, the event queue is kept in this buffer instead of the events preference
+    EventQueueRingBuffer eventQueueRingBuffer = null;
 
     /**
      * Constructs a CountlyStore object.
@@ -129,6 +176,229 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
 
     public void setConfigurationProvider(ConfigurationProvider configurationProvider) {
         this.configurationProvider = configurationProvider;
+
+        if (eventQueueRingBuffer != null) {
+            eventQueueRingBuffer.configurationProvider = configurationProvider;
+        }
+    }
+
+    /**
+     * Enables write-behind mode. Request queue, event queue and health check writes only update an in-memory cache
+     * and a background thread writes the changes to storage at most 'maxStalenessMs' later.
+     * Multiple changes in that window are combined into a single write.
+     * Writes that are requested to be done in sync are still written before returning.
+     * Can't be combined with explicit storage mode.
+     *
+     * @param maxStalenessMs how long changes can stay unwritten
+     */
+    synchronized void enableWriteBehind(long maxStalenessMs) {
+        if (explicitStorageModeEnabled) {
+            L.w("[CountlyStore] enableWriteBehind, write-behind can't be used together with explicit storage mode, it will be ignored");
+            return;
+        }
+
+        writeBehindEnabled = true;
+        writeBehindMaxStalenessMs = Math.max(0, maxStalenessMs);
+        if (writeBehindExecutor == null) {
+            writeBehindExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "Countly-write-behind");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the pending write-behind changes to storage, disables write-behind mode and stops its background thread.
+     * Flushes that are still scheduled don't write anything after this.
+     */
+    void haltWriteBehind() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            if (!writeBehindEnabled) {
+                return;
+            }
+            executor = writeBehindExecutor;
+        }
+
+        flushWriteBehindCache();
+
+        synchronized (this) {
+            writeBehindEnabled = false;
+            writeBehindFlushScheduled = false;
+            writeBehindExecutor = null;
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private boolean storageCacheEnabled() {
+        return explicitStorageModeEnabled || writeBehindEnabled;
+    }
+
+    /**
+     * Called after a cached value was changed in write-behind mode
+     *
+     * @param writeInSync if true, the changes are written to storage before returning
+     */
+    private void onWriteBehindCacheChanged(boolean writeInSync) {
+        esDirtyFlag = true;
+
+        if (writeInSync) {
+            flushWriteBehindCache();
+        } else if (!writeBehindFlushScheduled) {
+            writeBehindFlushScheduled = true;
+            writeBehindExecutor.schedule(new Runnable() {
+                @Override public void run() {
+                    flushWriteBehindCache();
+                }
+            }, writeBehindMaxStalenessMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the pending write-behind changes to storage on the background thread without waiting for the staleness window.
+     * Used when the app goes to the background.
+     */
+    void flushWriteBehindCacheAsync() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            if (!writeBehindEnabled || !esDirtyFlag) {
+                return;
+            }
+            executor = writeBehindExecutor;
+        }
+
+        L.d("[CountlyStore] flushWriteBehindCacheAsync, writing pending changes");
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                flushWriteBehindCache();
+            }
+        });
+    }
+
+    /**
+     * Writes the pending write-behind changes to storage before returning.
+     * The caches are copied while holding the store lock, the write itself is done outside of it.
+     * If a newer copy has already been written in the meantime, nothing is written.
+     */
+    public void flushWriteBehindCache() {
+        final long snapshot;
+        final String requestQueue;
+        final String eventQueue;
+        final String healthCheckState;
+
+        synchronized (this) {
+            writeBehindFlushScheduled = false;
+            if (!writeBehindEnabled || !esDirtyFlag) {
+                return;
+            }
+
+            esDirtyFlag = false;
+            snapshot = ++writeBehindSnapshotCounter;
+            requestQueue = esRequestQueueCache;
+            eventQueue = esEventQueueCache;
+            healthCheckState = esHealthCheckCache;
+        }
+
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        synchronized (writeBehindWriteLock) {
+            if (snapshot < writeBehindLastWrittenSnapshot) {
+                return;
+            }
+            writeBehindLastWrittenSnapshot = snapshot;
+
+            //'null' means that the value hasn't been read or changed
+            SharedPreferences.Editor spe = preferences_.edit();
+            if (requestQueue != null) {
+                spe.putString(REQUEST_PREFERENCE, requestQueue);
+            }
+            if (eventQueue != null) {
+                spe.putString(EVENTS_PREFERENCE, eventQueue);
+            }
+            if (healthCheckState != null) {
+                spe.putString(PREFERENCE_HEALTH_CHECK_STATE, healthCheckState);
+            }
+            spe.commit();
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_FLUSH_WRITE_BEHIND_CACHE, UtilsTime.getNanoTime() - tsStart);
+        }
+    }
+
+    /**
+     * Moves the event queue into an in-memory ring buffer that is persisted in a file journal.
+     * Can't be combined with explicit storage mode.
+     *
+     * @param context used to get the files directory
+     * @return the created event queue
+     */
+    synchronized EventQueueRingBuffer enableEventQueueRingBuffer(@NonNull Context context) {
+        eventQueueRingBuffer = new EventQueueRingBuffer(context.getFilesDir(), MAX_EVENTS, L);
+        eventQueueRingBuffer.configurationProvider = configurationProvider;
+        return eventQueueRingBuffer;
+    }
+
+    /**
+     * Moves events that are stored in the events preference into the ring buffer.
+     *
+     * @return the amount of moved events
+     */
+    synchronized int importLegacyEventQueue() {
+        if (eventQueueRingBuffer == null) {
+            return 0;
+        }
+
+        List<Event> legacyEvents = getPreferenceEventList();
+        if (legacyEvents.isEmpty()) {
+            return 0;
+        }
+
+        L.d("[CountlyStore] importLegacyEventQueue, moving [" + legacyEvents.size() + "] events into the ring buffer");
+        for (Event event : legacyEvents) {
+            eventQueueRingBuffer.add(event);
+        }
+        storageWriteEventQueue("", true);
+        return legacyEvents.size();
+    }
+
+    /**
+     * Moves events from a ring buffer journal of a previous launch back into the events preference.
+     *
+     * @param context used to get the files directory
+     * @return the amount of moved events
+     */
+    synchronized int restoreEventQueueFromRingBuffer(@NonNull Context context) {
+        if (eventQueueRingBuffer != null || !EventQueueRingBuffer.journalExists(context.getFilesDir())) {
+            return 0;
+        }
+
+        EventQueueRingBuffer previousQueue = new EventQueueRingBuffer(context.getFilesDir(), MAX_EVENTS, L);
+        List<Event> events = getPreferenceEventList();
+        int movedEvents = 0;
+        for (Event event : previousQueue.getEventList()) {
+            if (events.size() >= MAX_EVENTS) {
+                break;
+            }
+            events.add(event);
+            movedEvents++;
+        }
+
+        if (movedEvents > 0) {
+            L.d("[CountlyStore] restoreEventQueueFromRingBuffer, moving [" + movedEvents + "] events back into preferences");
+            storageWriteEventQueue(joinEvents(events, DELIMITER, pcc), true);
+        }
+        previousQueue.clear();
+        return movedEvents;
     }
 
     static SharedPreferences createPreferencesPush(Context context) {
@@ -142,7 +412,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         String ret;
-        if (explicitStorageModeEnabled) {
+        if (storageCacheEnabled()) {
             //L.v("[CountlyStore] Returning RQ from cache");
             if (esRequestQueueCache == null) {
                 L.v("[CountlyStore] Reading initial RQ from storage");
@@ -155,7 +425,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_storageReadRequestQueue", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_STORAGE_READ_REQUEST_QUEUE, UtilsTime.getNanoTime() - tsStart);
         }
         return ret;
     }
@@ -166,10 +436,14 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        if (explicitStorageModeEnabled) {
+        if (storageCacheEnabled()) {
             //L.v("[CountlyStore] Writing RQ to cache");
             esRequestQueueCache = requestQueue;
             esDirtyFlag = true;
+
+            if (writeBehindEnabled) {
+                onWriteBehindCacheChanged(writeInSync);
+            }
         } else {
             //L.v("[CountlyStore] Writing RQ to preferences");
             SharedPreferences.Editor editor = preferences_.edit().putString(REQUEST_PREFERENCE, requestQueue);
@@ -182,7 +456,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_storageWriteRequestQueue", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_STORAGE_WRITE_REQUEST_QUEUE, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -194,7 +468,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
 
         String ret;
 
-        if (explicitStorageModeEnabled) {
+        if (storageCacheEnabled()) {
             //L.v("[CountlyStore] Returning EQ from cache");
             if (esEventQueueCache == null) {
                 L.v("[CountlyStore] Reading initial EQ from storage");
@@ -208,7 +482,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_storageReadEventQueue", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_STORAGE_READ_EVENT_QUEUE, UtilsTime.getNanoTime() - tsStart);
         }
         return ret;
     }
@@ -219,10 +493,14 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        if (explicitStorageModeEnabled) {
+        if (storageCacheEnabled()) {
             L.v("[CountlyStore] Writing EQ to cache");
             esEventQueueCache = eventQueue;
             esDirtyFlag = true;
+
+            if (writeBehindEnabled) {
+                onWriteBehindCacheChanged(writeInSync);
+            }
         } else {
             L.v("[CountlyStore] Writing EQ to preferences");
             SharedPreferences.Editor editor = preferences_.edit().putString(EVENTS_PREFERENCE, eventQueue);
@@ -235,7 +513,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_storageWriteEventQueue", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_STORAGE_WRITE_EVENT_QUEUE, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -309,7 +587,6 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
      * Returns an unsorted array of the current stored connections.
      */
     public synchronized String[] getRequests() {
-        //TODO this executes too long
         long tsStart = 0L;
         if (pcc != null) {
             tsStart = UtilsTime.getNanoTime();
@@ -318,10 +595,10 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         final String joinedConnStr = storageReadRequestQueue();
         //L.v("[CountlyStore] getRequests, size:" + joinedConnStr.length());
 
-        String[] ret = joinedConnStr.length() == 0 ? new String[0] : joinedConnStr.split(DELIMITER);
+        String[] ret = splitRequestQueue(joinedConnStr);
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_getRequests", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_GET_REQUESTS, UtilsTime.getNanoTime() - tsStart);
         }
         return ret;
     }
@@ -335,11 +612,16 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        final String joinedEventsStr = storageReadEventQueue();
-        String[] ret = joinedEventsStr.length() == 0 ? new String[0] : joinedEventsStr.split(DELIMITER);
+        String[] ret;
+        if (eventQueueRingBuffer != null) {
+            ret = eventQueueRingBuffer.getEventRecords();
+        } else {
+            final String joinedEventsStr = storageReadEventQueue();
+            ret = joinedEventsStr.length() == 0 ? new String[0] : joinedEventsStr.split(DELIMITER);
+        }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_getEvents", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_GET_EVENTS, UtilsTime.getNanoTime() - tsStart);
         }
         return ret;
     }
@@ -353,7 +635,25 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        final String[] array = getEvents();
+        final List<Event> events;
+        if (eventQueueRingBuffer != null) {
+            events = eventQueueRingBuffer.getEventList();
+        } else {
+            events = getPreferenceEventList();
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_GET_EVENT_LIST, UtilsTime.getNanoTime() - tsStart);
+        }
+        return events;
+    }
+
+    /**
+     * Returns the events stored in the events preference, sorted by timestamp from oldest to newest.
+     */
+    private List<Event> getPreferenceEventList() {
+        final String joinedEventsStr = storageReadEventQueue();
+        final String[] array = joinedEventsStr.length() == 0 ? new String[0] : joinedEventsStr.split(DELIMITER);
         final List<Event> events = new ArrayList<>(array.length);
         for (String s : array) {
             try {
@@ -373,10 +673,6 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
                 return (int) (e1.timestamp - e2.timestamp);
             }
         });
-
-        if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_getEventList", UtilsTime.getNanoTime() - tsStart);
-        }
         return events;
     }
 
@@ -391,14 +687,23 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        int ret = getEvents().length;
+        int ret = eventQueueRingBuffer != null ? eventQueueRingBuffer.size() : getEvents().length;
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_getEventQueueSize", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_GET_EVENT_QUEUE_SIZE, UtilsTime.getNanoTime() - tsStart);
         }
         return ret;
     }
 
+    /**
+     * Returns the stored size of the local event queue.
+     *
+     * @return the combined length of the stored event records
+     */
+    public synchronized int getEventQueueByteSize() {
+        return eventQueueRingBuffer != null ? eventQueueRingBuffer.byteSize() : storageReadEventQueue().length();
+    }
+
     /**
      * Removes all current events from the local queue and returns them as a
      * URL-encoded JSON string that can be submitted to a ConnectionQueue.
@@ -411,26 +716,21 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        final List<Event> events = getEventList();//todo could rework to use the string array
-
-        final JSONArray eventArray = new JSONArray();//todo: possibly transform to json array by hand
-        for (Event e : events) {
-            eventArray.put(e.toJSON());
-        }
-
-        String result = eventArray.toString();
+        String result;
+        if (eventQueueRingBuffer != null) {
+            // the buffer keeps the event objects, nothing has to be parsed again
+            result = EventBatchWriter.writeEvents(eventQueueRingBuffer.drainEvents());
+        } else {
+            final List<Event> events = getEventList();//todo could rework to use the string array
 
-        removeEvents(events);//todo instead of removing, should just set to empty
+            // writes the URL encoded JSON array directly, without creating JSON objects
+            result = EventBatchWriter.writeEvents(events);
 
-        try {
-            result = java.net.URLEncoder.encode(result, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            // should never happen because Android guarantees UTF-8 support
-            L.w("[CountlyStore] getEventsForRequestAndEmptyEventQueue, why is this even happening?");
+            removeEvents(events);//todo instead of removing, should just set to empty
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_getEventsForRequestAndEmptyEventQueue", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_GET_EVENTS_FOR_REQUEST_AND_EMPTY_EVENT_QUEUE, UtilsTime.getNanoTime() - tsStart);
         }
         return result;
     }
@@ -461,7 +761,10 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             return;
         }
 
-        List<String> requests = new ArrayList<>(Arrays.asList(getRequests()));
+        ensureRequestIds(storageReadRequestQueue());
+        final String[] previousRequests = getRequests();
+        List<String> requests = new ArrayList<>(Arrays.asList(previousRequests));
+        final int previousSize = requests.size();
 
         L.v("[CountlyStore] addRequest, s:[" + writeInSync + "] new q size:[" + (requests.size() + 1) + "] r:[" + requestStr + "]");
         if (requests.size() >= maxRequestQueueSize) {
@@ -472,10 +775,18 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         requests.add(requestStr);
-        storageWriteRequestQueue(Utils.joinCountlyStore(requests, DELIMITER), writeInSync);
+        final String newRequestQueue = Utils.joinCountlyStore(requests, DELIMITER);
+        storageWriteRequestQueue(newRequestQueue, writeInSync);
+
+        if (requests.size() == previousSize + 1) {
+            // nothing was dropped, the existing requests keep their ids
+            appendRequestId(newRequestQueue);
+        } else {
+            retainRequestIds(previousRequests, requests, newRequestQueue);
+        }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_addRequest", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_ADD_REQUEST, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -502,7 +813,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         requests.subList(0, requestsToRemove).clear(); // sublist reflects all changes to the main list
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_deleteOldestRequest", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_DELETE_OLDEST_REQUEST, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -520,7 +831,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         storageWriteRequestQueue(Utils.joinCountlyStoreArray_reworked(requests, DELIMITER, 1), false);
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_deleteOldestRequest", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_DELETE_OLDEST_REQUEST, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -542,7 +853,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
         if (dropAgeHours <= 0) {
             if (pcc != null) {
-                pcc.TrackCounterTimeNs("CountlyStore_checkAndRemoveTooOldRequests", UtilsTime.getNanoTime() - tsStart);
+                pcc.TrackCounterTimeNs(PCC_CHECK_AND_REMOVE_TOO_OLD_REQUESTS, UtilsTime.getNanoTime() - tsStart);
             }
 
             return;
@@ -569,7 +880,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_checkAndRemoveTooOldRequests", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_CHECK_AND_REMOVE_TOO_OLD_REQUESTS, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -593,10 +904,376 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_removeRequest", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_REMOVE_REQUEST, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
+    /**
+     * Removes the first occurrence of each of the given requests with a single storage write
+     *
+     * @param requestsToRemove requests that should be removed
+     */
+    public synchronized void removeRequests(final List<String> requestsToRemove) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        if (requestsToRemove != null && !requestsToRemove.isEmpty()) {
+            final List<String> requests = new ArrayList<>(Arrays.asList(getRequests()));
+            boolean anythingRemoved = false;
+            for (String requestStr : requestsToRemove) {
+                if (requestStr != null && requests.remove(requestStr)) {
+                    anythingRemoved = true;
+                }
+            }
+
+            if (anythingRemoved) {
+                storageWriteRequestQueue(Utils.joinCountlyStore(requests, DELIMITER), false);
+            }
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_REMOVE_REQUESTS, UtilsTime.getNanoTime() - tsStart);
+        }
+    }
+
+    /**
+     * Returns the stored requests together with their sequence ids
+     */
+    public synchronized @NonNull RequestQueueSnapshot getRequestQueueSnapshot() {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        final String requestQueue = storageReadRequestQueue();
+        ensureRequestIds(requestQueue);
+
+        String[] requests = splitRequestQueue(requestQueue);
+        long[] ids = Arrays.copyOfRange(requestIds, requestIdsStart, requestIdsStart + requests.length);
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_GET_REQUEST_QUEUE_SNAPSHOT, UtilsTime.getNanoTime() - tsStart);
+        }
+        return new RequestQueueSnapshot(requests, ids);
+    }
+
+    /**
+     * Returns a cursor over the stored requests.
+     * Creating it does not split the queue, the requests are found one by one while the cursor moves.
+     */
+    public synchronized @NonNull RequestQueueCursor getRequestQueueCursor() {
+        final String requestQueue = storageReadRequestQueue();
+        ensureRequestIds(requestQueue);
+        return new RequestQueueCursor(requestQueue, requestIds, requestIdsStart, requestIdsCount);
+    }
+
+    /**
+     * Returns the oldest stored request without reading the rest of the queue
+     *
+     * @return 'null' if the queue is empty
+     */
+    public synchronized @Nullable String peekFirstRequest() {
+        final String requestQueue = storageReadRequestQueue();
+        ensureRequestIds(requestQueue);
+
+        if (requestIdsCount == 0) {
+            return null;
+        }
+
+        int end = requestQueue.indexOf(DELIMITER);
+        return end < 0 ? requestQueue : requestQueue.substring(0, end);
+    }
+
+    /**
+     * Passes every stored request through the transformer and writes the result once.
+     * Nothing is written if no request was changed. Changed requests keep their sequence ids.
+     *
+     * @return amount of changed or removed requests
+     */
+    public synchronized int transformRequests(@NonNull RequestTransformer transformer) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        final String requestQueue = storageReadRequestQueue();
+        ensureRequestIds(requestQueue);
+
+        // the new queue is only built once the first request is changed
+        StringBuilder sb = null;
+        long[] newIds = null;
+        int kept = 0;
+        int changed = 0;
+
+        int start = 0;
+        for (int index = 0; index < requestIdsCount; index++) {
+            int end = requestQueue.indexOf(DELIMITER, start);
+            int entryEnd = end < 0 ? requestQueue.length() : end;
+
+            String request = requestQueue.substring(start, entryEnd);
+            String result = transformer.transform(request);
+
+            //noinspection StringEquality
+            if (result != request) {
+                changed++;
+
+                if (sb == null) {
+                    // everything before this request stays as it is
+                    sb = new StringBuilder(requestQueue.length());
+                    if (index > 0) {
+                        sb.append(requestQueue, 0, start - DELIMITER.length());
+                    }
+                    newIds = new long[requestIdsCount];
+                    System.arraycopy(requestIds, requestIdsStart, newIds, 0, index);
+                    kept = index;
+                }
+            }
+
+            if (sb != null && result != null) {
+                if (kept > 0) {
+                    sb.append(DELIMITER);
+                }
+                sb.append(result);
+                newIds[kept++] = requestIds[requestIdsStart + index];
+            }
+
+            start = end < 0 ? requestQueue.length() : end + DELIMITER.length();
+        }
+
+        if (sb != null) {
+            final String newRequestQueue = sb.toString();
+            storageWriteRequestQueue(newRequestQueue, false);
+            requestIds = newIds;
+            requestIdsStart = 0;
+            requestIdsCount = kept;
+            requestIdsQueue = newRequestQueue;
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_TRANSFORM_REQUESTS, UtilsTime.getNanoTime() - tsStart);
+        }
+        return changed;
+    }
+
+    /**
+     * Removes the request with the given sequence id.
+     * The request is found by its position, so no request strings are compared.
+     *
+     * @return false if no stored request has this id anymore
+     */
+    public synchronized boolean removeRequestById(long requestId) {
+        return removeRequestsById(new long[] { requestId }) == 1;
+    }
+
+    /**
+     * Removes the requests with the given sequence ids with a single storage write.
+     * If they are the oldest requests, the rest of the queue is kept as a single substring.
+     *
+     * @return amount of removed requests, ids that are not stored anymore are ignored
+     */
+    public synchronized int removeRequestsById(@NonNull final long[] requestIdsToRemove) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        final String requestQueue = storageReadRequestQueue();
+        ensureRequestIds(requestQueue);
+
+        boolean[] removeFlags = new boolean[requestIdsCount];
+        int removeCount = 0;
+        for (long id : requestIdsToRemove) {
+            int index = Arrays.binarySearch(requestIds, requestIdsStart, requestIdsStart + requestIdsCount, id);
+            if (index >= 0 && !removeFlags[index - requestIdsStart]) {
+                removeFlags[index - requestIdsStart] = true;
+                removeCount++;
+            }
+        }
+
+        if (removeCount > 0) {
+            removeRequestsAt(requestQueue, removeFlags, removeCount);
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_REMOVE_REQUESTS_BY_ID, UtilsTime.getNanoTime() - tsStart);
+        }
+        return removeCount;
+    }
+
+    /**
+     * Removes the oldest stored request
+     *
+     * @return false if the queue was empty
+     */
+    public synchronized boolean removeFirstRequest() {
+        final String requestQueue = storageReadRequestQueue();
+        ensureRequestIds(requestQueue);
+
+        if (requestIdsCount == 0) {
+            return false;
+        }
+
+        boolean[] removeFlags = new boolean[requestIdsCount];
+        removeFlags[0] = true;
+        removeRequestsAt(requestQueue, removeFlags, 1);
+        return true;
+    }
+
+    /**
+     * Makes sure that the in memory sequence ids belong to the given queue string.
+     * The string is compared by reference, every write done by this class updates the ids together with the string.
+     * If the queue was written some other way, all requests get new ids.
+     */
+    private void ensureRequestIds(@NonNull String requestQueue) {
+        //noinspection StringEquality
+        if (requestQueue == requestIdsQueue) {
+            return;
+        }
+
+        int count = countRequestQueueEntries(requestQueue);
+        requestIds = new long[Math.max(16, count * 2)];
+        for (int a = 0; a < count; a++) {
+            requestIds[a] = nextRequestId++;
+        }
+        requestIdsStart = 0;
+        requestIdsCount = count;
+        requestIdsQueue = requestQueue;
+    }
+
+    private void appendRequestId(@NonNull String newRequestQueue) {
+        if (requestIdsStart + requestIdsCount >= requestIds.length) {
+            long[] newIds = new long[Math.max(16, requestIdsCount * 2)];
+            System.arraycopy(requestIds, requestIdsStart, newIds, 0, requestIdsCount);
+            requestIds = newIds;
+            requestIdsStart = 0;
+        }
+        requestIds[requestIdsStart + requestIdsCount] = nextRequestId++;
+        requestIdsCount++;
+        requestIdsQueue = newRequestQueue;
+    }
+
+    /**
+     * Keeps the ids of the requests that are left after the queue was trimmed and gives the added last request a new id.
+     * Trimming only removes entries, so the left ones are found in order by comparing references.
+     */
+    private void retainRequestIds(@NonNull String[] previousRequests, @NonNull List<String> requests, @NonNull String newRequestQueue) {
+        int keptCount = requests.size() - 1;
+        long[] newIds = new long[Math.max(16, requests.size() * 2)];
+        int kept = 0;
+        for (int a = 0; a < previousRequests.length && kept < keptCount; a++) {
+            //noinspection StringEquality
+            if (previousRequests[a] == requests.get(kept)) {
+                newIds[kept++] = requestIds[requestIdsStart + a];
+            }
+        }
+
+        if (kept != keptCount) {
+            // the entries can't be matched, new ids are given on the next access
+            return;
+        }
+
+        newIds[kept] = nextRequestId++;
+        requestIds = newIds;
+        requestIdsStart = 0;
+        requestIdsCount = requests.size();
+        requestIdsQueue = newRequestQueue;
+    }
+
+    /**
+     * Writes the queue without the flagged entries and removes their ids.
+     * Entries are found with 'indexOf', so nothing is split or compared.
+     */
+    private void removeRequestsAt(@NonNull String requestQueue, @NonNull boolean[] removeFlags, int removeCount) {
+        int leading = 0;
+        while (leading < removeFlags.length && removeFlags[leading]) {
+            leading++;
+        }
+
+        String newRequestQueue;
+        if (leading == removeCount) {
+            // only the oldest requests are removed, the rest is kept as it is
+            int start = 0;
+            for (int a = 0; a < leading && start >= 0; a++) {
+                int end = requestQueue.indexOf(DELIMITER, start);
+                start = end < 0 ? -1 : end + DELIMITER.length();
+            }
+            newRequestQueue = start < 0 ? "" : requestQueue.substring(start);
+
+            requestIdsStart += leading;
+            requestIdsCount -= leading;
+        } else {
+            StringBuilder sb = new StringBuilder(requestQueue.length());
+            long[] newIds = new long[requestIds.length];
+            int start = 0;
+            int index = 0;
+            int kept = 0;
+            while (start >= 0) {
+                int end = requestQueue.indexOf(DELIMITER, start);
+                int entryEnd = end < 0 ? requestQueue.length() : end;
+
+                // trailing empty entries have no ids and are kept
+                if (index >= removeFlags.length || !removeFlags[index]) {
+                    if (kept > 0) {
+                        sb.append(DELIMITER);
+                    }
+                    sb.append(requestQueue, start, entryEnd);
+                    if (index < removeFlags.length) {
+                        newIds[kept] = requestIds[requestIdsStart + index];
+                    }
+                    kept++;
+                }
+
+                index++;
+                start = end < 0 ? -1 : end + DELIMITER.length();
+            }
+            newRequestQueue = sb.toString();
+            requestIds = newIds;
+            requestIdsStart = 0;
+            requestIdsCount -= removeCount;
+        }
+
+        storageWriteRequestQueue(newRequestQueue, false);
+        requestIdsQueue = newRequestQueue;
+    }
+
+    /**
+     * Splits the queue string into requests with 'indexOf'.
+     * Returns the same entries as 'split', so trailing empty entries are dropped.
+     */
+    static @NonNull String[] splitRequestQueue(@NonNull String requestQueue) {
+        String[] ret = new String[countRequestQueueEntries(requestQueue)];
+        int start = 0;
+        for (int a = 0; a < ret.length; a++) {
+            int end = requestQueue.indexOf(DELIMITER, start);
+            int entryEnd = end < 0 ? requestQueue.length() : end;
+            ret[a] = requestQueue.substring(start, entryEnd);
+            start = entryEnd + DELIMITER.length();
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the amount of entries in the queue string, the same amount 'split' would return.
+     * Trailing empty entries are not counted.
+     */
+    static int countRequestQueueEntries(@NonNull String requestQueue) {
+        int count = 0;
+        int lastNonEmpty = 0;
+        int start = 0;
+        while (start >= 0 && requestQueue.length() > 0) {
+            int end = requestQueue.indexOf(DELIMITER, start);
+            int entryEnd = end < 0 ? requestQueue.length() : end;
+            count++;
+            if (entryEnd > start) {
+                lastNonEmpty = count;
+            }
+            start = end < 0 ? -1 : end + DELIMITER.length();
+        }
+        return lastNonEmpty;
+    }
+
     public synchronized void replaceRequests(@NonNull final String[] newRequests) {
         long tsStart = 0L;
         if (pcc != null) {
@@ -609,7 +1286,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_replaceRequests", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_REPLACE_REQUESTS, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -624,7 +1301,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_replaceRequests", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_REPLACE_REQUESTS, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -639,7 +1316,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_replaceRequestList", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_REPLACE_REQUEST_LIST, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -660,14 +1337,18 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             return;
         }
 
-        final List<Event> events = getEventList();
-        if (events.size() < MAX_EVENTS) {//todo looks weird
-            events.add(event);
-            writeEventDataToStorage(joinEvents(events, DELIMITER, pcc));
+        if (eventQueueRingBuffer != null) {
+            eventQueueRingBuffer.add(event);
+        } else {
+            final List<Event> events = getEventList();
+            if (events.size() < MAX_EVENTS) {//todo looks weird
+                events.add(event);
+                writeEventDataToStorage(joinEvents(events, DELIMITER, pcc));
+            }
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_addEvent", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_ADD_EVENT, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -702,6 +1383,14 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         return preferences_.getString(REMOTE_CONFIG_VALUES, "");
     }
 
+    public synchronized void setRemoteConfigETag(@Nullable String eTag) {
+        preferences_.edit().putString(REMOTE_CONFIG_ETAG, eTag).apply();
+    }
+
+    public synchronized @Nullable String getRemoteConfigETag() {
+        return preferences_.getString(REMOTE_CONFIG_ETAG, null);
+    }
+
     public synchronized void setCachedAdvertisingId(String advertisingId) {
         preferences_.edit().putString(CACHED_ADVERTISING_ID, advertisingId).apply();
     }
@@ -763,7 +1452,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         addEvent(event);
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_recordEventToEventQueue", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_RECORD_EVENT_TO_EVENT_QUEUE, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -779,7 +1468,9 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        if (eventsToRemove != null && eventsToRemove.size() > 0) {
+        if (eventsToRemove != null && eventsToRemove.size() > 0 && eventQueueRingBuffer != null) {
+            eventQueueRingBuffer.remove(eventsToRemove);
+        } else if (eventsToRemove != null && eventsToRemove.size() > 0) {
             final List<Event> events = getEventList();
             if (events.removeAll(eventsToRemove)) {
                 storageWriteEventQueue(joinEvents(events, DELIMITER, pcc), false);
@@ -787,7 +1478,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_removeEvents", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_REMOVE_EVENTS, UtilsTime.getNanoTime() - tsStart);
         }
     }
 
@@ -812,7 +1503,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         String ret = Utils.joinCountlyStore(strings, delimiter);
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_joinEvents", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs(PCC_JOIN_EVENTS, UtilsTime.getNanoTime() - tsStart);
         }
 
         return ret;
@@ -855,16 +1546,26 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
 
     // for unit testing
     public synchronized void clear() {
-        final SharedPreferences.Editor prefsEditor = preferences_.edit();
-        prefsEditor.remove(EVENTS_PREFERENCE);
-        prefsEditor.remove(REQUEST_PREFERENCE);
-        prefsEditor.clear();
-        prefsEditor.apply();
+        synchronized (writeBehindWriteLock) {
+            //any write-behind snapshot that was taken before this should not be written anymore
+            writeBehindLastWrittenSnapshot = ++writeBehindSnapshotCounter;
+
+            final SharedPreferences.Editor prefsEditor = preferences_.edit();
+            prefsEditor.remove(EVENTS_PREFERENCE);
+            prefsEditor.remove(REQUEST_PREFERENCE);
+            prefsEditor.clear();
+            prefsEditor.apply();
+        }
 
         //clear explicit storage things
         esDirtyFlag = false;
         esRequestQueueCache = null;
         esEventQueueCache = null;
+        esHealthCheckCache = null;
+
+        if (eventQueueRingBuffer != null) {
+            eventQueueRingBuffer.clear();
+        }
 
         preferencesPush_.edit().clear().apply();
     }
@@ -918,6 +1619,10 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             return true;
         }
 
+        if (eventQueueRingBuffer != null && eventQueueRingBuffer.size() > 0) {
+            return true;
+        }
+
         if (preferences_.getString(STAR_RATING_PREFERENCE, null) != null) {
             return true;
         }
@@ -966,8 +1671,8 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         return false;
     }
 
-    public @NonNull String getHealthCheckCounterState() {
-        if (explicitStorageModeEnabled) {
+    public synchronized @NonNull String getHealthCheckCounterState() {
+        if (storageCacheEnabled()) {
             //L.v("[CountlyStore] Returning health check state from cache");
             if (esHealthCheckCache == null) {
                 L.v("[CountlyStore] Reading initial health check state from storage");
@@ -981,10 +1686,14 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
     }
 
-    public void setHealthCheckCounterState(@NonNull String counterState) {
-        if (explicitStorageModeEnabled) {
+    public synchronized void setHealthCheckCounterState(@NonNull String counterState) {
+        if (storageCacheEnabled()) {
             L.v("[CountlyStore] Writing health check state to cache");
             esHealthCheckCache = counterState;
+
+            if (writeBehindEnabled) {
+                onWriteBehindCacheChanged(false);
+            }
         } else {
             L.v("[CountlyStore] Writing health check state to preferences");
             SharedPreferences.Editor editor = preferences_.edit().putString(PREFERENCE_HEALTH_CHECK_STATE, counterState);
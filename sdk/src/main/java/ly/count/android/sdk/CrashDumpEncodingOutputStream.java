@@ -0,0 +1,152 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes the written bytes to Base64 and writes them as they would look
+ * inside a JSON string value that was URL encoded.
+ *
+ * The output is the same as URL encoding 'JSONObject.quote(Base64.encodeToString(bytes, NO_WRAP))' without the quotes,
+ * so a crash dump can be streamed into a request body in place of the stored Base64 string.
+ * Only up to 2 bytes are buffered between writes, 'finish' has to be called to write the padding.
+ */
+class CrashDumpEncodingOutputStream extends FilterOutputStream {
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    // '+' and '=' are URL encoded, '/' is escaped by JSON and then both characters are URL encoded
+    private static final byte[] ENCODED_PLUS = { '%', '2', 'B' };
+    private static final byte[] ENCODED_SLASH = { '%', '5', 'C', '%', '2', 'F' };
+    private static final byte[] ENCODED_PAD = { '%', '3', 'D' };
+
+    private final int[] pending = new int[2];
+    private int pendingCount = 0;
+    private boolean finished = false;
+
+    // written output is collected here before it is passed on
+    private final byte[] outputBuffer = new byte[4096];
+    private int outputCount = 0;
+
+    CrashDumpEncodingOutputStream(@NonNull OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+
+        if (pendingCount < 2) {
+            pending[pendingCount++] = b & 0xff;
+            return;
+        }
+
+        encodeGroup(pending[0], pending[1], b & 0xff);
+        pendingCount = 0;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+
+        int end = off + len;
+        // complete the group that was started in an earlier write
+        while (pendingCount > 0 && off < end) {
+            write(b[off++]);
+        }
+
+        for (; off + 2 < end; off += 3) {
+            encodeGroup(b[off] & 0xff, b[off + 1] & 0xff, b[off + 2] & 0xff);
+        }
+
+        while (off < end) {
+            write(b[off++]);
+        }
+    }
+
+    /**
+     * Writes the last, padded group and passes everything on, the underlying stream is not closed
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        if (pendingCount == 1) {
+            int b0 = pending[0];
+            writeChar(ALPHABET[b0 >> 2]);
+            writeChar(ALPHABET[(b0 & 0x03) << 4]);
+            writeChar('=');
+            writeChar('=');
+        } else if (pendingCount == 2) {
+            int b0 = pending[0];
+            int b1 = pending[1];
+            writeChar(ALPHABET[b0 >> 2]);
+            writeChar(ALPHABET[((b0 & 0x03) << 4) | (b1 >> 4)]);
+            writeChar(ALPHABET[(b1 & 0x0f) << 2]);
+            writeChar('=');
+        }
+        pendingCount = 0;
+
+        flushOutput();
+        out.flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushOutput();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void encodeGroup(int b0, int b1, int b2) throws IOException {
+        writeChar(ALPHABET[b0 >> 2]);
+        writeChar(ALPHABET[((b0 & 0x03) << 4) | (b1 >> 4)]);
+        writeChar(ALPHABET[((b1 & 0x0f) << 2) | (b2 >> 6)]);
+        writeChar(ALPHABET[b2 & 0x3f]);
+    }
+
+    private void writeChar(char c) throws IOException {
+        if (outputCount + ENCODED_SLASH.length > outputBuffer.length) {
+            flushOutput();
+        }
+
+        switch (c) {
+            case '+':
+                System.arraycopy(ENCODED_PLUS, 0, outputBuffer, outputCount, ENCODED_PLUS.length);
+                outputCount += ENCODED_PLUS.length;
+                break;
+            case '/':
+                System.arraycopy(ENCODED_SLASH, 0, outputBuffer, outputCount, ENCODED_SLASH.length);
+                outputCount += ENCODED_SLASH.length;
+                break;
+            case '=':
+                System.arraycopy(ENCODED_PAD, 0, outputBuffer, outputCount, ENCODED_PAD.length);
+                outputCount += ENCODED_PAD.length;
+                break;
+            default:
+                outputBuffer[outputCount++] = (byte) c;
+        }
+    }
+
+    private void flushOutput() throws IOException {
+        if (outputCount > 0) {
+            out.write(outputBuffer, 0, outputCount);
+            outputCount = 0;
+        }
+    }
+}
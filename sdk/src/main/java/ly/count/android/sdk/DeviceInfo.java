@@ -46,9 +46,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
@@ -64,7 +68,76 @@ class DeviceInfo {
     private boolean inBackground = true;
     private static long totalMemory = 0;
 
+    // how long the volatile metrics (battery, free RAM and disk) are reused
+    static final long VOLATILE_METRICS_TTL_MS = 5_000;
+
+    // metrics that are included in the "begin_session" and remote config metrics
+    private static final Set<String> SESSION_METRIC_KEYS = new HashSet<>(Arrays.asList(
+        "_device", "_os", "_os_version", "_resolution", "_app_version", "_manufacturer", "_has_hinge", "_carrier", "_density", "_locale", "_store", "_device_type"));
+    // metrics that are shared with session, remote config and crash metrics
+    private static final Set<String> COMMON_METRIC_KEYS = new HashSet<>(Arrays.asList(
+        "_device", "_os", "_os_version", "_resolution", "_app_version", "_manufacturer", "_has_hinge"));
+    // static metrics that are only included in crash metrics
+    private static final Set<String> CRASH_STATIC_METRIC_KEYS = new HashSet<>(Arrays.asList(
+        "_cpu", "_opengl", "_root", "_ram_total", "_disk_total"));
+
     MetricProvider mp;
+    PerformanceCounterCollector pcc;
+    private static final int PCC_GET_METRICS = PerformanceCounterCollector.sdkTimeCounter("DeviceInfo_getMetrics");
+    private static final int PCC_GET_CRASH_METRICS = PerformanceCounterCollector.sdkTimeCounter("DeviceInfo_getCrashMetrics");
+
+    // metrics that don't change while the process is running, they are only collected once
+    private volatile MetricsTier staticMetrics = null;
+    // metrics that depend on the device configuration, cleared in 'onConfigurationChanged'
+    private volatile MetricsTier configurationMetrics = null;
+    // metrics that change all the time, they are reused for 'VOLATILE_METRICS_TTL_MS'
+    private volatile MetricsTier volatileMetrics = null;
+    private volatile long volatileMetricsTimestampNs = 0;
+
+    // the encoded health check metrics and the override they were created with
+    private volatile String healthCheckMetrics = null;
+    private volatile Map<String, String> healthCheckMetricsOverride = null;
+
+    /**
+     * Collected metric values of a tier and their encoded JSON members
+     */
+    static final class MetricsTier {
+        @NonNull final Map<String, String> values;
+        // URL encoded JSON members of the session metrics in this tier, without the surrounding braces
+        @NonNull final String encodedSessionMembers;
+
+        MetricsTier(@NonNull Map<String, String> values) {
+            this.values = values;
+
+            StringBuilder members = new StringBuilder();
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                if (!SESSION_METRIC_KEYS.contains(entry.getKey())) {
+                    continue;
+                }
+                if (members.length() > 0) {
+                    members.append(',');
+                }
+                members.append(JSONObject.quote(entry.getKey())).append(':').append(JSONObject.quote(entry.getValue()));
+            }
+
+            String encoded = members.toString();
+            try {
+                encoded = java.net.URLEncoder.encode(encoded, "UTF-8");
+            } catch (UnsupportedEncodingException ex) {
+                // should never happen because Android guarantees UTF-8 support
+                Countly.sharedInstance().L.e("[MetricsTier] encode failed, [" + ex + "]");
+            }
+            encodedSessionMembers = encoded;
+        }
+
+        void putInto(@NonNull Map<String, Object> metrics, @Nullable Set<String> keys) {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                if (keys == null || keys.contains(entry.getKey())) {
+                    metrics.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
 
     public DeviceInfo(MetricProvider mpOverride) {
         mp = mpOverride;
@@ -568,6 +641,75 @@ class DeviceInfo {
         }
     }
 
+    /**
+     * Device, OS, CPU, OpenGL, store, total RAM and disk
+     */
+    @NonNull MetricsTier getStaticMetrics(@NonNull final Context context) {
+        MetricsTier tier = staticMetrics;
+        if (tier == null) {
+            Map<String, String> values = new LinkedHashMap<>();
+            putMetric(values, "_device", mp.getDevice());
+            putMetric(values, "_os", mp.getOS());
+            putMetric(values, "_os_version", mp.getOSVersion());
+            putMetric(values, "_app_version", mp.getAppVersion(context));
+            putMetric(values, "_manufacturer", mp.getManufacturer());
+            putMetric(values, "_has_hinge", mp.hasHinge(context));
+            putMetric(values, "_store", mp.getStore(context));
+            putMetric(values, "_cpu", mp.getCpu());
+            putMetric(values, "_opengl", mp.getOpenGL(context));
+            putMetric(values, "_root", mp.isRooted());
+            putMetric(values, "_ram_total", mp.getRamTotal());
+            putMetric(values, "_disk_total", mp.getDiskTotal());
+            tier = new MetricsTier(values);
+            staticMetrics = tier;
+        }
+        return tier;
+    }
+
+    /**
+     * Resolution, locale, carrier, density, device type and orientation
+     */
+    @NonNull MetricsTier getConfigurationMetrics(@NonNull final Context context) {
+        MetricsTier tier = configurationMetrics;
+        if (tier == null) {
+            Map<String, String> values = new LinkedHashMap<>();
+            putMetric(values, "_resolution", mp.getResolution(context));
+            putMetric(values, "_carrier", mp.getCarrier(context));
+            putMetric(values, "_density", mp.getDensity(context));
+            putMetric(values, "_locale", mp.getLocale());
+            putMetric(values, "_device_type", mp.getDeviceType(context));
+            putMetric(values, "_orientation", mp.getOrientation(context));
+            tier = new MetricsTier(values);
+            configurationMetrics = tier;
+        }
+        return tier;
+    }
+
+    /**
+     * Battery level, current RAM and disk usage
+     */
+    @NonNull MetricsTier getVolatileMetrics(@NonNull final Context context) {
+        MetricsTier tier = volatileMetrics;
+        long now = UtilsTime.getNanoTime();
+        if (tier == null || now - volatileMetricsTimestampNs >= VOLATILE_METRICS_TTL_MS * 1_000_000L) {
+            Map<String, String> values = new LinkedHashMap<>();
+            putMetric(values, "_ram_current", mp.getRamCurrent(context));
+            putMetric(values, "_disk_current", mp.getDiskCurrent());
+            putMetric(values, "_bat", mp.getBatteryLevel(context));
+            tier = new MetricsTier(values);
+            volatileMetrics = tier;
+            volatileMetricsTimestampNs = now;
+        }
+        return tier;
+    }
+
+    /**
+     * Clears the metrics that depend on the device configuration, they are collected again the next time they are needed
+     */
+    void onConfigurationChanged() {
+        configurationMetrics = null;
+    }
+
     /**
      * Returns the common metrics that would be shared with session, remote config and crash metrics
      * If metric override is provided, it will check for specific keys and override them
@@ -580,13 +722,8 @@ class DeviceInfo {
     Map<String, Object> getCommonMetrics(@NonNull final Context context, @Nullable final Map<String, String> metricOverride, @NonNull ModuleLog L) {
         final Map<String, Object> map = new ConcurrentHashMap<>();
 
-        putIfNotNullAndNotEmpty(map, "_device", mp.getDevice());
-        putIfNotNullAndNotEmpty(map, "_os", mp.getOS());
-        putIfNotNullAndNotEmpty(map, "_os_version", mp.getOSVersion());
-        putIfNotNullAndNotEmpty(map, "_resolution", mp.getResolution(context));
-        putIfNotNullAndNotEmpty(map, "_app_version", mp.getAppVersion(context));
-        putIfNotNullAndNotEmpty(map, "_manufacturer", mp.getManufacturer());
-        putIfNotNullAndNotEmpty(map, "_has_hinge", mp.hasHinge(context));
+        getStaticMetrics(context).putInto(map, COMMON_METRIC_KEYS);
+        getConfigurationMetrics(context).putInto(map, COMMON_METRIC_KEYS);
 
         if (metricOverride != null) {
             try {
@@ -626,6 +763,12 @@ class DeviceInfo {
         }
     }
 
+    private static void putMetric(@NonNull Map<String, String> values, String key, String value) {
+        if (value != null && !value.isEmpty()) {
+            values.put(key, value);
+        }
+    }
+
     /**
      * Returns url encoded metrics that would be used for "begin_session" requests and remote config
      *
@@ -635,16 +778,24 @@ class DeviceInfo {
      */
     @NonNull
     String getMetrics(@NonNull final Context context, @Nullable final Map<String, String> metricOverride, @NonNull ModuleLog L) {
-        //we set the override to null because all of the entries will be overwritten anyway
-        Map<String, Object> metrics = getCommonMetrics(context, null, L);
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
 
-        putIfNotNullAndNotEmpty(metrics, "_carrier", mp.getCarrier(context));
-        putIfNotNullAndNotEmpty(metrics, "_density", mp.getDensity(context));
-        putIfNotNullAndNotEmpty(metrics, "_locale", mp.getLocale());
-        putIfNotNullAndNotEmpty(metrics, "_store", mp.getStore(context));
-        putIfNotNullAndNotEmpty(metrics, "_device_type", mp.getDeviceType(context));
+        MetricsTier staticTier = getStaticMetrics(context);
+        MetricsTier configurationTier = getConfigurationMetrics(context);
+        String result;
+
+        if (metricOverride == null || metricOverride.isEmpty()) {
+            // nothing to override, the encoded members of the tiers can be combined as they are
+            String separator = staticTier.encodedSessionMembers.isEmpty() || configurationTier.encodedSessionMembers.isEmpty() ? "" : "%2C";
+            result = "%7B" + staticTier.encodedSessionMembers + separator + configurationTier.encodedSessionMembers + "%7D";
+        } else {
+            Map<String, Object> metrics = new ConcurrentHashMap<>();
+            staticTier.putInto(metrics, SESSION_METRIC_KEYS);
+            configurationTier.putInto(metrics, SESSION_METRIC_KEYS);
 
-        if (metricOverride != null) {
             for (String k : metricOverride.keySet()) {
                 if (k == null || k.isEmpty()) {
                     L.w("[DeviceInfo] getMetrics, Provided metric override key can't be null or empty");
@@ -660,15 +811,19 @@ class DeviceInfo {
 
                 metrics.put(k, overrideValue);
             }
-        }
 
-        String result = new JSONObject(metrics).toString();
+            result = new JSONObject(metrics).toString();
 
-        try {
-            result = java.net.URLEncoder.encode(result, "UTF-8");
-        } catch (UnsupportedEncodingException ex) {
-            // should never happen because Android guarantees UTF-8 support
-            Countly.sharedInstance().L.e("[getMetrics] encode failed, [" + ex + "]");
+            try {
+                result = java.net.URLEncoder.encode(result, "UTF-8");
+            } catch (UnsupportedEncodingException ex) {
+                // should never happen because Android guarantees UTF-8 support
+                Countly.sharedInstance().L.e("[getMetrics] encode failed, [" + ex + "]");
+            }
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_GET_METRICS, UtilsTime.getNanoTime() - tsStart);
         }
 
         return result;
@@ -676,6 +831,11 @@ class DeviceInfo {
 
     @NonNull
     String getMetricsHealthCheck(@NonNull final Context context, @Nullable final Map<String, String> metricOverride) {
+        String cachedResult = healthCheckMetrics;
+        if (cachedResult != null && healthCheckMetricsOverride == metricOverride) {
+            return cachedResult;
+        }
+
         Map<String, Object> metrics = new ConcurrentHashMap<>();
 
         String appVersion = mp.getAppVersion(context);
@@ -697,6 +857,8 @@ class DeviceInfo {
             Countly.sharedInstance().L.e("[getMetrics] encode failed, [" + ex + "]");
         }
 
+        healthCheckMetricsOverride = metricOverride;
+        healthCheckMetrics = result;
         return result;
     }
 
@@ -729,20 +891,20 @@ class DeviceInfo {
 
     @NonNull
     Map<String, Object> getCrashMetrics(@NonNull final Context context, boolean isNativeCrash, @Nullable final Map<String, String> metricOverride, @NonNull ModuleLog L) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
         Map<String, Object> metrics = getCommonMetrics(context, metricOverride, L);
 
-        putIfNotNullAndNotEmpty(metrics, "_cpu", mp.getCpu());
-        putIfNotNullAndNotEmpty(metrics, "_opengl", mp.getOpenGL(context));
-        putIfNotNullAndNotEmpty(metrics, "_root", mp.isRooted());
-        putIfNotNullAndNotEmpty(metrics, "_ram_total", mp.getRamTotal());
-        putIfNotNullAndNotEmpty(metrics, "_disk_total", mp.getDiskTotal());
+        getStaticMetrics(context).putInto(metrics, CRASH_STATIC_METRIC_KEYS);
 
         if (!isNativeCrash) {
             //if is not a native crash
-            putIfNotNullAndNotEmpty(metrics, "_ram_current", mp.getRamCurrent(context));
-            putIfNotNullAndNotEmpty(metrics, "_disk_current", mp.getDiskCurrent());
-            putIfNotNullAndNotEmpty(metrics, "_bat", mp.getBatteryLevel(context));
+            getVolatileMetrics(context).putInto(metrics, null);
             putIfNotNullAndNotEmpty(metrics, "_run", mp.getRunningTime());
+            //read directly, the cached configuration tier is only refreshed on configuration changes the SDK is told about
             putIfNotNullAndNotEmpty(metrics, "_orientation", mp.getOrientation(context));
             putIfNotNullAndNotEmpty(metrics, "_online", mp.isOnline(context));
             putIfNotNullAndNotEmpty(metrics, "_muted", mp.isMuted(context));
@@ -752,6 +914,10 @@ class DeviceInfo {
             metrics.put("_native_cpp", true);
         }
 
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_GET_CRASH_METRICS, UtilsTime.getNanoTime() - tsStart);
+        }
+
         return metrics;
     }
 
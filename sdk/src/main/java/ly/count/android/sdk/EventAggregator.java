@@ -0,0 +1,143 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Merges custom events with the same key, segmentation and current view that are recorded within a time window.
+ *
+ * The first event of a window is kept in memory, the count, sum and duration of the following
+ * matching events are added to it. The merged event keeps the timestamp and ID of the first event.
+ * Merged events have to be taken out with 'takeExpired' or 'takeAll' and added to the event queue.
+ */
+class EventAggregator {
+    private final long windowNs;
+    @Nullable private final Set<String> allowedKeys;
+    @Nullable private final Set<String> deniedKeys;
+
+    // ordered by the start of their window
+    private final LinkedHashMap<AggregationKey, PendingEvent> pendingEvents = new LinkedHashMap<>();
+
+    /**
+     * @param allowedKeys if set, only these event keys are merged
+     * @param deniedKeys event keys that are never merged
+     */
+    EventAggregator(long windowMs, @Nullable Set<String> allowedKeys, @Nullable Set<String> deniedKeys) {
+        this.windowNs = Math.max(0, windowMs) * 1_000_000L;
+        this.allowedKeys = allowedKeys;
+        this.deniedKeys = deniedKeys;
+    }
+
+    boolean shouldAggregate(@NonNull String key) {
+        if (deniedKeys != null && deniedKeys.contains(key)) {
+            return false;
+        }
+        return allowedKeys == null || allowedKeys.contains(key);
+    }
+
+    /**
+     * Adds the values to a pending event with the same key, segmentation and current view ID
+     *
+     * @return true if there was such an event, false if the event has to be started with 'start'
+     */
+    boolean merge(@NonNull String key, @Nullable Map<String, Object> segmentation, @Nullable String currentViewId, int count, double sum, double dur) {
+        PendingEvent pending = pendingEvents.get(new AggregationKey(key, segmentation, currentViewId));
+        if (pending == null) {
+            return false;
+        }
+
+        pending.event.count += count;
+        pending.event.sum += sum;
+        pending.event.dur += dur;
+        return true;
+    }
+
+    /**
+     * Starts a new window with the given event. The segmentation of the event must not be changed afterwards.
+     */
+    void start(@NonNull Event event, long nowNs) {
+        pendingEvents.put(new AggregationKey(event.key, event.segmentation, event.cvid), new PendingEvent(event, nowNs + windowNs));
+    }
+
+    /**
+     * Removes and returns the events whose window has ended
+     */
+    @NonNull List<Event> takeExpired(long nowNs) {
+        List<Event> expired = new ArrayList<>();
+        Iterator<PendingEvent> iterator = pendingEvents.values().iterator();
+        while (iterator.hasNext()) {
+            PendingEvent pending = iterator.next();
+            if (pending.windowEndNs - nowNs > 0) {
+                // later events started their window later
+                break;
+            }
+            expired.add(pending.event);
+            iterator.remove();
+        }
+        return expired;
+    }
+
+    /**
+     * Removes and returns all pending events
+     */
+    @NonNull List<Event> takeAll() {
+        List<Event> all = new ArrayList<>(pendingEvents.size());
+        for (PendingEvent pending : pendingEvents.values()) {
+            all.add(pending.event);
+        }
+        pendingEvents.clear();
+        return all;
+    }
+
+    int size() {
+        return pendingEvents.size();
+    }
+
+    private static class PendingEvent {
+        final Event event;
+        final long windowEndNs;
+
+        PendingEvent(@NonNull Event event, long windowEndNs) {
+            this.event = event;
+            this.windowEndNs = windowEndNs;
+        }
+    }
+
+    private static class AggregationKey {
+        final String key;
+        @Nullable final Map<String, Object> segmentation;
+        @Nullable final String currentViewId;
+        final int hash;
+
+        AggregationKey(@NonNull String key, @Nullable Map<String, Object> segmentation, @Nullable String currentViewId) {
+            this.key = key;
+            this.segmentation = segmentation;
+            this.currentViewId = currentViewId;
+            hash = Objects.hash(key, segmentation, currentViewId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AggregationKey)) {
+                return false;
+            }
+            AggregationKey other = (AggregationKey) o;
+            return hash == other.hash
+                && key.equals(other.key)
+                && Objects.equals(currentViewId, other.currentViewId)
+                && Objects.equals(segmentation, other.segmentation);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
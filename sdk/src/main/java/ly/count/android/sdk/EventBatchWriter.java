@@ -0,0 +1,416 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Writes events as a URL encoded JSON array straight into a single {@link StringBuilder}.
+ *
+ * The output is the same as URL encoding (UTF-8) the 'toString' of a JSONArray that holds 'Event.toJSON' of every event.
+ * Numbers are formatted and strings are escaped the way org.json does it, and the URL encoding is done
+ * while the characters are written, so no JSON objects or intermediate strings are created.
+ * Events with values that can't be written this way are serialized with 'Event.toJSON' and URL encoded.
+ */
+final class EventBatchWriter {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // URL encoded JSON punctuation
+    private static final String ARRAY_START = "%5B";
+    private static final String ARRAY_END = "%5D";
+    private static final String OBJECT_START = "%7B";
+    private static final String OBJECT_END = "%7D";
+    private static final String COMMA = "%2C";
+    private static final String COLON = "%3A";
+    private static final String QUOTE = "%22";
+    private static final String BACKSLASH = "%5C";
+
+    private EventBatchWriter() {
+    }
+
+    /**
+     * Returns the events as a URL encoded JSON array
+     */
+    static @NonNull String writeEvents(@NonNull List<Event> events) {
+        StringBuilder sb = new StringBuilder(estimateLength(events));
+        writeEvents(events, sb);
+        return sb.toString();
+    }
+
+    static void writeEvents(@NonNull List<Event> events, @NonNull StringBuilder sb) {
+        sb.append(ARRAY_START);
+        for (int a = 0; a < events.size(); a++) {
+            if (a > 0) {
+                sb.append(COMMA);
+            }
+
+            Event event = events.get(a);
+            int mark = sb.length();
+            if (!writeEvent(event, sb)) {
+                // the event has a value that is handled in a special way, let org.json do it
+                sb.setLength(mark);
+                appendUrlEncoded(String.valueOf(event.toJSON().toString()), sb);
+            }
+        }
+        sb.append(ARRAY_END);
+    }
+
+    /**
+     * Rough size of the output, so that the builder usually doesn't have to grow
+     */
+    static int estimateLength(@NonNull List<Event> events) {
+        int length = 6;
+        for (Event event : events) {
+            // field names, punctuation and numbers take about 200 characters once URL encoded
+            length += 200 + (event.key == null ? 0 : event.key.length());
+            if (event.id != null) {
+                length += event.id.length() * 2;
+            }
+            if (event.segmentation != null) {
+                length += event.segmentation.size() * 48;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the event with the same fields and in the same order as 'Event.toJSON'
+     *
+     * @return false if the event can't be written and 'Event.toJSON' has to be used
+     */
+    private static boolean writeEvent(@NonNull Event event, @NonNull StringBuilder sb) {
+        if (event.key == null || isNotFinite(event.sum)) {
+            return false;
+        }
+
+        sb.append(OBJECT_START);
+        writeName(Event.KEY_KEY, sb);
+        writeString(event.key, sb);
+
+        sb.append(COMMA);
+        writeName(Event.COUNT_KEY, sb);
+        sb.append(event.count);
+
+        sb.append(COMMA);
+        writeName(Event.TIMESTAMP_KEY, sb);
+        sb.append(event.timestamp);
+
+        sb.append(COMMA);
+        writeName(Event.HOUR_KEY, sb);
+        sb.append(event.hour);
+
+        sb.append(COMMA);
+        writeName(Event.DAY_OF_WEEK_KEY, sb);
+        sb.append(event.dow);
+
+        writeOptionalString(Event.ID_KEY, event.id, sb);
+        writeOptionalString(Event.PV_ID_KEY, event.pvid, sb);
+        writeOptionalString(Event.CV_ID_KEY, event.cvid, sb);
+        writeOptionalString(Event.PE_ID_KEY, event.peid, sb);
+
+        if (event.segmentation != null && !event.segmentation.isEmpty()) {
+            sb.append(COMMA);
+            writeName(Event.SEGMENTATION_KEY, sb);
+            sb.append(OBJECT_START);
+            boolean first = true;
+            for (Map.Entry<String, Object> pair : event.segmentation.entrySet()) {
+                if (!first) {
+                    sb.append(COMMA);
+                }
+                first = false;
+
+                writeName(pair.getKey(), sb);
+                if (!writeSegmentationValue(pair.getValue(), sb)) {
+                    return false;
+                }
+            }
+            sb.append(OBJECT_END);
+        }
+
+        sb.append(COMMA);
+        writeName(Event.SUM_KEY, sb);
+        writeNumber(event.sum, sb);
+
+        if (event.dur > 0) {
+            if (isNotFinite(event.dur)) {
+                return false;
+            }
+            sb.append(COMMA);
+            writeName(Event.DUR_KEY, sb);
+            writeNumber(event.dur, sb);
+        }
+
+        sb.append(OBJECT_END);
+        return true;
+    }
+
+    private static void writeOptionalString(@NonNull String name, String value, @NonNull StringBuilder sb) {
+        if (value != null) {
+            sb.append(COMMA);
+            writeName(name, sb);
+            writeString(value, sb);
+        }
+    }
+
+    private static void writeName(@NonNull String name, @NonNull StringBuilder sb) {
+        writeString(name, sb);
+        sb.append(COLON);
+    }
+
+    /**
+     * A segmentation value, arrays and lists are written as JSON arrays, other values as they are put into a JSONObject
+     */
+    private static boolean writeSegmentationValue(Object value, @NonNull StringBuilder sb) {
+        if (value == null) {
+            return false;
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            sb.append(ARRAY_START);
+            for (int a = 0; a < list.size(); a++) {
+                if (a > 0) {
+                    sb.append(COMMA);
+                }
+                if (!writeElement(list.get(a), sb)) {
+                    return false;
+                }
+            }
+            sb.append(ARRAY_END);
+            return true;
+        } else if (value.getClass().isArray()) {
+            return writeArray(value, sb);
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            sb.append(ARRAY_START);
+            for (int a = 0; a < array.length(); a++) {
+                if (a > 0) {
+                    sb.append(COMMA);
+                }
+                if (!writeElement(array.opt(a), sb)) {
+                    return false;
+                }
+            }
+            sb.append(ARRAY_END);
+            return true;
+        } else if (value instanceof String) {
+            writeString((String) value, sb);
+            return true;
+        } else if (value instanceof Boolean) {
+            sb.append(value);
+            return true;
+        } else if (value instanceof Number) {
+            return writeNumberValue((Number) value, sb);
+        } else if (value == JSONObject.NULL) {
+            sb.append("null");
+            return true;
+        } else if (value instanceof JSONObject) {
+            return false;
+        }
+
+        // any other object is written as its string
+        writeString(value.toString(), sb);
+        return true;
+    }
+
+    private static boolean writeArray(@NonNull Object array, @NonNull StringBuilder sb) {
+        sb.append(ARRAY_START);
+        if (array instanceof Object[]) {
+            Object[] values = (Object[]) array;
+            for (int a = 0; a < values.length; a++) {
+                if (a > 0) {
+                    sb.append(COMMA);
+                }
+                if (!writeElement(values[a], sb)) {
+                    return false;
+                }
+            }
+        } else if (array instanceof int[]) {
+            int[] values = (int[]) array;
+            for (int a = 0; a < values.length; a++) {
+                if (a > 0) {
+                    sb.append(COMMA);
+                }
+                sb.append(values[a]);
+            }
+        } else if (array instanceof long[]) {
+            long[] values = (long[]) array;
+            for (int a = 0; a < values.length; a++) {
+                if (a > 0) {
+                    sb.append(COMMA);
+                }
+                sb.append(values[a]);
+            }
+        } else if (array instanceof boolean[]) {
+            boolean[] values = (boolean[]) array;
+            for (int a = 0; a < values.length; a++) {
+                if (a > 0) {
+                    sb.append(COMMA);
+                }
+                sb.append(values[a]);
+            }
+        } else if (array instanceof double[]) {
+            double[] values = (double[]) array;
+            for (int a = 0; a < values.length; a++) {
+                if (a > 0) {
+                    sb.append(COMMA);
+                }
+                if (!writeNumberValue(values[a], sb)) {
+                    return false;
+                }
+            }
+        } else if (array instanceof float[]) {
+            float[] values = (float[]) array;
+            for (int a = 0; a < values.length; a++) {
+                if (a > 0) {
+                    sb.append(COMMA);
+                }
+                if (!writeNumberValue(values[a], sb)) {
+                    return false;
+                }
+            }
+        } else {
+            return false;
+        }
+        sb.append(ARRAY_END);
+        return true;
+    }
+
+    /**
+     * An element of a JSON array, only the types that org.json keeps as they are
+     */
+    private static boolean writeElement(Object element, @NonNull StringBuilder sb) {
+        if (element instanceof String || element instanceof Character) {
+            writeString(element.toString(), sb);
+        } else if (element instanceof Boolean) {
+            sb.append(element);
+        } else if (element instanceof Integer || element instanceof Long || element instanceof Double || element instanceof Float || element instanceof Short || element instanceof Byte) {
+            return writeNumberValue((Number) element, sb);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean writeNumberValue(@NonNull Number number, @NonNull StringBuilder sb) {
+        if (isNotFinite(number.doubleValue())) {
+            return false;
+        }
+        writeNumber(number, sb);
+        return true;
+    }
+
+    /**
+     * Same as 'JSONObject.numberToString', the result only contains characters that don't need URL encoding
+     */
+    private static void writeNumber(@NonNull Number number, @NonNull StringBuilder sb) {
+        if (number.equals(-0.0d)) {
+            sb.append("-0");
+            return;
+        }
+
+        double doubleValue = number.doubleValue();
+        long longValue = number.longValue();
+        if (doubleValue == (double) longValue) {
+            sb.append(longValue);
+        } else {
+            sb.append(number.toString());
+        }
+    }
+
+    private static boolean isNotFinite(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value);
+    }
+
+    /**
+     * Writes a quoted JSON string, escaped like org.json does and URL encoded
+     */
+    private static void writeString(@NonNull String value, @NonNull StringBuilder sb) {
+        sb.append(QUOTE);
+        int length = value.length();
+        for (int a = 0; a < length; a++) {
+            char c = value.charAt(a);
+            switch (c) {
+                case '"':
+                    sb.append(BACKSLASH).append(QUOTE);
+                    break;
+                case '\\':
+                    sb.append(BACKSLASH).append(BACKSLASH);
+                    break;
+                case '/':
+                    sb.append(BACKSLASH).append("%2F");
+                    break;
+                case '\t':
+                    sb.append(BACKSLASH).append('t');
+                    break;
+                case '\b':
+                    sb.append(BACKSLASH).append('b');
+                    break;
+                case '\n':
+                    sb.append(BACKSLASH).append('n');
+                    break;
+                case '\r':
+                    sb.append(BACKSLASH).append('r');
+                    break;
+                case '\f':
+                    sb.append(BACKSLASH).append('f');
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        // "\\u00XX" with lower case hex digits
+                        sb.append(BACKSLASH).append("u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        a = appendUrlEncodedChar(value, a, sb);
+                    }
+            }
+        }
+        sb.append(QUOTE);
+    }
+
+    /**
+     * URL encodes the whole string, same as 'URLEncoder.encode(value, "UTF-8")'
+     */
+    static void appendUrlEncoded(@NonNull String value, @NonNull StringBuilder sb) {
+        for (int a = 0; a < value.length(); a++) {
+            a = appendUrlEncodedChar(value, a, sb);
+        }
+    }
+
+    /**
+     * URL encodes the character at the given index, a surrogate pair is encoded together
+     *
+     * @return the index of the last character that was used
+     */
+    private static int appendUrlEncodedChar(@NonNull String value, int index, @NonNull StringBuilder sb) {
+        char c = value.charAt(index);
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '*' || c == '_') {
+            sb.append(c);
+        } else if (c == ' ') {
+            sb.append('+');
+        } else if (c < 0x80) {
+            appendPercentEncoded(c, sb);
+        } else if (c < 0x800) {
+            appendPercentEncoded(0xC0 | (c >> 6), sb);
+            appendPercentEncoded(0x80 | (c & 0x3F), sb);
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            appendPercentEncoded(0xF0 | (codePoint >> 18), sb);
+            appendPercentEncoded(0x80 | ((codePoint >> 12) & 0x3F), sb);
+            appendPercentEncoded(0x80 | ((codePoint >> 6) & 0x3F), sb);
+            appendPercentEncoded(0x80 | (codePoint & 0x3F), sb);
+            return index + 1;
+        } else if (Character.isSurrogate(c)) {
+            // a lone surrogate can't be encoded as UTF-8, it is replaced with '?'
+            appendPercentEncoded('?', sb);
+        } else {
+            appendPercentEncoded(0xE0 | (c >> 12), sb);
+            appendPercentEncoded(0x80 | ((c >> 6) & 0x3F), sb);
+            appendPercentEncoded(0x80 | (c & 0x3F), sb);
+        }
+        return index;
+    }
+
+    private static void appendPercentEncoded(int b, @NonNull StringBuilder sb) {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+}
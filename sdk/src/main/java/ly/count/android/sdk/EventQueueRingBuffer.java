@@ -0,0 +1,315 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Event queue that keeps the recorded events in a bounded in-memory ring buffer.
+ *
+ * Every event is encoded once when it is recorded. That record is appended to a {@link ByteRecordJournal}
+ * and kept next to the event object, so adding an event, getting the queue size and draining the queue
+ * don't parse or serialize the rest of the queue.
+ * Records are written in the binary {@link EventRecordCodec} format, events that it can't encode and records
+ * from older versions are JSON. The journal is only read once, when the queue is first accessed after a restart.
+ * JSON is only created from the event objects when the queue is drained.
+ */
+class EventQueueRingBuffer implements EventQueueProvider {
+    static final String JOURNAL_DIRECTORY = "countly_event_queue";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static class Entry {
+        final Event event;
+        final byte[] record;
+
+        Entry(Event event, byte[] record) {
+            this.event = event;
+            this.record = record;
+        }
+    }
+
+    // order the events from least to most recent, same as the preference based queue
+    private static final Comparator<Entry> timestampComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry e1, final Entry e2) {
+            return (int) (e1.event.timestamp - e2.event.timestamp);
+        }
+    };
+
+    final ByteRecordJournal journal;
+    ModuleLog L;
+
+    private final Entry[] ring;
+    private int head = 0;
+    private int size = 0;
+    private boolean loaded = false;
+
+    ConfigurationProvider configurationProvider;
+
+    EventQueueRingBuffer(@NonNull File parentDirectory, int capacity, @NonNull ModuleLog logModule) {
+        ring = new Entry[Math.max(1, capacity)];
+        journal = new ByteRecordJournal(parentDirectory, JOURNAL_DIRECTORY, logModule);
+        L = logModule;
+    }
+
+    static boolean journalExists(@NonNull File parentDirectory) {
+        return RecordJournal.journalExists(parentDirectory, JOURNAL_DIRECTORY);
+    }
+
+    synchronized int capacity() {
+        return ring.length;
+    }
+
+    synchronized int size() {
+        ensureLoaded();
+        return size;
+    }
+
+    /**
+     * Adds an event to the end of the queue and appends its record to the journal
+     *
+     * @return false if the queue is full and the event was not added
+     */
+    synchronized boolean add(@NonNull Event event) {
+        ensureLoaded();
+
+        if (size >= ring.length) {
+            L.w("[EventQueueRingBuffer] add, event queue is full, event will be dropped");
+            return false;
+        }
+
+        byte[] record = encodeRecord(event);
+        journal.append(record, false);
+        putLast(new Entry(event, record));
+        return true;
+    }
+
+    @Override
+    public void recordEventToEventQueue(@NonNull String key, @Nullable Map<String, Object> segmentation, int count, double sum, double dur, long timestamp, int hour, int dow, @NonNull String eventID, @Nullable String previousViewID,
+        @Nullable String currentViewId, @Nullable String previousEventId) {
+        if (configurationProvider != null && !configurationProvider.getTrackingEnabled()) {
+            L.w("[EventQueueRingBuffer] recordEventToEventQueue, Tracking config is disabled, event will not be added to the event queue.");
+            return;
+        }
+
+        final Event event = new Event();
+        event.key = key;
+        event.segmentation = segmentation;
+        event.timestamp = timestamp;
+        event.hour = hour;
+        event.dow = dow;
+        event.count = count;
+        event.sum = sum;
+        event.dur = dur;
+        event.id = eventID;
+        event.pvid = previousViewID;
+        event.cvid = currentViewId;
+        event.peid = previousEventId;
+
+        add(event);
+    }
+
+    /**
+     * Returns the combined length of the stored event records
+     */
+    synchronized int byteSize() {
+        ensureLoaded();
+        int ret = 0;
+        for (int a = 0; a < size; a++) {
+            ret += entryAt(a).record.length;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the queued events as JSON strings in the order they were added
+     */
+    synchronized @NonNull String[] getEventRecords() {
+        ensureLoaded();
+        String[] ret = new String[size];
+        for (int a = 0; a < size; a++) {
+            ret[a] = entryAt(a).event.toJSON().toString();
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the queued events, sorted by timestamp from oldest to newest
+     */
+    synchronized @NonNull List<Event> getEventList() {
+        List<Entry> entries = sortedEntries();
+        List<Event> ret = new ArrayList<>(entries.size());
+        for (Entry e : entries) {
+            ret.add(e.event);
+        }
+        return ret;
+    }
+
+    /**
+     * Empties the queue and returns the events, sorted by timestamp.
+     * The events are kept in memory, nothing is read from the journal.
+     */
+    synchronized @NonNull List<Event> drainEvents() {
+        List<Entry> entries = sortedEntries();
+        List<Event> events = new ArrayList<>(entries.size());
+        for (Entry e : entries) {
+            events.add(e.event);
+        }
+
+        journal.removeFirst(size);
+        for (int a = 0; a < size; a++) {
+            ring[(head + a) % ring.length] = null;
+        }
+        head = (head + size) % ring.length;
+        size = 0;
+        return events;
+    }
+
+    /**
+     * Removes the given events from the queue
+     *
+     * @return true if anything was removed
+     */
+    synchronized boolean remove(@NonNull List<Event> eventsToRemove) {
+        ensureLoaded();
+
+        List<Entry> remaining = new ArrayList<>(size);
+        for (int a = 0; a < size; a++) {
+            Entry e = entryAt(a);
+            if (!eventsToRemove.contains(e.event)) {
+                remaining.add(e);
+            }
+        }
+
+        if (remaining.size() == size) {
+            return false;
+        }
+
+        List<byte[]> records = new ArrayList<>(remaining.size());
+        clearRing();
+        for (Entry e : remaining) {
+            putLast(e);
+            records.add(e.record);
+        }
+        replaceJournal(records);
+        return true;
+    }
+
+    synchronized void clear() {
+        clearRing();
+        journal.clear();
+        loaded = true;
+    }
+
+    private @NonNull List<Entry> sortedEntries() {
+        ensureLoaded();
+        List<Entry> entries = new ArrayList<>(size);
+        for (int a = 0; a < size; a++) {
+            entries.add(entryAt(a));
+        }
+        // events are mostly recorded in order, so this is close to a single pass
+        Collections.sort(entries, timestampComparator);
+        return entries;
+    }
+
+    private Entry entryAt(int position) {
+        return ring[(head + position) % ring.length];
+    }
+
+    private void putLast(@NonNull Entry entry) {
+        ring[(head + size) % ring.length] = entry;
+        size++;
+    }
+
+    private void clearRing() {
+        for (int a = 0; a < ring.length; a++) {
+            ring[a] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * The journal has to hold exactly the records of the ring, 'drainEvents' removes as many records as there are events.
+     * If the compacted journal can't be written, it is recreated record by record. Records that can't be written
+     * are still kept in the journal's memory, the same as when appending fails.
+     */
+    private void replaceJournal(@NonNull List<byte[]> records) {
+        if (journal.replaceAll(records)) {
+            return;
+        }
+
+        L.w("[EventQueueRingBuffer] replaceJournal, failed to compact the journal, recreating it");
+        journal.clear();
+        for (byte[] record : records) {
+            journal.append(record, false);
+        }
+    }
+
+    /**
+     * Encodes the event into a journal record
+     */
+    static @NonNull byte[] encodeRecord(@NonNull Event event) {
+        byte[] data = EventRecordCodec.encode(event);
+        if (data == null) {
+            data = event.toJSON().toString().getBytes(UTF8);
+        }
+        return data;
+    }
+
+    static @Nullable Event decodeRecord(@NonNull byte[] data) {
+        if (EventRecordCodec.isBinaryRecord(data)) {
+            return EventRecordCodec.decode(data);
+        }
+
+        // JSON record, from an older version or an event the binary format can't hold
+        try {
+            return Event.fromJSON(new JSONObject(new String(data, UTF8)));
+        } catch (JSONException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the persisted records into memory, this is only done once
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        List<byte[]> records = journal.getRecordList();
+        if (records.size() > ring.length) {
+            L.w("[EventQueueRingBuffer] ensureLoaded, stored queue has more events than allowed, [" + (records.size() - ring.length) + "] newest will be dropped");
+        }
+
+        int dropped = 0;
+        for (byte[] record : records) {
+            Event event = decodeRecord(record);
+
+            if (event == null || size >= ring.length) {
+                dropped++;
+                continue;
+            }
+            putLast(new Entry(event, record));
+        }
+
+        if (dropped > 0) {
+            List<byte[]> kept = new ArrayList<>(size);
+            for (int a = 0; a < size; a++) {
+                kept.add(entryAt(a).record);
+            }
+            replaceJournal(kept);
+        }
+        L.d("[EventQueueRingBuffer] ensureLoaded, loaded [" + size + "] events");
+    }
+}
@@ -0,0 +1,470 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.json.JSONArray;
+
+/**
+ * Compact binary record format for a stored {@link Event}.
+ *
+ * Layout of a version 1 record:
+ * - version byte (1), JSON records start with '{' so both formats can be told apart
+ * - varint flags, which of the optional fields follow
+ * - event key as an interned string
+ * - zigzag varint count, varint timestamp, hour byte, day of week byte
+ * - optional strings: id, previous view id, current view id, previous event id
+ * - optional 8 byte sum and duration
+ * - optional segmentation: varint entry count, then an interned key, a type tag and the value for every entry
+ *
+ * Interned strings are written as the varint index+1 into {@link #COMMON_STRINGS},
+ * or as 0 followed by the string itself. Other strings are a varint byte length followed by UTF-8 bytes.
+ * Segmentation values keep their type, lists and arrays are read back as a {@link JSONArray} like when parsing JSON.
+ */
+final class EventRecordCodec {
+    static final byte VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_ID = 1;
+    private static final int FLAG_PVID = 1 << 1;
+    private static final int FLAG_CVID = 1 << 2;
+    private static final int FLAG_PEID = 1 << 3;
+    private static final int FLAG_SEGMENTATION = 1 << 4;
+    private static final int FLAG_SUM = 1 << 5;
+    private static final int FLAG_DUR = 1 << 6;
+
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_INTEGER = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_DOUBLE = 4;
+    private static final int TYPE_FLOAT = 5;
+    private static final int TYPE_TRUE = 6;
+    private static final int TYPE_FALSE = 7;
+    private static final int TYPE_LIST = 8;
+
+    // event and segmentation keys that the SDK records itself
+    // stored records refer to these by index, entries must only be appended
+    static final String[] COMMON_STRINGS = {
+        "[CLY]_view", "[CLY]_action", "[CLY]_orientation", "[CLY]_star_rating", "[CLY]_nps", "[CLY]_survey", "[CLY]_push_action",
+        "name", "segment", "visit", "start", "bounce", "exit", "cly_v", "cly_pvn", "cly_cvn", "cly_pen",
+        "type", "x", "y", "width", "height", "mode", "platform", "rating", "widget_id", "closed", "p", "i", "b", "Android"
+    };
+
+    private static final Map<String, Integer> COMMON_STRING_INDEX = new HashMap<>();
+
+    static {
+        for (int a = 0; a < COMMON_STRINGS.length; a++) {
+            COMMON_STRING_INDEX.put(COMMON_STRINGS[a], a);
+        }
+    }
+
+    private EventRecordCodec() {
+    }
+
+    /**
+     * Returns true if the record was written by this codec and not as JSON
+     */
+    static boolean isBinaryRecord(@NonNull byte[] record) {
+        return record.length > 0 && record[0] == VERSION;
+    }
+
+    /**
+     * @return the encoded record or 'null' if the event has a value that can't be encoded, it should then be stored as JSON
+     */
+    static @Nullable byte[] encode(@NonNull Event event) {
+        if (event.key == null) {
+            return null;
+        }
+
+        boolean hasSegmentation = event.segmentation != null && !event.segmentation.isEmpty();
+        int flags = (event.id != null ? FLAG_ID : 0)
+            | (event.pvid != null ? FLAG_PVID : 0)
+            | (event.cvid != null ? FLAG_CVID : 0)
+            | (event.peid != null ? FLAG_PEID : 0)
+            | (hasSegmentation ? FLAG_SEGMENTATION : 0)
+            | (event.sum != 0 ? FLAG_SUM : 0)
+            | (event.dur != 0 ? FLAG_DUR : 0);
+
+        Writer w = new Writer(64 + event.key.length());
+        w.writeByte(VERSION);
+        w.writeVarLong(flags);
+        w.writeInterned(event.key);
+        w.writeVarLong(zigzag(event.count));
+        w.writeVarLong(event.timestamp);
+        w.writeByte(event.hour);
+        w.writeByte(event.dow);
+
+        if (event.id != null) {
+            w.writeString(event.id);
+        }
+        if (event.pvid != null) {
+            w.writeString(event.pvid);
+        }
+        if (event.cvid != null) {
+            w.writeString(event.cvid);
+        }
+        if (event.peid != null) {
+            w.writeString(event.peid);
+        }
+        if (event.sum != 0) {
+            w.writeDouble(event.sum);
+        }
+        if (event.dur != 0) {
+            w.writeDouble(event.dur);
+        }
+
+        if (hasSegmentation) {
+            int entryCount = 0;
+            for (Object value : event.segmentation.values()) {
+                if (value != null) {
+                    entryCount++;
+                }
+            }
+
+            w.writeVarLong(entryCount);
+            for (Map.Entry<String, Object> entry : event.segmentation.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                w.writeInterned(entry.getKey());
+                if (!writeValue(w, entry.getValue(), true)) {
+                    return null;
+                }
+            }
+        }
+
+        return w.toByteArray();
+    }
+
+    private static boolean writeValue(@NonNull Writer w, @NonNull Object value, boolean allowList) {
+        if (value instanceof String) {
+            w.writeByte(TYPE_STRING);
+            w.writeString((String) value);
+        } else if (value instanceof Integer) {
+            w.writeByte(TYPE_INTEGER);
+            w.writeVarLong(zigzag((Integer) value));
+        } else if (value instanceof Long) {
+            w.writeByte(TYPE_LONG);
+            w.writeVarLong(zigzag((Long) value));
+        } else if (value instanceof Double) {
+            w.writeByte(TYPE_DOUBLE);
+            w.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            w.writeByte(TYPE_FLOAT);
+            w.writeInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Boolean) {
+            w.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+        } else if (allowList && value instanceof List) {
+            List<?> list = (List<?>) value;
+            w.writeByte(TYPE_LIST);
+            w.writeVarLong(list.size());
+            for (Object element : list) {
+                if (element == null || !writeValue(w, element, false)) {
+                    return false;
+                }
+            }
+        } else if (allowList && value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            w.writeByte(TYPE_LIST);
+            w.writeVarLong(array.length());
+            for (int a = 0; a < array.length(); a++) {
+                Object element = array.opt(a);
+                if (element == null || !writeValue(w, element, false)) {
+                    return false;
+                }
+            }
+        } else if (allowList && value.getClass().isArray()) {
+            Object[] elements = boxedArray(value);
+            if (elements == null) {
+                return false;
+            }
+            w.writeByte(TYPE_LIST);
+            w.writeVarLong(elements.length);
+            for (Object element : elements) {
+                if (element == null || !writeValue(w, element, false)) {
+                    return false;
+                }
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static @Nullable Object[] boxedArray(@NonNull Object array) {
+        if (array instanceof Object[]) {
+            return (Object[]) array;
+        }
+
+        Object[] ret;
+        if (array instanceof int[]) {
+            int[] values = (int[]) array;
+            ret = new Object[values.length];
+            for (int a = 0; a < values.length; a++) {
+                ret[a] = values[a];
+            }
+        } else if (array instanceof long[]) {
+            long[] values = (long[]) array;
+            ret = new Object[values.length];
+            for (int a = 0; a < values.length; a++) {
+                ret[a] = values[a];
+            }
+        } else if (array instanceof double[]) {
+            double[] values = (double[]) array;
+            ret = new Object[values.length];
+            for (int a = 0; a < values.length; a++) {
+                ret[a] = values[a];
+            }
+        } else if (array instanceof float[]) {
+            float[] values = (float[]) array;
+            ret = new Object[values.length];
+            for (int a = 0; a < values.length; a++) {
+                ret[a] = values[a];
+            }
+        } else if (array instanceof boolean[]) {
+            boolean[] values = (boolean[]) array;
+            ret = new Object[values.length];
+            for (int a = 0; a < values.length; a++) {
+                ret[a] = values[a];
+            }
+        } else {
+            return null;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the decoded event or 'null' if the record is not a valid version 1 record
+     */
+    static @Nullable Event decode(@NonNull byte[] record) {
+        Reader r = new Reader(record);
+        try {
+            if (r.readByte() != VERSION) {
+                return null;
+            }
+
+            int flags = (int) r.readVarLong();
+            Event event = new Event();
+            event.key = r.readInterned();
+            event.count = unzigzagInt(r.readVarLong());
+            event.timestamp = r.readVarLong();
+            event.hour = r.readByte();
+            event.dow = r.readByte();
+
+            if ((flags & FLAG_ID) != 0) {
+                event.id = r.readString();
+            }
+            if ((flags & FLAG_PVID) != 0) {
+                event.pvid = r.readString();
+            }
+            if ((flags & FLAG_CVID) != 0) {
+                event.cvid = r.readString();
+            }
+            if ((flags & FLAG_PEID) != 0) {
+                event.peid = r.readString();
+            }
+            if ((flags & FLAG_SUM) != 0) {
+                event.sum = r.readDouble();
+            }
+            if ((flags & FLAG_DUR) != 0) {
+                event.dur = r.readDouble();
+            }
+
+            if ((flags & FLAG_SEGMENTATION) != 0) {
+                int entryCount = (int) r.readVarLong();
+                Map<String, Object> segmentation = new ConcurrentHashMap<>(Math.max(16, entryCount * 2));
+                for (int a = 0; a < entryCount; a++) {
+                    String key = r.readInterned();
+                    segmentation.put(key, readValue(r, true));
+                }
+                event.segmentation = segmentation;
+            }
+
+            if (event.key.isEmpty() || r.position != record.length) {
+                return null;
+            }
+            return event;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException ex) {
+            //truncated or otherwise broken record
+            return null;
+        }
+    }
+
+    private static @NonNull Object readValue(@NonNull Reader r, boolean allowList) {
+        int type = r.readByte();
+        switch (type) {
+            case TYPE_STRING:
+                return r.readString();
+            case TYPE_INTEGER:
+                return unzigzagInt(r.readVarLong());
+            case TYPE_LONG:
+                return unzigzag(r.readVarLong());
+            case TYPE_DOUBLE:
+                return r.readDouble();
+            case TYPE_FLOAT:
+                return Float.intBitsToFloat(r.readInt());
+            case TYPE_TRUE:
+                return Boolean.TRUE;
+            case TYPE_FALSE:
+                return Boolean.FALSE;
+            case TYPE_LIST:
+                //lists are not nested
+                if (!allowList) {
+                    throw new IllegalArgumentException("Nested list value");
+                }
+                int length = (int) r.readVarLong();
+                JSONArray array = new JSONArray();
+                for (int a = 0; a < length; a++) {
+                    array.put(readValue(r, false));
+                }
+                return array;
+            default:
+                throw new IllegalArgumentException("Unknown value type " + type);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int unzigzagInt(long value) {
+        return (int) unzigzag(value);
+    }
+
+    private static class Writer {
+        byte[] buffer;
+        int size = 0;
+
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                byte[] larger = new byte[Math.max(buffer.length * 2, size + extra)];
+                System.arraycopy(buffer, 0, larger, 0, size);
+                buffer = larger;
+            }
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            writeInt((int) (bits >>> 32));
+            writeInt((int) bits);
+        }
+
+        void writeString(@NonNull String value) {
+            byte[] data = value.getBytes(UTF8);
+            writeVarLong(data.length);
+            ensureCapacity(data.length);
+            System.arraycopy(data, 0, buffer, size, data.length);
+            size += data.length;
+        }
+
+        void writeInterned(@NonNull String value) {
+            Integer index = COMMON_STRING_INDEX.get(value);
+            if (index != null) {
+                writeVarLong(index + 1);
+            } else {
+                writeVarLong(0);
+                writeString(value);
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] ret = new byte[size];
+            System.arraycopy(buffer, 0, ret, 0, size);
+            return ret;
+        }
+    }
+
+    private static class Reader {
+        final byte[] data;
+        int position = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (position >= data.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        int readInt() {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        double readDouble() {
+            long high = readInt() & 0xFFFFFFFFL;
+            long low = readInt() & 0xFFFFFFFFL;
+            return Double.longBitsToDouble((high << 32) | low);
+        }
+
+        @NonNull String readString() {
+            int length = (int) readVarLong();
+            if (length < 0 || position + length > data.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            String ret = new String(data, position, length, UTF8);
+            position += length;
+            return ret;
+        }
+
+        @NonNull String readInterned() {
+            int index = (int) readVarLong();
+            if (index == 0) {
+                return readString();
+            }
+            if (index > COMMON_STRINGS.length) {
+                throw new IllegalArgumentException("Unknown interned string " + index);
+            }
+            return COMMON_STRINGS[index - 1];
+        }
+    }
+}
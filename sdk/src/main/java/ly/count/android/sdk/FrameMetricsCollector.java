@@ -0,0 +1,362 @@
+package ly.count.android.sdk;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.FrameMetrics;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.Window;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the rendering times of the frames of resumed activities.
+ *
+ * From API 24 the frame durations are taken from {@link FrameMetrics} on a background thread,
+ * on older versions (or when the window doesn't provide frame metrics) the time between two {@link Choreographer} frames is used.
+ * Only frames in which the window was drawn are counted then, and the slow frame threshold is derived from the display refresh rate.
+ * Every activity gets its own {@link FrameStats}, recording a frame only updates its counter array and doesn't allocate.
+ *
+ * Activities are started and stopped from the lifecycle callbacks on the main thread.
+ */
+class FrameMetricsCollector {
+    // frames that took longer are slow
+    static final long SLOW_FRAME_NS = 16_000_000L;
+    // frames that took longer are frozen
+    static final long FROZEN_FRAME_NS = 700_000_000L;
+    // used if the refresh rate of the display is not known
+    static final long DEFAULT_VSYNC_INTERVAL_NS = 16_666_667L;
+
+    // upper bounds of the frame duration histogram buckets, the last bucket has no upper bound
+    static final long[] BUCKET_BOUNDS_MS = { 8, 16, 24, 32, 50, 100, 250, 700 };
+    static final int BUCKET_COUNT = BUCKET_BOUNDS_MS.length + 1;
+
+    /**
+     * Frame counters of one activity. Written by one thread at a time, readable from any thread
+     */
+    static class FrameStats {
+        static final int SLOT_FRAMES = 0;
+        static final int SLOT_SLOW = 1;
+        static final int SLOT_FROZEN = 2;
+        static final int SLOT_DURATION_NS = 3;
+        static final int SLOT_MAX_NS = 4;
+        static final int SLOT_BUCKETS = 5;
+
+        private static final long[] BUCKET_BOUNDS_NS = new long[BUCKET_BOUNDS_MS.length];
+
+        static {
+            for (int a = 0; a < BUCKET_BOUNDS_MS.length; a++) {
+                BUCKET_BOUNDS_NS[a] = BUCKET_BOUNDS_MS[a] * 1_000_000L;
+            }
+        }
+
+        final AtomicLongArray counters = new AtomicLongArray(SLOT_BUCKETS + BUCKET_COUNT);
+
+        // frames that took longer are slow, only changed before frames are recorded
+        long slowFrameNs = SLOW_FRAME_NS;
+
+        void recordFrame(long durationNs) {
+            if (durationNs < 0) {
+                return;
+            }
+
+            counters.incrementAndGet(SLOT_FRAMES);
+            counters.addAndGet(SLOT_DURATION_NS, durationNs);
+            if (durationNs > slowFrameNs) {
+                counters.incrementAndGet(SLOT_SLOW);
+                if (durationNs > FROZEN_FRAME_NS) {
+                    counters.incrementAndGet(SLOT_FROZEN);
+                }
+            }
+
+            long max = counters.get(SLOT_MAX_NS);
+            while (durationNs > max && !counters.compareAndSet(SLOT_MAX_NS, max, durationNs)) {
+                max = counters.get(SLOT_MAX_NS);
+            }
+
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_NS.length && durationNs > BUCKET_BOUNDS_NS[bucket]) {
+                bucket++;
+            }
+            counters.incrementAndGet(SLOT_BUCKETS + bucket);
+        }
+
+        long getFrameCount() {
+            return counters.get(SLOT_FRAMES);
+        }
+
+        long getSlowFrameCount() {
+            return counters.get(SLOT_SLOW);
+        }
+
+        long getFrozenFrameCount() {
+            return counters.get(SLOT_FROZEN);
+        }
+
+        long getBucketCount(int bucket) {
+            return counters.get(SLOT_BUCKETS + bucket);
+        }
+
+        /**
+         * @return the collected values as APM trace metrics, in the format of 'ModuleAPM.customMetricsToString'
+         */
+        @NonNull String toMetricString() {
+            long frames = getFrameCount();
+            StringBuilder sb = new StringBuilder(256);
+            sb.append(",\"slow_rendering_frames\":").append(getSlowFrameCount());
+            sb.append(",\"frozen_frames\":").append(getFrozenFrameCount());
+            sb.append(",\"total_frames\":").append(frames);
+            sb.append(",\"frame_time_avg\":").append(frames == 0 ? 0 : counters.get(SLOT_DURATION_NS) / frames / 1_000_000L);
+            sb.append(",\"frame_time_max\":").append(counters.get(SLOT_MAX_NS) / 1_000_000L);
+
+            long lowerBound = 0;
+            for (int a = 0; a < BUCKET_COUNT; a++) {
+                sb.append(",\"frames_").append(lowerBound);
+                if (a < BUCKET_BOUNDS_MS.length) {
+                    sb.append('_').append(BUCKET_BOUNDS_MS[a]);
+                    lowerBound = BUCKET_BOUNDS_MS[a];
+                } else {
+                    sb.append("_plus");
+                }
+                sb.append("ms\":").append(getBucketCount(a));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Frames of one resumed activity
+     */
+    static class Tracking {
+        @NonNull final String name;
+        final long startTimestampMs;
+        final FrameStats stats = new FrameStats();
+
+        // only one of these is set
+        @Nullable Object frameMetricsListener;
+        @Nullable ChoreographerSource choreographerSource;
+
+        Tracking(@NonNull String name, long startTimestampMs) {
+            this.name = name;
+            this.startTimestampMs = startTimestampMs;
+        }
+    }
+
+    /**
+     * Uses the time between two frames as the frame duration, runs on the main thread.
+     * A frame callback is posted for every vsync, also while nothing changes on the screen,
+     * so only the frames in which the observed view was drawn are recorded
+     */
+    static class ChoreographerSource implements Choreographer.FrameCallback, ViewTreeObserver.OnDrawListener {
+        final FrameStats stats;
+        // the view whose draws are observed, 'null' if every frame is recorded
+        @Nullable final View observedView;
+        long lastFrameTimeNs = -1;
+        boolean drawnSinceLastFrame = false;
+        boolean running = true;
+
+        ChoreographerSource(@NonNull FrameStats stats, @Nullable View observedView) {
+            this.stats = stats;
+            this.observedView = observedView;
+        }
+
+        @Override public void doFrame(long frameTimeNanos) {
+            if (!running) {
+                return;
+            }
+
+            onFrame(frameTimeNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override public void onDraw() {
+            drawnSinceLastFrame = true;
+        }
+
+        void onFrame(long frameTimeNanos) {
+            if (lastFrameTimeNs >= 0 && (drawnSinceLastFrame || observedView == null)) {
+                stats.recordFrame(frameTimeNanos - lastFrameTimeNs);
+            }
+            lastFrameTimeNs = frameTimeNanos;
+            drawnSinceLastFrame = false;
+        }
+    }
+
+    /**
+     * The time between two frame callbacks is a multiple of the vsync interval, a frame is slow
+     * if at least one vsync was missed. It is never lower than the frame metrics threshold
+     *
+     * @param refreshRate refresh rate of the display in Hz, 0 if it is not known
+     */
+    static long choreographerSlowFrameNs(float refreshRate) {
+        long vsyncIntervalNs = refreshRate >= 1 ? (long) (1_000_000_000L / refreshRate) : DEFAULT_VSYNC_INTERVAL_NS;
+        return Math.max(SLOW_FRAME_NS, vsyncIntervalNs + vsyncIntervalNs / 2);
+    }
+
+    private final Map<Activity, Tracking> trackedActivities = new IdentityHashMap<>();
+    private final boolean useShortNames;
+    private final ModuleLog L;
+
+    // delivers frame metrics from API 24, created when first needed
+    @Nullable private HandlerThread frameMetricsThread;
+    @Nullable private Handler frameMetricsHandler;
+
+    FrameMetricsCollector(boolean useShortNames, @NonNull ModuleLog L) {
+        this.useShortNames = useShortNames;
+        this.L = L;
+    }
+
+    @NonNull String activityName(@NonNull Activity activity) {
+        return useShortNames ? activity.getClass().getSimpleName() : activity.getClass().getName();
+    }
+
+    /**
+     * Starts collecting the frames of the given activity, does nothing if they are already collected
+     */
+    void startActivity(@NonNull Activity activity, long timestampMs) {
+        if (trackedActivities.containsKey(activity)) {
+            return;
+        }
+
+        Tracking tracking = new Tracking(activityName(activity), timestampMs);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            tracking.frameMetricsListener = addFrameMetricsListener(activity.getWindow(), tracking.stats);
+        }
+
+        if (tracking.frameMetricsListener == null) {
+            tracking.stats.slowFrameNs = choreographerSlowFrameNs(refreshRate(activity));
+            tracking.choreographerSource = startChoreographerSource(activity.getWindow(), tracking.stats);
+        }
+
+        L.d("[FrameMetricsCollector] startActivity, [" + tracking.name + "], using frame metrics:[" + (tracking.frameMetricsListener != null) + "]");
+        trackedActivities.put(activity, tracking);
+    }
+
+    /**
+     * Stops collecting the frames of the given activity
+     *
+     * @return the collected frames, 'null' if the activity was not tracked
+     */
+    @Nullable Tracking stopActivity(@NonNull Activity activity) {
+        Tracking tracking = trackedActivities.remove(activity);
+        if (tracking == null) {
+            return null;
+        }
+
+        detach(activity, tracking);
+        return tracking;
+    }
+
+    /**
+     * Stops collecting frames of all activities, the collected frames are dropped
+     */
+    void stopAll() {
+        List<Activity> activities = new ArrayList<>(trackedActivities.keySet());
+        for (Activity activity : activities) {
+            stopActivity(activity);
+        }
+
+        if (frameMetricsThread != null) {
+            frameMetricsThread.quit();
+            frameMetricsThread = null;
+            frameMetricsHandler = null;
+        }
+    }
+
+    private void detach(@NonNull Activity activity, @NonNull Tracking tracking) {
+        if (tracking.choreographerSource != null) {
+            ChoreographerSource source = tracking.choreographerSource;
+            source.running = false;
+            Choreographer.getInstance().removeFrameCallback(source);
+
+            if (source.observedView != null) {
+                ViewTreeObserver observer = source.observedView.getViewTreeObserver();
+                if (observer.isAlive()) {
+                    observer.removeOnDrawListener(source);
+                }
+            }
+        }
+
+        if (tracking.frameMetricsListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            removeFrameMetricsListener(activity.getWindow(), tracking.frameMetricsListener);
+        }
+    }
+
+    private float refreshRate(@NonNull Activity activity) {
+        try {
+            Display display = activity.getWindowManager().getDefaultDisplay();
+            return display == null ? 0 : display.getRefreshRate();
+        } catch (Exception ex) {
+            L.w("[FrameMetricsCollector] refreshRate, [" + ex + "]");
+            return 0;
+        }
+    }
+
+    private @NonNull ChoreographerSource startChoreographerSource(@Nullable Window window, @NonNull FrameStats stats) {
+        ChoreographerSource source = new ChoreographerSource(stats, window == null ? null : window.getDecorView());
+        if (source.observedView != null) {
+            source.observedView.getViewTreeObserver().addOnDrawListener(source);
+        } else {
+            L.w("[FrameMetricsCollector] startChoreographerSource, activity has no window, every frame is counted");
+        }
+
+        Choreographer.getInstance().postFrameCallback(source);
+        return source;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private @Nullable Object addFrameMetricsListener(@Nullable Window window, @NonNull final FrameStats stats) {
+        if (window == null) {
+            return null;
+        }
+
+        if (frameMetricsHandler == null) {
+            frameMetricsThread = new HandlerThread("Countly-frame-metrics");
+            frameMetricsThread.start();
+            frameMetricsHandler = new Handler(frameMetricsThread.getLooper());
+        }
+
+        Window.OnFrameMetricsAvailableListener listener = new Window.OnFrameMetricsAvailableListener() {
+            @Override public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && frameMetrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) == 1) {
+                    //the first frame of a window also contains its setup
+                    return;
+                }
+                stats.recordFrame(frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION));
+            }
+        };
+
+        try {
+            window.addOnFrameMetricsAvailableListener(listener, frameMetricsHandler);
+            return listener;
+        } catch (Exception ex) {
+            //thrown when the window is not hardware accelerated
+            L.w("[FrameMetricsCollector] addFrameMetricsListener, frame metrics not available, [" + ex + "]");
+            return null;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void removeFrameMetricsListener(@Nullable Window window, @NonNull Object listener) {
+        if (window == null) {
+            return;
+        }
+
+        try {
+            window.removeOnFrameMetricsAvailableListener((Window.OnFrameMetricsAvailableListener) listener);
+        } catch (Exception ex) {
+            L.w("[FrameMetricsCollector] removeFrameMetricsListener, [" + ex + "]");
+        }
+    }
+}
@@ -10,16 +10,32 @@ public class HealthCheckCounter implements HealthTracker {
     public long countLogError = 0;
     public int statusCode = -1;
     public String errorMessage = "";
+
+    // retry policy state, kept here so that it is persisted with the counters, only changed while holding the lock of this object
+    int retryConsecutiveFailures = 0;
+    long retryNotBeforeMs = 0;
+    // retry policy counters, they are sent with the health check and cleared after it
+    long retryFailureCount = 0;
+    long retryDeferredCount = 0;
+    long retryCircuitOpenCount = 0;
     
     final String keyLogError = "LErr";
     final String keyLogWarning = "LWar";
     final String keyStatusCode = "RStatC";
     final String keyErrorMessage = "REMsg";
+    final String keyRetryConsecutiveFailures = "RtCF";
+    final String keyRetryNotBefore = "RtNB";
+    final String keyRetryFailureCount = "RtFC";
+    final String keyRetryDeferredCount = "RtDC";
+    final String keyRetryCircuitOpenCount = "RtCO";
 
     final String requestKeyErrorCount = "el";
     final String requestKeyWarningCount = "wl";
     final String requestKeyStatusCode = "sc";
     final String requestKeyRequestError = "em";
+    final String requestKeyRetryFailureCount = "rf";
+    final String requestKeyRetryDeferredCount = "rd";
+    final String requestKeyRetryCircuitOpenCount = "rco";
 
     StorageProvider storageProvider;
     ModuleLog L;
@@ -47,6 +63,11 @@ public class HealthCheckCounter implements HealthTracker {
             countLogError = jsonObject.optLong(keyLogError, 0);
             statusCode = jsonObject.optInt(keyStatusCode, -1);
             errorMessage = jsonObject.optString(keyErrorMessage, "");
+            retryConsecutiveFailures = jsonObject.optInt(keyRetryConsecutiveFailures, 0);
+            retryNotBeforeMs = jsonObject.optLong(keyRetryNotBefore, 0);
+            retryFailureCount = jsonObject.optLong(keyRetryFailureCount, 0);
+            retryDeferredCount = jsonObject.optLong(keyRetryDeferredCount, 0);
+            retryCircuitOpenCount = jsonObject.optLong(keyRetryCircuitOpenCount, 0);
 
             L.d("[HealthCheckCounter] Loaded initial health check state: [" + jsonObject.toString() + "]");
         } catch (Exception e) {
@@ -90,12 +111,18 @@ public class HealthCheckCounter implements HealthTracker {
 
     }
 
-    @Override public void clearAndSave() {
+    @Override public synchronized void clearAndSave() {
         clearValues();//clear values
-        storageProvider.setHealthCheckCounterState("");//clear stored State
+
+        if (hasRetryState()) {
+            //the retry backoff state is not part of the health check, it should stay
+            saveState();
+        } else {
+            storageProvider.setHealthCheckCounterState("");//clear stored State
+        }
     }
 
-    @Override public void saveState() {
+    @Override public synchronized void saveState() {
         JSONObject jsonObject = new JSONObject();
         try {
             jsonObject.put(keyLogWarning, countLogWarning);
@@ -103,21 +130,36 @@ public class HealthCheckCounter implements HealthTracker {
             jsonObject.put(keyStatusCode, statusCode);
             jsonObject.put(keyErrorMessage, errorMessage);
 
+            if (hasRetryState()) {
+                jsonObject.put(keyRetryConsecutiveFailures, retryConsecutiveFailures);
+                jsonObject.put(keyRetryNotBefore, retryNotBeforeMs);
+                jsonObject.put(keyRetryFailureCount, retryFailureCount);
+                jsonObject.put(keyRetryDeferredCount, retryDeferredCount);
+                jsonObject.put(keyRetryCircuitOpenCount, retryCircuitOpenCount);
+            }
+
             storageProvider.setHealthCheckCounterState(jsonObject.toString());
         } catch (Exception e) {
             L.w("[HealthCheckCounter] Failed to save current state, " + e);
         }
     }
 
-    void clearValues() {
+    synchronized void clearValues() {
         L.v("[HealthCheckCounter] Clearing counters");
         countLogWarning = 0;
         countLogError = 0;
         statusCode = -1;
         errorMessage = "";
+        retryFailureCount = 0;
+        retryDeferredCount = 0;
+        retryCircuitOpenCount = 0;
+    }
+
+    synchronized boolean hasRetryState() {
+        return retryConsecutiveFailures != 0 || retryNotBeforeMs != 0 || retryFailureCount != 0 || retryDeferredCount != 0 || retryCircuitOpenCount != 0;
     }
 
-    @NonNull String createRequestParam() {
+    synchronized @NonNull String createRequestParam() {
         StringBuilder sb = new StringBuilder(100);
         sb.append("&hc=");
 
@@ -128,6 +170,12 @@ public class HealthCheckCounter implements HealthTracker {
             jsonObject.put(requestKeyWarningCount, countLogWarning);
             jsonObject.put(requestKeyStatusCode, statusCode);
             jsonObject.put(requestKeyRequestError, errorMessage);
+
+            if (retryFailureCount != 0 || retryDeferredCount != 0 || retryCircuitOpenCount != 0) {
+                jsonObject.put(requestKeyRetryFailureCount, retryFailureCount);
+                jsonObject.put(requestKeyRetryDeferredCount, retryDeferredCount);
+                jsonObject.put(requestKeyRetryCircuitOpenCount, retryCircuitOpenCount);
+            }
         } catch (JSONException e) {
             L.w("[HealthCheckCounter] Failed to create param for hc request, " + e);
         }
@@ -8,6 +8,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import org.json.JSONObject;
 
 /**
@@ -25,6 +28,20 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> implemen
     InternalImmediateRequestCallback callback;
     ModuleLog L;
 
+    // where the request is run, 'null' means the default AsyncTask executor
+    @Nullable Executor executor = null;
+
+    // if the connection should be kept open for reuse after the response was fully read
+    boolean keepConnectionAlive = false;
+
+    // header fields added only to this request, 'null' if there are none
+    @Nullable Map<String, String> requestHeaders = null;
+
+    // response status code, header fields and body length, they can be read in the callback
+    int responseCode = -1;
+    @Nullable Map<String, List<String>> responseHeaders = null;
+    int responseLength = 0;
+
     @Override
     public void doWork(@NonNull String requestData, @Nullable String customEndpoint, @NonNull ConnectionProcessor cp, boolean requestShouldBeDelayed, boolean networkingIsEnabled, @NonNull InternalImmediateRequestCallback callback, @NonNull ModuleLog log) {
         assert Utils.isNotNullOrEmpty(requestData);
@@ -32,7 +49,11 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> implemen
         assert log != null;
         assert callback != null;
 
-        this.execute(requestData, customEndpoint, cp, requestShouldBeDelayed, networkingIsEnabled, callback, log);
+        if (executor != null) {
+            this.executeOnExecutor(executor, requestData, customEndpoint, cp, requestShouldBeDelayed, networkingIsEnabled, callback, log);
+        } else {
+            this.execute(requestData, customEndpoint, cp, requestShouldBeDelayed, networkingIsEnabled, callback, log);
+        }
     }
 
     /**
@@ -65,6 +86,7 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> implemen
         HttpURLConnection connection = null;
         BufferedReader reader = null;
         boolean wasSuccess = true;
+        boolean responseRead = false;
 
         try {
             L.d("[ImmediateRequestMaker] delayed[" + requestShouldBeDelayed + "] hasCallback[" + (callback != null) + "] endpoint[" + customEndpoint + "] request[" + requestData + "] url[" + cp.getServerURL() + "]");
@@ -82,7 +104,7 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> implemen
 
             //getting connection ready
             try {
-                connection = (HttpURLConnection) cp.urlConnectionForServerRequest(requestData, customEndpoint);
+                connection = (HttpURLConnection) cp.urlConnectionForServerRequest(requestData, customEndpoint, requestHeaders);
             } catch (IOException e) {
                 L.e("[ImmediateRequestMaker] IOException while preparing remote config update request :[" + e.toString() + "]");
 
@@ -121,6 +143,16 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> implemen
             }
 
             final String receivedBuffer = buffer.toString();
+            responseRead = true;
+            responseCode = connection.getResponseCode();
+            responseHeaders = connection.getHeaderFields();
+            responseLength = receivedBuffer.length();
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // only returned to conditional requests, there is no body
+                L.d("[ImmediateRequestMaker] Received 'not modified' response");
+                return new JSONObject();
+            }
 
             if (wasSuccess) {
                 L.d("[ImmediateRequestMaker] Received the following response, :[" + receivedBuffer + "]");
@@ -138,9 +170,6 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> implemen
         } catch (Exception e) {
             L.e("[ImmediateRequestMaker] Received exception while making a immediate server request", e);
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
             try {
                 if (reader != null) {
                     reader.close();
@@ -148,11 +177,30 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> implemen
             } catch (IOException e) {
                 L.e("[ImmediateRequestMaker] ", e);
             }
+            if (connection != null && !(keepConnectionAlive && responseRead)) {
+                connection.disconnect();
+            }
         }
         L.v("[ImmediateRequestMaker] Finished request");
         return null;
     }
 
+    /**
+     * Returns the first value of a response header field, the name is not case sensitive
+     */
+    @Nullable String getResponseHeader(@NonNull String name) {
+        if (responseHeaders == null) {
+            return null;
+        }
+
+        for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
     @Override
     protected void onPostExecute(JSONObject result) {
         super.onPostExecute(result);
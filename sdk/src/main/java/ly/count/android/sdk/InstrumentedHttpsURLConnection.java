@@ -0,0 +1,333 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.security.Permission;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Decorator of a {@link HttpsURLConnection} that records its timing and payload sizes as a network trace.
+ * It works like {@link InstrumentedHttpURLConnection}, so that instrumented connections can still be used as {@link HttpsURLConnection}.
+ */
+class InstrumentedHttpsURLConnection extends HttpsURLConnection {
+    @NonNull final HttpsURLConnection delegate;
+    @NonNull final ConnectionTrace trace;
+
+    InstrumentedHttpsURLConnection(@NonNull HttpsURLConnection delegate, @NonNull ConnectionTrace trace) {
+        super(delegate.getURL());
+        this.delegate = delegate;
+        this.trace = trace;
+    }
+
+    @Override public void connect() throws IOException {
+        trace.start();
+        try {
+            delegate.connect();
+        } catch (IOException ex) {
+            trace.finish();
+            throw ex;
+        }
+    }
+
+    @Override public void disconnect() {
+        delegate.disconnect();
+        trace.finish();
+    }
+
+    @Override public int getResponseCode() throws IOException {
+        trace.start();
+        try {
+            int code = delegate.getResponseCode();
+            trace.onResponseCode(code);
+            if (ConnectionTrace.hasNoBody(delegate.getRequestMethod(), code, delegate.getContentLength())) {
+                // nothing is left to read, the caller might not open the response stream at all
+                trace.finish();
+            }
+            return code;
+        } catch (IOException ex) {
+            trace.finish();
+            throw ex;
+        }
+    }
+
+    @Override public InputStream getInputStream() throws IOException {
+        trace.start();
+        try {
+            InputStream in = delegate.getInputStream();
+            trace.onResponseCode(delegate.getResponseCode());
+            return trace.wrapInput(in);
+        } catch (IOException ex) {
+            // error responses are read from the error stream, otherwise the request failed
+            int code = -1;
+            try {
+                code = delegate.getResponseCode();
+            } catch (IOException ignored) {
+            }
+            if (code > 0) {
+                trace.onResponseCode(code);
+            } else {
+                trace.finish();
+            }
+            throw ex;
+        }
+    }
+
+    @Override public InputStream getErrorStream() {
+        InputStream error = delegate.getErrorStream();
+        if (error == null && trace.hasErrorResponseCode()) {
+            // the error response has no body that could still be read
+            trace.finish();
+        }
+        return trace.wrapInput(error);
+    }
+
+    @Override public OutputStream getOutputStream() throws IOException {
+        trace.start();
+        try {
+            return trace.wrapOutput(delegate.getOutputStream());
+        } catch (IOException ex) {
+            trace.finish();
+            throw ex;
+        }
+    }
+
+    @Override public String getResponseMessage() throws IOException {
+        return delegate.getResponseMessage();
+    }
+
+    @Override public void setRequestMethod(String method) throws ProtocolException {
+        delegate.setRequestMethod(method);
+    }
+
+    @Override public String getRequestMethod() {
+        return delegate.getRequestMethod();
+    }
+
+    @Override public void setFixedLengthStreamingMode(int contentLength) {
+        delegate.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override public void setFixedLengthStreamingMode(long contentLength) {
+        delegate.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override public void setChunkedStreamingMode(int chunkLength) {
+        delegate.setChunkedStreamingMode(chunkLength);
+    }
+
+    @Override public void setInstanceFollowRedirects(boolean followRedirects) {
+        delegate.setInstanceFollowRedirects(followRedirects);
+    }
+
+    @Override public boolean getInstanceFollowRedirects() {
+        return delegate.getInstanceFollowRedirects();
+    }
+
+    @Override public boolean usingProxy() {
+        return delegate.usingProxy();
+    }
+
+    @Override public Permission getPermission() throws IOException {
+        return delegate.getPermission();
+    }
+
+    @Override public URL getURL() {
+        return delegate.getURL();
+    }
+
+    @Override public void setConnectTimeout(int timeout) {
+        delegate.setConnectTimeout(timeout);
+    }
+
+    @Override public int getConnectTimeout() {
+        return delegate.getConnectTimeout();
+    }
+
+    @Override public void setReadTimeout(int timeout) {
+        delegate.setReadTimeout(timeout);
+    }
+
+    @Override public int getReadTimeout() {
+        return delegate.getReadTimeout();
+    }
+
+    @Override public void setDoInput(boolean doInput) {
+        delegate.setDoInput(doInput);
+    }
+
+    @Override public boolean getDoInput() {
+        return delegate.getDoInput();
+    }
+
+    @Override public void setDoOutput(boolean doOutput) {
+        delegate.setDoOutput(doOutput);
+    }
+
+    @Override public boolean getDoOutput() {
+        return delegate.getDoOutput();
+    }
+
+    @Override public void setAllowUserInteraction(boolean allowUserInteraction) {
+        delegate.setAllowUserInteraction(allowUserInteraction);
+    }
+
+    @Override public boolean getAllowUserInteraction() {
+        return delegate.getAllowUserInteraction();
+    }
+
+    @Override public void setUseCaches(boolean useCaches) {
+        delegate.setUseCaches(useCaches);
+    }
+
+    @Override public boolean getUseCaches() {
+        return delegate.getUseCaches();
+    }
+
+    @Override public void setDefaultUseCaches(boolean defaultUseCaches) {
+        delegate.setDefaultUseCaches(defaultUseCaches);
+    }
+
+    @Override public boolean getDefaultUseCaches() {
+        return delegate.getDefaultUseCaches();
+    }
+
+    @Override public void setIfModifiedSince(long ifModifiedSince) {
+        delegate.setIfModifiedSince(ifModifiedSince);
+    }
+
+    @Override public long getIfModifiedSince() {
+        return delegate.getIfModifiedSince();
+    }
+
+    @Override public void setRequestProperty(String key, String value) {
+        delegate.setRequestProperty(key, value);
+    }
+
+    @Override public void addRequestProperty(String key, String value) {
+        delegate.addRequestProperty(key, value);
+    }
+
+    @Override public String getRequestProperty(String key) {
+        return delegate.getRequestProperty(key);
+    }
+
+    @Override public Map<String, List<String>> getRequestProperties() {
+        return delegate.getRequestProperties();
+    }
+
+    @Override public String getHeaderField(String name) {
+        return delegate.getHeaderField(name);
+    }
+
+    @Override public String getHeaderField(int n) {
+        return delegate.getHeaderField(n);
+    }
+
+    @Override public String getHeaderFieldKey(int n) {
+        return delegate.getHeaderFieldKey(n);
+    }
+
+    @Override public Map<String, List<String>> getHeaderFields() {
+        return delegate.getHeaderFields();
+    }
+
+    @Override public int getHeaderFieldInt(String name, int defaultValue) {
+        return delegate.getHeaderFieldInt(name, defaultValue);
+    }
+
+    @Override public long getHeaderFieldLong(String name, long defaultValue) {
+        return delegate.getHeaderFieldLong(name, defaultValue);
+    }
+
+    @Override public long getHeaderFieldDate(String name, long defaultValue) {
+        return delegate.getHeaderFieldDate(name, defaultValue);
+    }
+
+    @Override public int getContentLength() {
+        return delegate.getContentLength();
+    }
+
+    @Override public long getContentLengthLong() {
+        return delegate.getContentLengthLong();
+    }
+
+    @Override public String getContentType() {
+        return delegate.getContentType();
+    }
+
+    @Override public String getContentEncoding() {
+        return delegate.getContentEncoding();
+    }
+
+    @Override public long getExpiration() {
+        return delegate.getExpiration();
+    }
+
+    @Override public long getDate() {
+        return delegate.getDate();
+    }
+
+    @Override public long getLastModified() {
+        return delegate.getLastModified();
+    }
+
+    @Override public Object getContent() throws IOException {
+        return delegate.getContent();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override public Object getContent(Class[] classes) throws IOException {
+        return delegate.getContent(classes);
+    }
+
+    @Override public String toString() {
+        return delegate.toString();
+    }
+
+    @Override public String getCipherSuite() {
+        return delegate.getCipherSuite();
+    }
+
+    @Override public Certificate[] getLocalCertificates() {
+        return delegate.getLocalCertificates();
+    }
+
+    @Override public Certificate[] getServerCertificates() throws SSLPeerUnverifiedException {
+        return delegate.getServerCertificates();
+    }
+
+    @Override public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+        return delegate.getPeerPrincipal();
+    }
+
+    @Override public Principal getLocalPrincipal() {
+        return delegate.getLocalPrincipal();
+    }
+
+    @Override public void setHostnameVerifier(HostnameVerifier verifier) {
+        delegate.setHostnameVerifier(verifier);
+    }
+
+    @Override public HostnameVerifier getHostnameVerifier() {
+        return delegate.getHostnameVerifier();
+    }
+
+    @Override public void setSSLSocketFactory(SSLSocketFactory factory) {
+        delegate.setSSLSocketFactory(factory);
+    }
+
+    @Override public SSLSocketFactory getSSLSocketFactory() {
+        return delegate.getSSLSocketFactory();
+    }
+}
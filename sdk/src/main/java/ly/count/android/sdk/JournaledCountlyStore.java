@@ -0,0 +1,255 @@
+package ly.count.android.sdk;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CountlyStore variant that keeps the request queue in a {@link RequestQueueJournal} instead of a single preference string.
+ * Adding a request and removing the oldest one do a constant amount of disk I/O no matter how long the queue is.
+ *
+ * Everything except the request queue is still stored in shared preferences.
+ * Moving an existing queue between the preference string and the journal is done by {@link MigrationHelper}.
+ */
+public class JournaledCountlyStore extends CountlyStore {
+    private static final int PCC_GET_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("JournaledCountlyStore_getRequests");
+    private static final int PCC_ADD_REQUEST = PerformanceCounterCollector.sdkTimeCounter("JournaledCountlyStore_addRequest");
+    private static final int PCC_REMOVE_REQUEST = PerformanceCounterCollector.sdkTimeCounter("JournaledCountlyStore_removeRequest");
+    private static final int PCC_REMOVE_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("JournaledCountlyStore_removeRequests");
+    private static final int PCC_GET_REQUEST_QUEUE_SNAPSHOT = PerformanceCounterCollector.sdkTimeCounter("JournaledCountlyStore_getRequestQueueSnapshot");
+    private static final int PCC_TRANSFORM_REQUESTS = PerformanceCounterCollector.sdkTimeCounter("JournaledCountlyStore_transformRequests");
+    private static final int PCC_REMOVE_REQUESTS_BY_ID = PerformanceCounterCollector.sdkTimeCounter("JournaledCountlyStore_removeRequestsById");
+
+    final RequestQueueJournal journal;
+
+    public JournaledCountlyStore(final Context context, ModuleLog logModule) {
+        super(context, logModule, false);
+        journal = new RequestQueueJournal(context.getFilesDir(), logModule);
+    }
+
+    /**
+     * Moves requests that are stored in the legacy preference string into the journal.
+     * They are appended after the requests that are already in the journal.
+     *
+     * @return the amount of moved requests
+     */
+    synchronized int importLegacyRequestQueue() {
+        String[] legacyRequests = super.getRequests();
+        if (legacyRequests.length == 0) {
+            return 0;
+        }
+
+        L.d("[JournaledCountlyStore] importLegacyRequestQueue, moving [" + legacyRequests.length + "] requests into the journal");
+        for (int a = 0; a < legacyRequests.length; a++) {
+            //sync only on the last one to make sure everything is on disk before the legacy queue is cleared
+            journal.append(legacyRequests[a], a == legacyRequests.length - 1);
+        }
+
+        //the preference based implementation has to be used directly, the regular replace calls are routed to the journal
+        super.replaceRequests_reworked(new String[0]);
+        return legacyRequests.length;
+    }
+
+    @Override
+    public synchronized String[] getRequests() {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        String[] ret = journal.getRequests();
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_GET_REQUESTS, UtilsTime.getNanoTime() - tsStart);
+        }
+        return ret;
+    }
+
+    @NonNull @Override
+    public synchronized String getRequestQueueRaw() {
+        return Utils.joinCountlyStoreArray_reworked(journal.getRequests(), DELIMITER);
+    }
+
+    @Override
+    public synchronized void addRequest(@NonNull final String requestStr, final boolean writeInSync) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        if (configurationProvider != null && !configurationProvider.getTrackingEnabled()) {
+            L.w("[JournaledCountlyStore] addRequest, Tracking config is disabled, request will not be added to the request queue.");
+            return;
+        }
+
+        if (requestStr == null || requestStr.isEmpty()) {
+            L.w("[JournaledCountlyStore] addRequest, providing null or empty request string");
+            return;
+        }
+
+        int queueSize = journal.size();
+        L.v("[JournaledCountlyStore] addRequest, s:[" + writeInSync + "] new q size:[" + (queueSize + 1) + "] r:[" + requestStr + "]");
+
+        if (queueSize >= maxRequestQueueSize) {
+            if (dropAgeHours > 0) {
+                // remove too old requests, this rewrites the journal
+                List<String> requests = journal.getRequestList();
+                checkAndRemoveTooOldRequests(requests);
+                if (requests.size() != queueSize) {
+                    journal.replaceAll(requests);
+                }
+            }
+
+            queueSize = journal.size();
+            if (queueSize >= maxRequestQueueSize) {
+                // remove oldest if nothing is too old
+                int requestsToRemove = Math.min(requestRemovalLoopLimit, queueSize - maxRequestQueueSize) + 1; // +1 because it should open a new place for newcomer
+                L.i("[JournaledCountlyStore] addRequest, Will remove the oldest " + requestsToRemove + " request");
+                journal.removeFirst(requestsToRemove);
+            }
+        }
+
+        journal.append(requestStr, writeInSync);
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_ADD_REQUEST, UtilsTime.getNanoTime() - tsStart);
+        }
+    }
+
+    @Override
+    synchronized void deleteOldestRequest_reworked() {
+        L.i("[JournaledCountlyStore] deleteOldestRequest, Will remove the oldest request");
+        journal.removeFirst(1);
+    }
+
+    @Override
+    public synchronized void removeRequest(final String requestStr) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        if (requestStr != null && requestStr.length() > 0) {
+            journal.remove(requestStr);
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_REMOVE_REQUEST, UtilsTime.getNanoTime() - tsStart);
+        }
+    }
+
+    @Override
+    public synchronized void removeRequests(final List<String> requestsToRemove) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        if (requestsToRemove != null && !requestsToRemove.isEmpty()) {
+            journal.remove(requestsToRemove);
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_REMOVE_REQUESTS, UtilsTime.getNanoTime() - tsStart);
+        }
+    }
+
+    @Override
+    public synchronized @NonNull RequestQueueSnapshot getRequestQueueSnapshot() {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        RequestQueueSnapshot ret = journal.getSnapshot();
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_GET_REQUEST_QUEUE_SNAPSHOT, UtilsTime.getNanoTime() - tsStart);
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized @NonNull RequestQueueCursor getRequestQueueCursor() {
+        RequestQueueSnapshot snapshot = journal.getSnapshot();
+        return new RequestQueueCursor(snapshot.requests, snapshot.ids);
+    }
+
+    @Override
+    public synchronized @Nullable String peekFirstRequest() {
+        return journal.peekFirst();
+    }
+
+    @Override
+    public synchronized int transformRequests(@NonNull RequestTransformer transformer) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        int changed = journal.transform(transformer);
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_TRANSFORM_REQUESTS, UtilsTime.getNanoTime() - tsStart);
+        }
+        return changed;
+    }
+
+    @Override
+    public synchronized boolean removeRequestById(long requestId) {
+        return removeRequestsById(new long[] { requestId }) == 1;
+    }
+
+    @Override
+    public synchronized int removeRequestsById(@NonNull long[] requestIds) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        int removed = journal.removeByIds(requestIds);
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs(PCC_REMOVE_REQUESTS_BY_ID, UtilsTime.getNanoTime() - tsStart);
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized boolean removeFirstRequest() {
+        return journal.removeFirst(1) == 1;
+    }
+
+    @Override
+    public synchronized void replaceRequests(@NonNull final String[] newRequests) {
+        if (newRequests != null) {
+            journal.replaceAll(Arrays.asList(newRequests));
+        }
+    }
+
+    @Override
+    public synchronized void replaceRequests_reworked(@NonNull final String[] newRequests) {
+        replaceRequests(newRequests);
+    }
+
+    @Override
+    public synchronized void replaceRequestList(@NonNull final List<String> newRequests) {
+        if (newRequests != null) {
+            journal.replaceAll(newRequests);
+        }
+    }
+
+    @Override
+    public boolean anythingSetInStorage() {
+        return super.anythingSetInStorage() || journal.size() > 0;
+    }
+
+    // for unit testing
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        journal.clear();
+    }
+}
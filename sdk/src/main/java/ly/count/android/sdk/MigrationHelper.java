@@ -64,6 +64,66 @@ class MigrationHelper {
 
             currentVersion = getCurrentSchemaVersion();
         }
+
+        migrateRequestQueueStorage();
+        migrateEventQueueStorage();
+    }
+
+    /**
+     * Moves the event queue between the events preference and the ring buffer journal.
+     * Same as with the request queue, this is not tied to a schema version.
+     */
+    void migrateEventQueueStorage() {
+        if (!(storage instanceof CountlyStore)) {
+            return;
+        }
+
+        CountlyStore store = (CountlyStore) storage;
+        if (store.eventQueueRingBuffer != null) {
+            int movedEvents = store.importLegacyEventQueue();
+            if (movedEvents > 0) {
+                L.w("[MigrationHelper] migrateEventQueueStorage, moved [" + movedEvents + "] events from preferences into the event queue ring buffer");
+            }
+        } else if (cachedContext != null) {
+            int movedEvents = store.restoreEventQueueFromRingBuffer(cachedContext);
+            if (movedEvents > 0) {
+                L.w("[MigrationHelper] migrateEventQueueStorage, moved [" + movedEvents + "] events from the event queue ring buffer back into preferences");
+            }
+        }
+    }
+
+    /**
+     * Moves the request queue between the legacy preference string and the file journal.
+     * This is not tied to a schema version because the journal can be enabled or disabled between app launches.
+     * If the journal is used, requests from the preference string are moved into it.
+     * If the journal is not used but one exists from a previous launch, its requests are moved back into the preference string.
+     */
+    void migrateRequestQueueStorage() {
+        if (storage instanceof JournaledCountlyStore) {
+            int movedRequests = ((JournaledCountlyStore) storage).importLegacyRequestQueue();
+            if (movedRequests > 0) {
+                L.w("[MigrationHelper] migrateRequestQueueStorage, moved [" + movedRequests + "] requests from preferences into the request queue journal");
+            }
+            return;
+        }
+
+        if (cachedContext == null || !RequestQueueJournal.journalExists(cachedContext.getFilesDir())) {
+            return;
+        }
+
+        RequestQueueJournal journal = new RequestQueueJournal(cachedContext.getFilesDir(), L);
+        String[] journalRequests = journal.getRequests();
+
+        if (journalRequests.length > 0) {
+            L.w("[MigrationHelper] migrateRequestQueueStorage, moving [" + journalRequests.length + "] requests from the request queue journal back into preferences");
+            String[] currentRequests = storage.getRequests();
+            String[] mergedRequests = new String[journalRequests.length + currentRequests.length];
+            System.arraycopy(journalRequests, 0, mergedRequests, 0, journalRequests.length);
+            System.arraycopy(currentRequests, 0, mergedRequests, journalRequests.length, currentRequests.length);
+            storage.replaceRequests(mergedRequests);
+        }
+
+        journal.clear();
     }
 
     /**
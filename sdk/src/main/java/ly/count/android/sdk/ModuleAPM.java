@@ -3,11 +3,16 @@ package ly.count.android.sdk;
 import android.app.Activity;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.ssl.HttpsURLConnection;
+import org.json.JSONArray;
 
 public class ModuleAPM extends ModuleBase {
 
@@ -34,6 +39,25 @@ public class ModuleAPM extends ModuleBase {
 
     boolean appStartRecorded = false;
 
+    //after this many different network trace groups, the aggregation window is ended early
+    static final int NETWORK_TRACE_AGGREGATION_MAX_GROUPS = 100;
+
+    //'null' if every network trace is sent on its own
+    ApmNetworkAggregator networkTraceAggregator = null;
+
+    //'null' if frame metrics are not collected
+    FrameMetricsCollector frameMetricsCollector = null;
+
+    //how many traces of instrumented connections a thread can buffer
+    static final int NETWORK_INSTRUMENTATION_THREAD_BUFFER = 256;
+    //how many different network trace keys instrumented connections can create
+    static final int NETWORK_INSTRUMENTATION_MAX_KEYS = 200;
+
+    //'null' if connections are not instrumented
+    NetworkTraceBuffer instrumentedNetworkTraces = null;
+    UrlTemplateNormalizer urlTemplateNormalizer = null;
+    final AtomicBoolean instrumentedTracesDrainScheduled = new AtomicBoolean(false);
+
     ModuleAPM(Countly cly, CountlyConfig config) {
         super(cly, config);
         L.v("[ModuleAPM] Initialising");
@@ -68,6 +92,22 @@ public class ModuleAPM extends ModuleBase {
             L.d("[ModuleAPM] tracking foreground/background is enabled");
         }
 
+        if (config.apm.networkTraceAggregationWindowSeconds > 0) {
+            L.d("[ModuleAPM] Aggregating network traces, window:[" + config.apm.networkTraceAggregationWindowSeconds + "] seconds");
+            networkTraceAggregator = new ApmNetworkAggregator(config.apm.networkTraceAggregationWindowSeconds * 1000L, NETWORK_TRACE_AGGREGATION_MAX_GROUPS);
+        }
+
+        if (config.apm.networkInstrumentation) {
+            L.d("[ModuleAPM] Network instrumentation enabled");
+            instrumentedNetworkTraces = new NetworkTraceBuffer(NETWORK_INSTRUMENTATION_THREAD_BUFFER);
+            urlTemplateNormalizer = new UrlTemplateNormalizer(config.apm.networkInstrumentationUrlTemplates, NETWORK_INSTRUMENTATION_MAX_KEYS);
+        }
+
+        if (config.apm.trackFrameMetrics) {
+            L.d("[ModuleAPM] Collecting frame metrics");
+            frameMetricsCollector = new FrameMetricsCollector(config.autoTrackingUseShortName, L);
+        }
+
         apmInterface = new Apm();
     }
 
@@ -327,14 +367,135 @@ public class ModuleAPM extends ModuleBase {
         networkTraceKey = UtilsInternalLimits.truncateKeyLength(networkTraceKey, _cly.config_.sdkInternalLimits.maxKeyLength, L, "[ModuleAPM] recordNetworkRequestInternal");
         networkTraceKey = validateAndModifyTraceKey(networkTraceKey);
 
+        if (networkTraceAggregator != null) {
+            if (!consentProvider.getConsent(Countly.CountlyFeatureNames.apm)) {
+                L.d("[ModuleAPM] recordNetworkRequestInternal, trace ignored, 'apm' consent not given");
+                return;
+            }
+
+            long currentTimestamp = UtilsTime.currentTimestampMs();
+            networkTraceAggregator.record(networkTraceKey, responseCode, requestPayloadSize, responsePayloadSize, startTimestamp, endTimestamp, currentTimestamp);
+            if (networkTraceAggregator.shouldFlush(currentTimestamp)) {
+                flushNetworkTraceAggregatesInternal();
+            }
+            return;
+        }
+
         Long responseTimeMs = endTimestamp - startTimestamp;
         requestQueueProvider.sendAPMNetworkTrace(networkTraceKey, responseTimeMs, responseCode, requestPayloadSize, responsePayloadSize, startTimestamp, endTimestamp);
     }
 
+    /**
+     * Stops collecting the frames of the given activity and records them as a trace
+     */
+    void reportFrameMetrics(@NonNull Activity activity) {
+        FrameMetricsCollector.Tracking tracking = frameMetricsCollector.stopActivity(activity);
+        if (tracking == null) {
+            return;
+        }
+
+        long frames = tracking.stats.getFrameCount();
+        L.d("[ModuleAPM] reportFrameMetrics, [" + tracking.name + "], frames:[" + frames + "], slow:[" + tracking.stats.getSlowFrameCount() + "], frozen:[" + tracking.stats.getFrozenFrameCount() + "]");
+        if (frames == 0) {
+            return;
+        }
+
+        long currentTimestamp = UtilsTime.currentTimestampMs();
+        String traceKey = UtilsInternalLimits.truncateKeyLength(tracking.name, _cly.config_.sdkInternalLimits.maxKeyLength, L, "[ModuleAPM] reportFrameMetrics");
+        traceKey = validateAndModifyTraceKey(traceKey);
+
+        requestQueueProvider.sendAPMCustomTrace(traceKey, currentTimestamp - tracking.startTimestampMs, tracking.startTimestampMs, currentTimestamp, tracking.stats.toMetricString());
+    }
+
+    /**
+     * Wraps the given connection so that it records a network trace, the connection is returned as is if instrumentation is disabled
+     */
+    @NonNull HttpURLConnection instrumentConnectionInternal(@NonNull HttpURLConnection connection) {
+        final NetworkTraceBuffer buffer = instrumentedNetworkTraces;
+        if (buffer == null || connection instanceof InstrumentedHttpURLConnection || connection instanceof InstrumentedHttpsURLConnection) {
+            return connection;
+        }
+
+        ConnectionTrace trace = new ConnectionTrace(connection.getURL(), buffer, new ConnectionTrace.DrainRequest() {
+            @Override public void onDrainNeeded() {
+                scheduleInstrumentedNetworkTracesDrain();
+            }
+        });
+
+        if (connection instanceof HttpsURLConnection) {
+            return new InstrumentedHttpsURLConnection((HttpsURLConnection) connection, trace);
+        }
+        return new InstrumentedHttpURLConnection(connection, trace);
+    }
+
+    void scheduleInstrumentedNetworkTracesDrain() {
+        if (!instrumentedTracesDrainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        _cly.runOnTimerThread(new Runnable() {
+            @Override public void run() {
+                synchronized (_cly) {
+                    drainInstrumentedNetworkTracesInternal();
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the buffered traces of instrumented connections
+     */
+    void drainInstrumentedNetworkTracesInternal() {
+        instrumentedTracesDrainScheduled.set(false);
+        final NetworkTraceBuffer buffer = instrumentedNetworkTraces;
+        if (buffer == null) {
+            return;
+        }
+
+        int drained = buffer.drain(new NetworkTraceBuffer.TraceSink() {
+            @Override public void onTrace(@NonNull URL url, int responseCode, long requestBytes, long responseBytes, long startTimestampMs, long durationNs) {
+                long endTimestampMs = startTimestampMs + durationNs / 1_000_000L;
+                recordNetworkRequestInternal(urlTemplateNormalizer.normalize(url), responseCode, (int) Math.min(requestBytes, Integer.MAX_VALUE), (int) Math.min(responseBytes, Integer.MAX_VALUE),
+                    startTimestampMs, endTimestampMs);
+            }
+        });
+
+        if (drained > 0) {
+            L.d("[ModuleAPM] drainInstrumentedNetworkTracesInternal, recorded [" + drained + "] traces, dropped so far:[" + buffer.droppedTraces.get() + "]");
+        }
+    }
+
     void clearNetworkTraces() {
         L.v("[ModuleAPM] Calling 'clearNetworkTraces'");
 
         networkTraces.clear();
+        if (networkTraceAggregator != null) {
+            networkTraceAggregator.clear();
+        }
+    }
+
+    /**
+     * Sends the aggregated network traces if the aggregation window is over
+     */
+    void flushNetworkTraceAggregatesIfNeeded() {
+        if (networkTraceAggregator != null && networkTraceAggregator.shouldFlush(UtilsTime.currentTimestampMs())) {
+            flushNetworkTraceAggregatesInternal();
+        }
+    }
+
+    void flushNetworkTraceAggregatesInternal() {
+        if (networkTraceAggregator == null) {
+            return;
+        }
+
+        int traceCount = networkTraceAggregator.getTraceCount();
+        JSONArray summaries = networkTraceAggregator.flush();
+        if (summaries == null || summaries.length() == 0) {
+            return;
+        }
+
+        L.d("[ModuleAPM] flushNetworkTraceAggregatesInternal, sending [" + summaries.length() + "] summaries of [" + traceCount + "] network traces");
+        requestQueueProvider.sendAPMNetworkTraceSummary(summaries.toString(), summaries.length());
     }
 
     void recordAppStart(long appLoadedTimestamp) {
@@ -422,6 +583,12 @@ public class ModuleAPM extends ModuleBase {
     void halt() {
         codeTraces = null;
         networkTraces = null;
+        networkTraceAggregator = null;
+        instrumentedNetworkTraces = null;
+        if (frameMetricsCollector != null) {
+            frameMetricsCollector.stopAll();
+            frameMetricsCollector = null;
+        }
     }
 
     /**
@@ -432,6 +599,10 @@ public class ModuleAPM extends ModuleBase {
     @Override
     void callbackOnActivityResumed(Activity activity) {
         L.d("[Apm] Calling 'callbackOnActivityResumed'");
+
+        if (frameMetricsCollector != null && activity != null) {
+            frameMetricsCollector.startActivity(activity, UtilsTime.currentTimestampMs());
+        }
     }
 
     @Override
@@ -462,10 +633,19 @@ public class ModuleAPM extends ModuleBase {
     void callbackOnActivityStopped(Activity activity) {
         L.d("[Apm] Calling 'callbackOnActivityStopped', [" + activitiesOpen + "] -> [" + (activitiesOpen - 1) + "]");
 
+        if (frameMetricsCollector != null && activity != null) {
+            reportFrameMetrics(activity);
+        }
+
         if (trackForegroundBackground & !manualForegroundBackgroundTriggers) {
             calculateAppRunningTimes(activitiesOpen, activitiesOpen - 1);
         }
         activitiesOpen--;
+
+        if (activitiesOpen <= 0) {
+            //the app might not come back, don't hold the aggregated traces until the window is over
+            flushNetworkTraceAggregatesInternal();
+        }
     }
 
     @Override
@@ -609,6 +789,25 @@ public class ModuleAPM extends ModuleBase {
             }
         }
 
+        /**
+         * Wrap a connection so that it records a network trace by itself.
+         * Use the returned connection instead of the given one. HTTPS connections are returned as 'HttpsURLConnection'.
+         * The connection is returned unchanged if network instrumentation is not enabled with 'ConfigApm.enableNetworkInstrumentation'.
+         *
+         * @param connection connection that was not used yet
+         * @return the instrumented connection
+         * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+         */
+        public HttpURLConnection instrumentConnection(@NonNull HttpURLConnection connection) {
+            //this is called for every request of the app, so it doesn't take the SDK lock
+            if (connection == null) {
+                L.e("[Apm] instrumentConnection, provided connection is null");
+                return null;
+            }
+
+            return instrumentConnectionInternal(connection);
+        }
+
         /**
          * Manually set that the app is loaded so that the app load duration can be recorded.
          * Should only be used if manual app loading trigger is enabled
@@ -11,11 +11,19 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 public class ModuleCrash extends ModuleBase {
     //native crash
     private static final String countlyFolderName = "Countly";
     private static final String countlyNativeCrashFolderName = "CrashDumps";
+    private static final String countlyPendingNativeCrashFolderName = "PendingCrashDumps";
+
+    // stored in place of the Base64 dump in the crash JSON, followed by the name of the dump file in the pending folder.
+    // the dump is streamed into the request body when the request is sent
+    static final String NATIVE_DUMP_PLACEHOLDER = "countly_native_dump_file:";
+    // the placeholder as it appears in the URL encoded request
+    static final String NATIVE_DUMP_PLACEHOLDER_ENCODED = "countly_native_dump_file%3A";
 
     //crash filtering
     GlobalCrashFilterCallback globalCrashFilterCallback;
@@ -84,18 +92,86 @@ public class ModuleCrash extends ModuleBase {
             if (dumpFiles != null) {
                 for (File dumpFile : dumpFiles) {
                     //record crash
-                    recordNativeException(dumpFile);
+                    recordNativeException(dumpFile, context);
 
-                    //delete dump file
+                    //delete dump file, if it was moved to the pending folder this does nothing
                     dumpFile.delete();
                 }
             }
         } else {
             L.d("[ModuleCrash] Native crash folder does not exist");
         }
+
+        removeOrphanedNativeCrashDumps(context);
     }
 
-    private void recordNativeException(@NonNull File dumpFile) {
+    /**
+     * Folder where recorded native crash dumps wait until the request referencing them is sent
+     */
+    static @NonNull File pendingNativeCrashDumpFolder(@NonNull Context context) {
+        return new File(context.getFilesDir(), countlyFolderName + File.separator + countlyPendingNativeCrashFolderName);
+    }
+
+    /**
+     * Returns the pending dump file a request refers to
+     *
+     * @return 'null' if the request does not refer to a dump file
+     */
+    static @Nullable File pendingNativeCrashDumpFile(@Nullable File pendingFolder, @NonNull String request) {
+        if (pendingFolder == null) {
+            return null;
+        }
+
+        int start = request.indexOf(NATIVE_DUMP_PLACEHOLDER_ENCODED);
+        if (start < 0) {
+            return null;
+        }
+        start += NATIVE_DUMP_PLACEHOLDER_ENCODED.length();
+
+        // file names only contain characters that are not changed by JSON or URL encoding
+        int end = start;
+        while (end < request.length() && isDumpFileNameChar(request.charAt(end))) {
+            end++;
+        }
+
+        if (end == start) {
+            return null;
+        }
+        return new File(pendingFolder, request.substring(start, end));
+    }
+
+    private static boolean isDumpFileNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_';
+    }
+
+    /**
+     * Deletes pending dumps that are not referenced by any stored request anymore, for example because the request was dropped
+     */
+    void removeOrphanedNativeCrashDumps(@NonNull Context context) {
+        File[] pendingFiles = pendingNativeCrashDumpFolder(context).listFiles();
+        if (pendingFiles == null || pendingFiles.length == 0) {
+            return;
+        }
+
+        String[] requests = storageProvider.getRequests();
+        for (File pendingFile : pendingFiles) {
+            String placeholder = NATIVE_DUMP_PLACEHOLDER_ENCODED + pendingFile.getName();
+            boolean referenced = false;
+            for (String request : requests) {
+                if (request.contains(placeholder)) {
+                    referenced = true;
+                    break;
+                }
+            }
+
+            if (!referenced) {
+                L.d("[ModuleCrash] removeOrphanedNativeCrashDumps, deleting [" + pendingFile.getName() + "]");
+                pendingFile.delete();
+            }
+        }
+    }
+
+    private void recordNativeException(@NonNull File dumpFile, @NonNull Context context) {
         assert dumpFile != null;
 
         L.d("[ModuleCrash] Recording native crash dump: [" + dumpFile.getName() + "]");
@@ -105,6 +181,19 @@ public class ModuleCrash extends ModuleBase {
             return;
         }
 
+        // keep the dump on disk, the request only refers to it and the dump is streamed when the request is sent.
+        // crash filters get the dump as the stack trace, so if one is set, the dump has to be read into memory
+        if (crashFilterCallback == null && globalCrashFilterCallback == null) {
+            File pendingFolder = pendingNativeCrashDumpFolder(context);
+            File pendingFile = new File(pendingFolder, UUID.randomUUID().toString() + ".dmp");
+            if ((pendingFolder.isDirectory() || pendingFolder.mkdirs()) && dumpFile.renameTo(pendingFile)) {
+                sendCrashReportToQueue(prepareCrashData(NATIVE_DUMP_PLACEHOLDER + pendingFile.getName(), false, true, null), true);
+                return;
+            }
+
+            L.w("[ModuleCrash] recordNativeException, could not move the dump to the pending folder, it will be stored in the request");
+        }
+
         //read bytes
         int size = (int) dumpFile.length();
         byte[] bytes = new byte[size];
@@ -206,6 +295,7 @@ public class ModuleCrash extends ModuleBase {
             public void uncaughtException(@NonNull Thread t, @NonNull Throwable e) {
                 L.d("[ModuleCrash] Uncaught crash handler triggered");
                 if (consentProvider.getConsent(Countly.CountlyFeatureNames.crashes)) {
+                    drainApiIntake();
 
                     String stackTrace = prepareStackTrace(e);
                     CrashData crashData = prepareCrashData(stackTrace, false, false, null);
@@ -214,6 +304,15 @@ public class ModuleCrash extends ModuleBase {
                     }
                 }
 
+                if (_cly.moduleEvents != null) {
+                    synchronized (_cly) {
+                        _cly.moduleEvents.flushAggregatedEventsInternal();
+                    }
+                }
+
+                //make sure that nothing queued is lost if the process is killed
+                storageProvider.flushWriteBehindCache();
+
                 //if there was another handler before
                 if (oldHandler != null) {
                     //notify it also
@@ -310,6 +409,8 @@ public class ModuleCrash extends ModuleBase {
             return _cly;
         }
 
+        drainApiIntake();
+
         String exceptionString = prepareStackTrace(exception);
 
         CrashData crashData = prepareCrashData(exceptionString, itIsHandled, false, customSegmentation);
@@ -321,6 +422,16 @@ public class ModuleCrash extends ModuleBase {
         return _cly;
     }
 
+    /**
+     * Applies the breadcrumbs and events that are still in the intake queue so that they are part of the crash
+     */
+    private void drainApiIntake() {
+        ApiIntakeQueue intakeQueue = _cly.apiIntakeQueue;
+        if (intakeQueue != null) {
+            intakeQueue.drain();
+        }
+    }
+
     Countly addBreadcrumbInternal(@Nullable String breadcrumb) {
         if (!consentProvider.getConsent(Countly.CountlyFeatureNames.crashes)) {
             return _cly;
@@ -361,7 +472,18 @@ public class ModuleCrash extends ModuleBase {
          * @param record String a bread crumb for the crash report
          * @return Returns link to Countly for call chaining
          */
-        public Countly addCrashBreadcrumb(String record) {
+        public Countly addCrashBreadcrumb(final String record) {
+            final ApiIntakeQueue intakeQueue = _cly.apiIntakeQueue;
+            if (intakeQueue != null) {
+                intakeQueue.add(new Runnable() {
+                    @Override public void run() {
+                        L.i("[Crashes] Adding crash breadcrumb");
+                        addBreadcrumbInternal(record);
+                    }
+                });
+                return _cly;
+            }
+
             synchronized (_cly) {
                 L.i("[Crashes] Adding crash breadcrumb");
 
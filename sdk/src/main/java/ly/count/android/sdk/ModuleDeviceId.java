@@ -54,22 +54,20 @@ public class ModuleDeviceId extends ModuleBase implements OpenUDIDProvider, Devi
     }
 
     void replaceTempIDWithRealIDinRQ(@NonNull String targetDeviceId) {
-        String[] storedRequests = storageProvider.getRequests();
-        String temporaryIdTag = "&device_id=" + ly.count.android.sdk.DeviceId.temporaryCountlyDeviceId;
-        String newIdTag = "&device_id=" + targetDeviceId;
-
-        boolean foundOne = false;
-        for (int a = 0; a < storedRequests.length; a++) {
-            if (storedRequests[a].contains(temporaryIdTag)) {
-                L.d("[ModuleDeviceId] [exitTemporaryIdMode] Found a tag to replace in: [" + storedRequests[a] + "]");
-                storedRequests[a] = storedRequests[a].replace(temporaryIdTag, newIdTag);
-                foundOne = true;
-            }
-        }
+        final String temporaryIdTag = "&device_id=" + ly.count.android.sdk.DeviceId.temporaryCountlyDeviceId;
+        final String newIdTag = "&device_id=" + targetDeviceId;
+
+        // single pass over the queue, it is only written back if a request was changed
+        storageProvider.transformRequests(new RequestTransformer() {
+            @Override public String transform(@NonNull String request) {
+                if (!request.contains(temporaryIdTag)) {
+                    return request;
+                }
 
-        if (foundOne) {
-            storageProvider.replaceRequests(storedRequests);
-        }
+                L.d("[ModuleDeviceId] [exitTemporaryIdMode] Found a tag to replace in: [" + request + "]");
+                return request.replace(temporaryIdTag, newIdTag);
+            }
+        });
     }
 
     void exitTemporaryIdMode(@NonNull String deviceId) {
@@ -2,11 +2,17 @@ package ly.count.android.sdk;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import ly.count.android.sdk.messaging.ModulePush;
 
 public class ModuleEvents extends ModuleBase implements EventProvider {
+    private static final int PCC_RECORD_EVENT_INTERNAL_GEN_ID = PerformanceCounterCollector.sdkTimeCounter("ModuleEvents_recordEventInternalGenID");
+    private static final int PCC_RECORD_EVENT_INTERNAL = PerformanceCounterCollector.sdkTimeCounter("ModuleEvents_recordEventInternal");
+
     static final Map<String, Event> timedEvents = new HashMap<>();
 
     final static String ACTION_EVENT_KEY = "[CLY]_action";
@@ -27,6 +33,9 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
     private final boolean viewNameRecordingEnabled;
     private final boolean visibilityTracking;
 
+    //merges repeated custom events, 'null' if event aggregation is not enabled
+    @Nullable EventAggregator eventAggregator = null;
+
     ModuleEvents(Countly cly, CountlyConfig config) {
         super(cly, config);
         L.v("[ModuleEvents] Initialising");
@@ -38,6 +47,13 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
         viewNameRecordingEnabled = config.experimental.viewNameRecordingEnabled;
         visibilityTracking = config.experimental.visibilityTrackingEnabled;
 
+        if (config.experimental.eventAggregationWindowMs > 0) {
+            L.d("[ModuleEvents] Enabling event aggregation, window:[" + config.experimental.eventAggregationWindowMs + "] ms");
+            eventAggregator = new EventAggregator(config.experimental.eventAggregationWindowMs,
+                config.experimental.eventAggregationAllowList == null ? null : new HashSet<>(Arrays.asList(config.experimental.eventAggregationAllowList)),
+                config.experimental.eventAggregationDenyList == null ? null : new HashSet<>(Arrays.asList(config.experimental.eventAggregationDenyList)));
+        }
+
         eventsInterface = new Events();
     }
 
@@ -83,6 +99,14 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
         }
 
         L.v("[ModuleEvents] calling 'recordEventInternal'");
+
+        // events that are still in the intake queue were recorded earlier and have to be applied first,
+        // otherwise they would get the view and previous event IDs of this event. When called from a queued call, this does nothing
+        ApiIntakeQueue intakeQueue = _cly.apiIntakeQueue;
+        if (intakeQueue != null) {
+            intakeQueue.drain();
+        }
+
         if (key == null || key.length() == 0) {
             L.e("[ModuleEvents] recordEventInternal, Valid Countly event key is required. Event will be ignored.");
             return;
@@ -149,7 +173,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("ModuleEvents_recordEventInternalGenID", UtilsTime.getNanoTime() - pccTsStartRecordEventInternal);
+            pcc.TrackCounterTimeNs(PCC_RECORD_EVENT_INTERNAL_GEN_ID, UtilsTime.getNanoTime() - pccTsStartRecordEventInternal);
         }
 
         //before each event is recorded, check if user profile data needs to be saved
@@ -237,8 +261,12 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
                         segmentation.put(PREVIOUS_EVENT_NAME_KEY, pen);
                     }
 
-                    eventQueueProvider.recordEventToEventQueue(keyTruncated, segmentation, count, sum, dur, timestamp, hour, dow, eventId, pvid, cvid, previousEventId);
-                    previousEventId = eventId;
+                    if (eventAggregator != null && eventIdOverride == null && eventAggregator.shouldAggregate(keyTruncated)) {
+                        recordAggregatedEvent(keyTruncated, segmentation, count, sum, dur, instant, eventId, pvid, cvid);
+                    } else {
+                        eventQueueProvider.recordEventToEventQueue(keyTruncated, segmentation, count, sum, dur, timestamp, hour, dow, eventId, pvid, cvid, previousEventId);
+                        previousEventId = eventId;
+                    }
                     previousEventName = keyTruncated;
                     _cly.moduleRequestQueue.sendEventsIfNeeded(false);
                 }
@@ -246,7 +274,63 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
         }
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("ModuleEvents_recordEventInternal", UtilsTime.getNanoTime() - pccTsStartRecordEventInternal);
+            pcc.TrackCounterTimeNs(PCC_RECORD_EVENT_INTERNAL, UtilsTime.getNanoTime() - pccTsStartRecordEventInternal);
+        }
+    }
+
+    /**
+     * Adds the event to a matching pending aggregated event or starts a new one.
+     * Pending events whose window has ended are moved to the event queue.
+     */
+    private void recordAggregatedEvent(@NonNull String key, @NonNull Map<String, Object> segmentation, int count, double sum, double dur, @NonNull UtilsTime.Instant instant, @NonNull String eventId,
+        @Nullable String pvid, @Nullable String cvid) {
+        assert eventAggregator != null;
+
+        long nowNs = UtilsTime.getNanoTime();
+        moveAggregatedEventsToQueue(eventAggregator.takeExpired(nowNs));
+
+        if (eventAggregator.merge(key, segmentation, cvid, count, sum, dur)) {
+            L.v("[ModuleEvents] recordAggregatedEvent, merged into a pending event, key:[" + key + "]");
+            return;
+        }
+
+        Event event = new Event(key, instant.timestampMs, instant.hour, instant.dow);
+        //copied so that later changes to the callers map don't change the aggregation key
+        event.segmentation = new HashMap<>(segmentation);
+        event.count = count;
+        event.sum = sum;
+        event.dur = dur;
+        event.id = eventId;
+        event.pvid = pvid;
+        event.cvid = cvid;
+        event.peid = previousEventId;
+        eventAggregator.start(event, nowNs);
+
+        previousEventId = eventId;
+    }
+
+    /**
+     * Moves all pending aggregated events to the event queue
+     */
+    void flushAggregatedEventsInternal() {
+        if (eventAggregator != null && eventAggregator.size() > 0) {
+            L.d("[ModuleEvents] flushAggregatedEventsInternal, moving [" + eventAggregator.size() + "] aggregated events to the event queue");
+            moveAggregatedEventsToQueue(eventAggregator.takeAll());
+        }
+    }
+
+    /**
+     * Moves the pending aggregated events whose window has ended to the event queue
+     */
+    void flushExpiredAggregatedEventsInternal() {
+        if (eventAggregator != null && eventAggregator.size() > 0) {
+            moveAggregatedEventsToQueue(eventAggregator.takeExpired(UtilsTime.getNanoTime()));
+        }
+    }
+
+    private void moveAggregatedEventsToQueue(@NonNull List<Event> events) {
+        for (Event event : events) {
+            eventQueueProvider.recordEventToEventQueue(event.key, event.segmentation, event.count, event.sum, event.dur, event.timestamp, event.hour, event.dow, event.id, event.pvid, event.cvid, event.peid);
         }
     }
 
@@ -312,9 +396,20 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
         checkCachedPushData(_cly.countlyStore);
     }
 
+    @Override
+    void consentWillChange(@NonNull List<String> consentThatWillChange, final boolean isConsentGiven) {
+        if (consentThatWillChange.contains(Countly.CountlyFeatureNames.events) && !isConsentGiven) {
+            //these events were recorded while there was consent
+            flushAggregatedEventsInternal();
+        }
+    }
+
     @Override
     void halt() {
         timedEvents.clear();
+        if (eventAggregator != null) {
+            eventAggregator.takeAll();
+        }
     }
 
     public class Events {
@@ -421,9 +516,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param key name of the custom event, required, must not be the empty string
          */
         public void recordEvent(@NonNull final String key) {
-            synchronized (_cly) {
-                recordEvent(key, null, 1, 0);
-            }
+            recordEvent(key, null, 1, 0);
         }
 
         /**
@@ -433,9 +526,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param count count to associate with the event, should be more than zero
          */
         public void recordEvent(@NonNull final String key, final int count) {
-            synchronized (_cly) {
-                recordEvent(key, null, count, 0);
-            }
+            recordEvent(key, null, count, 0);
         }
 
         /**
@@ -446,9 +537,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param sum sum to associate with the event
          */
         public void recordEvent(@NonNull final String key, final int count, final double sum) {
-            synchronized (_cly) {
-                recordEvent(key, null, count, sum);
-            }
+            recordEvent(key, null, count, sum);
         }
 
         /**
@@ -458,9 +547,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param segmentation segmentation dictionary to associate with the event, can be null. Allowed values are String, int, double, boolean
          */
         public void recordEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation) {
-            synchronized (_cly) {
-                recordEvent(key, segmentation, 1, 0);
-            }
+            recordEvent(key, segmentation, 1, 0);
         }
 
         /**
@@ -471,9 +558,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param count count to associate with the event, should be more than zero
          */
         public void recordEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count) {
-            synchronized (_cly) {
-                recordEvent(key, segmentation, count, 0);
-            }
+            recordEvent(key, segmentation, count, 0);
         }
 
         /**
@@ -485,9 +570,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param sum sum to associate with the event
          */
         public void recordEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count, final double sum) {
-            synchronized (_cly) {
-                recordEvent(key, segmentation, count, sum, 0);
-            }
+            recordEvent(key, segmentation, count, sum, 0);
         }
 
         /**
@@ -500,15 +583,32 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param dur duration of an event
          */
         public void recordEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count, final double sum, final double dur) {
+            final ApiIntakeQueue intakeQueue = _cly.apiIntakeQueue;
+            if (intakeQueue != null) {
+                //the time and segmentation are taken now, the event is recorded later by the intake thread
+                final UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+                final Map<String, Object> segmentationCopy = segmentation == null ? null : new HashMap<>(segmentation);
+                intakeQueue.add(new Runnable() {
+                    @Override public void run() {
+                        recordEventLocked(key, segmentationCopy, count, sum, dur, instant);
+                    }
+                });
+                return;
+            }
+
             synchronized (_cly) {
-                L.i("[Events] Calling recordEvent: [" + key + "]");
+                recordEventLocked(key, segmentation, count, sum, dur, null);
+            }
+        }
 
-                if (segmentation != null) {
-                    UtilsInternalLimits.truncateSegmentationValues(segmentation, _cly.config_.sdkInternalLimits.maxSegmentationValues, "[Events] recordEvent,", L);
-                }
+        private void recordEventLocked(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count, final double sum, final double dur, @Nullable UtilsTime.Instant instant) {
+            L.i("[Events] Calling recordEvent: [" + key + "]");
 
-                eventProvider.recordEventInternal(key, segmentation, count, sum, dur, null, null);
+            if (segmentation != null) {
+                UtilsInternalLimits.truncateSegmentationValues(segmentation, _cly.config_.sdkInternalLimits.maxSegmentationValues, "[Events] recordEvent,", L);
             }
+
+            eventProvider.recordEventInternal(key, segmentation, count, sum, dur, instant, null);
         }
     }
 }
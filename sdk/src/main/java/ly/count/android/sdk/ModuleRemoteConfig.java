@@ -30,6 +30,13 @@ public class ModuleRemoteConfig extends ModuleBase {
 
     boolean remoteConfigValuesShouldBeCached = false;
 
+    // if full downloads should be conditional, see 'RemoteConfigDelta'
+    boolean deltaDownloadsEnabled = false;
+
+    // parsed values of the stored remote config, replaced as a whole whenever the stored values change. 'null' until first needed
+    // typed getters use it without checking storage, other getters check that it is still based on the stored values
+    private volatile RemoteConfigSnapshot rcSnapshot = null;
+
     List<RCDownloadCallback> downloadCallbacks = new ArrayList<>(2);
 
     public final static String variantObjectNameKey = "name";
@@ -47,6 +54,7 @@ public class ModuleRemoteConfig extends ModuleBase {
         L.d("[ModuleRemoteConfig] Setting if remote config Automatic triggers enabled, " + config.enableRemoteConfigAutomaticDownloadTriggers + ", caching enabled: " + config.enableRemoteConfigValueCaching + ", auto enroll enabled: " + config.enableAutoEnrollFlag);
         automaticDownloadTriggersEnabled = config.enableRemoteConfigAutomaticDownloadTriggers;
         remoteConfigValuesShouldBeCached = config.enableRemoteConfigValueCaching;
+        deltaDownloadsEnabled = config.remoteConfigDeltaDownloadsEnabled;
         autoEnrollEnabled = config.enableAutoEnrollFlag;
 
         downloadCallbacks.addAll(config.remoteConfigGlobalCallbackList);
@@ -101,7 +109,16 @@ public class ModuleRemoteConfig extends ModuleBase {
             ConnectionProcessor cp = requestQueueProvider.createConnectionProcessor();
             final boolean networkingIsEnabled = cp.configProvider_.getNetworkingEnabled();
 
-            iRGenerator.CreateImmediateRequestMaker().doWork(requestData, "/o/sdk", cp, false, networkingIsEnabled, checkResponse -> {
+            ImmediateRequestI requestMaker = iRGenerator.CreateImmediateRequestMaker();
+            final ImmediateRequestMaker conditionalRequest;
+            if (deltaDownloadsEnabled && fullUpdate && !useLegacyAPI && requestMaker instanceof ImmediateRequestMaker) {
+                conditionalRequest = (ImmediateRequestMaker) requestMaker;
+                conditionalRequest.requestHeaders = RemoteConfigDelta.requestHeaders(storageProvider.getRemoteConfigETag());
+            } else {
+                conditionalRequest = null;
+            }
+
+            requestMaker.doWork(requestData, "/o/sdk", cp, false, networkingIsEnabled, checkResponse -> {
                 L.d("[ModuleRemoteConfig] Processing remote config received response, received response is null:[" + (checkResponse == null) + "]");
                 if (checkResponse == null) {
                     NotifyDownloadCallbacks(devProvidedCallback, RequestResult.Error, "Encountered problem while trying to reach the server, possibly no internet connection", fullUpdate, null);
@@ -109,12 +126,31 @@ public class ModuleRemoteConfig extends ModuleBase {
                 }
 
                 String error = null;
-                Map<String, RCData> newRC = RemoteConfigHelper.DownloadedValuesIntoMap(checkResponse);
+                Map<String, RCData> newRC = null;
 
                 try {
                     boolean clearOldValues = keysExcept == null && keysOnly == null;
-                    mergeCheckResponseIntoCurrentValues(clearOldValues, newRC);
+
+                    if (conditionalRequest != null) {
+                        RemoteConfigDelta delta = RemoteConfigDelta.fromResponse(conditionalRequest.responseCode, conditionalRequest.getResponseHeader(RemoteConfigDelta.HEADER_DELTA),
+                            conditionalRequest.getResponseHeader(RemoteConfigDelta.HEADER_ETAG), checkResponse);
+                        L.d("[ModuleRemoteConfig] Conditional download, not modified:[" + delta.notModified + "], delta:[" + delta.isDelta + "], changed keys:[" + delta.values.size()
+                            + "], removed keys:[" + delta.removedKeys.size() + "], response length:[" + conditionalRequest.responseLength + "]");
+                        if (!delta.notModified) {
+                            mergeCheckResponseIntoCurrentValues(clearOldValues && !delta.isDelta, delta.values, delta.removedKeys);
+                            storageProvider.setRemoteConfigETag(delta.eTag);
+                        }
+
+                        //this is a full update, callbacks get all values and not only the ones that were sent
+                        newRC = currentSnapshot().getAllValues();
+                    } else {
+                        newRC = RemoteConfigHelper.DownloadedValuesIntoMap(checkResponse);
+                        mergeCheckResponseIntoCurrentValues(clearOldValues, newRC);
+                    }
                 } catch (Exception ex) {
+                    if (conditionalRequest != null) {
+                        storageProvider.setRemoteConfigETag(null);
+                    }
                     L.e("[ModuleRemoteConfig] updateRemoteConfigValues - execute, Encountered internal issue while trying to download remote config information from the server, [" + ex.toString() + "]");
                     error = "Encountered internal issue while trying to download remote config information from the server, [" + ex.toString() + "]";
                 }
@@ -264,11 +300,21 @@ public class ModuleRemoteConfig extends ModuleBase {
      * @throws Exception it throws an exception so that it is escalated upwards
      */
     void mergeCheckResponseIntoCurrentValues(boolean clearOldValues, @NonNull Map<String, RCData> newRC) {
+        mergeCheckResponseIntoCurrentValues(clearOldValues, newRC, null);
+    }
+
+    /**
+     * @param removedKeys keys that should be removed from the current values, can be null
+     */
+    void mergeCheckResponseIntoCurrentValues(boolean clearOldValues, @NonNull Map<String, RCData> newRC, @Nullable List<String> removedKeys) {
         //todo iterate over all response values and print a summary of the returned keys + ideally a summary of their payload.
 
         //merge the new values into the current ones
         RemoteConfigValueStore rcvs = loadConfig();
         rcvs.mergeValues(newRC, clearOldValues);
+        if (removedKeys != null) {
+            rcvs.removeValues(removedKeys);
+        }
 
         L.d("[ModuleRemoteConfig] Finished remote config processing, starting saving");
 
@@ -300,8 +346,7 @@ public class ModuleRemoteConfig extends ModuleBase {
 
     RCData getRCValue(@NonNull String key) {
         try {
-            RemoteConfigValueStore rcvs = loadConfig();
-            return rcvs.getValue(key);
+            return currentSnapshot().getValue(key);
         } catch (Exception ex) {
             L.e("[ModuleRemoteConfig] getValue, Call failed:[" + ex.toString() + "]");
             return new RCData(null, true);
@@ -310,8 +355,7 @@ public class ModuleRemoteConfig extends ModuleBase {
 
     Object getRCValueLegacy(@NonNull String key) {
         try {
-            RemoteConfigValueStore rcvs = loadConfig();
-            return rcvs.getValueLegacy(key);
+            return currentSnapshot().getValueLegacy(key);
         } catch (Exception ex) {
             L.e("[ModuleRemoteConfig] getValueLegacy, Call failed:[" + ex.toString() + "]");
             return null;
@@ -319,7 +363,35 @@ public class ModuleRemoteConfig extends ModuleBase {
     }
 
     void saveConfig(@NonNull RemoteConfigValueStore rcvs) {
-        storageProvider.setRemoteConfigValues(rcvs.dataToString());
+        String rcvsString = rcvs.dataToString();
+        if (rcvsString.equals(storageProvider.getRemoteConfigValues())) {
+            //nothing changed, storage doesn't need to be written
+            L.v("[ModuleRemoteConfig] saveConfig, stored values did not change");
+        } else {
+            storageProvider.setRemoteConfigValues(rcvsString);
+        }
+        rcSnapshot = RemoteConfigSnapshot.fromStore(rcvs, rcvsString);
+    }
+
+    /**
+     * Returns the parsed stored values, they are parsed again only if the stored values changed
+     */
+    @NonNull RemoteConfigSnapshot currentSnapshot() {
+        String rcvsString = storageProvider.getRemoteConfigValues();
+        RemoteConfigSnapshot snapshot = rcSnapshot;
+        if (snapshot == null || !snapshot.isParsedFrom(rcvsString)) {
+            snapshot = RemoteConfigSnapshot.fromStore(RemoteConfigValueStore.dataFromString(rcvsString, remoteConfigValuesShouldBeCached), rcvsString);
+            rcSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the last parsed values without reading storage, for the typed getters
+     */
+    @NonNull RemoteConfigSnapshot lastSnapshot() {
+        RemoteConfigSnapshot snapshot = rcSnapshot;
+        return snapshot != null ? snapshot : currentSnapshot();
     }
 
     /**
@@ -335,12 +407,13 @@ public class ModuleRemoteConfig extends ModuleBase {
 
     void clearValueStoreInternal() {
         storageProvider.setRemoteConfigValues("");
+        storageProvider.setRemoteConfigETag(null);
+        rcSnapshot = RemoteConfigSnapshot.EMPTY;
     }
 
     @NonNull Map<String, Object> getAllRemoteConfigValuesInternalLegacy() {
         try {
-            RemoteConfigValueStore rcvs = loadConfig();
-            return rcvs.getAllValuesLegacy();
+            return currentSnapshot().getAllValuesLegacy();
         } catch (Exception ex) {
             Countly.sharedInstance().L.e("[ModuleRemoteConfig] getAllRemoteConfigValuesInternal, Call failed:[" + ex.toString() + "]");
             return new HashMap<>();
@@ -349,8 +422,7 @@ public class ModuleRemoteConfig extends ModuleBase {
 
     @NonNull Map<String, RCData> getAllRemoteConfigValuesInternal() {
         try {
-            RemoteConfigValueStore rcvs = loadConfig();
-            return rcvs.getAllValues();
+            return currentSnapshot().getAllValues();
         } catch (Exception ex) {
             Countly.sharedInstance().L.e("[ModuleRemoteConfig] getAllRemoteConfigValuesInternal, Call failed:[" + ex.toString() + "]");
             return new HashMap<>();
@@ -396,6 +468,8 @@ public class ModuleRemoteConfig extends ModuleBase {
         RemoteConfigValueStore rc = loadConfig();
         rc.cacheClearValues();
         saveConfig(rc);
+        // the values are not the ones of the current user anymore, the next download has to be a full one
+        storageProvider.setRemoteConfigETag(null);
     }
 
     void NotifyDownloadCallbacks(RCDownloadCallback devProvidedCallback, RequestResult requestResult, String message, boolean fullUpdate, Map<String, RCData> downloadedValues) {
@@ -766,6 +840,54 @@ public class ModuleRemoteConfig extends ModuleBase {
             }
         }
 
+        /**
+         * Returns the remote config value for a specific key as a boolean.
+         * Boolean values and the strings "true" and "false" can be returned.
+         * This call does not wait for the SDK lock and does not parse the stored values, it can be used on performance critical paths.
+         *
+         * @param key Key for which the remote config value needs to be returned
+         * @param defaultValue returned if there is no value for the key or it is not a boolean
+         * @return the value or the default value
+         */
+        public boolean getBoolean(@Nullable String key, boolean defaultValue) {
+            if (key == null) {
+                return defaultValue;
+            }
+            return lastSnapshot().getBoolean(key, defaultValue);
+        }
+
+        /**
+         * Returns the remote config value for a specific key as a long.
+         * Numbers are truncated, strings that contain a number are parsed.
+         * This call does not wait for the SDK lock and does not parse the stored values, it can be used on performance critical paths.
+         *
+         * @param key Key for which the remote config value needs to be returned
+         * @param defaultValue returned if there is no value for the key or it is not a number
+         * @return the value or the default value
+         */
+        public long getLong(@Nullable String key, long defaultValue) {
+            if (key == null) {
+                return defaultValue;
+            }
+            return lastSnapshot().getLong(key, defaultValue);
+        }
+
+        /**
+         * Returns the remote config value for a specific key as a string.
+         * Values that are not strings are returned in their JSON form.
+         * This call does not wait for the SDK lock and does not parse the stored values, it can be used on performance critical paths.
+         *
+         * @param key Key for which the remote config value needs to be returned
+         * @param defaultValue returned if there is no value for the key
+         * @return the value or the default value
+         */
+        public @Nullable String getString(@Nullable String key, @Nullable String defaultValue) {
+            if (key == null) {
+                return defaultValue;
+            }
+            return lastSnapshot().getString(key, defaultValue);
+        }
+
         /**
          * Enrolls user to AB tests of the given keys.
          *
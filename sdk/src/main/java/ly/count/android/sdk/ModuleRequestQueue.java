@@ -9,6 +9,8 @@ import java.util.List;
 import java.util.Map;
 
 public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
+    private static final int PCC_ADD_DIRECT_REQUEST_INTERNAL = PerformanceCounterCollector.sdkTimeCounter("ModuleRequestQueue_addDirectRequestInternal");
+
     RequestQueue requestQueueInterface;
 
     @NonNull String appKey;
@@ -66,6 +68,42 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
         return serverURL;
     }
 
+    /**
+     * Replaces the 'app_key' param of the request
+     *
+     * @param replacementPart the whole param, already encoded
+     * @return the changed request or the given instance if nothing had to be changed
+     */
+    @NonNull String replaceAppKey(@NonNull String request, @NonNull String replacementPart) {
+        String[] parts = request.split("&");
+        boolean replaced = false;
+
+        for (int b = 0; b < parts.length; b++) {
+            if (parts[b].contains("app_key=")) {
+                if (!parts[b].equals(replacementPart)) {
+                    parts[b] = replacementPart;
+                    replaced = true;
+                }
+                break;
+            }
+        }
+
+        if (!replaced) {
+            return request;
+        }
+
+        //recombine
+        StringBuilder stringBuilder = new StringBuilder(request.length() + replacementPart.length());
+
+        for (int c = 0; c < parts.length; c++) {
+            if (c != 0) {
+                stringBuilder.append("&");
+            }
+            stringBuilder.append(parts[c]);
+        }
+        return stringBuilder.toString();
+    }
+
     synchronized List<String> requestQueueReplaceWithAppKey(String[] storedRequests, String targetAppKey) {
         try {
             List<String> filteredRequests = new ArrayList<>();
@@ -89,27 +127,7 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
                     continue;
                 }
 
-                boolean found = false;
-                String[] parts = storedRequest.split("&");
-
-                for (int b = 0; b < parts.length; b++) {
-                    if (parts[b].contains("app_key=")) {
-                        parts[b] = replacementPart;
-                        found = true;
-                        break;
-                    }
-                }
-
-                //recombine and add
-                StringBuilder stringBuilder = new StringBuilder(storedRequest.length());//todo make the lenght larger to take into account the app key size increase
-
-                for (int c = 0; c < parts.length; c++) {
-                    if (c != 0) {
-                        stringBuilder.append("&");
-                    }
-                    stringBuilder.append(parts[c]);
-                }
-                filteredRequests.add(stringBuilder.toString());
+                filteredRequests.add(replaceAppKey(storedRequest, replacementPart));
             }
 
             return filteredRequests;
@@ -151,6 +169,27 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
      * They will be sent either if the exceed the Threshold size or if their sending is forced
      */
     protected void sendEventsIfNeeded(boolean forceSendingEvents) {
+        sendEventsIfNeeded(forceSendingEvents, true);
+    }
+
+    /**
+     * @param flushAllAggregatedEvents if false, aggregated events are only sent once their window has ended.
+     * Used by the timer tick, so that aggregation windows longer than the timer interval are kept
+     */
+    void sendEventsIfNeeded(boolean forceSendingEvents, boolean flushAllAggregatedEvents) {
+        if (forceSendingEvents && _cly.apiIntakeQueue != null) {
+            //events that are still in the intake queue should be part of this request
+            _cly.apiIntakeQueue.drain();
+        }
+
+        if (forceSendingEvents && _cly.moduleEvents != null) {
+            if (flushAllAggregatedEvents) {
+                _cly.moduleEvents.flushAggregatedEventsInternal();
+            } else {
+                _cly.moduleEvents.flushExpiredAggregatedEventsInternal();
+            }
+        }
+
         int eventsInEventQueue = storageProvider.getEventQueueSize();
         L.v("[ModuleRequestQueue] forceSendingEvents, forced:[" + forceSendingEvents + "], event count:[" + eventsInEventQueue + "]");
 
@@ -214,11 +253,29 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
     synchronized public void requestQueueOverwriteAppKeysInternal() {
         L.i("[ModuleRequestQueue] Calling requestQueueOverwriteAppKeys");
 
-        List<String> filteredRequests = requestQueueReplaceWithAppKey(storageProvider.getRequests(), baseInfoProvider.getAppKey());
-        if (filteredRequests != null) {
-            storageProvider.replaceRequestList(filteredRequests);
+        String targetAppKey = baseInfoProvider.getAppKey();
+        if (targetAppKey == null || targetAppKey.isEmpty()) {
+            // there is nothing to replace it with, this clears the queue the same way as before
+            L.w("[ModuleRequestQueue] requestQueueOverwriteAppKeysInternal, target app key is 'null' or empty string, requests will be removed");
+            storageProvider.replaceRequestList(new ArrayList<String>());
             attemptToSendStoredRequestsInternal();
+            return;
         }
+
+        final String replacementPart = "app_key=" + UtilsNetworking.urlEncodeString(targetAppKey);
+        try {
+            // single pass over the queue, only written back if some request had a different app key
+            storageProvider.transformRequests(new RequestTransformer() {
+                @Override public String transform(@NonNull String request) {
+                    return replaceAppKey(request, replacementPart);
+                }
+            });
+        } catch (Exception ex) {
+            //in case of failure, abort
+            L.e("[ModuleRequestQueue] Failed while overwriting appKeys, " + ex.toString());
+            return;
+        }
+        attemptToSendStoredRequestsInternal();
     }
 
     /**
@@ -292,7 +349,7 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
         requestQueueProvider.sendDirectRequest(filteredRequestMap);
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("ModuleRequestQueue_addDirectRequestInternal", UtilsTime.getNanoTime() - pccTsStartAddDirectRequest);
+            pcc.TrackCounterTimeNs(PCC_ADD_DIRECT_REQUEST_INTERNAL, UtilsTime.getNanoTime() - pccTsStartAddDirectRequest);
         }
     }
 
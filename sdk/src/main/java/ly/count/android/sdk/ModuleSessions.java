@@ -64,21 +64,38 @@ public class ModuleSessions extends ModuleBase {
     }
 
     void updateSessionInternal() {
-        L.d("[ModuleSessions] 'updateSessionInternal'");
+        updateSessionInternal(false);
+    }
+
+    /**
+     * @param includeEvents if the queued events should be sent with the session update request
+     * @return true if the queued events were taken into the session update request
+     */
+    boolean updateSessionInternal(boolean includeEvents) {
+        L.d("[ModuleSessions] 'updateSessionInternal', includeEvents:[" + includeEvents + "]");
 
         if (!consentProvider.getConsent(Countly.CountlyFeatureNames.sessions)) {
-            return;
+            return false;
         }
 
         if (!sessionIsRunning()) {
             L.w("[ModuleSessions] No session is running, this 'updateSessionInternal' will be ignored");
             healthTracker.logSessionUpdatedWhileNotRunning();
-            return;
+            return false;
+        }
+
+        if (_cly.disableUpdateSessionRequests_) {
+            return false;
         }
 
-        if (!_cly.disableUpdateSessionRequests_) {
-            requestQueueProvider.updateSession(roundedSecondsSinceLastSessionDurationUpdate());
+        int duration = roundedSecondsSinceLastSessionDurationUpdate();
+        if (includeEvents && duration > 0 && storageProvider.getEventQueueSize() > 0) {
+            requestQueueProvider.updateSession(duration, storageProvider.getEventsForRequestAndEmptyEventQueue());
+            return true;
         }
+
+        requestQueueProvider.updateSession(duration);
+        return false;
     }
 
     void endSessionInternal(boolean checkConsent) {
@@ -0,0 +1,67 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for the network requests of the SDK.
+ *
+ * The request queue is processed on its own single thread, immediate requests (remote config, feedback, content, health check)
+ * run on a separate bounded priority lane, so they don't wait for a long queue drain to finish.
+ * Both lanes open their connections through the same SSL socket factory, so sockets that were fully read
+ * are kept alive in the shared HTTP connection pool and TLS sessions are resumed between the lanes.
+ */
+class NetworkExecutor {
+    // idle priority lane threads are stopped after this
+    static final long PRIORITY_LANE_KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor queueLane;
+    private final ThreadPoolExecutor priorityLane;
+
+    /**
+     * @param priorityLaneThreads how many immediate requests can run at the same time
+     */
+    NetworkExecutor(int priorityLaneThreads) {
+        queueLane = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory("Countly-request-queue", Thread.NORM_PRIORITY - 1));
+
+        int threads = Math.max(1, priorityLaneThreads);
+        priorityLane = new ThreadPoolExecutor(threads, threads, PRIORITY_LANE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory("Countly-immediate", Thread.NORM_PRIORITY));
+        priorityLane.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory threadFactory(@NonNull final String name, final int priority) {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return new ThreadFactory() {
+            @Override public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(priority);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Executor that processes the request queue
+     */
+    @NonNull ExecutorService queueLane() {
+        return queueLane;
+    }
+
+    /**
+     * Executor for immediate requests
+     */
+    @NonNull ExecutorService priorityLane() {
+        return priorityLane;
+    }
+
+    void shutdown() {
+        queueLane.shutdown();
+        priorityLane.shutdown();
+    }
+}
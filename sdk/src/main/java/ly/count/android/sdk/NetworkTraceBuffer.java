@@ -0,0 +1,151 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffer for finished network traces of instrumented connections.
+ *
+ * Every recording thread gets its own ring with one writer (that thread) and one reader (the draining thread).
+ * Recording only writes into preallocated arrays and publishes the new position, it doesn't lock or allocate.
+ * When a ring is full, new traces are dropped until it is drained.
+ * Rings only keep a weak reference to their thread, the ring of a finished thread is removed once it was drained.
+ */
+class NetworkTraceBuffer {
+    interface TraceSink {
+        void onTrace(@NonNull URL url, int responseCode, long requestBytes, long responseBytes, long startTimestampMs, long durationNs);
+    }
+
+    static class ThreadRing {
+        // a power of two, so positions can wrap around
+        final int capacity;
+        final int mask;
+        final URL[] urls;
+        final int[] responseCodes;
+        final long[] requestBytes;
+        final long[] responseBytes;
+        final long[] startTimestampsMs;
+        final long[] durationsNs;
+
+        @NonNull final WeakReference<Thread> owner;
+
+        // only written by the recording thread
+        final AtomicInteger head = new AtomicInteger(0);
+        // only written by the draining thread
+        final AtomicInteger tail = new AtomicInteger(0);
+
+        ThreadRing(int capacity, @NonNull Thread owner) {
+            this.capacity = capacity;
+            this.owner = new WeakReference<>(owner);
+            mask = capacity - 1;
+            urls = new URL[capacity];
+            responseCodes = new int[capacity];
+            requestBytes = new long[capacity];
+            responseBytes = new long[capacity];
+            startTimestampsMs = new long[capacity];
+            durationsNs = new long[capacity];
+        }
+
+        int size() {
+            return head.get() - tail.get();
+        }
+
+        /**
+         * @return true if the recording thread finished, nothing is recorded into this ring anymore
+         */
+        boolean isOwnerFinished() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+
+    final int threadCapacity;
+    final AtomicLong droppedTraces = new AtomicLong(0);
+
+    private final ConcurrentLinkedQueue<ThreadRing> rings = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ThreadRing> localRing = new ThreadLocal<ThreadRing>() {
+        @Override protected ThreadRing initialValue() {
+            ThreadRing ring = new ThreadRing(threadCapacity, Thread.currentThread());
+            rings.add(ring);
+            return ring;
+        }
+    };
+
+    /**
+     * @param threadCapacity how many traces a thread can buffer, rounded down to a power of two
+     */
+    NetworkTraceBuffer(int threadCapacity) {
+        this.threadCapacity = Integer.highestOneBit(Math.max(2, threadCapacity));
+    }
+
+    /**
+     * @return true if the ring of this thread is at least half full and should be drained
+     */
+    boolean record(@NonNull URL url, int responseCode, long requestBytes, long responseBytes, long startTimestampMs, long durationNs) {
+        ThreadRing ring = localRing.get();
+        int head = ring.head.get();
+        if (head - ring.tail.get() >= ring.capacity) {
+            droppedTraces.incrementAndGet();
+            return true;
+        }
+
+        int index = head & ring.mask;
+        ring.urls[index] = url;
+        ring.responseCodes[index] = responseCode;
+        ring.requestBytes[index] = requestBytes;
+        ring.responseBytes[index] = responseBytes;
+        ring.startTimestampsMs[index] = startTimestampMs;
+        ring.durationsNs[index] = durationNs;
+        ring.head.lazySet(head + 1);
+
+        return head + 1 - ring.tail.get() >= ring.capacity / 2;
+    }
+
+    /**
+     * Passes all buffered traces to the given sink, only one thread should drain at a time
+     *
+     * @return how many traces were drained
+     */
+    int drain(@NonNull TraceSink sink) {
+        int drained = 0;
+        Iterator<ThreadRing> iterator = rings.iterator();
+        while (iterator.hasNext()) {
+            ThreadRing ring = iterator.next();
+            // checked before reading the head, so that the last traces of a finished thread are drained before the ring is removed
+            boolean ownerFinished = ring.isOwnerFinished();
+            int tail = ring.tail.get();
+            int head = ring.head.get();
+            while (tail != head) {
+                int index = tail & ring.mask;
+                URL url = ring.urls[index];
+                ring.urls[index] = null;
+                sink.onTrace(url, ring.responseCodes[index], ring.requestBytes[index], ring.responseBytes[index], ring.startTimestampsMs[index], ring.durationsNs[index]);
+                tail++;
+                drained++;
+            }
+            ring.tail.lazySet(tail);
+
+            if (ownerFinished) {
+                iterator.remove();
+            }
+        }
+        return drained;
+    }
+
+    int ringCount() {
+        return rings.size();
+    }
+
+    int size() {
+        int size = 0;
+        for (ThreadRing ring : rings) {
+            size += ring.size();
+        }
+        return size;
+    }
+}
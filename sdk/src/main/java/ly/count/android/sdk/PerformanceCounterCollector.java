@@ -3,52 +3,318 @@ package ly.count.android.sdk;
 import android.annotation.SuppressLint;
 import android.os.Build;
 import android.util.Log;
+import androidx.annotation.NonNull;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
+/**
+ * Collects performance counters from the SDK internals.
+ *
+ * Every counter gets an int handle when it is first used or registered. The handle indexes into
+ * preallocated primitive arrays, so tracking a value does not allocate or box anything.
+ * Count, sum, min and max are kept in per thread stripes to lower contention between the calling threads,
+ * and every counter also has a histogram with power of two buckets.
+ *
+ * Time counters are stored in nanoseconds and reported in seconds.
+ * Value counters are stored with 6 decimal places.
+ *
+ * Counters of the SDK internals are registered once per class with {@link #sdkTimeCounter(String)} or {@link #sdkValueCounter(String)}
+ * and kept in static fields. Their handles are the same for every collector and are placed after the {@link #MAX_COUNTERS}
+ * handles that can be registered at runtime.
+ */
 public class PerformanceCounterCollector {
-    HashMap<String, Double> perfCounter = new HashMap<String, Double>();
+    static final int MAX_COUNTERS = 128;
+    static final int MAX_SDK_COUNTERS = 96;
+    private static final int ALL_COUNTERS = MAX_COUNTERS + MAX_SDK_COUNTERS;
+    static final int STRIPES = 4;//must be a power of two
+    static final int HISTOGRAM_BUCKETS = 48;
+
+    // every stripe takes a full cache line so that threads don't write into the same one
+    private static final int STRIPE_SLOTS = 8;
+    private static final int SLOT_COUNT = 0;
+    private static final int SLOT_SUM = 1;
+    private static final int SLOT_MIN = 2;
+    private static final int SLOT_MAX = 3;
+
+    // how many stored units make up one reported unit
+    private static final double TIME_DIVISOR = 1_000_000_000.0;//ns -> s
+    private static final double VALUE_DIVISOR = 1_000_000.0;
+
+    private static final ConcurrentHashMap<String, Integer> sdkHandles = new ConcurrentHashMap<>();
+    private static final String[] sdkNames = new String[MAX_SDK_COUNTERS];
+    private static final double[] sdkDivisors = new double[MAX_SDK_COUNTERS];
+    private static int registeredSdkCounters = 0;
+
+    private final ConcurrentHashMap<String, Integer> handles = new ConcurrentHashMap<>();
+    private final String[] names = new String[MAX_COUNTERS];
+    private final double[] divisors = new double[MAX_COUNTERS];
+    private int registeredCounters = 0;
+
+    private final AtomicLongArray stripes = new AtomicLongArray(ALL_COUNTERS * STRIPES * STRIPE_SLOTS);
+    private final AtomicLongArray histograms = new AtomicLongArray(ALL_COUNTERS * HISTOGRAM_BUCKETS);
+
+    public PerformanceCounterCollector() {
+        resetStripes();
+    }
+
+    /**
+     * Returns the handle of a time counter, registering it if needed.
+     * Values tracked with the returned handle are in nanoseconds.
+     *
+     * @return the handle or -1 if no more counters can be registered
+     */
+    public int RegisterTimeCounter(@NonNull String key) {
+        return register(key, TIME_DIVISOR);
+    }
+
+    /**
+     * Returns the handle of a value counter, registering it if needed.
+     *
+     * @return the handle or -1 if no more counters can be registered
+     */
+    public int RegisterValueCounter(@NonNull String key) {
+        return register(key, VALUE_DIVISOR);
+    }
+
+    /**
+     * Registers a time counter of the SDK internals, meant to be called once when initializing a static field
+     *
+     * @return the handle that is valid for every collector or -1 if no more counters can be registered
+     */
+    static int sdkTimeCounter(@NonNull String key) {
+        return registerSdk(key, TIME_DIVISOR);
+    }
+
+    /**
+     * Registers a value counter of the SDK internals, meant to be called once when initializing a static field
+     *
+     * @return the handle that is valid for every collector or -1 if no more counters can be registered
+     */
+    static int sdkValueCounter(@NonNull String key) {
+        return registerSdk(key, VALUE_DIVISOR);
+    }
+
+    private static int registerSdk(@NonNull String key, double divisor) {
+        assert Utils.isNotNullOrEmpty(key);
+
+        synchronized (sdkHandles) {
+            Integer handle = sdkHandles.get(key);
+            if (handle != null) {
+                return handle;
+            }
+
+            if (registeredSdkCounters >= MAX_SDK_COUNTERS) {
+                Log.w("Countly", "Problem, SDK performance counter limit reached, [" + key + "] will not be tracked");
+                return -1;
+            }
+
+            sdkNames[registeredSdkCounters] = key;
+            sdkDivisors[registeredSdkCounters] = divisor;
+            int newHandle = MAX_COUNTERS + registeredSdkCounters;
+            registeredSdkCounters++;
+            sdkHandles.put(key, newHandle);
+            return newHandle;
+        }
+    }
+
+    /**
+     * Returns the handles of the counters registered at runtime followed by the SDK counters
+     */
+    private int[] registeredHandles() {
+        int counterCount;
+        synchronized (handles) {
+            counterCount = registeredCounters;
+        }
+        int sdkCounterCount;
+        synchronized (sdkHandles) {
+            sdkCounterCount = registeredSdkCounters;
+        }
+
+        int[] ret = new int[counterCount + sdkCounterCount];
+        for (int a = 0; a < counterCount; a++) {
+            ret[a] = a;
+        }
+        for (int a = 0; a < sdkCounterCount; a++) {
+            ret[counterCount + a] = MAX_COUNTERS + a;
+        }
+        return ret;
+    }
+
+    private @NonNull String nameOf(int handle) {
+        return handle >= MAX_COUNTERS ? sdkNames[handle - MAX_COUNTERS] : names[handle];
+    }
+
+    private double divisorOf(int handle) {
+        return handle >= MAX_COUNTERS ? sdkDivisors[handle - MAX_COUNTERS] : divisors[handle];
+    }
+
+    private Integer handleOf(@NonNull String key) {
+        Integer handle = sdkHandles.get(key);
+        return handle != null ? handle : handles.get(key);
+    }
+
+    private int register(@NonNull String key, double divisor) {
+        assert Utils.isNotNullOrEmpty(key);
+
+        Integer handle = handleOf(key);
+        if (handle != null) {
+            return handle;
+        }
+
+        synchronized (handles) {
+            handle = handles.get(key);
+            if (handle != null) {
+                return handle;
+            }
+
+            if (registeredCounters >= MAX_COUNTERS) {
+                Log.w("Countly", "Problem, performance counter limit reached, [" + key + "] will not be tracked");
+                return -1;
+            }
+
+            int newHandle = registeredCounters;
+            names[newHandle] = key;
+            divisors[newHandle] = divisor;
+            registeredCounters++;
+            handles.put(key, newHandle);
+            return newHandle;
+        }
+    }
 
     public void Clear() {
-        perfCounter.clear();
+        resetStripes();
+        for (int a = 0; a < histograms.length(); a++) {
+            histograms.set(a, 0);
+        }
     }
 
     public void TrackCounterTimeNs(String key, long valueNs) {
-        TrackCounter(key, valueNs / 1_000_000_000.0);
+        TrackCounterTimeNs(RegisterTimeCounter(key), valueNs);
+    }
+
+    public void TrackCounterTimeNs(int handle, long valueNs) {
+        if (handle < 0 || handle >= ALL_COUNTERS) {
+            return;
+        }
+
+        double divisor = divisorOf(handle);
+        if (divisor == TIME_DIVISOR) {
+            track(handle, valueNs);
+        } else {
+            track(handle, Math.round(valueNs / TIME_DIVISOR * divisor));
+        }
     }
 
     public void TrackCounter(String key, double value) {
-        assert Utils.isNotNullOrEmpty(key);
+        TrackCounter(RegisterValueCounter(key), value);
+    }
+
+    public void TrackCounter(int handle, double value) {
+        if (handle < 0 || handle >= ALL_COUNTERS) {
+            return;
+        }
 
+        track(handle, Math.round(value * divisorOf(handle)));
+    }
+
+    private void track(int handle, long value) {
         if (value < 0) {
             Log.w("Countly", "Problem, we should only log positive values");
         }
 
-        Double retrievedValue = perfCounter.get(key);
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        int base = (handle * STRIPES + stripe) * STRIPE_SLOTS;
+
+        stripes.incrementAndGet(base + SLOT_COUNT);
+        stripes.addAndGet(base + SLOT_SUM, value);
+
+        long current;
+        do {
+            current = stripes.get(base + SLOT_MIN);
+        } while (value < current && !stripes.compareAndSet(base + SLOT_MIN, current, value));
+
+        do {
+            current = stripes.get(base + SLOT_MAX);
+        } while (value > current && !stripes.compareAndSet(base + SLOT_MAX, current, value));
+
+        histograms.incrementAndGet(handle * HISTOGRAM_BUCKETS + bucketIndex(value));
+    }
+
+    /**
+     * Bucket 0 holds values below 1, bucket 'n' holds values in [2^(n-1), 2^n), the last bucket also holds everything above
+     */
+    static int bucketIndex(long value) {
+        if (value < 1) {
+            return 0;
+        }
+        return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    private void resetStripes() {
+        for (int a = 0; a < stripes.length(); a += STRIPE_SLOTS) {
+            stripes.set(a + SLOT_COUNT, 0);
+            stripes.set(a + SLOT_SUM, 0);
+            stripes.set(a + SLOT_MIN, Long.MAX_VALUE);
+            stripes.set(a + SLOT_MAX, Long.MIN_VALUE);
+        }
+    }
 
-        if (retrievedValue == null) {
-            retrievedValue = 0.0;
+    /**
+     * Combines the stripes of a counter into [count, sum, min, max]
+     */
+    private long[] combine(int handle) {
+        long[] ret = { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE };
+        for (int s = 0; s < STRIPES; s++) {
+            int base = (handle * STRIPES + s) * STRIPE_SLOTS;
+            ret[0] += stripes.get(base + SLOT_COUNT);
+            ret[1] += stripes.get(base + SLOT_SUM);
+            ret[2] = Math.min(ret[2], stripes.get(base + SLOT_MIN));
+            ret[3] = Math.max(ret[3], stripes.get(base + SLOT_MAX));
         }
+        return ret;
+    }
 
-        retrievedValue += value;
+    /**
+     * Returns the summed up value of the counter, time counters are returned in seconds
+     */
+    public double GetCounterSum(@NonNull String key) {
+        Integer handle = handleOf(key);
+        if (handle == null) {
+            return 0.0;
+        }
+        return combine(handle)[1] / divisorOf(handle);
+    }
 
-        perfCounter.put(key, retrievedValue);
+    /**
+     * Returns how many times the counter was tracked
+     */
+    public long GetCounterCount(@NonNull String key) {
+        Integer handle = handleOf(key);
+        if (handle == null) {
+            return 0;
+        }
+        return combine(handle)[0];
     }
 
     public String ReturnResults() {
-        List<String> entries = new ArrayList<>(perfCounter.size());
+        int[] counterHandles = registeredHandles();
+        List<String> entries = new ArrayList<>(counterHandles.length);
 
         //create all string entries
-        for (Map.Entry<String, Double> entry : perfCounter.entrySet()) {
-            String key = entry.getKey();
-            Double value = entry.getValue();
+        for (int a : counterHandles) {
+            long[] values = combine(a);
+            if (values[0] == 0) {
+                continue;
+            }
 
             @SuppressLint("DefaultLocale")
-            String strValue = String.format("%.6f", value);
+            String strValue = String.format("%.6f", values[1] / divisorOf(a));
 
-            entries.add(key + " - " + strValue + "\n");
+            entries.add(nameOf(a) + " - " + strValue + "\n");
         }
 
         //sort if possible
@@ -64,4 +330,42 @@ public class PerformanceCounterCollector {
 
         return res.toString();
     }
+
+    /**
+     * Exports a snapshot of all tracked counters.
+     * Every counter is an object with "count", "sum", "min", "max" and a "histogram" object.
+     * Histogram keys are the upper bounds of the non empty buckets. Time values are in seconds.
+     */
+    public @NonNull JSONObject ExportJSON() {
+        int[] counterHandles = registeredHandles();
+
+        JSONObject ret = new JSONObject();
+        try {
+            for (int a : counterHandles) {
+                long[] values = combine(a);
+                if (values[0] == 0) {
+                    continue;
+                }
+
+                JSONObject histogram = new JSONObject();
+                for (int b = 0; b < HISTOGRAM_BUCKETS; b++) {
+                    long bucketCount = histograms.get(a * HISTOGRAM_BUCKETS + b);
+                    if (bucketCount > 0) {
+                        histogram.put(String.valueOf((1L << b) / divisorOf(a)), bucketCount);
+                    }
+                }
+
+                JSONObject counter = new JSONObject();
+                counter.put("count", values[0]);
+                counter.put("sum", values[1] / divisorOf(a));
+                counter.put("min", values[2] / divisorOf(a));
+                counter.put("max", values[3] / divisorOf(a));
+                counter.put("histogram", histogram);
+                ret.put(nameOf(a), counter);
+            }
+        } catch (JSONException ignored) {
+            // only possible with non finite numbers which can't be created here
+        }
+        return ret;
+    }
 }
@@ -0,0 +1,628 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Append-only, segmented file journal of records.
+ *
+ * The journal directory contains:
+ * - "seg_N" segment files. Every record is a 4 byte big-endian length followed by the bytes of the record.
+ * - a "head" file that contains the index of the first live segment and the byte offset of the first live record in it.
+ *
+ * Adding a record appends it to the last segment. Removing the oldest records only rewrites the
+ * head pointer and deletes segments that have been fully consumed. Removing records from the middle
+ * or replacing the whole content compacts the live records into a fresh segment.
+ *
+ * A mirror of the live records is kept in memory so that reading them does not touch the disk.
+ * Subclasses decide how a record is turned into bytes, see {@link RequestQueueJournal} and {@link ByteRecordJournal}.
+ *
+ * @param <T> type of the records that are kept in memory
+ */
+abstract class RecordJournal<T> {
+    static final String HEAD_FILE = "head";
+    static final String SEGMENT_PREFIX = "seg_";
+    static final String TEMP_SUFFIX = ".tmp";
+    static final int SEGMENT_MAX_BYTES = 256 * 1024;
+    static final int RECORD_HEADER_BYTES = 4;
+
+    static class Entry<T> {
+        final T record;
+        final long id;//sequence id, only kept in memory
+        final int segment;
+        final long endOffset;//offset right after this record inside its segment
+        final int recordSize;
+
+        Entry(T record, long id, int segment, long endOffset, int recordSize) {
+            this.record = record;
+            this.id = id;
+            this.segment = segment;
+            this.endOffset = endOffset;
+            this.recordSize = recordSize;
+        }
+    }
+
+    final File directory;
+    ModuleLog L;
+
+    final ArrayDeque<Entry<T>> entries = new ArrayDeque<>();
+    private boolean loaded = false;
+    private long nextId = 1;
+
+    private int headSegment = 0;
+    private long headOffset = 0;
+    private int tailSegment = 0;
+    private long tailSize = 0;
+    private long liveBytes = 0;
+
+    private RandomAccessFile tailFile = null;
+
+    RecordJournal(@NonNull File parentDirectory, @NonNull String directoryName, @NonNull ModuleLog logModule) {
+        directory = new File(parentDirectory, directoryName);
+        L = logModule;
+    }
+
+    /**
+     * Turns a record into the bytes that are written into the segment
+     */
+    abstract @NonNull byte[] encode(@NonNull T record);
+
+    /**
+     * Turns the bytes read from a segment back into a record
+     */
+    abstract @NonNull T decode(@NonNull byte[] data);
+
+    /**
+     * Returns true if a journal directory exists in the given location.
+     * Does not read or create anything.
+     */
+    static boolean journalExists(@NonNull File parentDirectory, @NonNull String directoryName) {
+        return new File(parentDirectory, directoryName).isDirectory();
+    }
+
+    synchronized int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    /**
+     * Returns the approximate byte size of the live records
+     */
+    synchronized long byteSize() {
+        ensureLoaded();
+        return liveBytes;
+    }
+
+    synchronized @Nullable T peekFirst() {
+        ensureLoaded();
+        Entry<T> e = entries.peekFirst();
+        return e == null ? null : e.record;
+    }
+
+    synchronized @NonNull List<T> getRecordList() {
+        ensureLoaded();
+        List<T> ret = new ArrayList<>(entries.size());
+        for (Entry<T> e : entries) {
+            ret.add(e.record);
+        }
+        return ret;
+    }
+
+    /**
+     * Appends a single record at the end of the journal
+     *
+     * @param record record to append
+     * @param writeInSync if true, the segment is synced to the storage device before returning
+     */
+    synchronized void append(@NonNull T record, boolean writeInSync) {
+        ensureLoaded();
+
+        byte[] data = encode(record);
+        int recordSize = RECORD_HEADER_BYTES + data.length;
+        boolean written = false;
+        try {
+            if (tailSize >= SEGMENT_MAX_BYTES) {
+                //current segment is full, continue in a new one
+                closeTail();
+                tailSegment++;
+                tailSize = 0;
+            }
+
+            RandomAccessFile raf = openTail();
+            byte[] recordBytes = new byte[recordSize];
+            recordBytes[0] = (byte) (data.length >>> 24);
+            recordBytes[1] = (byte) (data.length >>> 16);
+            recordBytes[2] = (byte) (data.length >>> 8);
+            recordBytes[3] = (byte) data.length;
+            System.arraycopy(data, 0, recordBytes, RECORD_HEADER_BYTES, data.length);
+            raf.write(recordBytes);
+
+            if (writeInSync) {
+                raf.getFD().sync();
+            }
+            written = true;
+        } catch (IOException ex) {
+            //the record is still kept in memory so that it can be used during this session
+            L.e("[RecordJournal] append, failed to write record to the journal, " + ex);
+            closeTail();
+        }
+
+        if (written) {
+            tailSize += recordSize;
+        } else {
+            recordSize = 0;
+        }
+        liveBytes += recordSize;
+        entries.addLast(new Entry<>(record, nextId++, tailSegment, tailSize, recordSize));
+    }
+
+    /**
+     * Removes the oldest records from the journal.
+     * Only the head pointer is rewritten, fully consumed segments are deleted.
+     *
+     * @param count amount of records to remove
+     * @return amount of removed records
+     */
+    synchronized int removeFirst(int count) {
+        ensureLoaded();
+
+        int removed = 0;
+        Entry<T> last = null;
+        while (removed < count && !entries.isEmpty()) {
+            last = entries.pollFirst();
+            liveBytes -= last.recordSize;
+            removed++;
+        }
+
+        if (last == null) {
+            return 0;
+        }
+
+        Entry<T> next = entries.peekFirst();
+        if (next == null) {
+            //nothing left, point the head at the end of the tail segment
+            moveHead(tailSegment, tailSize);
+        } else if (next.segment != last.segment) {
+            moveHead(next.segment, 0);
+        } else {
+            moveHead(last.segment, last.endOffset);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Removes the records with the given sequence ids, no records are compared.
+     * If they are the oldest records, only the head pointer is moved, otherwise the journal is compacted once.
+     *
+     * @return amount of removed records, ids that are not in the journal anymore are ignored
+     */
+    synchronized int removeByIds(@NonNull long[] ids) {
+        ensureLoaded();
+
+        if (ids.length == 0 || entries.isEmpty()) {
+            return 0;
+        }
+
+        long[] sortedIds = ids.clone();
+        Arrays.sort(sortedIds);
+
+        int leading = 0;
+        Iterator<Entry<T>> it = entries.iterator();
+        while (it.hasNext() && Arrays.binarySearch(sortedIds, it.next().id) >= 0) {
+            leading++;
+        }
+
+        List<Entry<T>> remaining = new ArrayList<>(entries.size());
+        int a = 0;
+        for (Entry<T> e : entries) {
+            if (a++ >= leading && Arrays.binarySearch(sortedIds, e.id) < 0) {
+                remaining.add(e);
+            }
+        }
+
+        int removed = entries.size() - remaining.size();
+        if (removed == leading) {
+            return removeFirst(leading);
+        }
+
+        return compact(remaining) ? removed : 0;
+    }
+
+    /**
+     * Replaces the whole journal content with the given records.
+     * The new content is written into a fresh segment and the head is moved to it, after which the old segments are deleted.
+     *
+     * @return false if the new content could not be written, the journal then keeps its current content
+     */
+    synchronized boolean replaceAll(@NonNull List<T> records) {
+        return rewrite(records, null);
+    }
+
+    /**
+     * Rewrites the journal with the given entries, they keep their sequence ids
+     */
+    boolean compact(@NonNull List<Entry<T>> remaining) {
+        List<T> records = new ArrayList<>(remaining.size());
+        long[] ids = new long[remaining.size()];
+        for (int a = 0; a < remaining.size(); a++) {
+            records.add(remaining.get(a).record);
+            ids[a] = remaining.get(a).id;
+        }
+        return rewrite(records, ids);
+    }
+
+    /**
+     * Writes the given records into a fresh segment, moves the head to it and deletes the old segments.
+     * The new segment and the head are synced before anything old is deleted. If any step fails,
+     * the old segments, the head and the in-memory entries are left as they were.
+     *
+     * @param ids sequence ids for the records, if 'null' new ids are assigned
+     * @return true if the journal was rewritten
+     */
+    boolean rewrite(@NonNull List<T> records, @Nullable long[] ids) {
+        ensureLoaded();
+        closeTail();
+
+        int newSegment = tailSegment + 1;
+        File target = segmentFile(newSegment);
+        File temp = new File(directory, target.getName() + TEMP_SUFFIX);
+
+        int[] recordSizes = new int[records.size()];
+        boolean headMoved = false;
+
+        try {
+            ensureDirectory();
+            FileOutputStream fos = new FileOutputStream(temp, false);
+            try {
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+                int a = 0;
+                for (T record : records) {
+                    byte[] data = encode(record);
+                    dos.writeInt(data.length);
+                    dos.write(data);
+                    recordSizes[a++] = RECORD_HEADER_BYTES + data.length;
+                }
+                dos.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+
+            //the head is moved before the rename, on load a head pointing at a temp segment finishes the rename
+            writeHead(newSegment, 0);
+            headMoved = true;
+            if (!temp.renameTo(target)) {
+                throw new IOException("failed to rename compacted segment");
+            }
+        } catch (IOException ex) {
+            L.e("[RecordJournal] rewrite, failed to write compacted segment, keeping the current one, " + ex);
+
+            if (headMoved) {
+                try {
+                    writeHead(headSegment, headOffset);
+                } catch (IOException headEx) {
+                    //the temp segment is kept, on load it is used as the head segment
+                    L.e("[RecordJournal] rewrite, failed to restore head pointer, " + headEx);
+                    return false;
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return false;
+        }
+
+        entries.clear();
+        long size = 0;
+        int a = 0;
+        for (T record : records) {
+            size += recordSizes[a];
+            entries.addLast(new Entry<>(record, ids == null ? nextId++ : ids[a], newSegment, size, recordSizes[a]));
+            a++;
+        }
+
+        liveBytes = size;
+        headSegment = newSegment;
+        headOffset = 0;
+        tailSegment = newSegment;
+        tailSize = size;
+        deleteSegmentsBefore(newSegment);
+        return true;
+    }
+
+    /**
+     * Removes all records and deletes the journal files
+     */
+    synchronized void clear() {
+        closeTail();
+        entries.clear();
+        liveBytes = 0;
+        headSegment = 0;
+        headOffset = 0;
+        tailSegment = 0;
+        tailSize = 0;
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+        loaded = true;
+    }
+
+    synchronized void close() {
+        closeTail();
+    }
+
+    File segmentFile(int index) {
+        return new File(directory, SEGMENT_PREFIX + index);
+    }
+
+    private void ensureDirectory() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal directory [" + directory + "]");
+        }
+    }
+
+    private RandomAccessFile openTail() throws IOException {
+        if (tailFile == null) {
+            ensureDirectory();
+            tailFile = new RandomAccessFile(segmentFile(tailSegment), "rw");
+            if (tailFile.length() != tailSize) {
+                //drop anything that is behind the last valid record
+                tailFile.setLength(tailSize);
+            }
+            tailFile.seek(tailSize);
+        }
+        return tailFile;
+    }
+
+    private void closeTail() {
+        if (tailFile != null) {
+            try {
+                tailFile.close();
+            } catch (IOException ignored) {
+            }
+            tailFile = null;
+        }
+    }
+
+    private void moveHead(int segment, long offset) {
+        int previousHeadSegment = headSegment;
+        headSegment = segment;
+        headOffset = offset;
+
+        try {
+            writeHead(segment, offset);
+        } catch (IOException ex) {
+            L.e("[RecordJournal] moveHead, failed to write head pointer, " + ex);
+        }
+
+        if (segment != previousHeadSegment) {
+            deleteSegmentsBefore(segment);
+        }
+    }
+
+    /**
+     * Writes the head pointer into a temp file, syncs it and renames it over the current one,
+     * so the head file is always either the old or the new pointer
+     */
+    private void writeHead(int segment, long offset) throws IOException {
+        ensureDirectory();
+        File headFile = new File(directory, HEAD_FILE);
+        File temp = new File(directory, HEAD_FILE + TEMP_SUFFIX);
+
+        FileOutputStream fos = new FileOutputStream(temp, false);
+        try {
+            DataOutputStream dos = new DataOutputStream(fos);
+            dos.writeInt(segment);
+            dos.writeLong(offset);
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        if (!temp.renameTo(headFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Could not replace head pointer file");
+        }
+    }
+
+    private void deleteSegmentsBefore(int segment) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File f : files) {
+            int index = segmentIndex(f.getName());
+            if (index >= 0 && index < segment) {
+                if (!f.delete()) {
+                    L.w("[RecordJournal] deleteSegmentsBefore, failed to delete consumed segment [" + f.getName() + "]");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the segment file or -1 if it's not a segment
+     */
+    static int segmentIndex(@NonNull String fileName) {
+        if (!fileName.startsWith(SEGMENT_PREFIX) || fileName.endsWith(TEMP_SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the head pointer and all live records into memory.
+     * A torn record at the end of the last segment is cut off.
+     */
+    void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        entries.clear();
+        liveBytes = 0;
+
+        if (!directory.isDirectory()) {
+            return;
+        }
+
+        List<Integer> segments = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                int index = segmentIndex(f.getName());
+                if (index >= 0) {
+                    segments.add(index);
+                }
+            }
+        }
+
+        //a head pointer that was not renamed yet was never in effect
+        //noinspection ResultOfMethodCallIgnored
+        new File(directory, HEAD_FILE + TEMP_SUFFIX).delete();
+        boolean headFound = readHead();
+
+        //a compaction may have been interrupted between moving the head and renaming the segment
+        File pendingSegment = new File(directory, SEGMENT_PREFIX + headSegment + TEMP_SUFFIX);
+        if (headFound && pendingSegment.exists() && !segments.contains(headSegment)) {
+            if (pendingSegment.renameTo(segmentFile(headSegment))) {
+                segments.add(headSegment);
+            }
+        }
+
+        Collections.sort(segments);
+
+        if (!headFound) {
+            headSegment = segments.isEmpty() ? 0 : segments.get(0);
+            headOffset = 0;
+        } else if (headOffset > 0 && !segments.contains(headSegment)) {
+            //the head points into a segment that doesn't exist, start it from scratch
+            L.w("[RecordJournal] ensureLoaded, head points to a missing segment [" + headSegment + "]");
+            moveHead(headSegment, 0);
+        }
+
+        tailSegment = headSegment;
+        tailSize = headOffset;
+
+        for (int index : segments) {
+            if (index < headSegment) {
+                continue;
+            }
+
+            long startOffset = index == headSegment ? headOffset : 0;
+            tailSegment = index;
+            tailSize = readSegment(index, startOffset);
+        }
+
+        deleteSegmentsBefore(headSegment);
+        L.d("[RecordJournal] ensureLoaded, loaded [" + entries.size() + "] records from [" + segments.size() + "] segments");
+    }
+
+    private boolean readHead() {
+        File headFile = new File(directory, HEAD_FILE);
+        if (!headFile.exists()) {
+            return false;
+        }
+
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new FileInputStream(headFile));
+            headSegment = dis.readInt();
+            headOffset = dis.readLong();
+            return headSegment >= 0 && headOffset >= 0;
+        } catch (IOException ex) {
+            L.w("[RecordJournal] readHead, failed to read head pointer, " + ex);
+            return false;
+        } finally {
+            if (dis != null) {
+                try {
+                    dis.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a single segment starting from the given offset
+     *
+     * @return the offset after the last valid record
+     */
+    private long readSegment(int index, long startOffset) {
+        File segment = segmentFile(index);
+        long fileLength = segment.length();
+        long position = startOffset;
+
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+            long skipped = 0;
+            while (skipped < startOffset) {
+                long s = dis.skip(startOffset - skipped);
+                if (s <= 0) {
+                    break;
+                }
+                skipped += s;
+            }
+
+            while (position + RECORD_HEADER_BYTES <= fileLength) {
+                int length = dis.readInt();
+                if (length < 0 || position + RECORD_HEADER_BYTES + length > fileLength) {
+                    L.w("[RecordJournal] readSegment, encountered a torn record in segment [" + index + "] at [" + position + "]");
+                    break;
+                }
+
+                byte[] data = new byte[length];
+                dis.readFully(data);
+                position += RECORD_HEADER_BYTES + length;
+                liveBytes += RECORD_HEADER_BYTES + length;
+                entries.addLast(new Entry<>(decode(data), nextId++, index, position, RECORD_HEADER_BYTES + length));
+            }
+        } catch (EOFException ex) {
+            L.w("[RecordJournal] readSegment, unexpected end of segment [" + index + "]");
+        } catch (IOException ex) {
+            L.e("[RecordJournal] readSegment, failed to read segment [" + index + "], " + ex);
+        } finally {
+            if (dis != null) {
+                try {
+                    dis.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        return position;
+    }
+}
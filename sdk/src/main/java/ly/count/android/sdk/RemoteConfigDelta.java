@@ -0,0 +1,85 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import ly.count.android.sdk.internal.RemoteConfigHelper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Conditional remote config downloads.
+ *
+ * The request carries the ETag of the last downloaded full value set and tells the server that delta responses are understood.
+ * The server can then answer with:
+ * - "304 Not Modified" and no body, if nothing changed;
+ * - a delta response, marked with the delta header: {"set":{"key":value,...},"removed":["key",...]};
+ * - the full value set, like servers that don't support conditional downloads.
+ * Delta and full responses should contain the ETag of the new value set.
+ */
+class RemoteConfigDelta {
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_ACCEPT_DELTA = "X-Countly-RC-Accept-Delta";
+    static final String HEADER_DELTA = "X-Countly-RC-Delta";
+
+    static final String KEY_SET = "set";
+    static final String KEY_REMOVED = "removed";
+
+    // the stored values did not change
+    final boolean notModified;
+    // only changed and removed keys were returned
+    final boolean isDelta;
+    @NonNull final Map<String, RCData> values;
+    @NonNull final List<String> removedKeys;
+    // ETag of the new value set, 'null' if the server did not provide one
+    @Nullable final String eTag;
+
+    private RemoteConfigDelta(boolean notModified, boolean isDelta, @NonNull Map<String, RCData> values, @NonNull List<String> removedKeys, @Nullable String eTag) {
+        this.notModified = notModified;
+        this.isDelta = isDelta;
+        this.values = values;
+        this.removedKeys = removedKeys;
+        this.eTag = eTag;
+    }
+
+    /**
+     * @param storedETag ETag of the stored values, 'null' if there is none
+     * @return header fields for a conditional download
+     */
+    static @NonNull Map<String, String> requestHeaders(@Nullable String storedETag) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(HEADER_ACCEPT_DELTA, "1");
+        if (storedETag != null && !storedETag.isEmpty()) {
+            headers.put(HEADER_IF_NONE_MATCH, storedETag);
+        }
+        return headers;
+    }
+
+    static @NonNull RemoteConfigDelta fromResponse(int responseCode, @Nullable String deltaHeader, @Nullable String eTag, @Nullable JSONObject body) {
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return new RemoteConfigDelta(true, false, new HashMap<String, RCData>(), new ArrayList<String>(), eTag);
+        }
+
+        if (!"1".equals(deltaHeader) || body == null) {
+            return new RemoteConfigDelta(false, false, RemoteConfigHelper.DownloadedValuesIntoMap(body), new ArrayList<String>(), eTag);
+        }
+
+        List<String> removedKeys = new ArrayList<>();
+        JSONArray removed = body.optJSONArray(KEY_REMOVED);
+        if (removed != null) {
+            for (int a = 0; a < removed.length(); a++) {
+                String key = removed.optString(a, null);
+                if (key != null) {
+                    removedKeys.add(key);
+                }
+            }
+        }
+
+        return new RemoteConfigDelta(false, true, RemoteConfigHelper.DownloadedValuesIntoMap(body.optJSONObject(KEY_SET)), removedKeys, eTag);
+    }
+}
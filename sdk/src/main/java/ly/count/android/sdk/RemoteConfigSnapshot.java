@@ -0,0 +1,203 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import ly.count.android.sdk.internal.RemoteConfigValueStore;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Immutable, already parsed view of the stored remote config values.
+ *
+ * A new snapshot is created whenever the stored values change, readers only need the current reference
+ * and a hash lookup. Typed values are converted once during creation, so the typed getters don't parse or box.
+ * JSON object and array values are mutable, so they are copied before they are returned.
+ */
+class RemoteConfigSnapshot {
+    static final RemoteConfigSnapshot EMPTY = new RemoteConfigSnapshot(new HashMap<String, Entry>(), "");
+
+    static class Entry {
+        // 'null' if the stored entry had no value
+        @Nullable final Object value;
+        final boolean isCurrentUsersData;
+        // if the cache flag of the stored entry could be read
+        final boolean hasCacheFlag;
+
+        final boolean hasBoolean;
+        final boolean booleanValue;
+        final boolean hasLong;
+        final long longValue;
+        @Nullable final String stringValue;
+
+        Entry(@Nullable Object value, boolean isCurrentUsersData, boolean hasCacheFlag) {
+            this.value = value;
+            this.isCurrentUsersData = isCurrentUsersData;
+            this.hasCacheFlag = hasCacheFlag;
+
+            Boolean parsedBoolean = null;
+            Long parsedLong = null;
+            if (value instanceof Boolean) {
+                parsedBoolean = (Boolean) value;
+            } else if (value instanceof Number) {
+                parsedLong = ((Number) value).longValue();
+            } else if (value instanceof String) {
+                String str = (String) value;
+                if ("true".equalsIgnoreCase(str)) {
+                    parsedBoolean = true;
+                } else if ("false".equalsIgnoreCase(str)) {
+                    parsedBoolean = false;
+                } else {
+                    parsedLong = parseLong(str);
+                }
+            }
+
+            hasBoolean = parsedBoolean != null;
+            booleanValue = parsedBoolean != null && parsedBoolean;
+            hasLong = parsedLong != null;
+            longValue = parsedLong != null ? parsedLong : 0;
+            stringValue = value == null || value == JSONObject.NULL ? null : value.toString();
+        }
+
+        /**
+         * @return the value, JSON objects and arrays are copied so that callers can't change the snapshot
+         */
+        @Nullable Object copyValue() {
+            try {
+                if (value instanceof JSONObject) {
+                    return new JSONObject(value.toString());
+                } else if (value instanceof JSONArray) {
+                    return new JSONArray(value.toString());
+                }
+            } catch (JSONException ignored) {
+                // values that were parsed from JSON can be parsed again
+            }
+            return value;
+        }
+
+        private static @Nullable Long parseLong(@NonNull String str) {
+            try {
+                return Long.parseLong(str.trim());
+            } catch (NumberFormatException ignored) {
+            }
+
+            try {
+                return (long) Double.parseDouble(str.trim());
+            } catch (NumberFormatException ignored) {
+                return null;
+            }
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    // the stored string the values were parsed from
+    @NonNull private final String source;
+
+    private RemoteConfigSnapshot(@NonNull Map<String, Entry> entries, @NonNull String source) {
+        this.entries = entries;
+        this.source = source;
+    }
+
+    /**
+     * Creates a snapshot of the values of the given store, entries that are not JSON objects are left out
+     *
+     * @param source the stored string of the given store
+     */
+    static @NonNull RemoteConfigSnapshot fromStore(@NonNull RemoteConfigValueStore rcvs, @Nullable String source) {
+        Map<String, Entry> entries = new HashMap<>(rcvs.values.length() * 2);
+
+        Iterator<String> keys = rcvs.values.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            JSONObject rcObj = rcvs.values.optJSONObject(key);
+            if (rcObj == null) {
+                continue;
+            }
+
+            boolean hasCacheFlag = false;
+            boolean isCurrentUsersData = true;
+            try {
+                isCurrentUsersData = rcObj.getInt(RemoteConfigValueStore.keyCacheFlag) != RemoteConfigValueStore.cacheValCached;
+                hasCacheFlag = true;
+            } catch (Exception ignored) {
+                // the same entries are skipped when all values are returned
+            }
+
+            entries.put(key, new Entry(rcObj.opt(RemoteConfigValueStore.keyValue), isCurrentUsersData, hasCacheFlag));
+        }
+
+        return new RemoteConfigSnapshot(entries, source == null ? "" : source);
+    }
+
+    /**
+     * @return true if the values were parsed from the given stored string.
+     * Storage returns the same string object until it is changed, so usually only the references are compared
+     */
+    boolean isParsedFrom(@Nullable String storedValues) {
+        if (storedValues == null) {
+            storedValues = "";
+        }
+        //noinspection StringEquality
+        return source == storedValues || source.equals(storedValues);
+    }
+
+    @Nullable Entry getEntry(@NonNull String key) {
+        return entries.get(key);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    @NonNull RCData getValue(@NonNull String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.value == null) {
+            return new RCData(null, true);
+        }
+        return new RCData(entry.copyValue(), entry.isCurrentUsersData);
+    }
+
+    @Nullable Object getValueLegacy(@NonNull String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.copyValue();
+    }
+
+    @NonNull Map<String, RCData> getAllValues() {
+        Map<String, RCData> ret = new HashMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().hasCacheFlag) {
+                ret.put(e.getKey(), new RCData(e.getValue().copyValue(), e.getValue().isCurrentUsersData));
+            }
+        }
+        return ret;
+    }
+
+    @NonNull Map<String, Object> getAllValuesLegacy() {
+        Map<String, Object> ret = new HashMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().value != null) {
+                ret.put(e.getKey(), e.getValue().copyValue());
+            }
+        }
+        return ret;
+    }
+
+    boolean getBoolean(@NonNull String key, boolean defaultValue) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.hasBoolean ? entry.booleanValue : defaultValue;
+    }
+
+    long getLong(@NonNull String key, long defaultValue) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.hasLong ? entry.longValue : defaultValue;
+    }
+
+    @Nullable String getString(@NonNull String key, @Nullable String defaultValue) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.stringValue != null ? entry.stringValue : defaultValue;
+    }
+}
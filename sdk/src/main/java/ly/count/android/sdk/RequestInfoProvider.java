@@ -10,4 +10,12 @@ interface RequestInfoProvider {
     int getRequestDropAgeHours();
 
     String getRequestSalt();
+
+    int getRequestDrainWindowSize();
+
+    int getBulkRequestMaxCount();
+
+    int getBulkRequestMaxBytes();
+
+    int getRequestCompressionThreshold();
 }
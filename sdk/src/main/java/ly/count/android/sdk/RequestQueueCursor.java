@@ -0,0 +1,146 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.util.NoSuchElementException;
+
+/**
+ * Forward only cursor over the stored requests and their sequence ids.
+ *
+ * A cursor over the preference queue string finds the entries with 'indexOf' only when they are reached,
+ * so looking at the first request does not touch the rest of the queue.
+ * The cursor works on the queue as it was when it was created, later changes to the queue are not visible.
+ */
+class RequestQueueCursor {
+    static final RequestQueueCursor EMPTY = new RequestQueueCursor(new String[0], new long[0]);
+
+    // source of the requests, either the delimited queue string or an array
+    private final String requestQueue;
+    private final String[] requests;
+
+    private final long[] ids;
+    private final int idsStart;
+    private final int size;
+
+    private int position = -1;//index of the last returned request
+    private long currentId = -1;
+
+    // the next entry, found ahead of time by 'hasNext' or 'peekNext'
+    private String nextRequest = null;
+    private int nextEntryStart = 0;//start of the next entry that has not been scanned yet
+
+    private int markPosition;
+    private long markCurrentId;
+    private String markNextRequest;
+    private int markNextEntryStart;
+
+    /**
+     * Cursor over a delimited queue string
+     *
+     * @param ids sequence ids, only 'size' ids starting from 'idsStart' are used and they must not be changed afterwards
+     * @param size amount of entries, trailing empty entries are not included
+     */
+    RequestQueueCursor(@NonNull String requestQueue, @NonNull long[] ids, int idsStart, int size) {
+        this.requestQueue = requestQueue;
+        this.requests = null;
+        this.ids = ids;
+        this.idsStart = idsStart;
+        this.size = size;
+    }
+
+    /**
+     * Cursor over requests that are already separated
+     */
+    RequestQueueCursor(@NonNull String[] requests, @NonNull long[] ids) {
+        assert requests.length == ids.length;
+
+        this.requestQueue = null;
+        this.requests = requests;
+        this.ids = ids;
+        this.idsStart = 0;
+        this.size = requests.length;
+    }
+
+    /**
+     * Returns the amount of requests the cursor goes over
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the amount of requests after the last returned one
+     */
+    int remaining() {
+        return size - 1 - position;
+    }
+
+    boolean hasNext() {
+        return position + 1 < size;
+    }
+
+    /**
+     * Returns the next request without moving the cursor
+     */
+    @NonNull String peekNext() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        if (nextRequest == null) {
+            if (requests != null) {
+                nextRequest = requests[position + 1];
+            } else {
+                int end = requestQueue.indexOf(CountlyStore.DELIMITER, nextEntryStart);
+                int entryEnd = end < 0 ? requestQueue.length() : end;
+                nextRequest = requestQueue.substring(nextEntryStart, entryEnd);
+                nextEntryStart = end < 0 ? requestQueue.length() : end + CountlyStore.DELIMITER.length();
+            }
+        }
+        return nextRequest;
+    }
+
+    /**
+     * Returns the sequence id of the next request without moving the cursor
+     */
+    long peekNextId() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return ids[idsStart + position + 1];
+    }
+
+    /**
+     * Moves to the next request and returns it
+     */
+    @NonNull String next() {
+        String ret = peekNext();
+        position++;
+        currentId = ids[idsStart + position];
+        nextRequest = null;
+        return ret;
+    }
+
+    /**
+     * Returns the sequence id of the last returned request
+     */
+    long currentId() {
+        return currentId;
+    }
+
+    /**
+     * Remembers the current position so that the cursor can be moved back to it with 'reset'
+     */
+    void mark() {
+        markPosition = position;
+        markCurrentId = currentId;
+        markNextRequest = nextRequest;
+        markNextEntryStart = nextEntryStart;
+    }
+
+    void reset() {
+        position = markPosition;
+        currentId = markCurrentId;
+        nextRequest = markNextRequest;
+        nextEntryStart = markNextEntryStart;
+    }
+}
@@ -0,0 +1,180 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Journal that holds the request queue, every record is the UTF-8 bytes of a request.
+ *
+ * Removing the oldest requests only moves the head pointer, removing requests from the middle
+ * of the queue compacts the journal once. See {@link RecordJournal} for the file layout.
+ */
+class RequestQueueJournal extends RecordJournal<String> {
+    static final String JOURNAL_DIRECTORY = "countly_request_queue";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    RequestQueueJournal(@NonNull File parentDirectory, @NonNull ModuleLog logModule) {
+        this(parentDirectory, JOURNAL_DIRECTORY, logModule);
+    }
+
+    /**
+     * Creates a journal in a custom directory.
+     * The records can be any strings, this is also used to persist other queues.
+     */
+    RequestQueueJournal(@NonNull File parentDirectory, @NonNull String directoryName, @NonNull ModuleLog logModule) {
+        super(parentDirectory, directoryName, logModule);
+    }
+
+    /**
+     * Returns true if a request queue journal directory exists in the given location.
+     * Does not read or create anything.
+     */
+    static boolean journalExists(@NonNull File parentDirectory) {
+        return journalExists(parentDirectory, JOURNAL_DIRECTORY);
+    }
+
+    @Override @NonNull byte[] encode(@NonNull String record) {
+        return record.getBytes(UTF8);
+    }
+
+    @Override @NonNull String decode(@NonNull byte[] data) {
+        return new String(data, UTF8);
+    }
+
+    synchronized @NonNull String[] getRequests() {
+        ensureLoaded();
+        String[] ret = new String[entries.size()];
+        int a = 0;
+        for (Entry<String> e : entries) {
+            ret[a++] = e.record;
+        }
+        return ret;
+    }
+
+    synchronized @NonNull List<String> getRequestList() {
+        return new ArrayList<>(Arrays.asList(getRequests()));
+    }
+
+    /**
+     * Returns the requests together with their sequence ids
+     */
+    synchronized @NonNull RequestQueueSnapshot getSnapshot() {
+        ensureLoaded();
+        String[] requests = new String[entries.size()];
+        long[] ids = new long[entries.size()];
+        int a = 0;
+        for (Entry<String> e : entries) {
+            requests[a] = e.record;
+            ids[a] = e.id;
+            a++;
+        }
+        return new RequestQueueSnapshot(requests, ids);
+    }
+
+    /**
+     * Removes the first occurrence of the given request.
+     * Removing the oldest request only moves the head pointer, anything else compacts the journal.
+     *
+     * @return true if the request was found and removed
+     */
+    synchronized boolean remove(@NonNull String request) {
+        ensureLoaded();
+
+        Entry<String> first = entries.peekFirst();
+        if (first == null) {
+            return false;
+        }
+
+        if (first.record.equals(request)) {
+            removeFirst(1);
+            return true;
+        }
+
+        List<Entry<String>> remaining = new ArrayList<>(entries.size());
+        boolean found = false;
+        for (Entry<String> e : entries) {
+            if (!found && e.record.equals(request)) {
+                found = true;
+                continue;
+            }
+            remaining.add(e);
+        }
+
+        return found && compact(remaining);
+    }
+
+    /**
+     * Removes the first occurrence of each of the given requests.
+     * If they are exactly the oldest requests in the given order, only the head pointer is moved,
+     * otherwise the journal is compacted once.
+     *
+     * @return amount of removed requests
+     */
+    synchronized int remove(@NonNull List<String> requests) {
+        ensureLoaded();
+
+        if (requests.isEmpty() || entries.isEmpty()) {
+            return 0;
+        }
+
+        int leading = 0;
+        Iterator<Entry<String>> it = entries.iterator();
+        while (leading < requests.size() && it.hasNext() && it.next().record.equals(requests.get(leading))) {
+            leading++;
+        }
+
+        if (leading == requests.size()) {
+            return removeFirst(leading);
+        }
+
+        List<String> toRemove = new ArrayList<>(requests);
+        List<Entry<String>> remaining = new ArrayList<>(entries.size());
+        for (Entry<String> e : entries) {
+            if (!toRemove.isEmpty() && toRemove.remove(e.record)) {
+                continue;
+            }
+            remaining.add(e);
+        }
+
+        int removed = entries.size() - remaining.size();
+        if (removed > 0 && !compact(remaining)) {
+            return 0;
+        }
+        return removed;
+    }
+
+    /**
+     * Passes every request through the transformer and compacts the journal once if anything was changed.
+     * Changed requests keep their sequence ids.
+     *
+     * @return amount of changed or removed requests
+     */
+    synchronized int transform(@NonNull RequestTransformer transformer) {
+        ensureLoaded();
+
+        List<String> requests = new ArrayList<>(entries.size());
+        long[] ids = new long[entries.size()];
+        int changed = 0;
+        for (Entry<String> e : entries) {
+            String result = transformer.transform(e.record);
+            //noinspection StringEquality
+            if (result != e.record) {
+                changed++;
+            }
+            if (result != null) {
+                ids[requests.size()] = e.id;
+                requests.add(result);
+            }
+        }
+
+        if (changed > 0 && !rewrite(requests, Arrays.copyOf(ids, requests.size()))) {
+            return 0;
+        }
+        return changed;
+    }
+}
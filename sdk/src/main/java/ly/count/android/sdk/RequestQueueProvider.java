@@ -9,6 +9,8 @@ interface RequestQueueProvider {
 
     void updateSession(final int duration);
 
+    void updateSession(final int duration, @Nullable final String events);
+
     void changeDeviceId(String deviceId, String oldDeviceId);
 
     void tokenSession(String token, Countly.CountlyMessagingProvider provider);
@@ -35,6 +37,8 @@ interface RequestQueueProvider {
 
     void sendAPMNetworkTrace(String networkTraceKey, Long responseTimeMs, int responseCode, int requestPayloadSize, int responsePayloadSize, Long startMs, Long endMs);
 
+    void sendAPMNetworkTraceSummary(String apmTraces, int traceCount);
+
     void sendAPMAppStart(long durationMs, Long startMs, Long endMs);
 
     void sendAPMScreenTime(boolean recordForegroundTime, long durationMs, Long startMs, Long endMs);
@@ -0,0 +1,28 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The stored requests at a point in time, together with their sequence ids.
+ *
+ * Every request gets an id when it is added to the queue. Ids only grow and are not reused,
+ * so a request can be removed by its id without comparing request strings.
+ * If the queue is rewritten as a whole, the requests get new ids and the old ones stop matching anything.
+ */
+class RequestQueueSnapshot {
+    static final RequestQueueSnapshot EMPTY = new RequestQueueSnapshot(new String[0], new long[0]);
+
+    @NonNull final String[] requests;
+    @NonNull final long[] ids;
+
+    RequestQueueSnapshot(@NonNull String[] requests, @NonNull long[] ids) {
+        assert requests.length == ids.length;
+
+        this.requests = requests;
+        this.ids = ids;
+    }
+
+    int size() {
+        return requests.length;
+    }
+}
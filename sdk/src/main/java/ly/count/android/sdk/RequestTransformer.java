@@ -0,0 +1,15 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Used to change the stored requests with a single pass over the request queue
+ */
+interface RequestTransformer {
+    /**
+     * @param request a stored request
+     * @return the request that should be stored instead. Return the given request to keep it or 'null' to remove it
+     */
+    @Nullable String transform(@NonNull String request);
+}
@@ -0,0 +1,214 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Decides when the request queue may be processed again after failed requests.
+ *
+ * The delay after each consecutive failure is picked at random between 0 and an exponentially growing limit ("full jitter"),
+ * so that devices don't retry in lock-step during a server outage. A "Retry-After" response header is honored.
+ * After the given amount of consecutive failures the circuit opens and only a single request is tried
+ * after each cool down period, until a request goes through again.
+ *
+ * The state is kept in the health check counter so that it is persisted together with it and survives restarts.
+ * It is only changed and saved while holding the lock of the health check counter, which also guards its own saving and clearing.
+ * The state is saved on failures and successes, deferred attempts are only counted in memory (once per backoff window).
+ * The failure, deferral and circuit open counts are sent with the health check and cleared after it.
+ */
+class RetryPolicy {
+    // "Retry-After" values above this are capped
+    static final long MAX_RETRY_AFTER_MS = 24 * 60 * 60 * 1000L;
+
+    final long baseDelayMs;
+    final long maxDelayMs;
+    final int circuitBreakerThreshold;
+    final long circuitOpenMs;
+
+    @NonNull final HealthCheckCounter state;
+    @NonNull final ModuleLog L;
+    @Nullable PerformanceCounterCollector pcc;
+    private static final int PCC_DEFERRED = PerformanceCounterCollector.sdkValueCounter("RetryPolicy_Deferred");
+    private static final int PCC_CIRCUIT_OPENED = PerformanceCounterCollector.sdkValueCounter("RetryPolicy_CircuitOpened");
+    private static final int PCC_RETRY_AFTER = PerformanceCounterCollector.sdkValueCounter("RetryPolicy_RetryAfter");
+    private static final int PCC_FAILURE = PerformanceCounterCollector.sdkValueCounter("RetryPolicy_Failure");
+
+    Random random = new Random();
+
+    // the backoff window in which a deferred attempt was last counted
+    private long deferredWindowNotBeforeMs = 0;
+
+    /**
+     * @param baseDelayMs upper limit of the delay after the first failure
+     * @param maxDelayMs the upper limit of the delay does not grow above this
+     * @param circuitBreakerThreshold after this many consecutive failures the circuit opens, 0 means it never opens
+     * @param circuitOpenMs how long the circuit stays open before a single request is tried again
+     * @param state where the retry state is kept
+     */
+    RetryPolicy(long baseDelayMs, long maxDelayMs, int circuitBreakerThreshold, long circuitOpenMs, @NonNull HealthCheckCounter state, @NonNull ModuleLog L) {
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+        this.circuitBreakerThreshold = Math.max(0, circuitBreakerThreshold);
+        this.circuitOpenMs = Math.max(0, circuitOpenMs);
+        this.state = state;
+        this.L = L;
+    }
+
+    /**
+     * @return true if the request queue can be processed at the given time
+     */
+    boolean canAttempt(long nowMs) {
+        synchronized (state) {
+            long waitMs = state.retryNotBeforeMs - nowMs;
+            if (waitMs <= 0) {
+                return true;
+            }
+
+            if (waitMs > Math.max(MAX_RETRY_AFTER_MS, Math.max(maxDelayMs, circuitOpenMs))) {
+                // the wall clock was moved back since the failure, the stored time can't be trusted
+                L.w("[RetryPolicy] canAttempt, stored retry time is too far in the future, ignoring it");
+                state.retryNotBeforeMs = 0;
+                return true;
+            }
+
+            if (deferredWindowNotBeforeMs != state.retryNotBeforeMs) {
+                // counted once per backoff window, saved with the next failure or success
+                deferredWindowNotBeforeMs = state.retryNotBeforeMs;
+                state.retryDeferredCount++;
+                if (pcc != null) {
+                    pcc.TrackCounter(PCC_DEFERRED, 1);
+                }
+            }
+            L.d("[RetryPolicy] canAttempt, waiting for [" + waitMs + "] ms, consecutive failures:[" + state.retryConsecutiveFailures + "]");
+            return false;
+        }
+    }
+
+    int getConsecutiveFailures() {
+        synchronized (state) {
+            return state.retryConsecutiveFailures;
+        }
+    }
+
+    boolean isCircuitOpen() {
+        synchronized (state) {
+            return circuitBreakerThreshold > 0 && state.retryConsecutiveFailures >= circuitBreakerThreshold;
+        }
+    }
+
+    /**
+     * Should be called when a request went through, closes the circuit
+     */
+    void onSuccess() {
+        synchronized (state) {
+            if (state.retryConsecutiveFailures == 0 && state.retryNotBeforeMs == 0) {
+                return;
+            }
+
+            L.d("[RetryPolicy] onSuccess, request went through after [" + state.retryConsecutiveFailures + "] failures");
+            state.retryConsecutiveFailures = 0;
+            state.retryNotBeforeMs = 0;
+            state.saveState();
+        }
+    }
+
+    /**
+     * Should be called when a request failed
+     *
+     * @param retryAfterMs the delay the server asked for, 0 if it did not
+     * @param nowMs current timestamp
+     * @return the delay until the next attempt
+     */
+    long onFailure(long retryAfterMs, long nowMs) {
+        synchronized (state) {
+            state.retryConsecutiveFailures++;
+            state.retryFailureCount++;
+
+            long delayMs;
+            if (isCircuitOpen()) {
+                if (state.retryConsecutiveFailures == circuitBreakerThreshold) {
+                    state.retryCircuitOpenCount++;
+                    if (pcc != null) {
+                        pcc.TrackCounter(PCC_CIRCUIT_OPENED, 1);
+                    }
+                    L.w("[RetryPolicy] onFailure, [" + circuitBreakerThreshold + "] consecutive failures, opening the circuit");
+                }
+                // spread the probes of different devices over the second half of the open period
+                delayMs = circuitOpenMs - randomUpTo(circuitOpenMs / 2);
+            } else {
+                delayMs = randomUpTo(delayLimit(state.retryConsecutiveFailures));
+            }
+
+            if (retryAfterMs > 0) {
+                delayMs = Math.max(delayMs, Math.min(retryAfterMs, MAX_RETRY_AFTER_MS));
+                if (pcc != null) {
+                    pcc.TrackCounter(PCC_RETRY_AFTER, 1);
+                }
+            }
+
+            if (pcc != null) {
+                pcc.TrackCounter(PCC_FAILURE, 1);
+            }
+
+            state.retryNotBeforeMs = nowMs + delayMs;
+            state.saveState();
+
+            L.d("[RetryPolicy] onFailure, consecutive failures:[" + state.retryConsecutiveFailures + "], next attempt in:[" + delayMs + "] ms");
+            return delayMs;
+        }
+    }
+
+    /**
+     * Upper limit of the delay after the given amount of consecutive failures
+     */
+    long delayLimit(int consecutiveFailures) {
+        long limit = baseDelayMs;
+        for (int a = 1; a < consecutiveFailures && limit < maxDelayMs; a++) {
+            limit *= 2;
+        }
+        return Math.min(limit, maxDelayMs);
+    }
+
+    private long randomUpTo(long limit) {
+        if (limit <= 0) {
+            return 0;
+        }
+        return (long) (random.nextDouble() * (limit + 1));
+    }
+
+    /**
+     * Parses the value of a "Retry-After" header, which can either be an amount of seconds or a HTTP date
+     *
+     * @return the delay in milliseconds, 0 if there is no valid value
+     */
+    static long parseRetryAfterMs(@Nullable String value, long nowMs) {
+        if (value == null) {
+            return 0;
+        }
+
+        value = value.trim();
+        if (value.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            return Math.max(0, Math.min(Long.parseLong(value), MAX_RETRY_AFTER_MS / 1000) * 1000);
+        } catch (NumberFormatException ignored) {
+            // not an amount of seconds, try it as a date
+        }
+
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            Date date = format.parse(value);
+            return date == null ? 0 : Math.max(0, date.getTime() - nowMs);
+        } catch (Exception ignored) {
+            return 0;
+        }
+    }
+}
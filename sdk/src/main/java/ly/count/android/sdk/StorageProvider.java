@@ -9,6 +9,14 @@ import java.util.Map;
 interface StorageProvider {
     String[] getRequests();
 
+    @NonNull RequestQueueSnapshot getRequestQueueSnapshot();
+
+    @NonNull RequestQueueCursor getRequestQueueCursor();
+
+    @Nullable String peekFirstRequest();
+
+    int transformRequests(@NonNull RequestTransformer transformer);
+
     String[] getEvents();
 
     List<Event> getEventList();
@@ -19,6 +27,14 @@ interface StorageProvider {
 
     void removeRequest(final String requestStr);
 
+    void removeRequests(final List<String> requestsToRemove);
+
+    boolean removeRequestById(long requestId);
+
+    int removeRequestsById(@NonNull long[] requestIds);
+
+    boolean removeFirstRequest();
+
     void replaceRequests(final String[] newConns);
 
     void replaceRequestList(final List<String> newConns);
@@ -27,6 +43,8 @@ interface StorageProvider {
 
     int getEventQueueSize();
 
+    int getEventQueueByteSize();
+
     String getEventsForRequestAndEmptyEventQueue();
 
     @Nullable String getDeviceID();
@@ -49,8 +67,14 @@ interface StorageProvider {
 
     String getRemoteConfigValues();//not integrated
 
+    void setRemoteConfigETag(@Nullable String eTag);
+
+    @Nullable String getRemoteConfigETag();
+
     void esWriteCacheToStorage(@Nullable ExplicitStorageCallback callback);//required for explicit storage
 
+    void flushWriteBehindCache();//required for write-behind mode
+
     void setServerConfig(String config);
 
     String getServerConfig();
@@ -0,0 +1,124 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Turns request URLs into network trace keys with a bounded number of different values.
+ *
+ * The key is the host and the path of the URL, the query and fragment are dropped.
+ * If the path matches one of the provided templates, the template is used as path. In templates a "{name}" segment
+ * matches any single path segment and a trailing "*" segment matches the rest of the path.
+ * Otherwise path segments that look like identifiers (numbers, UUIDs, long hex or random strings) are replaced with placeholders.
+ * After the maximum number of different keys is reached, new keys are replaced with the host and {@link #OTHER}.
+ */
+class UrlTemplateNormalizer {
+    static final String ID = ":id";
+    static final String UUID = ":uuid";
+    static final String HASH = ":hash";
+    static final String OTHER = "/:other";
+
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+");
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    // long segments mixing letters and digits are usually tokens or hashes
+    private static final Pattern HASH_PATTERN = Pattern.compile("(?=[A-Za-z0-9_\\-]*\\d)[A-Za-z0-9_\\-]{16,}");
+
+    private final List<String> templates = new ArrayList<>();
+    private final List<String[]> templateSegments = new ArrayList<>();
+    private final int maxKeys;
+    private final Set<String> knownKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * @param urlTemplates path templates like "/users/{id}/posts", can be null
+     * @param maxKeys how many different keys can be returned
+     */
+    UrlTemplateNormalizer(@Nullable String[] urlTemplates, int maxKeys) {
+        this.maxKeys = maxKeys;
+
+        if (urlTemplates != null) {
+            for (String template : urlTemplates) {
+                if (template == null || template.isEmpty()) {
+                    continue;
+                }
+                String path = template.startsWith("/") ? template : "/" + template;
+                templates.add(path);
+                templateSegments.add(splitPath(path));
+            }
+        }
+    }
+
+    private static String[] splitPath(@NonNull String path) {
+        String trimmed = path.startsWith("/") ? path.substring(1) : path;
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("/", -1);
+    }
+
+    @NonNull String normalize(@NonNull URL url) {
+        String host = url.getHost() == null ? "" : url.getHost();
+        String key = host + normalizePath(url.getPath());
+
+        if (knownKeys.contains(key)) {
+            return key;
+        }
+        if (knownKeys.size() >= maxKeys) {
+            return host + OTHER;
+        }
+        knownKeys.add(key);
+        return key;
+    }
+
+    @NonNull String normalizePath(@Nullable String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+
+        String[] segments = splitPath(path);
+        for (int a = 0; a < templateSegments.size(); a++) {
+            if (matches(templateSegments.get(a), segments)) {
+                return templates.get(a);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(path.length());
+        for (String segment : segments) {
+            sb.append('/').append(normalizeSegment(segment));
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    static boolean matches(@NonNull String[] template, @NonNull String[] segments) {
+        for (int a = 0; a < template.length; a++) {
+            String t = template[a];
+            if ("*".equals(t) && a == template.length - 1) {
+                return true;
+            }
+            if (a >= segments.length) {
+                return false;
+            }
+            boolean isVariable = t.length() > 2 && t.charAt(0) == '{' && t.charAt(t.length() - 1) == '}';
+            if (!isVariable && !t.equals(segments[a])) {
+                return false;
+            }
+        }
+        return template.length == segments.length;
+    }
+
+    static @NonNull String normalizeSegment(@NonNull String segment) {
+        if (NUMBER.matcher(segment).matches()) {
+            return ID;
+        }
+        if (UUID_PATTERN.matcher(segment).matches()) {
+            return UUID;
+        }
+        if (HASH_PATTERN.matcher(segment).matches()) {
+            return HASH;
+        }
+        return segment;
+    }
+}
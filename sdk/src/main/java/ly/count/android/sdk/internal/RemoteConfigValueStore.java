@@ -2,6 +2,7 @@ package ly.count.android.sdk.internal;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -87,6 +88,12 @@ public class RemoteConfigValueStore {
         Countly.sharedInstance().L.v("[RemoteConfigValueStore] merging done:" + values.toString());
     }
 
+    public void removeValues(@NonNull Collection<String> keys) {
+        for (String key : keys) {
+            values.remove(key);
+        }
+    }
+
     //========================================
     // CONSTRUCTION
     //========================================